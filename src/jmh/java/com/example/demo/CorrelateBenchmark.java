@@ -0,0 +1,73 @@
+package com.example.demo;
+
+import com.example.demo.model.LogEntry;
+import com.example.demo.store.PendingStore;
+import com.example.demo.store.PendingStores;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * STARTED/FINISHED pairing, the work of addToStore minus the save, with a fixed number of ids waiting for a partner.
+ * One operation finishes the oldest open id and starts it again, so the store holds openIds entries throughout.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+public class CorrelateBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    int openIds;
+
+    @Param({PendingStores.MEMORY, PendingStores.COMPACT})
+    String store;
+
+    private EventCorrelator correlator;
+    private LogEntry[] started;
+    private LogEntry[] finished;
+    private int next;
+
+    @Setup
+    public void setup() {
+        PendingStore pending = PendingStores.factory(store, Long.MAX_VALUE, null).get();
+        correlator = new EventCorrelator(pending);
+        started = new LogEntry[openIds];
+        finished = new LogEntry[openIds];
+        for (int i = 0; i < openIds; i++) {
+            String id = Long.toString(0x10000000L + i * 7919L, 36);
+            started[i] = LogEntry.builder().id(id).state(LogEntry.State.STARTED).timestamp(1491377495212L + i)
+                    .type("APPLICATION_LOG").host(Integer.toString(12345 + i % 50)).build();
+            finished[i] = LogEntry.builder().id(id).state(LogEntry.State.FINISHED).timestamp(1491377495217L + i)
+                    .type("APPLICATION_LOG").host(Integer.toString(12345 + i % 50)).build();
+            correlator.correlate(started[i]);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        correlator.getStore().close();
+    }
+
+    @Benchmark
+    public LogEntry pair() {
+        int i = next;
+        next = i + 1 == openIds ? 0 : i + 1;
+        LogEntry completed = correlator.correlate(finished[i]);
+        correlator.correlate(started[i]);
+        return completed;
+    }
+}
@@ -0,0 +1,165 @@
+package com.example.demo;
+
+import com.example.demo.parse.BlockGzipOutputStream;
+import lombok.Builder;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Writes synthetic log files in the same format as the real input, for benchmarks and load tests.
+ * Events are written until the output reaches size bytes, after which the ids still open are finished.
+ * cardinality is the number of ids open (STARTED written but not FINISHED) at any time once the file is under way,
+ * outOfOrder the fraction of pairs written FINISHED first and duplicates the fraction of records written twice.
+ * Durations are 1 to 8ms, so roughly half the pairs raise an alert. The same seed always gives the same file.
+ */
+@Builder
+public class LogFileGenerator {
+
+    private static final long START_TIMESTAMP = 1491377495212L;
+    private static final int HOSTS = 50;
+
+    @Builder.Default
+    private final long size = 1024 * 1024;
+    @Builder.Default
+    private final int cardinality = 1000;
+    @Builder.Default
+    private final double outOfOrder = 0.1;
+    @Builder.Default
+    private final double duplicates = 0.0;
+    @Builder.Default
+    private final long seed = 42;
+
+    /**
+     * Writes the events to out, which is not closed
+     * @param out
+     * @return number of records written
+     * @throws IOException
+     */
+    public long write(OutputStream out) throws IOException {
+        if (cardinality < 1) {
+            throw new IllegalArgumentException("cardinality must be positive: " + cardinality);
+        }
+        Random random = new Random(seed);
+        // The record still to be written for each open pair
+        byte[][] open = new byte[cardinality][];
+        int openCount = 0;
+        long written = 0;
+        long records = 0;
+        long next = 0;
+        long clock = START_TIMESTAMP;
+        while (written < size || openCount > 0) {
+            byte[] record;
+            if (written < size && openCount < cardinality && (openCount == 0 || random.nextBoolean())) {
+                String id = id(next++);
+                long duration = 1 + random.nextInt(8);
+                // A quarter of the pairs carry no type and host, as in the sample files
+                String host = random.nextInt(4) == 0 ? null : Integer.toString(12345 + random.nextInt(HOSTS));
+                byte[] started = record(id, "STARTED", clock, host);
+                byte[] finished = record(id, "FINISHED", clock + duration, host);
+                boolean reversed = random.nextDouble() < outOfOrder;
+                record = reversed ? finished : started;
+                open[openCount++] = reversed ? started : finished;
+            } else {
+                int slot = random.nextInt(openCount);
+                record = open[slot];
+                open[slot] = open[--openCount];
+                open[openCount] = null;
+            }
+            clock++;
+            out.write(record);
+            written += record.length;
+            records++;
+            if (duplicates > 0 && random.nextDouble() < duplicates) {
+                out.write(record);
+                written += record.length;
+                records++;
+            }
+        }
+        return records;
+    }
+
+    /**
+     * @return the generated file content
+     * @throws IOException
+     */
+    public byte[] toBytes() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.min(Integer.MAX_VALUE - 8, size + 1024));
+        write(out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Writes the events to file, block gzip compressed if the name ends in .gz
+     * @param file
+     * @return number of records written
+     * @throws IOException
+     */
+    public long write(File file) throws IOException {
+        OutputStream fileOut = new FileOutputStream(file);
+        if (file.getName().endsWith(".gz"))
+            fileOut = new BlockGzipOutputStream(fileOut);
+        try (OutputStream out = new BufferedOutputStream(fileOut, 64 * 1024)) {
+            return write(out);
+        }
+    }
+
+    /**
+     * Unique ten character ids, spread so that consecutive ids do not share a prefix
+     */
+    private static String id(long n) {
+        // Multiplying by an odd constant is a bijection modulo 2^50, and 36^10 > 2^50
+        String s = Long.toString((n * 0x9E3779B97F4A7C15L) & ((1L << 50) - 1), 36);
+        StringBuilder sb = new StringBuilder(10);
+        for (int i = s.length(); i < 10; i++)
+            sb.append('0');
+        return sb.append(s).toString();
+    }
+
+    private static byte[] record(String id, String state, long timestamp, String host) {
+        StringBuilder sb = new StringBuilder(128);
+        sb.append("{\"id\":\"").append(id).append("\", \"state\":\"").append(state).append('"');
+        if (host != null) {
+            sb.append(", \"type\":\"APPLICATION_LOG\",\n  \"host\":\"").append(host).append('"');
+        }
+        sb.append(", \"timestamp\":").append(timestamp).append("}\n");
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Command line entry point
+     * @param args file [size, e.g. 512m] [cardinality] [out of order ratio] [duplicate rate]
+     * @throws IOException
+     */
+    public static void main(String... args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage LogFileGenerator <filename> [size[k|m|g]] [cardinality] [outOfOrder] [duplicates]");
+            System.exit(1);
+        }
+        LogFileGeneratorBuilder builder = LogFileGenerator.builder();
+        if (args.length > 1)
+            builder.size(parseSize(args[1]));
+        if (args.length > 2)
+            builder.cardinality(Integer.parseInt(args[2]));
+        if (args.length > 3)
+            builder.outOfOrder(Double.parseDouble(args[3]));
+        if (args.length > 4)
+            builder.duplicates(Double.parseDouble(args[4]));
+        File file = new File(args[0]);
+        long records = builder.build().write(file);
+        System.out.println("Wrote " + records + " records, " + file.length() + " bytes to " + file);
+    }
+
+    static long parseSize(String s) {
+        String lower = s.trim().toLowerCase();
+        char unit = lower.charAt(lower.length() - 1);
+        int shift = unit == 'k' ? 10 : unit == 'm' ? 20 : unit == 'g' ? 30 : 0;
+        return Long.parseLong(shift == 0 ? lower : lower.substring(0, lower.length() - 1)) << shift;
+    }
+}
@@ -0,0 +1,321 @@
+package com.example.demo;
+
+import com.example.demo.columnar.ColumnarWriter;
+import com.example.demo.model.LogEntry;
+import com.example.demo.pipeline.VirtualThreadWriter;
+import com.example.demo.repository.LogEntryRepoIF;
+import com.example.demo.repository.LogEntryStreamingImpl;
+import com.example.demo.sink.DataSources;
+import com.example.demo.sink.JdbcBatchWriter;
+import com.example.demo.sink.JdbcWriterPool;
+import com.example.demo.sink.JpaBulkWriter;
+import com.zaxxer.hikari.HikariDataSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.jpa.repository.support.JpaRepositoryFactory;
+import org.springframework.data.repository.core.support.RepositoryComposition.RepositoryFragments;
+import org.springframework.orm.jpa.JpaTransactionManager;
+import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
+import org.springframework.orm.jpa.SharedEntityManagerCreator;
+import org.springframework.orm.jpa.vendor.HibernateJpaVendorAdapter;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rows per second written to an in memory HSQLDB by the original one statement per row JDBC insert, prepared and
+ * executed for each row on its own auto-commit connection as the first save() did, the batched
+ * JdbcBatchWriter, JPA repo.save with each save in its own transaction as in JacksonJpaProcessor, and the chunked
+ * JpaBulkWriter used when jpa.bulk.size is set, in upsert mode so fresh ids are persisted without a merge each.
+ * JdbcWriterPool spreads the batched inserts over 1, 2 or 4 writer threads on pooled connections, as
+ * PlainJacksonJdbcProcessor does with jdbc.writers. ColumnarWriter is the file sink
+ * selected by sink.type=columnar. jpaSaveConcurrent runs the same saves as jpaSave through a VirtualThreadWriter, as
+ * with pipeline.virtual.threads, on virtual threads when run on JDK 21 and platform threads before; the save latency
+ * percentiles it measured are printed after each iteration.
+ * Each operation writes one completed entry with a new id. Tables are emptied before each iteration.
+ * JPA runs on a pooled DataSource as configured in SpringBootProcessor.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PersistBenchmark {
+
+    private static final String URL = "jdbc:hsqldb:mem:";
+    private static final String USER = "sa";
+
+    /**
+     * Hands out completed entries with unique ids
+     */
+    @State(Scope.Thread)
+    public static class Entries {
+        private final LogEntry entry = LogEntry.builder().state(LogEntry.State.FINISHED)
+                .type("APPLICATION_LOG").host("12345").build();
+        private long next;
+
+        LogEntry next() {
+            entry.setId(Long.toString(next++, 36));
+            entry.setDuration(next % 8);
+            return entry;
+        }
+
+        /**
+         * @return a new entry, as JPA keeps hold of what it persists
+         */
+        LogEntry fresh() {
+            LogEntry fresh = LogEntry.builder().id(Long.toString(next++, 36)).state(LogEntry.State.FINISHED)
+                    .type("APPLICATION_LOG").host("12345").build();
+            fresh.setDuration(next % 8);
+            return fresh;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Single {
+        Connection connection;
+
+        @Setup(Level.Trial)
+        public void open() throws SQLException {
+            connection = DriverManager.getConnection(URL + "single", USER, "");
+            try (Statement s = connection.createStatement()) {
+                s.execute(PlainJacksonJdbcProcessor.CREATE_SQL);
+            }
+        }
+
+        @Setup(Level.Iteration)
+        public void prepare() throws SQLException {
+            try (Statement s = connection.createStatement()) {
+                s.execute("TRUNCATE TABLE LOGENTRY");
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws SQLException {
+            try (Statement s = connection.createStatement()) {
+                s.execute("SHUTDOWN");
+            }
+            connection.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Jdbc {
+        Connection connection;
+        JdbcBatchWriter batched;
+
+        @Setup(Level.Trial)
+        public void open() throws SQLException {
+            connection = DriverManager.getConnection(URL + "jdbc", USER, "");
+            try (Statement s = connection.createStatement()) {
+                s.execute(PlainJacksonJdbcProcessor.CREATE_SQL);
+            }
+        }
+
+        @Setup(Level.Iteration)
+        public void prepare() throws SQLException {
+            try (Statement s = connection.createStatement()) {
+                s.execute("TRUNCATE TABLE LOGENTRY");
+            }
+            batched = new JdbcBatchWriter(connection, PlainJacksonJdbcProcessor.SQL, 1000, 1000);
+        }
+
+        @TearDown(Level.Iteration)
+        public void flush() throws SQLException {
+            batched.close();
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws SQLException {
+            try (Statement s = connection.createStatement()) {
+                s.execute("SHUTDOWN");
+            }
+            connection.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Pool {
+        @Param({"1", "2", "4"})
+        int writers;
+        HikariDataSource dataSource;
+        JdbcWriterPool pool;
+
+        @Setup(Level.Trial)
+        public void open() throws SQLException {
+            dataSource = DataSources.pooled(URL + "pool", USER, "", writers + 1);
+            try (Connection c = dataSource.getConnection(); Statement s = c.createStatement()) {
+                s.execute(PlainJacksonJdbcProcessor.CREATE_SQL);
+            }
+        }
+
+        @Setup(Level.Iteration)
+        public void prepare() throws SQLException {
+            try (Connection c = dataSource.getConnection(); Statement s = c.createStatement()) {
+                s.execute("TRUNCATE TABLE LOGENTRY");
+            }
+            pool = new JdbcWriterPool(dataSource, PlainJacksonJdbcProcessor.SQL, writers, 10000, 1000, 1000);
+        }
+
+        @TearDown(Level.Iteration)
+        public void flush() throws SQLException {
+            pool.close();
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws SQLException {
+            try (Connection c = dataSource.getConnection(); Statement s = c.createStatement()) {
+                s.execute("SHUTDOWN");
+            }
+            dataSource.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Columnar {
+        File file;
+        ColumnarWriter writer;
+
+        @Setup(Level.Iteration)
+        public void open() throws IOException {
+            file = File.createTempFile("persist", ".col");
+            writer = new ColumnarWriter(file);
+        }
+
+        @TearDown(Level.Iteration)
+        public void close() throws IOException {
+            writer.close();
+            file.delete();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Jpa {
+        private static final int CHUNK = 1000;
+        private static final int POOL = 4;
+
+        HikariDataSource dataSource;
+        EntityManagerFactory emf;
+        EntityManager em;
+        TransactionTemplate transaction;
+        LogEntryRepoIF repo;
+        JpaBulkWriter bulk;
+        VirtualThreadWriter concurrent;
+
+        @Setup(Level.Trial)
+        public void open() {
+            dataSource = DataSources.pooled(URL + "jpa", USER, "", POOL);
+            Properties properties = new Properties();
+            properties.setProperty("hibernate.hbm2ddl.auto", "create");
+            properties.setProperty("hibernate.dialect", "org.hibernate.dialect.HSQLDialect");
+            // As set by SpringBootProcessor when jpa.bulk.size is set
+            properties.setProperty("hibernate.jdbc.batch_size", String.valueOf(CHUNK));
+            properties.setProperty("hibernate.order_inserts", "true");
+            properties.setProperty("hibernate.jdbc.batch_versioned_data", "true");
+            LocalContainerEntityManagerFactoryBean factory = new LocalContainerEntityManagerFactoryBean();
+            factory.setDataSource(dataSource);
+            factory.setPackagesToScan("com.example.demo.model");
+            factory.setJpaVendorAdapter(new HibernateJpaVendorAdapter());
+            factory.setJpaProperties(properties);
+            factory.afterPropertiesSet();
+            emf = factory.getObject();
+            em = SharedEntityManagerCreator.createSharedEntityManager(emf);
+            transaction = new TransactionTemplate(new JpaTransactionManager(emf));
+            repo = new JpaRepositoryFactory(em).getRepository(LogEntryRepoIF.class,
+                    RepositoryFragments.just(new LogEntryStreamingImpl(em)));
+        }
+
+        @Setup(Level.Iteration)
+        public void prepare() {
+            transaction.execute(status -> em.createQuery("delete from LogEntry").executeUpdate());
+            bulk = new JpaBulkWriter(repo, transaction, em, CHUNK, true);
+            concurrent = new VirtualThreadWriter(entry -> transaction.execute(status -> repo.save(entry)), POOL);
+        }
+
+        @TearDown(Level.Iteration)
+        public void flush() throws IOException {
+            bulk.close();
+            concurrent.close();
+            if (concurrent.latency().getCount() > 0)
+                System.out.println("Save latency (micros) on " + (concurrent.isVirtual() ? "virtual" : "platform")
+                        + " threads: " + concurrent.latency());
+        }
+
+        @TearDown(Level.Trial)
+        public void close() {
+            emf.close();
+            dataSource.close();
+        }
+    }
+
+    @Benchmark
+    public int jdbcSingleInsert(Single single, Entries entries) throws SQLException {
+        LogEntry entry = entries.next();
+        // Closed each time, which the original save() left to the garbage collector
+        try (PreparedStatement ps = single.connection.prepareStatement(PlainJacksonJdbcProcessor.SQL)) {
+            ps.setString(1, entry.getId());
+            ps.setString(2, entry.getType());
+            ps.setString(3, entry.getHost());
+            ps.setBoolean(4, entry.isAlert());
+            ps.setLong(5, entry.getDuration());
+            ps.setObject(6, entry.getStartTime(), Types.BIGINT);
+            ps.setObject(7, entry.getEndTime(), Types.BIGINT);
+            return ps.executeUpdate();
+        }
+    }
+
+    @Benchmark
+    public void jdbcBatchedInsert(Jdbc jdbc, Entries entries) throws SQLException {
+        jdbc.batched.write(entries.next());
+    }
+
+    @Benchmark
+    public void jdbcWriterPool(Pool pool, Entries entries) throws SQLException {
+        // Entries are queued, so each needs its own instance
+        pool.pool.write(entries.fresh());
+    }
+
+    @Benchmark
+    public void columnarWrite(Columnar columnar, Entries entries) throws IOException {
+        columnar.writer.write(entries.next());
+    }
+
+    @Benchmark
+    public LogEntry jpaSave(Jpa jpa, Entries entries) {
+        // Same unit of work as a save through the transactional repository proxy
+        LogEntry entry = entries.fresh();
+        return jpa.transaction.execute(status -> jpa.repo.save(entry));
+    }
+
+    @Benchmark
+    public void jpaSaveConcurrent(Jpa jpa, Entries entries) throws IOException {
+        jpa.concurrent.write(entries.fresh());
+    }
+
+    @Benchmark
+    public void jpaBulkSave(Jpa jpa, Entries entries) {
+        jpa.bulk.write(entries.fresh());
+    }
+}
@@ -0,0 +1,76 @@
+package com.example.demo.parse;
+
+import com.example.demo.LogConverter;
+import com.example.demo.LogFileGenerator;
+import com.example.demo.model.LogEntry;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Databind against streaming decode of one LogEntry per operation, over a generated file held in memory, re-encoded
+ * as JSON, Smile or CBOR. The size of each encoding is printed at setup.
+ * The parser is restarted at the end of the data, which is amortised over tens of thousands of records.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DecodeBenchmark {
+
+    @Param({LogEntryReader.DATABIND, LogEntryReader.STREAMING})
+    String mode;
+
+    @Param({"json", "smile", "cbor"})
+    String format;
+
+    private InputFormat inputFormat;
+    private byte[] data;
+    private LogEntryReader reader;
+    private JsonParser jp;
+
+    @Setup
+    public void setup() throws IOException {
+        byte[] json = LogFileGenerator.builder().size(8 * 1024 * 1024).build().toBytes();
+        inputFormat = InputFormat.of(format);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(json.length);
+        LogConverter.convert(new ByteArrayInputStream(json), InputFormat.JSON, out, inputFormat);
+        data = out.toByteArray();
+        System.out.println(format + ": " + data.length + " bytes, " + (100 * data.length / json.length) + "% of JSON");
+        reader = LogEntryReader.factory(mode).get();
+        jp = inputFormat.createParser(new ByteArrayInputStream(data));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        jp.close();
+    }
+
+    @Benchmark
+    public LogEntry decode() throws IOException {
+        if (jp.nextToken() != JsonToken.START_OBJECT) {
+            jp.close();
+            jp = inputFormat.createParser(new ByteArrayInputStream(data));
+            jp.nextToken();
+        }
+        return reader.read(jp);
+    }
+}
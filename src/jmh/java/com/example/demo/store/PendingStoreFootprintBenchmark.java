@@ -0,0 +1,42 @@
+package com.example.demo.store;
+
+import com.example.demo.model.LogEntry;
+
+import java.util.function.Supplier;
+
+/**
+ * Measures retained heap per pending entry for each PendingStore.
+ * Retained heap does not fit a JMH measurement, so this is a plain main method. Run it with a large heap, e.g. -Xmx2g,
+ * optionally passing the number of entries.
+ */
+public class PendingStoreFootprintBenchmark {
+
+    private static long usedHeap() {
+        for (int i = 0; i < 5; i++)
+            System.gc();
+        Runtime r = Runtime.getRuntime();
+        return r.totalMemory() - r.freeMemory();
+    }
+
+    private static void measure(String name, Supplier<PendingStore> factory, int n) {
+        long before = usedHeap();
+        long start = System.nanoTime();
+        PendingStore store = factory.get();
+        for (int i = 0; i < n; i++) {
+            String id = Long.toString(0x10000000L + i * 7919L, 36);
+            store.put(id, LogEntry.builder().id(id).state(LogEntry.State.STARTED).timestamp(1491377495212L + i)
+                    .type("APPLICATION_LOG").host("host" + i % 100).build());
+        }
+        long elapsed = System.nanoTime() - start;
+        long after = usedHeap();
+        System.out.println(String.format("%-8s %,d entries  %d bytes/entry  %d ns/put",
+                name, store.size(), (after - before) / n, elapsed / n));
+        store.close();
+    }
+
+    public static void main(String... args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        measure("memory", MemoryPendingStore::new, n);
+        measure("compact", CompactPendingStore::new, n);
+    }
+}
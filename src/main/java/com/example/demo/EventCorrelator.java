@@ -0,0 +1,227 @@
+package com.example.demo;
+
+import com.example.demo.model.LogEntry;
+import com.example.demo.store.CompletedIdFilter;
+import com.example.demo.store.MemoryPendingStore;
+import com.example.demo.store.PendingStore;
+import com.example.demo.stats.IngestMetrics;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.StringJoiner;
+
+/**
+ * Pairs STARTED and FINISHED LogEntries by id. Shared by both processors and by each worker of the ParallelPipeline.
+ * If an id has not been encountered before the entry is held in the pending store (a HashMap unless another PendingStore is given).
+ * When the partner arrives the entry is removed from the store and returned with its duration, start and end time set.
+ * Duplicate ids with the same state are ignored.
+ * With a timeout the correlator also tracks event time: the watermark is the highest timestamp seen so far, and an
+ * entry still pending more than timeoutMs behind it is evicted from the store and queued as a timeout record, with
+ * alert set and its duration the time it was open, to be taken with pollTimedOut(). Pending entries are found in
+ * timestamp order through a priority queue of deadlines, so the store holds at most one timeout window of entries
+ * whatever the length of the input. A partner turning up within a further window of its entry timing out is ignored.
+ * With a CompletedIdFilter the ids of completed and timed out entries are remembered once they leave the store, and a
+ * later event with one of them is ignored as a duplicate rather than held as a new pending entry that never completes.
+ * Completed pairs, ignored records and timeouts are counted in the IngestMetrics, if set.
+ * Not thread safe, each thread should own its own EventCorrelator.
+ */
+@Slf4j
+public class EventCorrelator {
+
+    /** Orphan ids named by reportOrphans() unless debug is enabled */
+    static final int ORPHAN_SAMPLE = 10;
+
+    @Getter
+    private final PendingStore store;
+    @Getter
+    private final long timeoutMs;
+    private final PriorityQueue<Deadline> deadlines = new PriorityQueue<>();
+    private final ArrayDeque<LogEntry> timedOut = new ArrayDeque<>();
+    /** Ids timed out recently, in eviction order, with the watermark they were evicted at */
+    private final LinkedHashMap<String, Long> recentlyTimedOut = new LinkedHashMap<>();
+    @Getter
+    private long watermark = Long.MIN_VALUE;
+    @Getter
+    private long timeouts;
+    @Setter
+    private IngestMetrics metrics;
+    /** Ids already written, may be shared with other correlators, if set */
+    @Setter
+    private CompletedIdFilter completedIds;
+
+    public EventCorrelator() {
+        this(new MemoryPendingStore());
+    }
+
+    public EventCorrelator(PendingStore store) {
+        this(store, 0);
+    }
+
+    /**
+     * @param store
+     * @param timeoutMs event time an entry may wait for its partner before it times out, 0 to wait forever
+     */
+    public EventCorrelator(PendingStore store, long timeoutMs) {
+        if (timeoutMs < 0) {
+            throw new IllegalArgumentException("timeoutMs must not be negative: " + timeoutMs);
+        }
+        this.store = store;
+        this.timeoutMs = timeoutMs;
+    }
+
+    /**
+     * Checks the LogEntry against the pending store.
+     * @param entry
+     * @return the completed entry, with duration and alert set, or null if the entry is pending or a duplicate
+     */
+    public LogEntry correlate(LogEntry entry) {
+        LogEntry storeEntry = store.get(entry.getId());
+        if(storeEntry==null){
+            if (timeoutMs > 0 && recentlyTimedOut.remove(entry.getId()) != null) {
+                log.warn("ID: " + entry.getId() + " arrived in state " + entry.getState() + " after its partner timed out. We will ignore this record.");
+                if (metrics != null)
+                    metrics.latePartnerIgnored();
+                advance(entry.getTimestamp());
+                return null;
+            }
+            if (completedIds != null && completedIds.isCompleted(entry.getId())) {
+                log.warn("ID: " + entry.getId() + " arrived in state " + entry.getState() + " after it was completed. We will ignore this record.");
+                if (metrics != null)
+                    metrics.duplicateIgnored();
+                advance(entry.getTimestamp());
+                return null;
+            }
+            // Id not in Store. Add
+            if(log.isDebugEnabled())
+                log.debug("ID: "+entry.getId()+" added to mem store.");
+            add(entry);
+            advance(entry.getTimestamp());
+            return null;
+        }
+        LogEntry.State existingState = storeEntry.getState();
+        // Expect new State to be different
+        if (entry.getState() == existingState) {
+            log.warn("ID: " + entry.getId() + "  has multiple entries with"+existingState+". We will ignore this record.");
+            if (metrics != null)
+                metrics.duplicateIgnored();
+            advance(entry.getTimestamp());
+            return null; // Ignore duplicate  entry
+        }
+        entry.setDuration(Math.abs(entry.getTimestamp() - storeEntry.getTimestamp()));
+        LogEntry started = existingState == LogEntry.State.STARTED ? storeEntry : entry;
+        LogEntry finished = started == entry ? storeEntry : entry;
+        entry.setStartTime(started.getTimestamp());
+        entry.setEndTime(finished.getTimestamp());
+        if(log.isDebugEnabled()) {
+            log.debug("ID: " + entry.getId() + " writing to DB with duration " + entry.getDuration());
+        }
+        // Clean up memory store as the completed entry is handed on for saving
+        store.remove(entry.getId());
+        if (completedIds != null)
+            completedIds.add(entry.getId());
+        if (metrics != null)
+            metrics.pairCompleted();
+        advance(entry.getTimestamp());
+        return entry;
+    }
+
+    /**
+     * Puts an entry into the pending store without correlating it, e.g. when restoring a checkpoint, tracking its
+     * deadline if there is a timeout
+     * @param entry
+     */
+    public void add(LogEntry entry) {
+        store.put(entry.getId(), entry);
+        if (timeoutMs > 0)
+            deadlines.add(new Deadline(entry.getId(), entry.getTimestamp()));
+    }
+
+    /**
+     * @return the next entry evicted for waiting longer than the timeout, or null if there is none
+     */
+    public LogEntry pollTimedOut() {
+        return timedOut.poll();
+    }
+
+    /**
+     * Logs the number of entries that never found their partner, with the ids of the first ORPHAN_SAMPLE, or every
+     * orphan at debug. Called once the input is exhausted.
+     * @return number of orphans
+     */
+    public int reportOrphans() {
+        int orphans = store.size();
+        if (orphans > 0) {
+            if (log.isDebugEnabled()) {
+                log.warn(orphans + " entries never matched a partner");
+                for (LogEntry entry : store.values())
+                    log.debug("ID: " + entry.getId() + " orphaned in state " + entry.getState() + " at " + entry.getTimestamp());
+            } else {
+                StringJoiner sample = new StringJoiner(", ");
+                Iterator<LogEntry> it = store.values().iterator();
+                for (int i = 0; i < ORPHAN_SAMPLE && it.hasNext(); i++)
+                    sample.add(it.next().getId());
+                log.warn(orphans + " entries never matched a partner, e.g. " + sample + (orphans > ORPHAN_SAMPLE ? ", ..." : ""));
+            }
+        }
+        if (timeouts > 0)
+            log.warn(timeouts + " entries timed out after " + timeoutMs + " ms");
+        return orphans;
+    }
+
+    /**
+     * Moves the watermark up to the timestamp and evicts the entries it leaves more than timeoutMs behind
+     */
+    private void advance(long timestamp) {
+        if (timeoutMs == 0 || timestamp <= watermark)
+            return;
+        watermark = timestamp;
+        long cutoff = watermark - timeoutMs;
+        for (Deadline d = deadlines.peek(); d != null && d.timestamp < cutoff; d = deadlines.peek()) {
+            deadlines.poll();
+            LogEntry pending = store.get(d.id);
+            // Entries completed since, or replaced by a later one with the same id, leave a stale deadline
+            if (pending == null || pending.getTimestamp() != d.timestamp)
+                continue;
+            store.remove(d.id);
+            pending.setDuration(watermark - d.timestamp);
+            pending.setAlert(true);
+            if (pending.getState() == LogEntry.State.STARTED)
+                pending.setStartTime(d.timestamp);
+            else
+                pending.setEndTime(d.timestamp);
+            timedOut.add(pending);
+            recentlyTimedOut.put(d.id, watermark);
+            if (completedIds != null)
+                completedIds.add(d.id);
+            timeouts++;
+            if (metrics != null)
+                metrics.timedOut();
+            if (log.isDebugEnabled())
+                log.debug("ID: " + d.id + " timed out in state " + pending.getState() + " after " + pending.getDuration() + " ms");
+        }
+        Iterator<Map.Entry<String, Long>> it = recentlyTimedOut.entrySet().iterator();
+        while (it.hasNext() && it.next().getValue() < cutoff)
+            it.remove();
+    }
+
+    private static final class Deadline implements Comparable<Deadline> {
+        private final String id;
+        private final long timestamp;
+
+        private Deadline(String id, long timestamp) {
+            this.id = id;
+            this.timestamp = timestamp;
+        }
+
+        @Override
+        public int compareTo(Deadline o) {
+            return Long.compare(timestamp, o.timestamp);
+        }
+    }
+}
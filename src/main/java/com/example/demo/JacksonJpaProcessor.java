@@ -1,30 +1,62 @@
 package com.example.demo;
 
+import com.example.demo.columnar.ColumnarWriter;
+import com.example.demo.follow.FileFollower;
 import com.example.demo.model.LogEntry;
+import com.example.demo.parse.InputFiles;
+import com.example.demo.parse.InputFormat;
+import com.example.demo.parse.LogEntryReader;
+import com.example.demo.pipeline.MultiFileScanner;
+import com.example.demo.pipeline.ParallelPipeline;
+import com.example.demo.pipeline.SplitFileScanner;
+import com.example.demo.pipeline.VirtualThreadWriter;
+import com.example.demo.report.LogEntryReport;
+import com.example.demo.repository.LogEntryFilter;
 import com.example.demo.repository.LogEntryRepoIF;
-import com.fasterxml.jackson.core.JsonFactory;
+import com.example.demo.sink.JpaBulkWriter;
+import com.example.demo.sink.LogEntrySchema;
+import com.example.demo.stats.DurationAggregator;
+import com.example.demo.stats.IngestMetrics;
+import com.example.demo.store.CompletedIdFilter;
+import com.example.demo.store.PendingStore;
+import com.example.demo.store.PendingStores;
+import com.example.demo.stream.LogEntryPublisher;
+import com.example.demo.stream.SinkSubscriber;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonToken;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.Getter;
+import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.Banner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
 import java.io.File;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+import java.util.function.Supplier;
 
 /**
  * Implementation using Jackson and Spring Data Jpa
  * To run from command line use the SpringBootProcessor main class wire up dependecies correctly.
  * Uses Jackson Streaming to read and parse the json file. Each element get converted to a LogEntry pojo. If we have not encountered the ID before it is stored in memory.
  * As we find the closing element it is removed from the in-memory store and written to the DB using JDBC.
+ * How the input is read and saved is chosen in application.properties, see the Readme: entries are saved one at a
+ * time, in chunks by a JpaBulkWriter, on virtual threads by a VirtualThreadWriter or to a ColumnarWriter, and the input
+ * read in parallel by a ParallelPipeline, MultiFileScanner or SplitFileScanner.
  * JDBC connection details are loaded from the application.properties file.
  */
 @Slf4j
@@ -32,75 +64,395 @@ import java.util.Map;
 @Component
 public class JacksonJpaProcessor{
 
+    private static final long FOLLOW_STOP_TIMEOUT_MS = 30000;
 
     protected File file;
-    private Map<String, LogEntry> store = new HashMap<>();
+    /** Set when several files are processed together, file is then the first */
+    protected List<File> files;
+    private EventCorrelator correlator = new EventCorrelator();
     @Autowired
     protected LogEntryRepoIF repo;
+    @Autowired(required = false)
+    private PlatformTransactionManager transactionManager;
+    @PersistenceContext
+    private EntityManager entityManager;
+    @Value("${jpa.bulk.size:0}")
+    private int bulkSize;
+    private JpaBulkWriter bulkWriter;
+    @Value("${db.write.mode:upsert}")
+    private String writeMode = LogEntrySchema.UPSERT;
+    @Value("${db.retention.ms:0}")
+    private long retentionMs;
+    @Value("${sink.type:db}")
+    private String sinkType = "db";
+    @Value("${sink.columnar.file:}")
+    private String sinkColumnarFile = "";
+    private ColumnarWriter columnarWriter;
+    @Value("${stats.enabled:true}")
+    private boolean statsEnabled = true;
+    @Value("${stats.histogram.maxMs:3600000}")
+    private long statsHistogramMaxMs = DurationAggregator.DEFAULT_HIGHEST_TRACKABLE;
+    @Value("${stats.histogram.digits:2}")
+    private int statsHistogramDigits = DurationAggregator.DEFAULT_DIGITS;
+    private DurationAggregator stats = new DurationAggregator();
+    private final IngestMetrics metrics = new IngestMetrics();
+    @Value("${metrics.jmx:true}")
+    private boolean metricsJmx = true;
+    /** Set while a ParallelPipeline is running, for the queue depth gauge */
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private volatile ParallelPipeline pipeline;
+    @Value("${pipeline.correlators:0}")
+    private int correlators;
+    @Value("${pipeline.writers:1}")
+    private int writers = 1;
+    @Value("${pipeline.queue.capacity:10000}")
+    private int queueCapacity = 10000;
+    @Value("${pipeline.virtual.threads:false}")
+    private boolean virtualThreads;
+    @Value("${jdbc.pool.size:10}")
+    private int poolSize = 10;
+    @Value("${split.threads:0}")
+    private int splitThreads;
+    @Value("${files.threads:0}")
+    private int filesThreads;
+    @Value("${input.decompress.threads:0}")
+    private int decompressThreads;
+    @Value("${store.type:memory}")
+    private String storeType = PendingStores.MEMORY;
+    @Value("${store.heap.maxBytes:268435456}")
+    private long storeHeapMaxBytes = 268435456L;
+    @Value("${store.spill.dir:}")
+    private String storeSpillDir;
+    @Value("${store.timeout.ms:0}")
+    private long storeTimeoutMs;
+    @Value("${dedup.completed:false}")
+    private boolean dedupCompleted;
+    @Value("${dedup.completed.ids:1000000}")
+    private long dedupCompletedIds = 1000000;
+    @Value("${dedup.completed.fpp:0.000001}")
+    private double dedupCompletedFpp = 0.000001;
+    @Value("${dedup.completed.maxBytes:67108864}")
+    private long dedupCompletedMaxBytes = 67108864L;
+    @Value("${dedup.completed.confirm:true}")
+    private boolean dedupCompletedConfirm = true;
+    /** Ids saved so far, null if dedup.completed is false */
+    private CompletedIdFilter completedIds;
+    @Value("${input.format:auto}")
+    private String inputFormat = "auto";
+    @Value("${parser.mode:streaming}")
+    private String parserMode = LogEntryReader.STREAMING;
+    @Value("${follow.poll.ms:500}")
+    private long followPollMs = 500;
+    @Value("${follow.checkpoint.interval.ms:5000}")
+    private long followCheckpointIntervalMs = 5000;
+    @Value("${follow.checkpoint.file:}")
+    private String followCheckpointFile;
+
+    /**
+     * Replaces the default in memory store and stats with the configured ones once properties are injected
+     */
+    @PostConstruct
+    public void init() {
+        correlator.getStore().close();
+        correlator = new EventCorrelator(storeFactory().get(), storeTimeoutMs);
+        completedIds = dedupCompleted ? new CompletedIdFilter(dedupCompletedIds, dedupCompletedFpp, dedupCompletedMaxBytes) : null;
+        if(completedIds != null && dedupCompletedConfirm && !ColumnarWriter.SINK_TYPE.equals(sinkType))
+            completedIds.setConfirm(this::saved);
+        correlator.setCompletedIds(completedIds);
+        stats = statsEnabled ? new DurationAggregator(statsHistogramMaxMs, statsHistogramDigits) : null;
+        metrics.setPendingEntries(() -> correlator.getStore().size());
+        metrics.setPendingBytes(() -> correlator.getStore().footprintBytes());
+        metrics.setQueueDepth(() -> {
+            ParallelPipeline running = pipeline;
+            return running == null ? 0 : running.queueDepth();
+        });
+        if(metricsJmx)
+            metrics.register(getClass().getSimpleName());
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            if(columnarWriter!=null)
+                columnarWriter.close();
+            correlator.getStore().close();
+            metrics.unregister();
+        }
+    }
+
+    protected Supplier<PendingStore> storeFactory() {
+        return PendingStores.factory(storeType, storeHeapMaxBytes, storeSpillDir);
+    }
+
+    protected Supplier<LogEntryReader> readerFactory() {
+        return metrics.counting(LogEntryReader.factory(parserMode));
+    }
 
     /**
      * Uses Jackson to stream through the file. As it encounters elements it creates LogEntry objects and sends them to addToStore
      * @throws IOException
      */
     public void process() throws IOException {
-        ObjectMapper om = new ObjectMapper();
-        JsonFactory jsonF = om.getJsonFactory();
-        JsonParser jp = jsonF.createParser(this.file);
-        JsonToken token = jp.nextToken();
-        if (token != JsonToken.START_OBJECT) {
-            throw new IOException("Expected data to start with an Object");
+        correlator.setMetrics(metrics);
+        if(files != null && files.size() > 1) {
+            // Files are parsed concurrently into one store and one writer
+            MultiFileScanner scanner = new MultiFileScanner(filesThreads > 0 ? filesThreads : Runtime.getRuntime().availableProcessors(),
+                    storeFactory(), readerFactory());
+            scanner.setMetrics(metrics);
+            scanner.setCompletedIds(completedIds);
+            scanner.setFormat(InputFormat.of(inputFormat));
+            scanner.setTimeoutMs(storeTimeoutMs);
+            scanner.scan(files, this::save, getStore());
+        } else if(splitThreads > 0 && splittable()) {
+            // Parse byte ranges of the file on separate cores
+            SplitFileScanner scanner = new SplitFileScanner(splitThreads, storeFactory(), readerFactory());
+            scanner.setMetrics(metrics);
+            scanner.setCompletedIds(completedIds);
+            scanner.scan(this.file, this::save, getStore());
+        } else {
+            parse();
         }
-        // Iterate over object fields:
-        while (token!=null && token != JsonToken.END_OBJECT){
-            LogEntry entry = jp.readValueAs(LogEntry.class);
-            addToStore(entry);
-            token = jp.nextToken();
+        flush();
+        retain();
+        if(stats!=null)
+            stats.report();
+        correlator.reportOrphans();
+        if(completedIds!=null)
+            log.info("Completed ids: " + completedIds);
+        log.info("Ingest metrics: " + metrics);
+    }
+
+    /**
+     * Follows the file as it is appended to, resuming from the checkpoint if there is one. See FileFollower.
+     * Runs until the thread is interrupted or the JVM shuts down, saving a final checkpoint either way.
+     * Entries buffered for a bulk save are saved before each checkpoint.
+     * @throws IOException
+     */
+    public void follow() throws IOException {
+        InputFormat format = file.exists() ? InputFormat.resolve(file, InputFormat.of(inputFormat)) : InputFormat.JSON;
+        if(!format.isText())
+            throw new IOException("Only JSON can be followed, " + file + " is " + format);
+        File checkpoint = followCheckpointFile == null || followCheckpointFile.isEmpty()
+                ? new File(file.getPath() + ".checkpoint") : new File(followCheckpointFile);
+        FileFollower follower = new FileFollower(file, checkpoint, readerFactory(), correlator, this::save, this::flush);
+        Thread hook = new Thread(() -> follower.stop(FOLLOW_STOP_TIMEOUT_MS), "follow-shutdown");
+        Runtime.getRuntime().addShutdownHook(hook);
+        try {
+            follower.run(followPollMs, followCheckpointIntervalMs);
+        } finally {
+            try {
+                Runtime.getRuntime().removeShutdownHook(hook);
+            } catch (IllegalStateException e) {
+                // Already shutting down
+            }
         }
+    }
 
+    /**
+     * Streams through the file on the calling thread, either subscribing the writer to a LogEntryPublisher or handing entries to a ParallelPipeline.
+     * With pipeline.virtual.threads the subscriber hands each save to a VirtualThreadWriter, up to jdbc.pool.size at a time.
+     * @throws IOException
+     */
+    protected void parse() throws IOException {
+        if(correlators > 0) {
+            try (JsonParser jp = InputFormat.forFile(file, InputFormat.of(inputFormat)).createParser(metrics.counting(InputFiles.open(this.file, decompressThreads())))) {
+                LogEntryReader reader = readerFactory().get();
+                JsonToken token = jp.nextToken();
+                if (token != JsonToken.START_OBJECT) {
+                    throw new IOException("Expected data to start with an Object");
+                }
+                try (ParallelPipeline pipeline = new ParallelPipeline(correlators, writers, queueCapacity, this::save, storeFactory(),
+                        storeTimeoutMs)) {
+                    pipeline.setMetrics(metrics);
+                    pipeline.setCompletedIds(completedIds);
+                    this.pipeline = pipeline;
+                    while (token != null && token != JsonToken.END_OBJECT) {
+                        pipeline.submit(reader.read(jp));
+                        token = jp.nextToken();
+                    }
+                    pipeline.finish(getStore());
+                } finally {
+                    this.pipeline = null;
+                }
+            }
+        } else if(virtualThreads) {
+            // Parsing stays on this thread, each save runs on a thread of its own
+            try (VirtualThreadWriter writer = new VirtualThreadWriter(this::save, poolSize)) {
+                SinkSubscriber subscriber = new SinkSubscriber(writer);
+                publisher().subscribe(subscriber);
+                subscriber.await();
+                writer.flush();
+                log.info("Save latency (micros) on " + (writer.isVirtual() ? "virtual" : "platform") + " threads: " + writer.latency());
+            }
+        } else {
+            // The repository subscribes to the stream of completed entries
+            SinkSubscriber subscriber = new SinkSubscriber(this::save);
+            publisher().subscribe(subscriber);
+            subscriber.await();
+        }
+    }
+
+    private int decompressThreads() {
+        return decompressThreads > 0 ? decompressThreads : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * @return false for a compressed or binary file, which has no byte offsets to split at and is parsed as a stream instead
+     */
+    private boolean splittable() throws IOException {
+        if (InputFiles.isCompressed(file)) {
+            log.info(file + " is compressed, parsing it as a stream instead of splitting it");
+            return false;
+        }
+        if (!InputFormat.resolve(file, InputFormat.of(inputFormat)).isText()) {
+            log.info(file + " is binary, parsing it as a stream instead of splitting it");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return publisher of the completed entries in the file, correlated through this processor's store
+     */
+    public LogEntryPublisher publisher() {
+        LogEntryPublisher publisher = new LogEntryPublisher(() -> metrics.counting(InputFiles.open(this.file, decompressThreads())),
+                readerFactory(), correlator);
+        publisher.setFormat(InputFormat.forFile(file, InputFormat.of(inputFormat)));
+        return publisher;
     }
+
     /**
      * Checks the LogEntry. If not encountered before it adds to memory store (HashMap).
      * If we've seen it before we remove it from memory and write to DB. Also checks for duplicate Ids with same state. If encountered it ignores these.
+     * Entries timed out by the store.timeout.ms watermark are written too.
      * @param entry
      */
-    protected void  addToStore(LogEntry entry){
-        LogEntry storeEntry = store.get(entry.getId());
-        if(storeEntry==null){
-            // Id not in Store. Add
-            if(log.isDebugEnabled())
-                log.debug("ID: "+entry.getId()+" added to mem store.");
-            store.put(entry.getId(), entry);
-        }else { // Entry is already there
-            LogEntry.State existingState = storeEntry.getState();
-            // Expect new State to be different
-            if (entry.getState() == existingState) {
-                log.warn("ID: " + entry.getId() + "  has multiple entries with"+existingState+". We will ignore this record.");
-                return; // Ignore duplicate  entry
-            }
-            entry.setDuration(Math.abs(entry.getTimestamp() - storeEntry.getTimestamp()));
-            if(log.isDebugEnabled()) {
-                log.debug("ID: " + entry.getId() + " writing to DB with duration " + entry.getDuration());
-            }
-            LogEntry response;
-            store.put(entry.getId(), entry);
-            try {
-                response = repo.save(entry);
-                System.out.println("Response from save "+response);
-            } catch(Exception e) {
+    protected void  addToStore(LogEntry entry) throws IOException {
+        LogEntry completed = correlator.correlate(entry);
+        if(completed!=null)
+            save(completed);
+        for(LogEntry timedOut = correlator.pollTimedOut(); timedOut!=null; timedOut = correlator.pollTimedOut())
+            save(timedOut);
+    }
 
-                System.out.println("Exception thrown on save "+e);
-                e.printStackTrace();
-            }
-            // Clean up memory store as we save items to DB
-            store.remove(entry.getId());
+    /**
+     * Writes the LogEntry to the DB through the repository, one transaction per entry unless jpa.bulk.size is set,
+     * in which case entries are saved in chunks by a JpaBulkWriter created on first use.
+     * With sink.type columnar the entry is appended to the ColumnarWriter instead.
+     * Saves merge, so an entry whose id is already saved updates its row. With db.write.mode upsert a bulk save looks
+     * up the ids of each chunk once instead of merging entry by entry.
+     * @param entry
+     * @throws IOException if the columnar file cannot be written
+     */
+    protected void save(LogEntry entry) throws IOException {
+        if(stats!=null)
+            stats.record(entry);
+        if(ColumnarWriter.SINK_TYPE.equals(sinkType)) {
+            columnarWriter().write(entry);
+            return;
+        }
+        if(bulkSize > 0) {
+            bulkWriter().write(entry);
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            repo.save(entry);
+            metrics.batchWritten(1, System.nanoTime() - start);
+        } catch(Exception e) {
+            metrics.writeFailed();
+            log.error("Exception thrown on save of " + entry.getId(), e);
+        }
+    }
+
+    /**
+     * Confirms a hit of the completed id filter. Entries still buffered by a bulk save are not seen yet.
+     * @param id
+     * @return true if the id is saved, or if the repository cannot be read, which is logged
+     */
+    private boolean saved(String id) {
+        try {
+            return repo.existsById(id);
+        } catch(Exception e) {
+            log.warn("Cannot look up ID: " + id + ", taking it as saved: " + e);
+            return true;
+        }
+    }
+
+    private synchronized ColumnarWriter columnarWriter() throws IOException {
+        if(columnarWriter==null) {
+            columnarWriter = new ColumnarWriter(sinkColumnarFile == null || sinkColumnarFile.isEmpty()
+                    ? new File(file.getPath() + ".col") : new File(sinkColumnarFile));
         }
+        return columnarWriter;
     }
 
-    public void report() {
-        System.out.println("Response from findAll "+repo.findAll());
-        Iterator i =repo.findAll().iterator();
-        while(i.hasNext()){
-            System.out.println(i.next());
+    private boolean upsert() {
+        return LogEntrySchema.UPSERT_SQL.equals(LogEntrySchema.writeSql(writeMode));
+    }
+
+    private synchronized JpaBulkWriter bulkWriter() {
+        if(bulkWriter==null) {
+            bulkWriter = new JpaBulkWriter(repo,
+                    transactionManager == null ? null : new TransactionTemplate(transactionManager),
+                    entityManager, bulkSize, upsert());
+            bulkWriter.setMetrics(metrics);
         }
+        return bulkWriter;
+    }
+
+    /**
+     * Saves any entries still buffered for a bulk save or the columnar file
+     * @throws IOException
+     */
+    protected synchronized void flush() throws IOException {
+        if(bulkWriter!=null)
+            bulkWriter.flush();
+        if(columnarWriter!=null)
+            columnarWriter.flush();
+    }
+
+    /**
+     * Applies db.retention.ms, deleting the rows that started longer ago than that
+     * @return rows deleted, 0 if db.retention.ms is 0 or rows go to a columnar file
+     */
+    protected int retain() {
+        if(retentionMs <= 0 || ColumnarWriter.SINK_TYPE.equals(sinkType))
+            return 0;
+        long cutoff = System.currentTimeMillis() - retentionMs;
+        Integer deleted = transactionManager == null ? repo.deleteStartedBefore(cutoff)
+                : new TransactionTemplate(transactionManager).execute(status -> repo.deleteStartedBefore(cutoff));
+        if(deleted != null && deleted > 0)
+            log.info("Retention of " + retentionMs + " ms deleted " + deleted + " rows");
+        return deleted == null ? 0 : deleted;
+    }
+
+    /**
+     * @return entries still waiting for their partner
+     */
+    public PendingStore getStore() {
+        return correlator.getStore();
+    }
+
+    /**
+     * Prints every saved row to System.out
+     * @throws IOException
+     */
+    public void report() throws IOException {
+        report(LogEntryFilter.ALL, new OutputStreamWriter(System.out));
+    }
+
+    /**
+     * Writes the saved rows matching the filter, one per line, streaming them from the DB. See LogEntryReport.
+     * @param filter
+     * @param out flushed but not closed
+     * @return number of rows written
+     * @throws IOException
+     */
+    public long report(LogEntryFilter filter, Writer out) throws IOException {
+        return new LogEntryReport(repo, transactionManager, entityManager).write(filter, out);
     }
 }
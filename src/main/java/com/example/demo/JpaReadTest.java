@@ -1,5 +1,7 @@
 package com.example.demo;
 
+import com.example.demo.report.LogEntryReport;
+import com.example.demo.repository.LogEntryFilter;
 import com.example.demo.repository.LogEntryRepoIF;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -9,17 +11,26 @@ import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.autoconfigure.domain.EntityScan;
 import org.springframework.context.annotation.Bean;
+import org.springframework.transaction.PlatformTransactionManager;
 
-import java.io.File;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
 import java.io.IOException;
-import java.util.Iterator;
+import java.io.OutputStreamWriter;
 
+/**
+ * Prints the saved rows. Takes the filter arguments of LogEntryFilter.parse, e.g. --alerts --host=12345
+ */
 @SpringBootApplication
 @Slf4j
 @EntityScan("com.example.demo.model")
 public class JpaReadTest {
     @Autowired
     LogEntryRepoIF repo;
+    @Autowired
+    PlatformTransactionManager transactionManager;
+    @PersistenceContext
+    EntityManager entityManager;
 
     public static void main(String[] args) throws IOException {
 
@@ -33,16 +44,9 @@ public class JpaReadTest {
     @Bean
     public CommandLineRunner runJacksonJpaProcessor() throws IOException {
         return (args) -> {
-            System.out.println("***");
-            System.out.println("****");
-            System.out.println("*****");
-            System.out.println("******");
-            System.out.println("*******");
-            System.out.println("Response from findAll "+repo.findAll());
-            Iterator i =repo.findAll().iterator();
-            while(i.hasNext()){
-                System.out.println(i.next());
-            }
+            long rows = new LogEntryReport(repo, transactionManager, entityManager)
+                    .write(LogEntryFilter.parse(args), new OutputStreamWriter(System.out));
+            log.info(rows + " rows");
         };
     }
 
@@ -0,0 +1,108 @@
+package com.example.demo;
+
+import com.example.demo.parse.BlockGzipOutputStream;
+import com.example.demo.parse.InputFiles;
+import com.example.demo.parse.InputFormat;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Re-encodes a log file between JSON, Smile and CBOR, e.g. to turn existing JSON logs into the smaller binary form.
+ * To invoke call. java com.example.demo.LogConverter <in> <out> [json|smile|cbor]
+ * The input format is detected as for processing, see InputFormat, and the output format is taken from the argument or
+ * else the output file's extension (.json, .smile, .sml or .cbor, before any .gz). Gzip input is decompressed, and the
+ * output is block gzip compressed if its name ends in .gz. Records are copied token by token, unknown fields included.
+ */
+@Slf4j
+public class LogConverter {
+
+    private static final int BUFFER = 64 * 1024;
+
+    /**
+     * main method
+     * @param args input file, output file and optionally the output format
+     */
+    public static void main(String... args) {
+        if(args.length < 2){
+            System.out.println("Usage LogConverter <in> <out> [json|smile|cbor]");
+            System.exit(1);
+        }
+        try {
+            File in = new File(args[0]);
+            File out = new File(args[1]);
+            InputFormat to = args.length > 2 ? InputFormat.of(args[2]) : outputFormat(out);
+            long start = System.currentTimeMillis();
+            long records = convert(in, out, to);
+            log.info("Converted " + records + " records from " + in + " (" + in.length() + " bytes) to " + to + " " + out
+                    + " (" + out.length() + " bytes) in " + (System.currentTimeMillis() - start) + " ms");
+        } catch(Exception e) {
+            System.err.println("Problem encountered converting " + e.getLocalizedMessage());
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    /**
+     * @param in
+     * @param out replaced, block gzip compressed if the name ends in .gz
+     * @param to output format
+     * @return number of records converted
+     * @throws IOException
+     */
+    public static long convert(File in, File out, InputFormat to) throws IOException {
+        OutputStream fileOut = new FileOutputStream(out);
+        if(out.getName().endsWith(".gz"))
+            fileOut = new BlockGzipOutputStream(fileOut);
+        try (InputStream input = InputFiles.open(in, Runtime.getRuntime().availableProcessors());
+             OutputStream output = new BufferedOutputStream(fileOut, BUFFER)) {
+            return convert(input, InputFormat.forFile(in, InputFormat.AUTO), output, to);
+        }
+    }
+
+    /**
+     * Copies each top level object of the input to the output
+     * @param in read to the end but not closed
+     * @param from input format, AUTO to detect it
+     * @param out flushed but not closed
+     * @param to output format
+     * @return number of records converted
+     * @throws IOException if the input holds anything but objects at the top level
+     */
+    public static long convert(InputStream in, InputFormat from, OutputStream out, InputFormat to) throws IOException {
+        long records = 0;
+        try (JsonParser jp = from.createParser(in);
+             JsonGenerator generator = to.createGenerator(out)) {
+            jp.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            for(JsonToken token = jp.nextToken(); token != null; token = jp.nextToken()) {
+                if(token != JsonToken.START_OBJECT)
+                    throw new IOException("Expected an Object at record " + records + ", found " + token);
+                generator.copyCurrentStructure(jp);
+                records++;
+            }
+        }
+        if(to.isText())
+            out.write('\n');
+        out.flush();
+        return records;
+    }
+
+    private static InputFormat outputFormat(File out) {
+        InputFormat format = InputFormat.forFile(out, InputFormat.AUTO);
+        if(format != InputFormat.AUTO)
+            return format;
+        String name = out.getName().endsWith(".gz") ? out.getName().substring(0, out.getName().length() - 3) : out.getName();
+        if(name.endsWith(".json"))
+            return InputFormat.JSON;
+        throw new IllegalArgumentException("Give the output format, " + out + " has no .json, .smile or .cbor extension");
+    }
+}
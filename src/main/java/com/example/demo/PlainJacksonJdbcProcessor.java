@@ -1,30 +1,58 @@
 package com.example.demo;
 
+import com.example.demo.cluster.LocalWorkers;
+import com.example.demo.cluster.ShardCoordinator;
+import com.example.demo.cluster.ShardReport;
+import com.example.demo.cluster.ShardWorker;
+import com.example.demo.columnar.ColumnarWriter;
+import com.example.demo.follow.FileFollower;
 import com.example.demo.model.LogEntry;
-import com.fasterxml.jackson.core.JsonFactory;
+import com.example.demo.parse.InputFiles;
+import com.example.demo.parse.InputFormat;
+import com.example.demo.parse.LogEntryReader;
+import com.example.demo.pipeline.MultiFileScanner;
+import com.example.demo.pipeline.ParallelPipeline;
+import com.example.demo.pipeline.SplitFileScanner;
+import com.example.demo.sink.DataSources;
+import com.example.demo.sink.JdbcBatchWriter;
+import com.example.demo.sink.JdbcWriterPool;
+import com.example.demo.sink.LogEntryPartitions;
+import com.example.demo.sink.LogEntrySchema;
+import com.example.demo.stats.DurationAggregator;
+import com.example.demo.stats.IngestMetrics;
+import com.example.demo.store.CompletedIdFilter;
+import com.example.demo.store.PendingStore;
+import com.example.demo.store.PendingStores;
+import com.example.demo.stream.LogEntryPublisher;
+import com.example.demo.stream.SinkSubscriber;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonToken;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 
+import javax.sql.DataSource;
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
 import java.sql.Connection;
-import java.sql.DriverManager;
-import java.sql.PreparedStatement;
 import java.sql.SQLException;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Properties;
+import java.util.function.Supplier;
 
 
 /**
  * Simple implementation using Jackson and Jdbc without Spring overhead
- * To invoke call. java com.example.demo.PlainJacksonJdbcProcessor <jsonFilename>
+ * To invoke call. java com.example.demo.PlainJacksonJdbcProcessor <jsonFilename|directory|glob>... [--follow], or --worker to run a shard worker, see main()
  * Uses Jackson Streaming to read and parse the json file. Each element get converted to a LogEntry pojo. If we have not encountered the ID before it is stored in memory.
  * As we find the closing element it is removed from the in-memory store and written to the DB using JDBC.
+ * How the input is read and where rows go is chosen in application.properties, see the Readme: rows are written by a
+ * JdbcBatchWriter, a JdbcWriterPool, a ColumnarWriter or the workers of a ShardCoordinator, and the input read in
+ * parallel by a ParallelPipeline, MultiFileScanner or SplitFileScanner.
  * JDBC connection details are loaded from the application.properties file.
  */
 @Slf4j
@@ -32,34 +60,66 @@ public class PlainJacksonJdbcProcessor implements AutoCloseable {
 
 
     File file;
-    @Getter
-    Map<String, LogEntry> store = new HashMap<>();
+    /** Set when several files are processed together, file is then the first */
+    @Setter
+    List<File> files;
+    Supplier<PendingStore> storeFactory;
+    EventCorrelator correlator;
+    @Setter
+    DataSource dataSource;
     @Setter
     Connection connection;
     Properties prop;
+    JdbcBatchWriter writer;
+    JdbcWriterPool writerPool;
+    ColumnarWriter columnarWriter;
+    /** Bucket tables, created on first use, null unless db.partition is day or hour */
+    LogEntryPartitions partitions;
+    DurationAggregator stats;
+    /** Ids written so far, created on first use */
+    CompletedIdFilter completedIds;
+    final IngestMetrics metrics = new IngestMetrics();
+    /** Set while a ParallelPipeline is running, for the queue depth gauge */
+    private volatile ParallelPipeline pipeline;
 
-    protected static final String SQL = "Insert into LOGENTRY (id, type, host, alert, duration) values (?,?,?,?,?)";
-    protected static final String CREATE_SQL= "CREATE TABLE IF NOT EXISTS LOGENTRY (id varchar(255), state varchar(255), type varchar(255), host varchar(255), alert boolean, duration BIGINT)";
+    protected static final String SQL = LogEntrySchema.INSERT_SQL;
+    protected static final String UPSERT_SQL = LogEntrySchema.UPSERT_SQL;
+    static final String FOLLOW_ARG = "--follow";
+    static final String WORKER_ARG = "--worker";
+    private static final long FOLLOW_STOP_TIMEOUT_MS = 30000;
+    private static final long WORKER_EXIT_TIMEOUT_MS = 60000;
+    protected static final String CREATE_SQL= LogEntrySchema.CREATE_SQL;
 
 
     /**
-     * main method. Invoke with path to file for processing
+     * main method. Invoke with the files for processing, each given as a file, a directory or a glob, or with one file and --follow,
+     * or with --worker to run a shard worker
      * @param args
      */
     public static void main(String... args){
         if(args.length<1){
-                System.out.println("Usage PlainJacksonJdbcProcessor <filename>");
+                System.out.println("Usage PlainJacksonJdbcProcessor <filename|directory|glob>... [--follow]");
+                System.out.println("      PlainJacksonJdbcProcessor --worker <port> [shard] [name] [key=value]...");
                 System.exit(1);
             }
-        File file = new File(args[0]);
-        if(!file.isFile()){
-                System.out.println("Cannot find "+args[0]+ " from "+System.getProperty("user.dir"));
+        if(WORKER_ARG.equals(args[0])) {
+            worker(args);
+            return;
+        }
+        boolean follow = args.length > 1 && FOLLOW_ARG.equals(args[1]);
+        List<File> files = follow ? Collections.singletonList(new File(args[0])) : inputFiles(args);
+        if(files.isEmpty()){
+                System.out.println("Cannot find "+String.join(" ", args)+ " from "+System.getProperty("user.dir"));
                 System.exit(1);
             }
         PlainJacksonJdbcProcessor main = null;
         try {
-            main = new PlainJacksonJdbcProcessor(file);
-            main.process();
+            main = new PlainJacksonJdbcProcessor(files.get(0));
+            main.setFiles(files);
+            if(follow)
+                main.follow();
+            else
+                main.process();
         }catch(Exception e){
             System.err.println("Problem encountered running application "+e.getLocalizedMessage());
             e.printStackTrace();
@@ -69,16 +129,87 @@ public class PlainJacksonJdbcProcessor implements AutoCloseable {
         }
     }
 
+    /**
+     * Runs a ShardWorker until its coordinator finishes. Arguments after --worker are the port to listen on, 0 for any,
+     * the shard number, substituted into cluster.worker.datasource.url, the name the columnar sink file is derived from,
+     * and properties overriding application.properties.
+     * @param args
+     */
+    static void worker(String... args) {
+        if(args.length<2) {
+            System.out.println("Usage PlainJacksonJdbcProcessor --worker <port> [shard] [name] [key=value]...");
+            System.exit(1);
+        }
+        String shard = args.length > 2 ? args[2] : "0";
+        Properties overrides = new Properties();
+        for(int i = 4; i < args.length; i++) {
+            int eq = args[i].indexOf('=');
+            if(eq < 0)
+                throw new IllegalArgumentException("Expected key=value: " + args[i]);
+            overrides.setProperty(args[i].substring(0, eq), args[i].substring(eq + 1));
+        }
+        overrides.setProperty("cluster.shard", shard);
+        try (PlainJacksonJdbcProcessor main = new PlainJacksonJdbcProcessor(new File(args.length > 3 ? args[3] : "shard" + shard), overrides)) {
+            main.work(Integer.parseInt(args[1]));
+        } catch(Exception e){
+            System.err.println("Problem encountered running shard worker "+e.getLocalizedMessage());
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Expands each argument into the files it names, see MultiFileScanner.expand
+     * @param args
+     * @return the files, in argument order
+     */
+    static List<File> inputFiles(String... args) {
+        List<File> files = new ArrayList<>();
+        for(String arg : args) {
+            try {
+                files.addAll(MultiFileScanner.expand(arg));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return files;
+    }
+
     /**
      * Constuctor. Takes the file to be processing in as arg. Catches any exception thrown and wraps them in a RuntimeException for handing by the main method.
      * @param file
      * @throws RuntimeException
      */
     public PlainJacksonJdbcProcessor(File file) throws RuntimeException{
+        this(file, new Properties());
+    }
+
+    /**
+     * Constructor with properties overriding those in application.properties, e.g. those a ShardWorker is started with
+     * @param file
+     * @param overrides
+     * @throws RuntimeException
+     */
+    public PlainJacksonJdbcProcessor(File file, Properties overrides) throws RuntimeException{
         try {
             this.file = file;
             this.prop = new Properties();
             this.prop.load(this.getClass().getClassLoader().getResource("application.properties").openStream());
+            this.prop.putAll(overrides);
+            this.storeFactory = PendingStores.factory(prop.getProperty("store.type"),
+                    Long.parseLong(prop.getProperty("store.heap.maxBytes", "268435456")),
+                    prop.getProperty("store.spill.dir"));
+            this.correlator = new EventCorrelator(storeFactory.get(), storeTimeoutMs());
+            if(Boolean.parseBoolean(prop.getProperty("stats.enabled", "true")))
+                this.stats = new DurationAggregator(
+                        Long.parseLong(prop.getProperty("stats.histogram.maxMs", "3600000")),
+                        Integer.parseInt(prop.getProperty("stats.histogram.digits", "2")));
+            metrics.setPendingEntries(() -> correlator.getStore().size());
+            metrics.setPendingBytes(() -> correlator.getStore().footprintBytes());
+            metrics.setQueueDepth(this::queueDepth);
+            if(Boolean.parseBoolean(prop.getProperty("metrics.jmx", "true")))
+                metrics.register(getClass().getSimpleName());
+            dataSource = initDataSource();
             connection = initConnection();
         }catch(Exception e){
             throw new RuntimeException(e);
@@ -87,11 +218,32 @@ public class PlainJacksonJdbcProcessor implements AutoCloseable {
 
     @Override
     public void close()  {
+        try {
+            if(writer!=null)
+                writer.close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        try {
+            if(writerPool!=null)
+                writerPool.close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        try {
+            if(columnarWriter!=null)
+                columnarWriter.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
         try {
             connection.close();
         } catch (SQLException e) {
             e.printStackTrace();
         }
+        DataSources.close(dataSource);
+        correlator.getStore().close();
+        metrics.unregister();
     }
 
     /**
@@ -100,82 +252,465 @@ public class PlainJacksonJdbcProcessor implements AutoCloseable {
      * @throws SQLException
      */
     public void process() throws IOException, SQLException {
+        int splitThreads = Integer.parseInt(prop.getProperty("split.threads", "0"));
+        boolean clustered = clustered();
+        correlator.setMetrics(metrics);
+        if(!clustered)
+            correlator.setCompletedIds(completedIds());
+        if(clustered) {
+            // Shards are correlated and written by the workers, orphans come back to the store
+            distribute(files != null && files.size() > 1 ? files : Collections.singletonList(file));
+        } else if(files != null && files.size() > 1) {
+            // Files are parsed concurrently into one store and one writer
+            MultiFileScanner scanner = new MultiFileScanner(filesThreads(), storeFactory, readerFactory());
+            scanner.setMetrics(metrics);
+            scanner.setCompletedIds(completedIds());
+            scanner.setFormat(inputFormat());
+            scanner.setTimeoutMs(storeTimeoutMs());
+            scanner.scan(files, this::save, getStore());
+        } else if(splitThreads > 0 && splittable()) {
+            // Parse byte ranges of the file on separate cores
+            SplitFileScanner scanner = new SplitFileScanner(splitThreads, storeFactory, readerFactory());
+            scanner.setMetrics(metrics);
+            scanner.setCompletedIds(completedIds());
+            scanner.scan(this.file, this::save, getStore());
+        } else {
+            parse();
+        }
+        if(writer!=null)
+            writer.flush();
+        if(writerPool!=null)
+            writerPool.flush();
+        if(columnarWriter!=null)
+            columnarWriter.flush();
+        if(!clustered)
+            retain();
+        if(stats!=null && !clustered)
+            stats.report();
+        correlator.reportOrphans();
+        if(completedIds!=null)
+            log.info("Completed ids: " + completedIds);
+        log.info("Ingest metrics: " + metrics);
+    }
+
+    /**
+     * Follows the file as it is appended to, resuming from the checkpoint if there is one. See FileFollower.
+     * Runs until the thread is interrupted or the JVM shuts down, saving a final checkpoint either way.
+     * @throws IOException
+     */
+    public void follow() throws IOException {
+        InputFormat format = file.exists() ? InputFormat.resolve(file, inputFormat()) : InputFormat.JSON;
+        if(!format.isText())
+            throw new IOException("Only JSON can be followed, " + file + " is " + format);
+        String checkpoint = prop.getProperty("follow.checkpoint.file", "");
+        FileFollower follower = new FileFollower(file,
+                checkpoint.isEmpty() ? new File(file.getPath() + ".checkpoint") : new File(checkpoint),
+                readerFactory(), correlator, this::save, this::flush);
+        correlator.setCompletedIds(completedIds());
+        Thread hook = new Thread(() -> follower.stop(FOLLOW_STOP_TIMEOUT_MS), "follow-shutdown");
+        Runtime.getRuntime().addShutdownHook(hook);
+        try {
+            follower.run(Long.parseLong(prop.getProperty("follow.poll.ms", "500")),
+                    Long.parseLong(prop.getProperty("follow.checkpoint.interval.ms", "5000")));
+        } finally {
+            try {
+                Runtime.getRuntime().removeShutdownHook(hook);
+            } catch (IllegalStateException e) {
+                // Already shutting down
+            }
+        }
+    }
+
+    /**
+     * Serves one ShardCoordinator: the entries it sends are correlated through this processor's store and saved as in
+     * process(), and the store's orphans are returned to it at the end.
+     * @param port port to listen on, on cluster.worker.bind, 0 for any
+     * @return the shard's totals
+     * @throws IOException
+     */
+    public ShardReport work(int port) throws IOException {
+        correlator.setMetrics(metrics);
+        correlator.setCompletedIds(completedIds());
+        ShardWorker worker = new ShardWorker(correlator, this::save, this::flush);
+        worker.setProgressIntervalMs(clusterProgressIntervalMs());
+        ShardReport report = worker.listen(prop.getProperty("cluster.worker.bind", "127.0.0.1"), port);
+        try {
+            retain();
+        } catch (SQLException e) {
+            throw new IOException("Failed to apply db.retention.ms", e);
+        }
+        if(stats!=null)
+            stats.report();
+        if(completedIds!=null)
+            log.info("Completed ids: " + completedIds);
+        log.info("Shard " + prop.getProperty("cluster.shard", "") + ": " + report + ", ingest metrics: " + metrics);
+        return report;
+    }
+
+    /**
+     * Parses the files on the calling thread and hands every entry to a ShardCoordinator over the workers in
+     * cluster.workers, or over cluster.spawn workers started here for the run
+     * @param inputs
+     * @throws IOException
+     */
+    protected void distribute(List<File> inputs) throws IOException {
+        int spawn = Integer.parseInt(prop.getProperty("cluster.spawn", "0"));
+        try (LocalWorkers local = spawn > 0 ? spawnWorkers(spawn) : null;
+             ShardCoordinator coordinator = new ShardCoordinator(
+                     local != null ? local.addresses() : workerAddresses(prop.getProperty("cluster.workers")), getStore())) {
+            coordinator.setProgressIntervalMs(clusterProgressIntervalMs());
+            for(File input : inputs) {
+                try (JsonParser jp = InputFormat.forFile(input, inputFormat()).createParser(metrics.counting(InputFiles.open(input, decompressThreads())))) {
+                    LogEntryReader reader = readerFactory().get();
+                    JsonToken token = jp.nextToken();
+                    if (token != null && token != JsonToken.START_OBJECT) {
+                        throw new IOException("Expected data to start with an Object in " + input);
+                    }
+                    while (token != null && token != JsonToken.END_OBJECT) {
+                        coordinator.submit(reader.read(jp));
+                        token = jp.nextToken();
+                    }
+                }
+            }
+            log.info("All shards: " + coordinator.finish());
+            if(local != null)
+                local.awaitExit(WORKER_EXIT_TIMEOUT_MS);
+        }
+    }
+
+    /**
+     * Starts the workers as JVMs on this machine, passing them this processor's properties. Each writes its columnar
+     * file, if sink.type is columnar, beside the input as <file>.shard<n>.col.
+     */
+    private LocalWorkers spawnWorkers(int count) throws IOException {
+        String jvmArgs = prop.getProperty("cluster.spawn.jvm.args", "").trim();
+        return new LocalWorkers(count, jvmArgs.isEmpty() ? Collections.emptyList() : Arrays.asList(jvmArgs.split("\\s+")),
+                getClass().getName(), shard -> {
+                    List<String> args = new ArrayList<>(Arrays.asList(WORKER_ARG, "0", String.valueOf(shard), file.getPath() + ".shard" + shard));
+                    for(String key : prop.stringPropertyNames()) {
+                        if(!key.startsWith("cluster.spawn") && !key.equals("cluster.workers") && !key.equals("sink.columnar.file"))
+                            args.add(key + "=" + prop.getProperty(key));
+                    }
+                    return args;
+                });
+    }
 
-        ObjectMapper om = new ObjectMapper();
-        JsonFactory jsonF = om.getJsonFactory();
-        JsonParser jp = jsonF.createParser(this.file);
-        JsonToken token = jp.nextToken();
-        if (token != JsonToken.START_OBJECT) {
-            throw new IOException("Expected data to start with an Object");
+    /**
+     * @param workers comma separated host:port list
+     * @return
+     */
+    static List<InetSocketAddress> workerAddresses(String workers) {
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        for(String worker : workers.split(",")) {
+            worker = worker.trim();
+            if(worker.isEmpty())
+                continue;
+            int colon = worker.lastIndexOf(':');
+            if(colon < 0)
+                throw new IllegalArgumentException("cluster.workers entries must be host:port: " + worker);
+            addresses.add(new InetSocketAddress(worker.substring(0, colon), Integer.parseInt(worker.substring(colon + 1))));
         }
-        // Iterate over object fields:
-        while (token!=null && token != JsonToken.END_OBJECT){
-            LogEntry entry = jp.readValueAs(LogEntry.class);
-            addToStore(entry);
-            token = jp.nextToken();
+        return addresses;
+    }
+
+    private boolean clustered() {
+        return !prop.getProperty("cluster.workers", "").trim().isEmpty()
+                || Integer.parseInt(prop.getProperty("cluster.spawn", "0")) > 0;
+    }
+
+    private long clusterProgressIntervalMs() {
+        return Long.parseLong(prop.getProperty("cluster.progress.interval.ms", "5000"));
+    }
+
+    /**
+     * Streams through the file on the calling thread, either subscribing the writer to a LogEntryPublisher or handing entries to a ParallelPipeline
+     * @throws IOException
+     * @throws SQLException
+     */
+    protected void parse() throws IOException, SQLException {
+        int correlators = Integer.parseInt(prop.getProperty("pipeline.correlators", "0"));
+        if(correlators > 0) {
+            try (JsonParser jp = InputFormat.forFile(file, inputFormat()).createParser(metrics.counting(InputFiles.open(this.file, decompressThreads())))) {
+                LogEntryReader reader = readerFactory().get();
+                JsonToken token = jp.nextToken();
+                if (token != JsonToken.START_OBJECT) {
+                    throw new IOException("Expected data to start with an Object");
+                }
+                try (ParallelPipeline pipeline = new ParallelPipeline(correlators,
+                        Integer.parseInt(prop.getProperty("pipeline.writers", "1")),
+                        Integer.parseInt(prop.getProperty("pipeline.queue.capacity", "10000")),
+                        this::save, storeFactory, storeTimeoutMs())) {
+                    pipeline.setMetrics(metrics);
+                    pipeline.setCompletedIds(completedIds());
+                    this.pipeline = pipeline;
+                    while (token != null && token != JsonToken.END_OBJECT) {
+                        pipeline.submit(reader.read(jp));
+                        token = jp.nextToken();
+                    }
+                    pipeline.finish(getStore());
+                } finally {
+                    this.pipeline = null;
+                }
+            }
+        } else {
+            // The writer subscribes to the stream of completed entries
+            SinkSubscriber subscriber = new SinkSubscriber(this::save);
+            publisher().subscribe(subscriber);
+            subscriber.await();
         }
+    }
 
+    /**
+     * @return publisher of the completed entries in the file, correlated through this processor's store
+     */
+    public LogEntryPublisher publisher() {
+        LogEntryPublisher publisher = new LogEntryPublisher(() -> metrics.counting(InputFiles.open(this.file, decompressThreads())),
+                readerFactory(), correlator);
+        publisher.setFormat(InputFormat.forFile(file, inputFormat()));
+        return publisher;
     }
 
     /**
      * Checks the LogEntry. If not encountered before it adds to memory store (HashMap).
      * If we've seen it before we remove it from memory and write to DB. Also checks for duplicate Ids with same state. If encountered it ignores these.
+     * Entries timed out by the store.timeout.ms watermark are written too.
      * @param entry
      * @throws SQLException
+     * @throws IOException
      */
-    protected void  addToStore(LogEntry entry) throws SQLException {
-        LogEntry storeEntry = store.get(entry.getId());
-        if(storeEntry==null){
-            // Id not in Store. Add
-            if(log.isDebugEnabled())
-                log.debug("ID: "+entry.getId()+" added to mem store.");
-            store.put(entry.getId(), entry);
-        }else { // Entry is already there
-            LogEntry.State existingState = storeEntry.getState();
-            // Expect new State to be different
-            if (entry.getState() == existingState) {
-                log.warn("ID: " + entry.getId() + "  has multiple entries with"+existingState+". We will ignore this record.");
-                return; // Ignore duplicate  entry
-            }
-            entry.setDuration(Math.abs(entry.getTimestamp() - storeEntry.getTimestamp()));
-            if(log.isDebugEnabled()) {
-                log.debug("ID: " + entry.getId() + " writing to DB with duration " + entry.getDuration());
-            }
-            store.put(entry.getId(), entry);
-            save(entry);
-            // Clean up memory store as we save items to DB
-            store.remove(entry.getId());
-        }
+    protected void  addToStore(LogEntry entry) throws SQLException, IOException {
+        LogEntry completed = correlator.correlate(entry);
+        if(completed!=null)
+            save(completed);
+        for(LogEntry timedOut = correlator.pollTimedOut(); timedOut!=null; timedOut = correlator.pollTimedOut())
+            save(timedOut);
+    }
+
+    protected Supplier<LogEntryReader> readerFactory() {
+        return metrics.counting(LogEntryReader.factory(prop.getProperty("parser.mode")));
+    }
+
+    /**
+     * @return entries still waiting for their partner
+     */
+    public PendingStore getStore() {
+        return correlator.getStore();
+    }
+
+    /**
+     * @return live duration stats of the entries written so far, null if stats.enabled is false
+     */
+    public DurationAggregator getStats() {
+        return stats;
+    }
+
+    /**
+     * @return live counters of the records read and rows written so far
+     */
+    public IngestMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Creates the connection pool, sized for the writer threads plus the connection held by this processor, on the
+     * shard's own DB in a shard worker
+     * @return
+     */
+    protected DataSource initDataSource() {
+        int poolSize = Math.max(Integer.parseInt(prop.getProperty("jdbc.pool.size", "10")), writers() + 1);
+        String url = prop.getProperty("spring.datasource.url");
+        // A shard worker writes to its own DB unless cluster.worker.datasource.url is empty
+        String shard = prop.getProperty("cluster.shard", "");
+        String shardUrl = prop.getProperty("cluster.worker.datasource.url", "");
+        if(!shard.isEmpty() && !shardUrl.isEmpty())
+            url = shardUrl.replace("{shard}", shard);
+        return DataSources.pooled(url, "SA", "", poolSize);
     }
 
     /**
-     * Initializes the JDBC connection.
+     * Takes the JDBC connection from the pool and creates the table, its primary key and indexes.
      * @return
      * @throws SQLException
-     * @throws ClassNotFoundException
      */
-    protected Connection initConnection() throws SQLException, ClassNotFoundException {
-        // Class.forName("org.hsqldb.jdbc.JDBCDriver" );
-        Connection c = DriverManager.getConnection(prop.getProperty("spring.datasource.url"), "SA", "");
-        PreparedStatement ps = c.prepareStatement(CREATE_SQL);
-        ps.executeUpdate();
+    protected Connection initConnection() throws SQLException {
+        Connection c = dataSource.getConnection();
+        LogEntrySchema.ensure(c);
         return c;
     }
 
     /**
-     * Wrties the LogEntry to the DB
+     * Creates the filter of completed ids on first use, confirming hits against LOGENTRY when rows go to the DB, unless
+     * dedup.completed.confirm is false
+     * @return null if dedup.completed is false
+     */
+    protected synchronized CompletedIdFilter completedIds() {
+        if(completedIds!=null || !Boolean.parseBoolean(prop.getProperty("dedup.completed", "false")))
+            return completedIds;
+        CompletedIdFilter filter = new CompletedIdFilter(Long.parseLong(prop.getProperty("dedup.completed.ids", "1000000")),
+                Double.parseDouble(prop.getProperty("dedup.completed.fpp", "0.000001")),
+                Long.parseLong(prop.getProperty("dedup.completed.maxBytes", "67108864")));
+        if(Boolean.parseBoolean(prop.getProperty("dedup.completed.confirm", "true"))
+                && !ColumnarWriter.SINK_TYPE.equals(prop.getProperty("sink.type"))) {
+            try {
+                filter.setConfirm(LogEntrySchema.rowExists(dataSource,
+                        partitions() == null ? LogEntrySchema.TABLE : LogEntryPartitions.VIEW));
+            } catch (SQLException e) {
+                throw new IllegalStateException("Cannot read the LOGENTRY buckets", e);
+            }
+        }
+        completedIds = filter;
+        return filter;
+    }
+
+    /**
+     * Wrties the LogEntry to the DB. The writer is created on first use so it picks up the current connection or DataSource.
+     * With one writer the calling thread writes through a JdbcBatchWriter, holding the processor lock as the pipeline
+     * writer threads share the single connection. With more the entry is queued on a JdbcWriterPool.
+     * With sink.type columnar the entry is appended to the ColumnarWriter instead.
+     * Rows are merged on id unless db.write.mode is insert, so processing the same file again leaves the table unchanged.
      * @param entry
      * @throws SQLException
+     * @throws IOException
+     */
+    protected void save(LogEntry entry)throws SQLException, IOException{
+        if(stats!=null)
+            stats.record(entry);
+        if(ColumnarWriter.SINK_TYPE.equals(prop.getProperty("sink.type"))) {
+            columnarWriter().write(entry);
+            return;
+        }
+        if(writers() > 1) {
+            writerPool().write(entry);
+            return;
+        }
+        synchronized (this) {
+            if(writer==null) {
+                writer = new JdbcBatchWriter(connection, writeSql(), partitions(), batchSize(), commitIntervalMs());
+                writer.setMetrics(metrics);
+            }
+            writer.write(entry);
+        }
+    }
+
+    private synchronized ColumnarWriter columnarWriter() throws IOException {
+        if(columnarWriter==null) {
+            String path = prop.getProperty("sink.columnar.file", "");
+            columnarWriter = new ColumnarWriter(path.isEmpty() ? new File(file.getPath() + ".col") : new File(path));
+        }
+        return columnarWriter;
+    }
+
+    private synchronized JdbcWriterPool writerPool() throws SQLException {
+        if(writerPool==null) {
+            writerPool = new JdbcWriterPool(dataSource, writeSql(), partitions(), writers(),
+                    Integer.parseInt(prop.getProperty("pipeline.queue.capacity", "10000")),
+                    batchSize(), commitIntervalMs(), metrics);
+        }
+        return writerPool;
+    }
+
+    /**
+     * Creates the partitions of db.partition on first use, reading the buckets already in the DB
+     * @return null if db.partition is none
+     * @throws SQLException
+     */
+    protected synchronized LogEntryPartitions partitions() throws SQLException {
+        if(partitions==null) {
+            partitions = LogEntryPartitions.of(prop.getProperty("db.partition"));
+            if(partitions!=null)
+                partitions.refresh(connection);
+        }
+        return partitions;
+    }
+
+    /**
+     * Applies db.retention.ms: drops the buckets that ended, and deletes the LOGENTRY rows that started, longer ago
+     * than that. Nothing is dropped if it is 0 or rows go to a columnar file.
+     * @return buckets dropped plus rows deleted
+     * @throws SQLException
+     */
+    protected synchronized int retain() throws SQLException {
+        long retentionMs = Long.parseLong(prop.getProperty("db.retention.ms", "0"));
+        if(retentionMs <= 0 || ColumnarWriter.SINK_TYPE.equals(prop.getProperty("sink.type")))
+            return 0;
+        long cutoff = System.currentTimeMillis() - retentionMs;
+        int dropped = partitions() == null ? 0 : partitions.dropBefore(connection, cutoff);
+        int deleted = LogEntrySchema.deleteStartedBefore(connection, cutoff);
+        if(dropped > 0 || deleted > 0)
+            log.info("Retention of " + retentionMs + " ms dropped " + dropped + " buckets and deleted " + deleted + " LOGENTRY rows");
+        return dropped + deleted;
+    }
+
+    private String writeSql() {
+        return LogEntrySchema.writeSql(prop.getProperty("db.write.mode"));
+    }
+
+    private int filesThreads() {
+        int threads = Integer.parseInt(prop.getProperty("files.threads", "0"));
+        return threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    }
+
+    private int decompressThreads() {
+        int threads = Integer.parseInt(prop.getProperty("input.decompress.threads", "0"));
+        return threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    }
+
+    private InputFormat inputFormat() {
+        return InputFormat.of(prop.getProperty("input.format"));
+    }
+
+    /**
+     * @return false for a compressed or binary file, which has no byte offsets to split at and is parsed as a stream instead
      */
-    protected void save(LogEntry entry)throws SQLException{
-        PreparedStatement ps = connection.prepareStatement(SQL);
-        ps.setString(1, entry.getId());
-        ps.setString(2, entry.getType());
-        ps.setString(3, entry.getHost());
-        ps.setBoolean(4, entry.isAlert());
-        ps.setLong(5, entry.getDuration());
-        //(id, type, host, alarm, duration)
-        ps.executeUpdate();
+    private boolean splittable() throws IOException {
+        if (InputFiles.isCompressed(file)) {
+            log.info(file + " is compressed, parsing it as a stream instead of splitting it");
+            return false;
+        }
+        if (!InputFormat.resolve(file, inputFormat()).isText()) {
+            log.info(file + " is binary, parsing it as a stream instead of splitting it");
+            return false;
+        }
+        return true;
+    }
+
+    private long queueDepth() {
+        ParallelPipeline running = pipeline;
+        JdbcWriterPool pool = writerPool;
+        return (running == null ? 0 : running.queueDepth()) + (pool == null ? 0 : pool.queueDepth());
+    }
+
+    private long storeTimeoutMs() {
+        return Long.parseLong(prop.getProperty("store.timeout.ms", "0"));
+    }
+
+    private int writers() {
+        return Integer.parseInt(prop.getProperty("jdbc.writers", "1"));
+    }
+
+    private int batchSize() {
+        return Integer.parseInt(prop.getProperty("jdbc.batch.size", "1000"));
+    }
+
+    private long commitIntervalMs() {
+        return Long.parseLong(prop.getProperty("jdbc.commit.interval.ms", "1000"));
+    }
+
+    /**
+     * Commits any rows still buffered in the batch writer or writer threads, or writes them to the columnar file
+     * @throws IOException
+     */
+    protected synchronized void flush() throws IOException {
+        if(columnarWriter!=null)
+            columnarWriter.flush();
+        try {
+            if(writer!=null)
+                writer.flush();
+            if(writerPool!=null)
+                writerPool.flush();
+        } catch (SQLException e) {
+            throw new IOException("Failed to commit batch", e);
+        }
     }
 
 }
@@ -1,7 +1,12 @@
 package com.example.demo;
 
+import com.example.demo.model.LogEntry;
+import com.example.demo.sink.DataSources;
+import com.example.demo.sink.LogEntrySchema;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanFactoryPostProcessor;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
 import org.springframework.boot.Banner;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
@@ -11,7 +16,6 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.dao.annotation.PersistenceExceptionTranslationPostProcessor;
 import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
-import org.springframework.jdbc.datasource.DriverManagerDataSource;
 import org.springframework.orm.jpa.JpaTransactionManager;
 import org.springframework.orm.jpa.JpaVendorAdapter;
 import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
@@ -22,48 +26,92 @@ import javax.persistence.EntityManagerFactory;
 import javax.sql.DataSource;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
 import java.util.Properties;
 
 /**
  * Spring Boot starter class
+ * With startup.fast the context is cut down to what a command line run needs: every bean is created lazily, so auto
+ * configured beans nothing uses are never built, Spring's own JMX beans and the devtools restarter are off, LogEntry is
+ * registered directly instead of scanning for entities, and Hibernate neither probes the JDBC metadata nor runs
+ * hbm2ddl. The schema is checked by LogEntrySchema instead, and only when the database's version stamp is out of date.
  */
 @Slf4j
 @SpringBootApplication
 public class SpringBootProcessor {
-	@Autowired
-	JacksonJpaProcessor jacksonJpaProcessor;
-	private static File file;
+	private static List<File> files;
+	private static boolean follow;
+	@Value("${jpa.bulk.size:0}")
+	private int bulkSize;
+	@Value("${jdbc.pool.size:10}")
+	private int poolSize;
+	@Value("${startup.fast:false}")
+	private boolean fastStart;
 
 
 	/**
-	 * main method for starting. Takes the filename
+	 * main method for starting. Takes the files, each given as a file, a directory or a glob, or one file and --follow to tail the file as it grows.
+	 * All of them are processed in this one JVM.
 	 * @param args
 	 * @throws IOException
 	 */
 	public static void main(String[] args) throws IOException{
 		if(args.length<1){
-			System.out.println("Usage SpringBootProcessor <filename>");
+			System.out.println("Usage SpringBootProcessor <filename|directory|glob>... [--follow]");
 			System.exit(1);
 		}
-		file = new File(args[0]);
-		if(!file.isFile()){
-			System.out.println("Cannot find "+args[0]+ " from "+System.getProperty("user.dir"));
+		follow = args.length > 1 && PlainJacksonJdbcProcessor.FOLLOW_ARG.equals(args[1]);
+		files = follow ? Collections.singletonList(new File(args[0])) : PlainJacksonJdbcProcessor.inputFiles(args);
+		if(files.isEmpty()){
+			System.out.println("Cannot find "+String.join(" ", args)+ " from "+System.getProperty("user.dir"));
 			System.exit(1);
 		}
+		boolean fast = fastStart();
+		if(fast) {
+			// Read by devtools, if on the classpath, before the context starts
+			System.setProperty("spring.devtools.restart.enabled", "false");
+		}
 		SpringApplication app = new SpringApplication(SpringBootProcessor.class);
 
 		app.setBannerMode(Banner.Mode.OFF);
+		if(fast) {
+			app.addInitializers(context -> context.addBeanFactoryPostProcessor(new LazyInitPostProcessor()));
+			app.setDefaultProperties(Collections.singletonMap("spring.jmx.enabled", "false"));
+		}
 		app.run(args);
 
 	}
 
 
+	/**
+	 * @return startup.fast from a system property, or else from application.properties
+	 * @throws IOException
+	 */
+	static boolean fastStart() throws IOException {
+		Properties prop = new Properties();
+		try (InputStream in = SpringBootProcessor.class.getClassLoader().getResourceAsStream("application.properties")) {
+			if(in != null)
+				prop.load(in);
+		}
+		return Boolean.parseBoolean(System.getProperty("startup.fast", prop.getProperty("startup.fast", "false")));
+	}
+
 	@Bean
 	public LocalContainerEntityManagerFactoryBean entityManagerFactory() {
 		LocalContainerEntityManagerFactoryBean em
 				= new LocalContainerEntityManagerFactoryBean();
 		em.setDataSource(dataSource());
-		em.setPackagesToScan(new String[] { "com.example.demo.model" });
+		if(fastStart) {
+			// The one entity, without scanning the package for it
+			em.setPackagesToScan();
+			em.setPersistenceUnitPostProcessors(unit -> unit.addManagedClassName(LogEntry.class.getName()));
+		} else {
+			em.setPackagesToScan(new String[] { "com.example.demo.model" });
+		}
 
 		JpaVendorAdapter vendorAdapter = new HibernateJpaVendorAdapter();
 		em.setJpaVendorAdapter(vendorAdapter);
@@ -72,14 +120,13 @@ public class SpringBootProcessor {
 		return em;
 	}
 
+	/**
+	 * Pooled, so the per save transactions and the pipeline writer threads reuse open connections. Closed with the context.
+	 * @return
+	 */
 	@Bean
 	public DataSource dataSource(){
-		DriverManagerDataSource dataSource = new DriverManagerDataSource();
-		dataSource.setDriverClassName("org.hsqldb.jdbc.JDBCDriver");
-		dataSource.setUrl("jdbc:hsqldb:file:working/jsonDbFile");
-		dataSource.setUsername( "sa" );
-		dataSource.setPassword( "" );
-		return dataSource;
+		return DataSources.pooled("jdbc:hsqldb:file:working/jsonDbFile", "sa", "", poolSize);
 	}
 
 	@Bean
@@ -98,25 +145,61 @@ public class SpringBootProcessor {
 
 	Properties additionalProperties() {
 		Properties properties = new Properties();
-		properties.setProperty("hibernate.hbm2ddl.auto", "update");
+		if(fastStart) {
+			try (Connection c = dataSource().getConnection()) {
+				if(LogEntrySchema.ensureIfStale(c))
+					log.info("Updated the LOGENTRY schema to version " + LogEntrySchema.VERSION);
+			} catch (SQLException e) {
+				throw new IllegalStateException("Cannot check the LOGENTRY schema", e);
+			}
+			properties.setProperty("hibernate.hbm2ddl.auto", "none");
+			properties.setProperty("hibernate.temp.use_jdbc_metadata_defaults", "false");
+		} else {
+			properties.setProperty("hibernate.hbm2ddl.auto", "update");
+		}
 		properties.setProperty(
 				"hibernate.dialect", "org.hibernate.dialect.HSQLDialect");
+		if(bulkSize > 0) {
+			// Let Hibernate group the inserts of a bulk chunk into JDBC batches
+			properties.setProperty("hibernate.jdbc.batch_size", String.valueOf(bulkSize));
+			properties.setProperty("hibernate.order_inserts", "true");
+			properties.setProperty("hibernate.jdbc.batch_versioned_data", "true");
+		}
 
 		return properties;
 	}
 	/**
 	 * Define the JacksonJpaProcessor bean that will do the work.
 	 * Spring boot will call this method on after run is called.
+	 * The processor is a parameter rather than a field, as it needs the entity manager this class creates, which must
+	 * not be created before this class's own properties are injected.
+	 * @param jacksonJpaProcessor
 	 * @return
 	 * @throws IOException
 	 */
 	@Bean
-	public CommandLineRunner runJacksonJpaProcessor() throws IOException {
+	public CommandLineRunner runJacksonJpaProcessor(JacksonJpaProcessor jacksonJpaProcessor) throws IOException {
 		return (args) -> {
-			log.info("Start processing json file");
-			jacksonJpaProcessor.setFile(file);
-			jacksonJpaProcessor.process();
+			log.info("Start processing " + files.size() + " json file(s)");
+			jacksonJpaProcessor.setFile(files.get(0));
+			jacksonJpaProcessor.setFiles(files);
+			if(follow)
+				jacksonJpaProcessor.follow();
+			else
+				jacksonJpaProcessor.process();
 		};
 	}
 
+	/**
+	 * Marks every bean lazy, so only the beans the runner reaches are created. Runs after the configuration classes
+	 * have registered their beans.
+	 */
+	static class LazyInitPostProcessor implements BeanFactoryPostProcessor {
+		@Override
+		public void postProcessBeanFactory(ConfigurableListableBeanFactory beanFactory) {
+			for(String name : beanFactory.getBeanDefinitionNames())
+				beanFactory.getBeanDefinition(name).setLazyInit(true);
+		}
+	}
+
 }
@@ -0,0 +1,130 @@
+package com.example.demo.cluster;
+
+import com.example.demo.model.LogEntry;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the frames FrameWriter writes. Call next for the type of each frame, then the method reading its fields.
+ * Not thread safe.
+ */
+class FrameReader {
+
+    private static final int BUFFER = 64 * 1024;
+    private static final LogEntry.State[] STATES = LogEntry.State.values();
+
+    private final DataInputStream in;
+    private final List<String> strings = new ArrayList<>();
+    private long lastTimestamp;
+
+    FrameReader(InputStream in) {
+        this.in = new DataInputStream(new BufferedInputStream(in, BUFFER));
+    }
+
+    /**
+     * @return the type of the next frame, -1 at the end of the stream
+     * @throws IOException
+     */
+    int next() throws IOException {
+        return in.read();
+    }
+
+    /**
+     * Reads a HELLO frame, checking its magic
+     * @return the shard and shard count the coordinator assigned
+     * @throws IOException if the stream does not start with a HELLO of this protocol version
+     */
+    int[] hello() throws IOException {
+        int type = next();
+        if (type != Frames.HELLO || in.readInt() != Frames.MAGIC)
+            throw new IOException("Not a shard coordinator, or a different protocol version");
+        return new int[]{(int) readVarLong(), (int) readVarLong()};
+    }
+
+    LogEntry entry() throws IOException {
+        String id = readLiteral();
+        int state = in.readUnsignedByte();
+        if (state >= STATES.length)
+            throw new IOException("Unknown state " + state + " for " + id);
+        String type = readString();
+        String host = readString();
+        long zigzag = readVarLong();
+        lastTimestamp += zigzag >>> 1 ^ -(zigzag & 1);
+        return LogEntry.builder()
+                .id(id)
+                .state(STATES[state])
+                .type(type)
+                .host(host)
+                .timestamp(lastTimestamp)
+                .build();
+    }
+
+    /**
+     * @return records, completed and pending
+     * @throws IOException
+     */
+    long[] progress() throws IOException {
+        return new long[]{readVarLong(), readVarLong(), readVarLong()};
+    }
+
+    ShardReport report() throws IOException {
+        ShardReport report = new ShardReport();
+        report.setRecords(readVarLong());
+        report.setCompleted(readVarLong());
+        report.setTimeouts(readVarLong());
+        report.setOrphans(readVarLong());
+        return report;
+    }
+
+    String error() throws IOException {
+        return readLiteral();
+    }
+
+    private String readString() throws IOException {
+        long code = readVarLong();
+        if (code == Frames.NULL)
+            return null;
+        if (code == Frames.LITERAL)
+            return readLiteral();
+        if (code == Frames.NEW) {
+            String s = readLiteral();
+            strings.add(s);
+            return s;
+        }
+        long index = code - Frames.TABLE;
+        if (index >= strings.size())
+            throw new IOException("Unknown string table entry " + index);
+        return strings.get((int) index);
+    }
+
+    private String readLiteral() throws IOException {
+        long length = readVarLong();
+        if (length == 0)
+            return null;
+        if (length - 1 > Integer.MAX_VALUE)
+            throw new IOException("String of " + (length - 1) + " bytes");
+        byte[] bytes = new byte[(int) (length - 1)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private long readVarLong() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b < 0)
+                throw new EOFException("Stream ended inside a frame");
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new IOException("Malformed varint");
+    }
+}
@@ -0,0 +1,123 @@
+package com.example.demo.cluster;
+
+import com.example.demo.model.LogEntry;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes the frames of the coordinator/worker protocol, see Frames.
+ * An entry is its id, its state as one byte, its type and host as codes into a string table built up as the stream
+ * goes, so the few distinct values are sent once, and its timestamp as a zigzag varint delta from the entry before,
+ * a byte or two for a time ordered log. A typical entry takes under 20 bytes against 100 or so of JSON.
+ * Frames are buffered, call flush to send them. Not thread safe.
+ */
+class FrameWriter implements Flushable {
+
+    private static final int BUFFER = 64 * 1024;
+
+    private final DataOutputStream out;
+    private final Map<String, Integer> strings = new HashMap<>();
+    private long lastTimestamp;
+
+    FrameWriter(OutputStream out) {
+        this.out = new DataOutputStream(new BufferedOutputStream(out, BUFFER));
+    }
+
+    void hello(int shard, int shards) throws IOException {
+        out.writeByte(Frames.HELLO);
+        out.writeInt(Frames.MAGIC);
+        writeVarLong(shard);
+        writeVarLong(shards);
+    }
+
+    /**
+     * @param type Frames.ENTRY or Frames.ORPHAN
+     * @param entry
+     * @throws IOException
+     */
+    void entry(byte type, LogEntry entry) throws IOException {
+        out.writeByte(type);
+        writeLiteral(entry.getId());
+        out.writeByte(entry.getState().ordinal());
+        writeString(entry.getType());
+        writeString(entry.getHost());
+        long delta = entry.getTimestamp() - lastTimestamp;
+        writeVarLong(delta << 1 ^ delta >> 63);
+        lastTimestamp = entry.getTimestamp();
+    }
+
+    void end() throws IOException {
+        out.writeByte(Frames.END);
+    }
+
+    void progress(long records, long completed, long pending) throws IOException {
+        out.writeByte(Frames.PROGRESS);
+        writeVarLong(records);
+        writeVarLong(completed);
+        writeVarLong(pending);
+    }
+
+    void report(ShardReport report) throws IOException {
+        out.writeByte(Frames.REPORT);
+        writeVarLong(report.getRecords());
+        writeVarLong(report.getCompleted());
+        writeVarLong(report.getTimeouts());
+        writeVarLong(report.getOrphans());
+    }
+
+    void error(String message) throws IOException {
+        out.writeByte(Frames.ERROR);
+        writeLiteral(message);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    private void writeString(String s) throws IOException {
+        if (s == null) {
+            writeVarLong(Frames.NULL);
+            return;
+        }
+        Integer index = strings.get(s);
+        if (index != null) {
+            writeVarLong(Frames.TABLE + index);
+        } else if (strings.size() < Frames.MAX_TABLE) {
+            strings.put(s, strings.size());
+            writeVarLong(Frames.NEW);
+            writeLiteral(s);
+        } else {
+            writeVarLong(Frames.LITERAL);
+            writeLiteral(s);
+        }
+    }
+
+    /**
+     * Length plus one then the UTF-8 bytes, 0 for null
+     */
+    private void writeLiteral(String s) throws IOException {
+        if (s == null) {
+            writeVarLong(0);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(bytes.length + 1L);
+        out.write(bytes);
+    }
+
+    private void writeVarLong(long value) throws IOException {
+        while ((value & ~0x7fL) != 0) {
+            out.writeByte((int) (value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+}
@@ -0,0 +1,32 @@
+package com.example.demo.cluster;
+
+/**
+ * Frame types of the stream between a ShardCoordinator and its ShardWorkers. Each frame is its type byte followed by
+ * its fields, see FrameWriter.
+ * The coordinator opens with a HELLO and sends ENTRY frames then END. The worker answers with PROGRESS frames as it
+ * goes, and after END the entries it still holds as ORPHAN frames then a REPORT, or an ERROR if it fails.
+ */
+final class Frames {
+
+    /** Protocol version and magic, "LOG1", so a worker rejects a stray connection or a mismatched coordinator */
+    static final int MAGIC = 0x4c4f4731;
+
+    static final byte HELLO = 1;
+    static final byte ENTRY = 2;
+    static final byte END = 3;
+    static final byte PROGRESS = 4;
+    static final byte ORPHAN = 5;
+    static final byte REPORT = 6;
+    static final byte ERROR = 7;
+
+    /** String table codes, a higher code is an index into the table plus TABLE */
+    static final int NULL = 0;
+    static final int LITERAL = 1;
+    static final int NEW = 2;
+    static final int TABLE = 3;
+    /** Distinct type and host values given table codes, later ones are sent as literals */
+    static final int MAX_TABLE = 1 << 16;
+
+    private Frames() {
+    }
+}
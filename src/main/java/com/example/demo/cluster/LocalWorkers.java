@@ -0,0 +1,122 @@
+package com.example.demo.cluster;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+
+/**
+ * ShardWorker JVMs started on this machine, so a distributed run can be tried on one box. Each child runs with this
+ * JVM's java and class path, is asked to listen on a free port, and announces it with ShardWorker.LISTENING on stdout.
+ * The rest of its output is copied to this process's stdout, prefixed with its shard.
+ * Closing destroys any child still running.
+ */
+@Slf4j
+public class LocalWorkers implements AutoCloseable {
+
+    private final List<Process> processes = new ArrayList<>();
+    private final List<InetSocketAddress> addresses = new ArrayList<>();
+
+    /**
+     * Starts the workers and waits until each is listening
+     * @param count number of workers
+     * @param jvmArgs options for the child JVMs, e.g. -Xmx512m
+     * @param mainClass class whose main runs a worker
+     * @param args arguments to main for each shard
+     * @throws IOException if a worker cannot be started or exits before listening
+     */
+    public LocalWorkers(int count, List<String> jvmArgs, String mainClass, IntFunction<List<String>> args) throws IOException {
+        if (count < 1) {
+            throw new IllegalArgumentException("count must be positive: " + count);
+        }
+        try {
+            for (int shard = 0; shard < count; shard++) {
+                List<String> command = new ArrayList<>();
+                command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+                command.addAll(jvmArgs);
+                command.add("-cp");
+                command.add(System.getProperty("java.class.path"));
+                command.add(mainClass);
+                command.addAll(args.apply(shard));
+                Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+                processes.add(process);
+                addresses.add(new InetSocketAddress("127.0.0.1", awaitPort(shard, process)));
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+        log.info("Started " + count + " local shard workers on " + addresses);
+    }
+
+    /**
+     * @return where the workers listen, in shard order
+     */
+    public List<InetSocketAddress> addresses() {
+        return addresses;
+    }
+
+    /**
+     * Waits for every worker to exit, as each does once its coordinator has finished
+     * @param timeoutMs per worker
+     * @throws IOException if a worker exits with an error or is still running after timeoutMs
+     */
+    public void awaitExit(long timeoutMs) throws IOException {
+        for (int shard = 0; shard < processes.size(); shard++) {
+            Process process = processes.get(shard);
+            try {
+                if (!process.waitFor(timeoutMs, TimeUnit.MILLISECONDS))
+                    throw new IOException("Shard worker " + shard + " still running after " + timeoutMs + " ms");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for shard worker " + shard);
+            }
+            if (process.exitValue() != 0)
+                throw new IOException("Shard worker " + shard + " exited with " + process.exitValue());
+        }
+    }
+
+    @Override
+    public void close() {
+        for (Process process : processes) {
+            if (process.isAlive())
+                process.destroy();
+        }
+    }
+
+    /**
+     * Reads the child's output up to its port, then leaves a thread copying the rest
+     */
+    private static int awaitPort(int shard, Process process) throws IOException {
+        BufferedReader out = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+        String prefix = "[shard " + shard + "] ";
+        for (String line = out.readLine(); line != null; line = out.readLine()) {
+            if (line.startsWith(ShardWorker.LISTENING)) {
+                Thread pump = new Thread(() -> pump(prefix, out), "shard-" + shard + "-output");
+                pump.setDaemon(true);
+                pump.start();
+                return Integer.parseInt(line.substring(ShardWorker.LISTENING.length()).trim());
+            }
+            System.out.println(prefix + line);
+        }
+        throw new IOException("Shard worker " + shard + " exited before listening");
+    }
+
+    private static void pump(String prefix, BufferedReader out) {
+        try {
+            for (String line = out.readLine(); line != null; line = out.readLine())
+                System.out.println(prefix + line);
+        } catch (IOException e) {
+            // The child has exited
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.example.demo.cluster;
+
+import com.example.demo.model.LogEntry;
+import com.example.demo.store.PendingStore;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Spreads the entries of a run over ShardWorkers, each usually its own JVM with its own pending store and DB writer,
+ * so correlation and writing scale past one process. An entry goes to the worker its id hashes to, so both events of
+ * a pair meet in the same worker and the workers never talk to each other.
+ * Entries are sent over TCP in the compact frames of FrameWriter. One thread per worker reads back its progress,
+ * logged in total every progressIntervalMs, and at the end its orphans, which are put into the caller's store for
+ * reporting, and its totals. A worker that fails fails the run: the next submit or finish throws.
+ * Workers are given as addresses, so they may be on this machine, see LocalWorkers, or on other nodes.
+ * submit is called from one thread.
+ */
+@Slf4j
+public class ShardCoordinator implements AutoCloseable {
+
+    private static final int CONNECT_TIMEOUT_MS = 10000;
+
+    private final List<Socket> sockets = new ArrayList<>();
+    private final List<FrameWriter> writers = new ArrayList<>();
+    private final List<Thread> readers = new ArrayList<>();
+    private final PendingStore orphans;
+    private final ShardReport[] reports;
+    /** Last progress of each shard: records, completed, pending */
+    private final long[][] progress;
+    private long lastProgressLog;
+    private volatile IOException failure;
+    @Setter
+    private long progressIntervalMs = 5000;
+
+    /**
+     * Connects to the workers
+     * @param workers one address per shard
+     * @param orphans receives the entries left pending by every worker, distinct as each id belongs to one shard
+     * @throws IOException if a worker cannot be reached
+     */
+    public ShardCoordinator(List<InetSocketAddress> workers, PendingStore orphans) throws IOException {
+        if (workers.isEmpty()) {
+            throw new IllegalArgumentException("No workers given");
+        }
+        this.orphans = orphans;
+        this.reports = new ShardReport[workers.size()];
+        this.progress = new long[workers.size()][3];
+        try {
+            for (int shard = 0; shard < workers.size(); shard++) {
+                Socket socket = new Socket();
+                sockets.add(socket);
+                socket.connect(workers.get(shard), CONNECT_TIMEOUT_MS);
+                socket.setTcpNoDelay(true);
+                FrameWriter writer = new FrameWriter(socket.getOutputStream());
+                writer.hello(shard, workers.size());
+                writers.add(writer);
+                int s = shard;
+                FrameReader reader = new FrameReader(socket.getInputStream());
+                Thread thread = new Thread(() -> read(s, reader), "shard-" + shard);
+                thread.setDaemon(true);
+                thread.start();
+                readers.add(thread);
+            }
+        } catch (IOException e) {
+            close();
+            throw new IOException("Cannot connect to shard worker " + workers.get(sockets.size() - 1), e);
+        }
+        log.info("Coordinating " + workers.size() + " shard workers " + workers);
+    }
+
+    /**
+     * Sends the entry to the worker owning its id
+     * @param entry
+     * @throws IOException if the worker's connection is broken or a worker has failed
+     */
+    public void submit(LogEntry entry) throws IOException {
+        checkFailure();
+        int shard = shard(entry.getId(), writers.size());
+        try {
+            writers.get(shard).entry(Frames.ENTRY, entry);
+        } catch (IOException e) {
+            // A worker that failed has usually said why before dropping the connection
+            await(readers.get(shard), CONNECT_TIMEOUT_MS);
+            checkFailure();
+            throw e;
+        }
+    }
+
+    /**
+     * @param id
+     * @param shards
+     * @return the shard the id belongs to
+     */
+    public static int shard(String id, int shards) {
+        return id == null ? 0 : (id.hashCode() & Integer.MAX_VALUE) % shards;
+    }
+
+    /**
+     * Ends the input of every worker and waits for their orphans and totals
+     * @return the totals over all shards
+     * @throws IOException if a worker failed or closed its connection early
+     */
+    public ShardReport finish() throws IOException {
+        checkFailure();
+        try {
+            for (FrameWriter writer : writers) {
+                writer.end();
+                writer.flush();
+            }
+        } catch (IOException e) {
+            for (Thread reader : readers)
+                await(reader, CONNECT_TIMEOUT_MS);
+            checkFailure();
+            throw e;
+        }
+        for (Thread reader : readers)
+            await(reader, 0);
+        checkFailure();
+        ShardReport total = new ShardReport();
+        for (ShardReport report : reports)
+            total.add(report);
+        return total;
+    }
+
+    @Override
+    public void close() {
+        for (Socket socket : sockets) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                log.warn("Failed to close " + socket, e);
+            }
+        }
+    }
+
+    private void read(int shard, FrameReader reader) {
+        try {
+            for (int type = reader.next(); ; type = reader.next()) {
+                if (type == Frames.PROGRESS) {
+                    progress(shard, reader.progress());
+                } else if (type == Frames.ORPHAN) {
+                    LogEntry orphan = reader.entry();
+                    synchronized (orphans) {
+                        orphans.put(orphan.getId(), orphan);
+                    }
+                } else if (type == Frames.REPORT) {
+                    reports[shard] = reader.report();
+                    log.info("Shard " + shard + " done: " + reports[shard]);
+                    return;
+                } else if (type == Frames.ERROR) {
+                    fail(new IOException("Shard worker " + shard + " failed: " + reader.error()));
+                    return;
+                } else if (type < 0) {
+                    fail(new IOException("Shard worker " + shard + " closed its connection before reporting"));
+                    return;
+                } else {
+                    fail(new IOException("Unexpected frame " + type + " from shard worker " + shard));
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            fail(new IOException("Lost shard worker " + shard + ": " + e, e));
+        }
+    }
+
+    private synchronized void progress(int shard, long[] shardProgress) {
+        progress[shard] = shardProgress;
+        long now = System.currentTimeMillis();
+        if (now - lastProgressLog < progressIntervalMs)
+            return;
+        lastProgressLog = now;
+        long[] total = new long[3];
+        for (long[] p : progress) {
+            for (int i = 0; i < total.length; i++)
+                total[i] += p[i];
+        }
+        log.info(reports.length + " shards: " + total[0] + " records, " + total[1] + " completed, " + total[2] + " pending");
+    }
+
+    private static void await(Thread reader, long timeoutMs) throws InterruptedIOException {
+        try {
+            reader.join(timeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for shard workers");
+        }
+    }
+
+    private void fail(IOException e) {
+        if (failure == null)
+            failure = e;
+    }
+
+    private void checkFailure() throws IOException {
+        IOException e = failure;
+        if (e != null)
+            throw new IOException(e.getMessage(), e);
+    }
+}
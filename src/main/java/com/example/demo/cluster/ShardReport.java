@@ -0,0 +1,30 @@
+package com.example.demo.cluster;
+
+import lombok.Data;
+
+/**
+ * Totals a ShardWorker sends once its input has ended, summed over the shards by the ShardCoordinator
+ */
+@Data
+public class ShardReport {
+
+    /** Entries received */
+    private long records;
+    /** Pairs written */
+    private long completed;
+    /** Entries written as timeout alerts */
+    private long timeouts;
+    /** Entries still waiting for their partner at the end */
+    private long orphans;
+
+    /**
+     * Adds another shard's totals to these
+     * @param other
+     */
+    public void add(ShardReport other) {
+        records += other.records;
+        completed += other.completed;
+        timeouts += other.timeouts;
+        orphans += other.orphans;
+    }
+}
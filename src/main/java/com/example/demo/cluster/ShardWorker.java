@@ -0,0 +1,164 @@
+package com.example.demo.cluster;
+
+import com.example.demo.EventCorrelator;
+import com.example.demo.model.LogEntry;
+import com.example.demo.sink.LogEntrySink;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.EOFException;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * Correlates one shard of the entries of a distributed run, see ShardCoordinator. The coordinator sends every entry
+ * whose id hashes to this shard, so both events of a pair arrive here and the worker's own pending store and sink
+ * need no coordination with the other shards.
+ * Completed and timed out entries are written to the sink as they are found. Progress is sent back every
+ * progressIntervalMs, and once the input ends the sink is flushed and the entries still pending are sent back as
+ * orphans, followed by the shard's totals.
+ * Normally run as its own JVM, see PlainJacksonJdbcProcessor --worker, but serve works over any pair of streams.
+ */
+@Slf4j
+public class ShardWorker {
+
+    /** Printed on stdout once the worker accepts connections, followed by its port, see LocalWorkers */
+    public static final String LISTENING = "Shard worker listening on port ";
+    /** Records between checks of the progress clock */
+    private static final int PROGRESS_CHECK = 1024;
+    private static final int DRAIN_TIMEOUT_MS = 30000;
+
+    private final EventCorrelator correlator;
+    private final LogEntrySink sink;
+    private final Flushable flush;
+    @Setter
+    private long progressIntervalMs = 1000;
+
+    /**
+     * @param correlator owns this shard's pending store
+     * @param sink destination for completed and timed out entries
+     * @param flush makes everything given to sink durable, called before the report is sent
+     */
+    public ShardWorker(EventCorrelator correlator, LogEntrySink sink, Flushable flush) {
+        this.correlator = correlator;
+        this.sink = sink;
+        this.flush = flush;
+    }
+
+    /**
+     * Listens on the port, announces it on stdout and serves the first coordinator to connect
+     * @param bind address to listen on, e.g. 127.0.0.1, or 0.0.0.0 for coordinators on other nodes
+     * @param port 0 for any free port
+     * @return the shard's totals
+     * @throws IOException
+     */
+    public ShardReport listen(String bind, int port) throws IOException {
+        try (ServerSocket server = new ServerSocket(port, 1, InetAddress.getByName(bind))) {
+            System.out.println(LISTENING + server.getLocalPort());
+            System.out.flush();
+            try (Socket socket = server.accept()) {
+                return serve(socket);
+            }
+        }
+    }
+
+    /**
+     * Serves the coordinator connected on the socket. On failure the rest of its input is read and dropped until the
+     * coordinator hangs up, as closing with input unread would reset the connection and could lose the ERROR frame.
+     * @param socket
+     * @return the shard's totals
+     * @throws IOException
+     */
+    public ShardReport serve(Socket socket) throws IOException {
+        socket.setTcpNoDelay(true);
+        log.info("Serving coordinator " + socket.getRemoteSocketAddress());
+        try {
+            return serve(socket.getInputStream(), socket.getOutputStream());
+        } catch (IOException | RuntimeException e) {
+            drain(socket);
+            throw e;
+        }
+    }
+
+    /**
+     * Correlates the entries read from in until the coordinator's END, answering on out
+     * @param in
+     * @param out
+     * @return the shard's totals
+     * @throws IOException if the stream is broken or an entry cannot be written, after sending the coordinator an ERROR
+     */
+    public ShardReport serve(InputStream in, OutputStream out) throws IOException {
+        FrameReader reader = new FrameReader(in);
+        FrameWriter writer = new FrameWriter(out);
+        ShardReport report = new ShardReport();
+        try {
+            int[] hello = reader.hello();
+            log.info("Correlating shard " + hello[0] + " of " + hello[1]);
+            long nextProgress = System.currentTimeMillis() + progressIntervalMs;
+            for (int type = reader.next(); type != Frames.END; type = reader.next()) {
+                if (type < 0)
+                    throw new EOFException("Coordinator closed the connection before the end of the input");
+                if (type != Frames.ENTRY)
+                    throw new IOException("Unexpected frame " + type);
+                LogEntry completed = correlator.correlate(reader.entry());
+                report.setRecords(report.getRecords() + 1);
+                if (completed != null) {
+                    write(completed);
+                    report.setCompleted(report.getCompleted() + 1);
+                }
+                for (LogEntry timedOut = correlator.pollTimedOut(); timedOut != null; timedOut = correlator.pollTimedOut())
+                    write(timedOut);
+                if (report.getRecords() % PROGRESS_CHECK == 0 && System.currentTimeMillis() >= nextProgress) {
+                    writer.progress(report.getRecords(), report.getCompleted(), correlator.getStore().size());
+                    writer.flush();
+                    nextProgress = System.currentTimeMillis() + progressIntervalMs;
+                }
+            }
+            flush.flush();
+            for (LogEntry orphan : correlator.getStore().values())
+                writer.entry(Frames.ORPHAN, orphan);
+            report.setTimeouts(correlator.getTimeouts());
+            report.setOrphans(correlator.getStore().size());
+            writer.report(report);
+            writer.flush();
+            return report;
+        } catch (IOException | RuntimeException e) {
+            try {
+                writer.error(e.toString());
+                writer.flush();
+            } catch (IOException ignored) {
+                // The coordinator has gone, it sees the connection drop instead
+            }
+            throw e;
+        }
+    }
+
+    private static void drain(Socket socket) {
+        try {
+            socket.shutdownOutput();
+            socket.setSoTimeout(DRAIN_TIMEOUT_MS);
+            InputStream in = socket.getInputStream();
+            byte[] buffer = new byte[8192];
+            while (in.read(buffer) >= 0) {
+                // Discard
+            }
+        } catch (IOException ignored) {
+            // Closed or timed out, either way done
+        }
+    }
+
+    private void write(LogEntry entry) throws IOException {
+        try {
+            sink.write(entry);
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Failed to write " + entry.getId(), e);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.demo.columnar;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Layout shared by ColumnarWriter and ColumnarReader.
+ * <pre>
+ * file   := MAGIC:int VERSION:int block*
+ * block  := length:int (bytes after this int)
+ *           rows:int minDuration:long maxDuration:long alertCount:int
+ *           typeDictionary hostDictionary
+ *           idBytes:int typeBytes:int hostBytes:int durationBytes:int alertBytes:int
+ *           ids types hosts durations alerts
+ * dictionary := count:int (length:short utf8)*
+ * ids       := (length:varint utf8)* per row
+ * types     := code per row, 1, 2 or 4 bytes wide depending on the dictionary size, 0 for null, n for entry n-1
+ * hosts     := as types
+ * durations := zigzag varint of the difference to the previous row's duration, the first row from 0
+ * alerts    := bitset, long per 64 rows, bit i of long i/64 set if row i is an alert
+ * </pre>
+ * All ints and longs are big endian. Blocks carry the min/max duration and alert count of their rows, and their
+ * dictionaries tell whether a type or host occurs at all, so a scan can skip blocks without reading their columns.
+ */
+final class ColumnarFormat {
+
+    static final int MAGIC = 0x4c4f4743;
+    static final int VERSION = 1;
+    static final int FILE_HEADER = 8;
+    /** Code of a null type or host */
+    static final int NULL_CODE = 0;
+
+    private ColumnarFormat() {
+    }
+
+    /**
+     * @return bytes per code for a dictionary of size entries plus the null code
+     */
+    static int codeWidth(int size) {
+        if (size < 0xff)
+            return 1;
+        if (size < 0xffff)
+            return 2;
+        return 4;
+    }
+
+    static void putCode(ByteBuffer buffer, int width, int code) {
+        switch (width) {
+            case 1:
+                buffer.put((byte) code);
+                break;
+            case 2:
+                buffer.putShort((short) code);
+                break;
+            default:
+                buffer.putInt(code);
+        }
+    }
+
+    static int getCode(ByteBuffer buffer, int offset, int width, int row) {
+        switch (width) {
+            case 1:
+                return buffer.get(offset + row) & 0xff;
+            case 2:
+                return buffer.getShort(offset + 2 * row) & 0xffff;
+            default:
+                return buffer.getInt(offset + 4 * row);
+        }
+    }
+
+    static void putVarLong(ByteBuffer buffer, long v) {
+        while ((v & ~0x7fL) != 0) {
+            buffer.put((byte) ((v & 0x7f) | 0x80));
+            v >>>= 7;
+        }
+        buffer.put((byte) v);
+    }
+
+    static long zigzag(long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    static long unzigzag(long v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+}
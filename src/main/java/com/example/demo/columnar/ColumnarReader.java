@@ -0,0 +1,253 @@
+package com.example.demo.columnar;
+
+import com.example.demo.model.LogEntry;
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Reads a file written by ColumnarWriter. Each block is memory mapped and its columns are read in place from the
+ * mapping, so nothing is copied onto the heap except the dictionaries and whatever the caller asks for.
+ * Block stats and dictionaries are available before any column is touched, so a scan for one type, host or duration
+ * range can skip whole blocks:
+ * <pre>
+ * reader.forEachBlock(block -&gt; {
+ *     int code = block.typeCode("APPLICATION_LOG");
+ *     if (code &lt; 0 || block.getAlertCount() == 0)
+ *         return;
+ *     for (int row = 0; row &lt; block.getRows(); row++)
+ *         if (block.typeCodeAt(row) == code &amp;&amp; block.alertAt(row)) ...
+ * });
+ * </pre>
+ */
+public class ColumnarReader implements Closeable {
+
+    private final File file;
+    private final FileChannel channel;
+
+    /**
+     * @param file
+     * @throws IOException if the file is not a columnar file
+     */
+    public ColumnarReader(File file) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        ByteBuffer header = readAt(0, ColumnarFormat.FILE_HEADER);
+        if (header.getInt() != ColumnarFormat.MAGIC || header.getInt() != ColumnarFormat.VERSION) {
+            channel.close();
+            throw new IOException(file + " is not a columnar file");
+        }
+    }
+
+    /**
+     * Maps each block in turn and hands it to the consumer. A block is only valid within the call.
+     * @param consumer
+     * @throws IOException if the file is truncated or corrupt
+     */
+    public void forEachBlock(Consumer<Block> consumer) throws IOException {
+        long size = channel.size();
+        long position = ColumnarFormat.FILE_HEADER;
+        while (position < size) {
+            if (size - position < Integer.BYTES)
+                throw new IOException(file + " is truncated at " + position);
+            int length = readAt(position, Integer.BYTES).getInt();
+            position += Integer.BYTES;
+            if (length < 0 || position + length > size)
+                throw new IOException(file + " is truncated at " + position);
+            consumer.accept(new Block(channel.map(FileChannel.MapMode.READ_ONLY, position, length)));
+            position += length;
+        }
+    }
+
+    /**
+     * Rebuilds every row as a LogEntry, in the order written. The state is FINISHED, timestamp is not stored.
+     * @param consumer
+     * @throws IOException
+     */
+    public void forEach(Consumer<LogEntry> consumer) throws IOException {
+        forEachBlock(block -> {
+            long[] durations = block.durations();
+            String[] ids = block.ids();
+            for (int row = 0; row < block.getRows(); row++) {
+                LogEntry entry = LogEntry.builder().id(ids[row]).state(LogEntry.State.FINISHED)
+                        .type(block.typeAt(row)).host(block.hostAt(row)).build();
+                entry.setDuration(durations[row]);
+                // setDuration derives alert from the current threshold, the file has the value at write time
+                entry.setAlert(block.alertAt(row));
+                consumer.accept(entry);
+            }
+        });
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private ByteBuffer readAt(long position, int length) throws IOException {
+        ByteBuffer b = ByteBuffer.allocate(length);
+        while (b.hasRemaining()) {
+            if (channel.read(b, position + b.position()) < 0)
+                throw new IOException(file + " is truncated at " + position);
+        }
+        b.flip();
+        return b;
+    }
+
+    /**
+     * One mapped block. Row accessors read straight from the mapping.
+     */
+    @Getter
+    public static class Block {
+        private final int rows;
+        private final long minDuration;
+        private final long maxDuration;
+        private final int alertCount;
+        private final List<String> types;
+        private final List<String> hosts;
+        @Getter(AccessLevel.NONE)
+        private final MappedByteBuffer data;
+        @Getter(AccessLevel.NONE)
+        private final int idOffset, typeOffset, hostOffset, durationOffset, alertOffset;
+        @Getter(AccessLevel.NONE)
+        private final int typeWidth, hostWidth;
+
+        Block(MappedByteBuffer data) {
+            this.data = data;
+            rows = data.getInt();
+            minDuration = data.getLong();
+            maxDuration = data.getLong();
+            alertCount = data.getInt();
+            types = dictionary(data);
+            hosts = dictionary(data);
+            int idBytes = data.getInt();
+            int typeBytes = data.getInt();
+            int hostBytes = data.getInt();
+            int durationBytes = data.getInt();
+            data.getInt(); // alertBytes, the rest of the block
+            idOffset = data.position();
+            typeOffset = idOffset + idBytes;
+            hostOffset = typeOffset + typeBytes;
+            durationOffset = hostOffset + hostBytes;
+            alertOffset = durationOffset + durationBytes;
+            typeWidth = ColumnarFormat.codeWidth(types.size());
+            hostWidth = ColumnarFormat.codeWidth(hosts.size());
+        }
+
+        /**
+         * @return the code typeCodeAt returns for rows of this type, or -1 if no row in the block has it.
+         * Null always gives the null code.
+         */
+        public int typeCode(String type) {
+            return code(types, type);
+        }
+
+        /**
+         * @return the code hostCodeAt returns for rows of this host, or -1 if no row in the block has it.
+         * Null always gives the null code.
+         */
+        public int hostCode(String host) {
+            return code(hosts, host);
+        }
+
+        public int typeCodeAt(int row) {
+            return ColumnarFormat.getCode(data, typeOffset, typeWidth, row);
+        }
+
+        public int hostCodeAt(int row) {
+            return ColumnarFormat.getCode(data, hostOffset, hostWidth, row);
+        }
+
+        public String typeAt(int row) {
+            int code = typeCodeAt(row);
+            return code == ColumnarFormat.NULL_CODE ? null : types.get(code - 1);
+        }
+
+        public String hostAt(int row) {
+            int code = hostCodeAt(row);
+            return code == ColumnarFormat.NULL_CODE ? null : hosts.get(code - 1);
+        }
+
+        public boolean alertAt(int row) {
+            return (data.getLong(alertOffset + (row >>> 6) * Long.BYTES) & (1L << row)) != 0;
+        }
+
+        /**
+         * @return the duration column, decoded from the deltas
+         */
+        public long[] durations() {
+            long[] durations = new long[rows];
+            int p = durationOffset;
+            long previous = 0;
+            for (int row = 0; row < rows; row++) {
+                long v = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = data.get(p++);
+                    v |= (long) (b & 0x7f) << shift;
+                    shift += 7;
+                } while (b < 0);
+                previous += ColumnarFormat.unzigzag(v);
+                durations[row] = previous;
+            }
+            return durations;
+        }
+
+        /**
+         * @return the id column
+         */
+        public String[] ids() {
+            String[] ids = new String[rows];
+            int p = idOffset;
+            byte[] bytes = new byte[64];
+            for (int row = 0; row < rows; row++) {
+                int length = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = data.get(p++);
+                    length |= (b & 0x7f) << shift;
+                    shift += 7;
+                } while (b < 0);
+                if (length > bytes.length)
+                    bytes = new byte[length];
+                for (int i = 0; i < length; i++)
+                    bytes[i] = data.get(p + i);
+                ids[row] = new String(bytes, 0, length, StandardCharsets.UTF_8);
+                p += length;
+            }
+            return ids;
+        }
+
+        private static int code(List<String> dictionary, String value) {
+            if (value == null)
+                return ColumnarFormat.NULL_CODE;
+            int i = dictionary.indexOf(value);
+            return i < 0 ? -1 : i + 1;
+        }
+
+        private static List<String> dictionary(ByteBuffer data) {
+            int count = data.getInt();
+            List<String> values = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                byte[] bytes = new byte[data.getShort() & 0xffff];
+                data.get(bytes);
+                values.add(new String(bytes, StandardCharsets.UTF_8));
+            }
+            return Collections.unmodifiableList(values);
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package com.example.demo.columnar;
+
+import com.example.demo.model.LogEntry;
+import com.example.demo.sink.LogEntrySink;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sink writing completed LogEntries (id, type, host, alert, duration, as in LOGENTRY) to a columnar file, see
+ * ColumnarFormat. Rows are buffered column by column in primitive arrays and written as a block every blockRows rows,
+ * on flush() and on close(). Each block is encoded into a direct buffer and written through a FileChannel, so the
+ * encoded bytes are not copied again on their way to the file.
+ * An existing file is replaced. Synchronized, as the pipeline writer threads share one writer.
+ */
+@Slf4j
+public class ColumnarWriter implements LogEntrySink, Flushable, AutoCloseable {
+
+    /** sink.type selecting this writer instead of the DB */
+    public static final String SINK_TYPE = "columnar";
+    public static final int DEFAULT_BLOCK_ROWS = 64 * 1024;
+    private static final int INITIAL_BUFFER = 4 * 1024 * 1024;
+
+    private final FileChannel channel;
+    private final int blockRows;
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(INITIAL_BUFFER);
+
+    private final String[] ids;
+    private final int[] types;
+    private final int[] hosts;
+    private final long[] durations;
+    private final long[] alerts;
+    private final Dictionary typeDictionary = new Dictionary();
+    private final Dictionary hostDictionary = new Dictionary();
+    private int rows;
+    private int alertCount;
+    private long minDuration;
+    private long maxDuration;
+    @Getter
+    private long written;
+    @Getter
+    private int blocks;
+
+    public ColumnarWriter(File file) throws IOException {
+        this(file, DEFAULT_BLOCK_ROWS);
+    }
+
+    /**
+     * @param file created or truncated
+     * @param blockRows rows per block
+     * @throws IOException
+     */
+    public ColumnarWriter(File file, int blockRows) throws IOException {
+        if (blockRows < 1) {
+            throw new IllegalArgumentException("blockRows must be positive: " + blockRows);
+        }
+        this.blockRows = blockRows;
+        this.ids = new String[blockRows];
+        this.types = new int[blockRows];
+        this.hosts = new int[blockRows];
+        this.durations = new long[blockRows];
+        this.alerts = new long[(blockRows + 63) / 64];
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        ByteBuffer header = ByteBuffer.allocate(ColumnarFormat.FILE_HEADER);
+        header.putInt(ColumnarFormat.MAGIC).putInt(ColumnarFormat.VERSION).flip();
+        writeFully(header);
+    }
+
+    /**
+     * Adds the entry to the current block, writing the block once it is full
+     * @param entry
+     * @throws IOException
+     */
+    @Override
+    public synchronized void write(LogEntry entry) throws IOException {
+        int row = rows;
+        long duration = entry.getDuration();
+        if (row == 0 || duration < minDuration)
+            minDuration = duration;
+        if (row == 0 || duration > maxDuration)
+            maxDuration = duration;
+        ids[row] = entry.getId();
+        types[row] = typeDictionary.code(entry.getType());
+        hosts[row] = hostDictionary.code(entry.getHost());
+        durations[row] = duration;
+        if (entry.isAlert()) {
+            alerts[row >>> 6] |= 1L << row;
+            alertCount++;
+        }
+        rows++;
+        if (rows == blockRows)
+            writeBlock();
+    }
+
+    /**
+     * Writes the rows buffered so far as a block and forces them to disk
+     * @throws IOException
+     */
+    @Override
+    public synchronized void flush() throws IOException {
+        if (rows > 0) {
+            writeBlock();
+            channel.force(false);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            if (rows > 0)
+                writeBlock();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void writeBlock() throws IOException {
+        while (true) {
+            buffer.clear();
+            try {
+                encode();
+                break;
+            } catch (BufferOverflowException e) {
+                buffer = ByteBuffer.allocateDirect(buffer.capacity() * 2);
+            }
+        }
+        buffer.flip();
+        writeFully(buffer);
+        written += rows;
+        blocks++;
+        if (log.isDebugEnabled())
+            log.debug("Wrote block of " + rows + " rows (" + written + " total)");
+        rows = 0;
+        alertCount = 0;
+        Arrays.fill(alerts, 0);
+        Arrays.fill(ids, null);
+        typeDictionary.clear();
+        hostDictionary.clear();
+    }
+
+    private void encode() {
+        buffer.putInt(0); // Block length, filled in below
+        buffer.putInt(rows).putLong(minDuration).putLong(maxDuration).putInt(alertCount);
+        typeDictionary.encode(buffer);
+        hostDictionary.encode(buffer);
+        int lengths = buffer.position();
+        buffer.position(lengths + 5 * Integer.BYTES);
+
+        int start = buffer.position();
+        for (int i = 0; i < rows; i++) {
+            byte[] id = ids[i] == null ? new byte[0] : ids[i].getBytes(StandardCharsets.UTF_8);
+            ColumnarFormat.putVarLong(buffer, id.length);
+            buffer.put(id);
+        }
+        int idBytes = buffer.position() - start;
+
+        start = buffer.position();
+        int width = ColumnarFormat.codeWidth(typeDictionary.size());
+        for (int i = 0; i < rows; i++)
+            ColumnarFormat.putCode(buffer, width, types[i]);
+        int typeBytes = buffer.position() - start;
+
+        start = buffer.position();
+        width = ColumnarFormat.codeWidth(hostDictionary.size());
+        for (int i = 0; i < rows; i++)
+            ColumnarFormat.putCode(buffer, width, hosts[i]);
+        int hostBytes = buffer.position() - start;
+
+        start = buffer.position();
+        long previous = 0;
+        for (int i = 0; i < rows; i++) {
+            ColumnarFormat.putVarLong(buffer, ColumnarFormat.zigzag(durations[i] - previous));
+            previous = durations[i];
+        }
+        int durationBytes = buffer.position() - start;
+
+        start = buffer.position();
+        for (int i = 0, n = (rows + 63) / 64; i < n; i++)
+            buffer.putLong(alerts[i]);
+        int alertBytes = buffer.position() - start;
+
+        buffer.putInt(0, buffer.position() - Integer.BYTES);
+        buffer.putInt(lengths, idBytes)
+                .putInt(lengths + 4, typeBytes)
+                .putInt(lengths + 8, hostBytes)
+                .putInt(lengths + 12, durationBytes)
+                .putInt(lengths + 16, alertBytes);
+    }
+
+    private void writeFully(ByteBuffer b) throws IOException {
+        while (b.hasRemaining())
+            channel.write(b);
+    }
+
+    /**
+     * Per block dictionary of type or host values. Code 0 is null, n is the n-1th value.
+     */
+    private static class Dictionary {
+        private final Map<String, Integer> codes = new HashMap<>();
+        private final List<String> values = new ArrayList<>();
+
+        int code(String value) {
+            if (value == null)
+                return ColumnarFormat.NULL_CODE;
+            Integer code = codes.get(value);
+            if (code == null) {
+                values.add(value);
+                code = values.size();
+                codes.put(value, code);
+            }
+            return code;
+        }
+
+        int size() {
+            return values.size();
+        }
+
+        void encode(ByteBuffer buffer) {
+            buffer.putInt(values.size());
+            for (String value : values) {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                buffer.putShort((short) bytes.length);
+                buffer.put(bytes);
+            }
+        }
+
+        void clear() {
+            codes.clear();
+            values.clear();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.demo.follow;
+
+import com.example.demo.model.LogEntry;
+import lombok.Getter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Position reached in a followed file together with the entries that were still waiting for their partner there.
+ * Everything before offset has been correlated and, once the checkpoint is written, written to the DB, so a restart
+ * resumes at offset with the pending entries restored instead of re-reading the file.
+ * The file is replaced atomically, so a crash while saving leaves the previous checkpoint in place.
+ */
+@Getter
+public class Checkpoint {
+
+    private static final int MAGIC = 0x4c4f4743;
+    private static final int VERSION = 1;
+
+    /** Identity of the followed file, to tell whether it was rotated while we were down */
+    private final String fileId;
+    private final long offset;
+    private final List<LogEntry> pending;
+
+    public Checkpoint(String fileId, long offset, List<LogEntry> pending) {
+        this.fileId = fileId;
+        this.offset = offset;
+        this.pending = pending;
+    }
+
+    /**
+     * @param file
+     * @return the checkpoint, or null if the file does not exist
+     * @throws IOException if the file is not a readable checkpoint
+     */
+    public static Checkpoint load(File file) throws IOException {
+        if (!file.isFile())
+            return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IOException(file + " is not a checkpoint");
+            String fileId = in.readUTF();
+            long offset = in.readLong();
+            int count = in.readInt();
+            List<LogEntry> pending = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                pending.add(LogEntry.builder()
+                        .id(in.readUTF())
+                        .state(LogEntry.State.values()[in.readByte()])
+                        .timestamp(in.readLong())
+                        .type(in.readBoolean() ? in.readUTF() : null)
+                        .host(in.readBoolean() ? in.readUTF() : null)
+                        .build());
+            }
+            return new Checkpoint(fileId, offset, pending);
+        }
+    }
+
+    /**
+     * Writes a checkpoint to a temporary file next to file, forces it to disk, then moves it over file, so a crash
+     * leaves either the previous checkpoint or the complete new one
+     * @param file
+     * @param fileId
+     * @param offset
+     * @param pending
+     * @throws IOException
+     */
+    public static void save(File file, String fileId, long offset, Collection<LogEntry> pending) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        File tmp = File.createTempFile(file.getName(), ".tmp", dir);
+        try {
+            try (FileOutputStream fileOut = new FileOutputStream(tmp);
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeUTF(fileId);
+                out.writeLong(offset);
+                out.writeInt(pending.size());
+                for (LogEntry entry : pending) {
+                    out.writeUTF(entry.getId());
+                    out.writeByte(entry.getState().ordinal());
+                    out.writeLong(entry.getTimestamp());
+                    writeNullable(out, entry.getType());
+                    writeNullable(out, entry.getHost());
+                }
+                out.flush();
+                fileOut.getChannel().force(true);
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp.toPath());
+        }
+    }
+
+    private static void writeNullable(DataOutputStream out, String s) throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null)
+            out.writeUTF(s);
+    }
+}
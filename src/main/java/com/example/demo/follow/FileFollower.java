@@ -0,0 +1,323 @@
+package com.example.demo.follow;
+
+import com.example.demo.EventCorrelator;
+import com.example.demo.model.LogEntry;
+import com.example.demo.parse.LogEntryReader;
+import com.example.demo.sink.LogEntrySink;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Follows a log file that is still being written, like tail -F.
+ * The file is polled for appended bytes, which are scanned for complete top level objects (tracking brace depth and
+ * strings), and only those are parsed and correlated. An object cut off at the current end of file waits for the next
+ * poll. A stray closing brace outside any object is logged and skipped, so it cannot hide the objects after it. Rotation is detected when the path points to a different file (moved and recreated) or the file shrinks
+ * (copied and truncated): what is left of the old file is read first, then the new file is followed from its start.
+ * Entries still waiting for their partner carry over a rotation.
+ * A Checkpoint with the offset and pending entries is saved every checkpointIntervalMs and on stop, after flushing the
+ * sink, so a restart resumes from there. Rows written after the last checkpoint may be written again on restart.
+ */
+@Slf4j
+public class FileFollower {
+
+    private static final int READ_BUFFER = 64 * 1024;
+    /** Bounds a poll on a file growing faster than we read, so checkpoints still happen */
+    private static final int MAX_READS_PER_POLL = 64;
+
+    private final Path path;
+    private final File checkpointFile;
+    private final EventCorrelator correlator;
+    private final LogEntrySink sink;
+    private final Flushable flush;
+    private final LogEntryReader reader;
+    private final JsonFactory jsonF = new ObjectMapper().getFactory();
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER);
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private volatile boolean running;
+
+    private FileChannel channel;
+    private String fileId;
+    /** File offset of pending[0] */
+    @Getter
+    private long offset;
+    /** Bytes read but not yet parsed, as they do not yet end a complete object */
+    private byte[] pending = new byte[READ_BUFFER];
+    private int pendingLength;
+    /** Scan position in pending and the scanner state there */
+    private int scanned;
+    private int depth;
+    private boolean inString;
+    private boolean escaped;
+    @Getter
+    private long completed;
+
+    /**
+     * @param file followed file, which need not exist yet
+     * @param checkpointFile where the position is saved, resumed from if it exists
+     * @param readerFactory creates the record decoder
+     * @param correlator pairs the entries, its store is saved with the checkpoint
+     * @param sink destination for completed entries
+     * @param flush makes everything given to sink durable, called before each checkpoint
+     */
+    public FileFollower(File file, File checkpointFile, Supplier<LogEntryReader> readerFactory,
+                        EventCorrelator correlator, LogEntrySink sink, Flushable flush) {
+        this.path = file.toPath();
+        this.checkpointFile = checkpointFile;
+        this.reader = readerFactory.get();
+        this.correlator = correlator;
+        this.sink = sink;
+        this.flush = flush;
+    }
+
+    /**
+     * Follows the file until stop() is called or the thread is interrupted, then saves a final checkpoint
+     * @param pollIntervalMs wait between polls that found no new data
+     * @param checkpointIntervalMs time between checkpoints
+     * @throws IOException
+     */
+    public void run(long pollIntervalMs, long checkpointIntervalMs) throws IOException {
+        running = true;
+        try {
+            resume();
+            long lastCheckpoint = System.currentTimeMillis();
+            while (running && !Thread.currentThread().isInterrupted()) {
+                boolean progressed = poll();
+                if (System.currentTimeMillis() - lastCheckpoint >= checkpointIntervalMs) {
+                    checkpoint();
+                    lastCheckpoint = System.currentTimeMillis();
+                }
+                if (!progressed) {
+                    try {
+                        Thread.sleep(pollIntervalMs);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+            checkpoint();
+        } finally {
+            closeChannel();
+            stopped.countDown();
+        }
+    }
+
+    /**
+     * Asks run() to save a checkpoint and return, waiting up to timeoutMs for it to do so
+     * @param timeoutMs
+     * @return true if run() has returned
+     */
+    public boolean stop(long timeoutMs) {
+        running = false;
+        try {
+            return stopped.await(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Restores the position and pending entries from the checkpoint file, if there is one
+     * @throws IOException
+     */
+    public void resume() throws IOException {
+        Checkpoint checkpoint = Checkpoint.load(checkpointFile);
+        if (checkpoint == null)
+            return;
+        for (LogEntry entry : checkpoint.getPending())
+            correlator.add(entry);
+        String currentId = Files.exists(path) ? fileId(path) : null;
+        if (checkpoint.getFileId().equals(currentId) && Files.size(path) >= checkpoint.getOffset()) {
+            offset = checkpoint.getOffset();
+            log.info("Resuming " + path + " at offset " + offset + " with " + checkpoint.getPending().size() + " pending entries");
+        } else {
+            log.warn(path + " was rotated since the checkpoint, starting from the beginning of the new file");
+        }
+    }
+
+    /**
+     * Reads and processes whatever has been appended since the last poll, handling rotation
+     * @return true if any new data was read
+     * @throws IOException
+     */
+    public boolean poll() throws IOException {
+        if (channel == null && !open())
+            return false;
+        boolean progressed = false;
+        for (int i = 0; i < MAX_READS_PER_POLL && readMore() > 0; i++) {
+            progressed = true;
+            scan();
+        }
+        if (!progressed)
+            checkRotation();
+        return progressed;
+    }
+
+    /**
+     * Flushes the sink and saves the current position and pending entries
+     * @throws IOException
+     */
+    public void checkpoint() throws IOException {
+        if (fileId == null)
+            return;
+        flush.flush();
+        Checkpoint.save(checkpointFile, fileId, offset, correlator.getStore().values());
+        if (log.isDebugEnabled())
+            log.debug("Checkpoint at " + path + ":" + offset + " with " + correlator.getStore().size() + " pending entries");
+    }
+
+    private boolean open() throws IOException {
+        try {
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+        String id = fileId(path);
+        if (fileId != null && !id.equals(fileId))
+            offset = 0;
+        fileId = id;
+        resetScanner();
+        return true;
+    }
+
+    private int readMore() throws IOException {
+        readBuffer.clear();
+        int read = channel.read(readBuffer, offset + pendingLength);
+        if (read <= 0)
+            return read;
+        if (pendingLength + read > pending.length)
+            pending = Arrays.copyOf(pending, Math.max(pending.length * 2, pendingLength + read));
+        System.arraycopy(readBuffer.array(), 0, pending, pendingLength, read);
+        pendingLength += read;
+        return read;
+    }
+
+    /**
+     * Finds the end of the last complete object in pending, parses everything up to it and keeps the rest
+     */
+    private void scan() throws IOException {
+        int end = 0;
+        for (int i = scanned; i < pendingLength; i++) {
+            byte b = pending[i];
+            if (inString) {
+                if (escaped)
+                    escaped = false;
+                else if (b == '\\')
+                    escaped = true;
+                else if (b == '"')
+                    inString = false;
+            } else if (b == '"') {
+                inString = true;
+            } else if (b == '{') {
+                depth++;
+            } else if (b == '}' && depth == 0) {
+                log.warn("Skipping stray '}' at " + path + ":" + (offset + i));
+                pending[i] = ' ';
+            } else if (b == '}' && --depth == 0) {
+                end = i + 1;
+            }
+        }
+        scanned = pendingLength;
+        if (end == 0)
+            return;
+        parse(end);
+        System.arraycopy(pending, end, pending, 0, pendingLength - end);
+        pendingLength -= end;
+        scanned -= end;
+        offset += end;
+    }
+
+    private void parse(int length) throws IOException {
+        try (JsonParser jp = jsonF.createParser(pending, 0, length)) {
+            for (JsonToken token = jp.nextToken(); token != null; token = jp.nextToken()) {
+                if (token != JsonToken.START_OBJECT)
+                    throw new IOException("Expected an Object at " + path + ":" + (offset + jp.getTokenLocation().getByteOffset()));
+                LogEntry entry = correlator.correlate(reader.read(jp));
+                if (entry != null)
+                    write(entry);
+                for (LogEntry timedOut = correlator.pollTimedOut(); timedOut != null; timedOut = correlator.pollTimedOut())
+                    write(timedOut);
+            }
+        }
+    }
+
+    private void write(LogEntry entry) throws IOException {
+        try {
+            sink.write(entry);
+            completed++;
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Failed to write " + entry.getId(), e);
+        }
+    }
+
+    /**
+     * Called once the open file has been read to its end. Switches to the new file if the path has been recreated,
+     * or starts over if the file has been truncated.
+     */
+    private void checkRotation() throws IOException {
+        if (!Files.exists(path))
+            return; // Moved away, the new file has not been created yet
+        String currentId = fileId(path);
+        if (!currentId.equals(fileId)) {
+            log.info(path + " was rotated, following the new file");
+            if (pendingLength > 0)
+                log.warn("Dropping " + pendingLength + " bytes of incomplete object at the end of the rotated file");
+            closeChannel();
+            pendingLength = 0;
+            open();
+        } else if (channel.size() < offset + pendingLength) {
+            log.info(path + " was truncated, following from its start");
+            offset = 0;
+            pendingLength = 0;
+            resetScanner();
+        }
+    }
+
+    private void resetScanner() {
+        scanned = 0;
+        depth = 0;
+        inString = false;
+        escaped = false;
+    }
+
+    private void closeChannel() {
+        if (channel == null)
+            return;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.warn("Failed to close " + path, e);
+        }
+        channel = null;
+    }
+
+    /**
+     * @return the inode where the platform has one, otherwise the creation time
+     */
+    private static String fileId(Path path) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        Object key = attributes.fileKey();
+        return key != null ? key.toString() : attributes.creationTime().toString();
+    }
+}
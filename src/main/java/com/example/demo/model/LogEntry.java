@@ -3,18 +3,35 @@ package com.example.demo.model;
 import lombok.Builder;
 import lombok.Data;
 import lombok.NonNull;
+import org.springframework.data.domain.Persistable;
 
+import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.PostLoad;
+import javax.persistence.PostPersist;
+import javax.persistence.Table;
 import javax.persistence.Transient;
 
 /*
 Class for storing LogEntries
+Implements Persistable so Spring Data can persist an entry directly instead of merging it, which would first
+SELECT by the assigned id. Only entries marked knownNew by a caller that checked their id, see JpaBulkWriter, count as
+new, so a save of any other entry merges and an id saved before updates its row.
+The indexes match the ones LogEntrySchema creates for the JDBC path.
+timestamp is the time of the event as read. Once a pair is complete startTime and endTime hold the times of its STARTED
+and FINISHED events, and are persisted. An entry that timed out has only the one it was seen with.
  */
 @Data
 @Entity
+@Table(indexes = {
+        @Index(name = "LOGENTRY_ALERT", columnList = "alert"),
+        @Index(name = "LOGENTRY_HOST", columnList = "host"),
+        @Index(name = "LOGENTRY_TYPE", columnList = "type"),
+        @Index(name = "LOGENTRY_START_TIME", columnList = "start_time")})
 @Builder
-public class LogEntry {
+public class LogEntry implements Persistable<String> {
 
     public final static long AlertDuration = 4;
 
@@ -33,6 +50,25 @@ public class LogEntry {
     long timestamp;
     boolean alert;
     long duration;
+    /** Epoch millis of the STARTED event, null if it was never seen */
+    @Column(name = "start_time")
+    Long startTime;
+    /** Epoch millis of the FINISHED event, null if it was never seen */
+    @Column(name = "end_time")
+    Long endTime;
+    // java transient, so it is neither mapped nor part of equals/hashCode
+    transient boolean knownNew;
+
+    @Override
+    public boolean isNew() {
+        return knownNew;
+    }
+
+    @PostPersist
+    @PostLoad
+    void markPersisted() {
+        this.knownNew = false;
+    }
 
     public void setDuration(long d){
         if (d > AlertDuration) {
@@ -0,0 +1,134 @@
+package com.example.demo.parse;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes block compressed gzip (BGZF, as written by bgzip): a series of gzip members of at most 64KB each, whose header
+ * carries the member's compressed size in a BC extra field. Any gzip reader reads it as a multi member file, while
+ * InputFiles can find the members without inflating them and so decompress them on several cores.
+ */
+public class BlockGzipOutputStream extends FilterOutputStream {
+
+    /** Uncompressed bytes per block, as bgzip, leaving room for incompressible data to fit a 64KB block */
+    static final int BLOCK_INPUT = 0xff00;
+    static final int MAX_BLOCK = 0x10000;
+    static final int HEADER = 18;
+    static final int TRAILER = 8;
+    /** Empty block bgzip writes at the end of a file */
+    private static final byte[] EOF_BLOCK = {0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0, (byte) 0xff, 6, 0, 'B', 'C', 2, 0,
+            0x1b, 0, 3, 0, 0, 0, 0, 0, 0, 0, 0, 0};
+
+    private final Deflater deflater;
+    private final CRC32 crc = new CRC32();
+    private final byte[] input = new byte[BLOCK_INPUT];
+    private final byte[] block = new byte[MAX_BLOCK];
+    private int buffered;
+    private boolean closed;
+
+    public BlockGzipOutputStream(OutputStream out) {
+        this(out, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * @param out
+     * @param level Deflater compression level
+     */
+    public BlockGzipOutputStream(OutputStream out, int level) {
+        super(out);
+        this.deflater = new Deflater(level, true);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        input[buffered++] = (byte) b;
+        if (buffered == input.length)
+            writeBuffered();
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            int n = Math.min(len, input.length - buffered);
+            System.arraycopy(b, off, input, buffered, n);
+            buffered += n;
+            off += n;
+            len -= n;
+            if (buffered == input.length)
+                writeBuffered();
+        }
+    }
+
+    /**
+     * Writes what is buffered as a block of its own, then flushes the underlying stream
+     */
+    @Override
+    public void flush() throws IOException {
+        writeBuffered();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        try {
+            writeBuffered();
+            out.write(EOF_BLOCK);
+        } finally {
+            deflater.end();
+            out.close();
+        }
+    }
+
+    private void writeBuffered() throws IOException {
+        if (buffered > 0)
+            writeBlock(input, 0, buffered);
+        buffered = 0;
+    }
+
+    private void writeBlock(byte[] data, int off, int len) throws IOException {
+        deflater.reset();
+        deflater.setInput(data, off, len);
+        deflater.finish();
+        int clen = deflater.deflate(block, HEADER, MAX_BLOCK - HEADER - TRAILER);
+        if (!deflater.finished()) {
+            // Did not fit, which only incompressible data can do
+            writeBlock(data, off, len / 2);
+            writeBlock(data, off + len / 2, len - len / 2);
+            return;
+        }
+        int size = HEADER + clen + TRAILER;
+        block[0] = 0x1f;
+        block[1] = (byte) 0x8b;
+        block[2] = 8;
+        block[3] = 4;
+        block[4] = block[5] = block[6] = block[7] = 0;
+        block[8] = 0;
+        block[9] = (byte) 0xff;
+        block[10] = 6;
+        block[11] = 0;
+        block[12] = 'B';
+        block[13] = 'C';
+        block[14] = 2;
+        block[15] = 0;
+        block[16] = (byte) (size - 1);
+        block[17] = (byte) ((size - 1) >>> 8);
+        crc.reset();
+        crc.update(data, off, len);
+        putInt(block, HEADER + clen, (int) crc.getValue());
+        putInt(block, HEADER + clen + 4, len);
+        out.write(block, 0, size);
+    }
+
+    private static void putInt(byte[] b, int pos, int v) {
+        b[pos] = (byte) v;
+        b[pos + 1] = (byte) (v >>> 8);
+        b[pos + 2] = (byte) (v >>> 16);
+        b[pos + 3] = (byte) (v >>> 24);
+    }
+}
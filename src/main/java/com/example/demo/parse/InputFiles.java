@@ -0,0 +1,243 @@
+package com.example.demo.parse;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+/**
+ * Opens input files for parsing, decompressing gzip ones on the fly, recognised by their magic bytes whatever the name.
+ * Decompression runs on a thread of its own and feeds the parser through a RingBufferInputStream, so it overlaps with
+ * parsing and nothing is staged on disk. Plain gzip, including multi member files, is inflated in sequence on that
+ * thread. Block compressed gzip (BGZF, see BlockGzipOutputStream) records the size of every member in its header, so
+ * the members are read in order and inflated on up to threads cores at once, then handed to the parser in file order.
+ * Uncompressed files are returned as a plain FileInputStream.
+ */
+@Slf4j
+public final class InputFiles {
+
+    public static final int RING_CAPACITY = 1 << 20;
+    private static final int CHUNK = 64 * 1024;
+    private static final int ZSTD_MAGIC = 0xfd2fb528;
+
+    private InputFiles() {
+    }
+
+    /**
+     * @param file
+     * @return true if the file starts with the gzip magic bytes
+     * @throws IOException
+     */
+    public static boolean isCompressed(File file) throws IOException {
+        return gzip(header(file, 2));
+    }
+
+    /**
+     * Opens the file, decompressing it if it is gzip
+     * @param file
+     * @param threads cores block compressed files are inflated on, 1 to inflate on the reading thread alone
+     * @return the uncompressed content
+     * @throws IOException if the file cannot be opened, or is compressed in a format other than gzip
+     */
+    public static InputStream open(File file, int threads) throws IOException {
+        byte[] header = header(file, BlockGzipOutputStream.HEADER);
+        if (header.length >= 4 && readInt(header, 0) == ZSTD_MAGIC)
+            throw new IOException(file + " is zstd compressed, which is not supported. Recompress it with gzip or bgzip");
+        if (!gzip(header))
+            return new FileInputStream(file);
+        RingBufferInputStream ring = new RingBufferInputStream(RING_CAPACITY);
+        boolean blocks = threads > 1 && blockGzip(header);
+        Thread decompressor = new Thread(() -> {
+            try {
+                if (blocks)
+                    inflateBlocks(file, threads, ring);
+                else
+                    inflate(file, ring);
+                ring.finish();
+            } catch (Throwable t) {
+                ring.fail(t);
+            }
+        }, "gunzip-" + file.getName());
+        decompressor.setDaemon(true);
+        decompressor.start();
+        if (log.isDebugEnabled())
+            log.debug("Decompressing " + file + (blocks ? " on " + threads + " threads" : ""));
+        return ring;
+    }
+
+    private static void inflate(File file, RingBufferInputStream ring) throws IOException {
+        try (InputStream in = new GZIPInputStream(new FileInputStream(file), CHUNK)) {
+            byte[] chunk = new byte[CHUNK];
+            for (int n = in.read(chunk); n >= 0; n = in.read(chunk))
+                ring.write(chunk, 0, n);
+        }
+    }
+
+    /**
+     * Reads the blocks in order, keeping up to a few per thread being inflated ahead of the one written next
+     */
+    private static void inflateBlocks(File file, int threads, RingBufferInputStream ring) throws IOException {
+        AtomicInteger count = new AtomicInteger();
+        ExecutorService inflaters = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "inflate-" + count.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        });
+        ArrayDeque<Future<byte[]>> window = new ArrayDeque<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), CHUNK))) {
+            for (byte[] block = readBlock(in); block != null; block = readBlock(in)) {
+                byte[] compressed = block;
+                window.add(inflaters.submit(() -> inflateBlock(compressed)));
+                if (window.size() >= threads * 4)
+                    write(window.poll(), ring);
+            }
+            while (!window.isEmpty())
+                write(window.poll(), ring);
+        } finally {
+            inflaters.shutdownNow();
+        }
+    }
+
+    private static void write(Future<byte[]> block, RingBufferInputStream ring) throws IOException {
+        byte[] data;
+        try {
+            data = block.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted inflating");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IOException("Inflating failed: " + e.getCause(), e.getCause());
+        }
+        ring.write(data, 0, data.length);
+    }
+
+    /**
+     * @return the deflated data and trailer of the next member, or null at the end of the file
+     */
+    private static byte[] readBlock(DataInputStream in) throws IOException {
+        byte[] header = new byte[12];
+        int first = in.read();
+        if (first < 0)
+            return null;
+        header[0] = (byte) first;
+        in.readFully(header, 1, header.length - 1);
+        if (!gzip(header) || (header[3] & 4) == 0)
+            throw new IOException("Expected a block gzip member header");
+        int xlen = (header[10] & 0xff) | (header[11] & 0xff) << 8;
+        byte[] extra = new byte[xlen];
+        in.readFully(extra);
+        int size = blockSize(extra);
+        if (size < 0)
+            throw new IOException("Block gzip member without its BC size field");
+        byte[] block = new byte[size - header.length - xlen];
+        in.readFully(block);
+        return block;
+    }
+
+    private static byte[] inflateBlock(byte[] block) throws IOException {
+        int length = block.length - BlockGzipOutputStream.TRAILER;
+        if (length < 0)
+            throw new EOFException("Truncated block gzip member");
+        int expectedCrc = readInt(block, length);
+        byte[] data = new byte[readInt(block, length + 4)];
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(block, 0, length);
+            int n = 0;
+            while (n < data.length && !inflater.finished()) {
+                int inflated = inflater.inflate(data, n, data.length - n);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    throw new EOFException("Truncated block gzip member");
+                n += inflated;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt block gzip member", e);
+        } finally {
+            inflater.end();
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        if ((int) crc.getValue() != expectedCrc)
+            throw new IOException("CRC mismatch in block gzip member");
+        return data;
+    }
+
+    private static byte[] header(File file, int length) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] header = new byte[length];
+            int n = read(in, header);
+            if (n < length) {
+                byte[] shorter = new byte[n];
+                System.arraycopy(header, 0, shorter, 0, shorter.length);
+                return shorter;
+            }
+            return header;
+        }
+    }
+
+    /**
+     * Reads until the buffer is full or the stream ends
+     * @return bytes read
+     */
+    static int read(InputStream in, byte[] buf) throws IOException {
+        int n = 0;
+        while (n < buf.length) {
+            int r = in.read(buf, n, buf.length - n);
+            if (r < 0)
+                break;
+            n += r;
+        }
+        return n;
+    }
+
+    private static boolean gzip(byte[] header) {
+        return header.length >= 2 && header[0] == 0x1f && header[1] == (byte) 0x8b;
+    }
+
+    /**
+     * @return true if the first member carries a BC size field
+     */
+    private static boolean blockGzip(byte[] header) {
+        if (header.length < BlockGzipOutputStream.HEADER || (header[3] & 4) == 0)
+            return false;
+        int xlen = (header[10] & 0xff) | (header[11] & 0xff) << 8;
+        byte[] extra = new byte[Math.min(xlen, header.length - 12)];
+        System.arraycopy(header, 12, extra, 0, extra.length);
+        return blockSize(extra) > 0;
+    }
+
+    /**
+     * @return total member size from the BC subfield of the extra field, -1 if there is none
+     */
+    private static int blockSize(byte[] extra) {
+        for (int i = 0; i + 4 <= extra.length; ) {
+            int slen = (extra[i + 2] & 0xff) | (extra[i + 3] & 0xff) << 8;
+            if (extra[i] == 'B' && extra[i + 1] == 'C' && slen == 2 && i + 6 <= extra.length)
+                return ((extra[i + 4] & 0xff) | (extra[i + 5] & 0xff) << 8) + 1;
+            i += 4 + slen;
+        }
+        return -1;
+    }
+
+    private static int readInt(byte[] b, int pos) {
+        return (b[pos] & 0xff) | (b[pos + 1] & 0xff) << 8 | (b[pos + 2] & 0xff) << 16 | (b[pos + 3] & 0xff) << 24;
+    }
+}
@@ -0,0 +1,164 @@
+package com.example.demo.parse;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+import com.fasterxml.jackson.dataformat.smile.SmileParser;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Encoding of the records in an input file: text JSON, or the binary Jackson formats Smile and CBOR, which carry the
+ * same objects without quoting, escaping or number formatting and so are smaller and cheaper to parse.
+ * Every format gives a JsonParser over the same token stream, so LogEntryReader, the correlator and the sinks run
+ * unchanged whatever the input. Each factory belongs to an ObjectMapper, so parser.mode databind works too.
+ * Selected by input.format: auto (default) picks the format by the magic bytes at the start of the (decompressed)
+ * content, falling back to the file extension (.smile, .sml or .cbor) and then to JSON.
+ * Binary input is not split by split.threads and cannot be followed.
+ */
+public enum InputFormat {
+
+    AUTO(null),
+    JSON(new ObjectMapper().getFactory()),
+    // Header is optional, a headerless file is only recognised by its extension. Repeated type and host values are
+    // written as back references.
+    SMILE(new ObjectMapper(new SmileFactory().disable(SmileParser.Feature.REQUIRE_HEADER)
+            .enable(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES)).getFactory()),
+    CBOR(new ObjectMapper(new CBORFactory()).getFactory());
+
+    /** Smile files start with ":)\n" */
+    private static final byte[] SMILE_MAGIC = {':', ')', '\n'};
+    /** CBOR self describe tag 55799, written at the start of a file by some encoders */
+    private static final byte[] CBOR_MAGIC = {(byte) 0xd9, (byte) 0xd9, (byte) 0xf7};
+    private static final int PEEK = 3;
+
+    private final JsonFactory factory;
+
+    InputFormat(JsonFactory factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * @param name auto, json, smile or cbor
+     * @return the format, AUTO if null or empty
+     */
+    public static InputFormat of(String name) {
+        if (name == null || name.isEmpty())
+            return AUTO;
+        try {
+            return valueOf(name.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown input.format " + name);
+        }
+    }
+
+    /**
+     * @param file
+     * @param configured input.format
+     * @return the configured format, or else the format the file's extension names, AUTO if it names none
+     */
+    public static InputFormat forFile(File file, InputFormat configured) {
+        if (configured != AUTO)
+            return configured;
+        String name = file.getName().toLowerCase();
+        if (name.endsWith(".gz"))
+            name = name.substring(0, name.length() - 3);
+        if (name.endsWith(".smile") || name.endsWith(".sml"))
+            return SMILE;
+        if (name.endsWith(".cbor"))
+            return CBOR;
+        return AUTO;
+    }
+
+    /**
+     * @param file
+     * @param configured input.format
+     * @return the format the file is read as, never AUTO: as forFile, or else detected from the first bytes of the
+     * file's content, decompressed if it is gzip
+     * @throws IOException
+     */
+    public static InputFormat resolve(File file, InputFormat configured) throws IOException {
+        InputFormat format = forFile(file, configured);
+        if (format != AUTO)
+            return format;
+        try (InputStream raw = new FileInputStream(file);
+             InputStream in = InputFiles.isCompressed(file) ? new GZIPInputStream(raw) : raw) {
+            byte[] head = new byte[PEEK];
+            return detect(head, InputFiles.read(in, head));
+        }
+    }
+
+    /**
+     * @param head first bytes of the content
+     * @param length bytes of head filled
+     * @return the format the bytes start with, JSON if they match no binary format
+     */
+    public static InputFormat detect(byte[] head, int length) {
+        if (startsWith(head, length, SMILE_MAGIC))
+            return SMILE;
+        if (startsWith(head, length, CBOR_MAGIC))
+            return CBOR;
+        // A CBOR map, major type 5, where JSON would have a brace or whitespace
+        if (length > 0 && (head[0] & 0xe0) == 0xa0)
+            return CBOR;
+        return JSON;
+    }
+
+    /**
+     * Creates a parser over the stream, detecting the format from its first bytes if this is AUTO
+     * @param in
+     * @return
+     * @throws IOException
+     */
+    public JsonParser createParser(InputStream in) throws IOException {
+        if (this != AUTO)
+            return factory.createParser(in);
+        PushbackInputStream peek = new PushbackInputStream(in, PEEK);
+        byte[] head = new byte[PEEK];
+        int n = InputFiles.read(peek, head);
+        peek.unread(head, 0, n);
+        return detect(head, n).factory.createParser(peek);
+    }
+
+    /**
+     * @param out
+     * @return a generator writing this format, root level objects separated by a new line in JSON
+     * @throws IOException
+     */
+    public JsonGenerator createGenerator(OutputStream out) throws IOException {
+        if (this == AUTO)
+            throw new IllegalStateException("No output format given");
+        JsonGenerator generator = factory.createGenerator(out);
+        if (this == JSON)
+            generator.setRootValueSeparator(new SerializedString("\n"));
+        return generator;
+    }
+
+    /**
+     * @return false for the binary formats, which cannot be cut at object boundaries found in the bytes
+     */
+    public boolean isText() {
+        return this == JSON;
+    }
+
+    private static boolean startsWith(byte[] head, int length, byte[] magic) {
+        if (length < magic.length)
+            return false;
+        for (int i = 0; i < magic.length; i++) {
+            if (head[i] != magic[i])
+                return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,196 @@
+package com.example.demo.parse;
+
+import com.example.demo.model.LogEntry;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.io.SerializedString;
+
+import java.io.IOException;
+
+/**
+ * Hand rolled LogEntry decoder walking the JsonParser tokens directly, instead of going through databind and bean
+ * introspection for every record.
+ * Field names are matched against the fixed set id, state, type, host and timestamp, first by asking the parser for
+ * the field expected next so it can compare the raw bytes without a symbol table lookup. timestamp is read as a
+ * primitive long and state is matched against the enum names on the parser's own char buffer. type and host repeat
+ * across records, so recently seen values are reused from a small cache instead of allocating a new String each time.
+ * Unknown fields are skipped.
+ * The decoder itself is the mutable holder for the record being read, so one instance per parsing thread.
+ */
+public class LogEntryDecoder implements LogEntryReader {
+
+    private static final int INTERN_SLOTS = 256;
+    private static final LogEntry.State[] STATES = LogEntry.State.values();
+    private static final int ID = 0;
+    private static final int STATE = 1;
+    private static final int TYPE = 2;
+    private static final int HOST = 3;
+    private static final int TIMESTAMP = 4;
+    /** Known fields, in the order they are usually written */
+    private static final SerializedString[] FIELDS = {
+            new SerializedString("id"), new SerializedString("state"), new SerializedString("type"),
+            new SerializedString("host"), new SerializedString("timestamp")};
+
+    private final String[] interned = new String[INTERN_SLOTS];
+
+    private String id;
+    private LogEntry.State state;
+    private String type;
+    private String host;
+    private long timestamp;
+
+    /**
+     * Reads the object the parser is positioned on into a new LogEntry
+     * @param jp
+     * @return
+     * @throws IOException
+     */
+    @Override
+    public LogEntry read(JsonParser jp) throws IOException {
+        decode(jp);
+        return LogEntry.builder().id(id).state(state).type(type).host(host).timestamp(timestamp).build();
+    }
+
+    /**
+     * Reads the object the parser is positioned on into an existing LogEntry, for callers that do not keep the entry
+     * @param jp
+     * @param into overwritten, including alert, duration, start and end time
+     * @return into
+     * @throws IOException
+     */
+    public LogEntry read(JsonParser jp, LogEntry into) throws IOException {
+        decode(jp);
+        into.setId(id);
+        into.setState(state);
+        into.setType(type);
+        into.setHost(host);
+        into.setTimestamp(timestamp);
+        into.setDuration(0);
+        into.setAlert(false);
+        into.setStartTime(null);
+        into.setEndTime(null);
+        return into;
+    }
+
+    private void decode(JsonParser jp) throws IOException {
+        if (jp.getCurrentToken() != JsonToken.START_OBJECT)
+            throw new JsonParseException(jp, "Expected start of a LogEntry object");
+        id = null;
+        state = null;
+        type = null;
+        host = null;
+        timestamp = 0;
+        int expected = 0;
+        while (true) {
+            int field;
+            JsonToken token;
+            // Fields normally arrive in the same order, which the parser can match on the raw bytes
+            if (expected < FIELDS.length) {
+                if (jp.nextFieldName(FIELDS[expected])) {
+                    field = expected;
+                    token = JsonToken.FIELD_NAME;
+                } else {
+                    token = jp.getCurrentToken();
+                    field = token == JsonToken.FIELD_NAME ? field(jp.getCurrentName()) : -1;
+                }
+            } else {
+                token = jp.nextToken();
+                field = token == JsonToken.FIELD_NAME ? field(jp.getCurrentName()) : -1;
+            }
+            if (token != JsonToken.FIELD_NAME)
+                break;
+            expected = field + 1;
+            JsonToken value = jp.nextToken();
+            switch (field) {
+                case ID:
+                    id = value == JsonToken.VALUE_NULL ? null : jp.getText();
+                    break;
+                case STATE:
+                    state = value == JsonToken.VALUE_NULL ? null : state(jp);
+                    break;
+                case TYPE:
+                    type = value == JsonToken.VALUE_NULL ? null : intern(jp);
+                    break;
+                case HOST:
+                    host = value == JsonToken.VALUE_NULL ? null : intern(jp);
+                    break;
+                case TIMESTAMP:
+                    timestamp = timestamp(jp, value);
+                    break;
+                default:
+                    jp.skipChildren();
+            }
+        }
+        if (jp.getCurrentToken() != JsonToken.END_OBJECT)
+            throw new JsonParseException(jp, "Expected end of LogEntry object");
+        if (state == null)
+            throw new JsonParseException(jp, "LogEntry " + id + " has no state");
+    }
+
+    /**
+     * @return position of the name in FIELDS, or FIELDS.length if unknown
+     */
+    private static int field(String name) {
+        for (int i = 0; i < FIELDS.length; i++) {
+            if (FIELDS[i].getValue().equals(name))
+                return i;
+        }
+        return FIELDS.length;
+    }
+
+    private static long timestamp(JsonParser jp, JsonToken value) throws IOException {
+        if (value == JsonToken.VALUE_NUMBER_INT)
+            return jp.getLongValue();
+        if (value == JsonToken.VALUE_NULL)
+            return 0;
+        try {
+            return Long.parseLong(jp.getText().trim());
+        } catch (NumberFormatException e) {
+            throw new JsonParseException(jp, "Invalid timestamp " + jp.getText(), e);
+        }
+    }
+
+    /**
+     * Matches the state text against the enum names without creating a String
+     */
+    private static LogEntry.State state(JsonParser jp) throws IOException {
+        char[] chars = jp.getTextCharacters();
+        int offset = jp.getTextOffset();
+        int length = jp.getTextLength();
+        for (LogEntry.State s : STATES) {
+            if (matches(s.name(), chars, offset, length))
+                return s;
+        }
+        throw new JsonParseException(jp, "Unknown state " + new String(chars, offset, length));
+    }
+
+    /**
+     * @return the cached String with the parser's current text, creating and caching it if the slot holds another
+     */
+    private String intern(JsonParser jp) throws IOException {
+        char[] chars = jp.getTextCharacters();
+        int offset = jp.getTextOffset();
+        int length = jp.getTextLength();
+        int h = 0;
+        for (int i = offset; i < offset + length; i++)
+            h = 31 * h + chars[i];
+        int slot = (h ^ (h >>> 16)) & (INTERN_SLOTS - 1);
+        String cached = interned[slot];
+        if (cached != null && matches(cached, chars, offset, length))
+            return cached;
+        String s = new String(chars, offset, length);
+        interned[slot] = s;
+        return s;
+    }
+
+    private static boolean matches(String s, char[] chars, int offset, int length) {
+        if (s.length() != length)
+            return false;
+        for (int i = 0; i < length; i++) {
+            if (s.charAt(i) != chars[offset + i])
+                return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,39 @@
+package com.example.demo.parse;
+
+import com.example.demo.model.LogEntry;
+import com.fasterxml.jackson.core.JsonParser;
+
+import java.io.IOException;
+import java.util.function.Supplier;
+
+/**
+ * Turns the object a JsonParser is positioned on (START_OBJECT) into a LogEntry, leaving the parser on its END_OBJECT.
+ * Selected by parser.mode:
+ * <ul>
+ *     <li>streaming - LogEntryDecoder walking the tokens directly (default)</li>
+ *     <li>databind - jp.readValueAs(LogEntry.class), the original path. Needs a parser created from an ObjectMapper factory.</li>
+ * </ul>
+ * Readers may keep state between calls, so each parsing thread should have its own.
+ */
+@FunctionalInterface
+public interface LogEntryReader {
+
+    String STREAMING = "streaming";
+    String DATABIND = "databind";
+
+    LogEntry read(JsonParser jp) throws IOException;
+
+    /**
+     * @param mode streaming or databind
+     * @return supplier of new readers
+     */
+    static Supplier<LogEntryReader> factory(String mode) {
+        if (mode == null || mode.isEmpty() || STREAMING.equalsIgnoreCase(mode)) {
+            return LogEntryDecoder::new;
+        }
+        if (DATABIND.equalsIgnoreCase(mode)) {
+            return () -> jp -> jp.readValueAs(LogEntry.class);
+        }
+        throw new IllegalArgumentException("Unknown parser.mode " + mode);
+    }
+}
@@ -0,0 +1,132 @@
+package com.example.demo.parse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+/**
+ * Fixed size byte ring joining one producer thread, e.g. a decompressor, to one consumer reading it as an InputStream,
+ * e.g. the Jackson parser. The producer blocks while the ring is full and the reader while it is empty, so the two run
+ * concurrently with at most capacity bytes between them. The producer ends the stream with finish(), or with fail(),
+ * whose cause the reader gets as an IOException once it has read what came before. Closing the reader makes any
+ * further write() fail, which stops a producer whose output is no longer wanted.
+ */
+public class RingBufferInputStream extends InputStream {
+
+    private final byte[] buf;
+    private int readPos;
+    private int count;
+    private boolean finished;
+    private boolean closed;
+    private Throwable failure;
+
+    /**
+     * @param capacity bytes buffered between producer and reader
+     */
+    public RingBufferInputStream(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        this.buf = new byte[capacity];
+    }
+
+    /**
+     * Appends the bytes, waiting for the reader to make room as needed
+     * @throws IOException if the reader has closed the stream or the producer is interrupted
+     */
+    public synchronized void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            while (count == buf.length && !closed)
+                await();
+            if (closed)
+                throw new IOException("Reader closed the stream");
+            int writePos = (readPos + count) % buf.length;
+            int n = Math.min(len, Math.min(buf.length - count, buf.length - writePos));
+            System.arraycopy(b, off, buf, writePos, n);
+            count += n;
+            off += n;
+            len -= n;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Marks the end of the stream, the reader gets -1 once it has read everything written
+     */
+    public synchronized void finish() {
+        finished = true;
+        notifyAll();
+    }
+
+    /**
+     * Ends the stream with an error, rethrown to the reader after the bytes written before
+     * @param t
+     */
+    public synchronized void fail(Throwable t) {
+        failure = t;
+        finished = true;
+        notifyAll();
+    }
+
+    @Override
+    public synchronized int read() throws IOException {
+        if (!awaitData())
+            return -1;
+        int b = buf[readPos] & 0xff;
+        readPos = (readPos + 1) % buf.length;
+        count--;
+        notifyAll();
+        return b;
+    }
+
+    @Override
+    public synchronized int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+        if (!awaitData())
+            return -1;
+        int n = Math.min(len, Math.min(count, buf.length - readPos));
+        System.arraycopy(buf, readPos, b, off, n);
+        readPos = (readPos + n) % buf.length;
+        count -= n;
+        notifyAll();
+        return n;
+    }
+
+    @Override
+    public synchronized int available() {
+        return count;
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+
+    /**
+     * @return true once there is data, false at the end of the stream
+     */
+    private boolean awaitData() throws IOException {
+        while (count == 0 && !finished && !closed)
+            await();
+        if (closed)
+            throw new IOException("Stream closed");
+        if (count > 0)
+            return true;
+        if (failure instanceof IOException)
+            throw new IOException(failure.getMessage(), failure);
+        if (failure != null)
+            throw new IOException("Producer failed: " + failure, failure);
+        return false;
+    }
+
+    private void await() throws InterruptedIOException {
+        try {
+            wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting on ring buffer");
+        }
+    }
+}
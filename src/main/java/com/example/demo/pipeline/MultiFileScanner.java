@@ -0,0 +1,232 @@
+package com.example.demo.pipeline;
+
+import com.example.demo.EventCorrelator;
+import com.example.demo.model.LogEntry;
+import com.example.demo.parse.InputFiles;
+import com.example.demo.parse.InputFormat;
+import com.example.demo.parse.LogEntryReader;
+import com.example.demo.sink.LogEntrySink;
+import com.example.demo.stats.IngestMetrics;
+import com.example.demo.store.CompletedIdFilter;
+import com.example.demo.store.MemoryPendingStore;
+import com.example.demo.store.PendingStore;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Processes many files, e.g. a day of rotated logs, in one run.
+ * Each file is a task on a work stealing ForkJoinPool, submitted largest first so the long files start early and the
+ * small ones fill in around them. A task parses its file with its own LogEntryReader and EventCorrelator and writes
+ * the pairs completed inside the file straight away. The entries it leaves pending are then fed through a shared
+ * EventCorrelator over the caller's pending store, which pairs the events whose STARTED and FINISHED were written to
+ * different files. Progress is logged as each file completes. All files write to the same sink.
+ * With a timeout each file's correlator keeps its own watermark and writes the entries it times out, so its store
+ * holds about one timeout window; the merge, fed out of time order, does not time entries out. A pair split over two
+ * files then only meets if neither side timed out in its own file.
+ * Each file may be JSON, Smile or CBOR, see InputFormat.
+ */
+@Slf4j
+public class MultiFileScanner {
+
+    private static final String GLOB_CHARS = "*?[{";
+
+    private final int threads;
+    private final Supplier<? extends PendingStore> storeFactory;
+    private final Supplier<LogEntryReader> readerFactory;
+    /** Counts pairs and ignored records of every file, and the bytes read, if set */
+    @Setter
+    private IngestMetrics metrics;
+    /** Ids already written, shared by the correlators of every file and the merge, if set */
+    @Setter
+    private CompletedIdFilter completedIds;
+    /** input.format, AUTO to pick each file's format from its extension or content */
+    @Setter
+    private InputFormat format = InputFormat.AUTO;
+    /** store.timeout.ms, applied within each file, 0 to keep entries pending until the end of the run */
+    @Setter
+    private long timeoutMs;
+
+    /**
+     * Constructor using in memory pending stores
+     * @param threads number of files parsed concurrently, normally the core count
+     */
+    public MultiFileScanner(int threads) {
+        this(threads, MemoryPendingStore::new, LogEntryReader.factory(LogEntryReader.STREAMING));
+    }
+
+    /**
+     * @param threads number of files parsed concurrently, normally the core count
+     * @param storeFactory creates the pending store of each file
+     * @param readerFactory creates the record decoder of each file
+     */
+    public MultiFileScanner(int threads, Supplier<? extends PendingStore> storeFactory, Supplier<LogEntryReader> readerFactory) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive: " + threads);
+        }
+        this.threads = threads;
+        this.storeFactory = storeFactory;
+        this.readerFactory = readerFactory;
+    }
+
+    /**
+     * Resolves a command line argument to the files it names: the files directly inside a directory (hidden ones
+     * excepted), the files matching a glob such as logs/app-*.json or logs/**.json, or else the file itself.
+     * @param arg
+     * @return the files sorted by path, empty if nothing matches
+     * @throws IOException
+     */
+    public static List<File> expand(String arg) throws IOException {
+        File file = new File(arg);
+        if (file.isDirectory()) {
+            try (Stream<Path> children = Files.list(file.toPath())) {
+                return sorted(children.filter(p -> Files.isRegularFile(p) && !p.getFileName().toString().startsWith(".")));
+            }
+        }
+        if (!isGlob(arg))
+            return file.isFile() ? Collections.singletonList(file) : Collections.emptyList();
+        // Walk from the last directory before the first wildcard
+        Path pattern = Paths.get(arg);
+        Path base = null;
+        int depth = 0;
+        for (int i = 0; i < pattern.getNameCount(); i++) {
+            if (isGlob(pattern.getName(i).toString())) {
+                depth = pattern.getNameCount() - i;
+                break;
+            }
+            base = base == null ? pattern.getName(i) : base.resolve(pattern.getName(i));
+        }
+        if (pattern.isAbsolute())
+            base = base == null ? pattern.getRoot() : pattern.getRoot().resolve(base);
+        else if (base == null)
+            base = Paths.get("");
+        if (!Files.isDirectory(base))
+            return Collections.emptyList();
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+        try (Stream<Path> walk = Files.walk(base, arg.contains("**") ? Integer.MAX_VALUE : depth)) {
+            return sorted(walk.filter(p -> Files.isRegularFile(p) && matcher.matches(p)));
+        }
+    }
+
+    private static boolean isGlob(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (GLOB_CHARS.indexOf(s.charAt(i)) >= 0)
+                return true;
+        }
+        return false;
+    }
+
+    private static List<File> sorted(Stream<Path> paths) {
+        return paths.map(Path::toFile).sorted().collect(Collectors.toList());
+    }
+
+    /**
+     * Scans the files, writing each completed entry to the sink. Entries that never found a partner in any file are
+     * left in pending.
+     * @param files
+     * @param sink thread safe destination for completed entries
+     * @param pending receives the entries still waiting for their partner
+     * @throws IOException if any file cannot be read or parsed, or an entry cannot be written
+     */
+    public void scan(List<File> files, LogEntrySink sink, PendingStore pending) throws IOException {
+        List<File> bySize = new ArrayList<>(files);
+        bySize.sort(Comparator.comparingLong(File::length).reversed());
+        EventCorrelator merge = new EventCorrelator(pending);
+        merge.setMetrics(metrics);
+        merge.setCompletedIds(completedIds);
+        AtomicInteger done = new AtomicInteger();
+        // FIFO, so idle workers pick up the remaining files largest first
+        ForkJoinPool pool = new ForkJoinPool(threads, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+        try {
+            List<ForkJoinTask<?>> tasks = new ArrayList<>();
+            for (File file : bySize) {
+                tasks.add(pool.submit(() -> {
+                    scanFile(file, sink, merge, done, bySize.size());
+                    return null;
+                }));
+            }
+            for (ForkJoinTask<?> task : tasks)
+                get(task);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private void scanFile(File file, LogEntrySink sink, EventCorrelator merge, AtomicInteger done, int total) throws Exception {
+        long start = System.currentTimeMillis();
+        long records = 0;
+        long completed = 0;
+        try (PendingStore store = storeFactory.get()) {
+            EventCorrelator correlator = new EventCorrelator(store, timeoutMs);
+            correlator.setMetrics(metrics);
+            correlator.setCompletedIds(completedIds);
+            InputStream in = InputFiles.open(file, 1);
+            try (JsonParser jp = InputFormat.forFile(file, format).createParser(metrics == null ? in : metrics.counting(in))) {
+                JsonToken token = jp.nextToken();
+                if (token != null && token != JsonToken.START_OBJECT) {
+                    throw new IOException("Expected data to start with an Object in " + file);
+                }
+                LogEntryReader reader = readerFactory.get();
+                while (token != null && token != JsonToken.END_OBJECT) {
+                    LogEntry entry = correlator.correlate(reader.read(jp));
+                    records++;
+                    if (entry != null) {
+                        sink.write(entry);
+                        completed++;
+                    }
+                    for (LogEntry timedOut = correlator.pollTimedOut(); timedOut != null; timedOut = correlator.pollTimedOut())
+                        sink.write(timedOut);
+                    token = jp.nextToken();
+                }
+            }
+            int leftovers = store.size();
+            synchronized (merge) {
+                for (LogEntry entry : store.values()) {
+                    LogEntry paired = merge.correlate(entry);
+                    if (paired != null) {
+                        sink.write(paired);
+                        completed++;
+                    }
+                }
+            }
+            log.info("File " + done.incrementAndGet() + "/" + total + " " + file + ": " + records + " records, "
+                    + completed + " completed, " + (timeoutMs > 0 ? correlator.getTimeouts() + " timed out, " : "")
+                    + leftovers + " carried over, " + (System.currentTimeMillis() - start) + " ms");
+        }
+    }
+
+    private static void get(ForkJoinTask<?> task) throws IOException {
+        try {
+            task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for file scan");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IOException("File scan failed: " + e.getCause(), e.getCause());
+        }
+    }
+}
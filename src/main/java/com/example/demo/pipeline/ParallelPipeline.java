@@ -0,0 +1,262 @@
+package com.example.demo.pipeline;
+
+import com.example.demo.EventCorrelator;
+import com.example.demo.model.LogEntry;
+import com.example.demo.sink.LogEntrySink;
+import com.example.demo.stats.IngestMetrics;
+import com.example.demo.store.CompletedIdFilter;
+import com.example.demo.store.MemoryPendingStore;
+import com.example.demo.store.PendingStore;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Staged parse/correlate/write pipeline.
+ * The parser stage is the calling thread, which hands each parsed LogEntry to submit(). Entries are sharded by id hash
+ * onto a fixed set of correlator threads, each owning its own EventCorrelator, so STARTED/FINISHED pairing for an id
+ * always happens on one thread in file order and gives the same pairs as the single threaded path.
+ * With a timeout, entries each correlator evicts for waiting too long go onto the write queue as timeout records, see
+ * EventCorrelator. Each shard keeps its own watermark, as it sees its ids in file order.
+ * Completed entries go onto a shared queue drained by a pool of writer threads calling the LogEntrySink.
+ * All queues are bounded, so a slow writer pushes back on the correlators and then on the parser.
+ */
+@Slf4j
+public class ParallelPipeline implements AutoCloseable {
+
+    /** Poison pill marking the end of a queue */
+    private static final LogEntry EOF = LogEntry.builder().state(LogEntry.State.STARTED).build();
+    private static final long OFFER_WAIT_MS = 100;
+
+    private final List<BlockingQueue<LogEntry>> correlatorQueues = new ArrayList<>();
+    private final List<PendingStore> stores = new ArrayList<>();
+    private final List<EventCorrelator> correlators = new ArrayList<>();
+    private final BlockingQueue<LogEntry> writeQueue;
+    private final List<Thread> correlatorThreads = new ArrayList<>();
+    private final List<Thread> writerThreads = new ArrayList<>();
+    private final LogEntrySink sink;
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private boolean finished;
+
+    /**
+     * Constructor using in memory pending stores
+     */
+    public ParallelPipeline(int correlatorCount, int writerCount, int queueCapacity, LogEntrySink sink) {
+        this(correlatorCount, writerCount, queueCapacity, sink, MemoryPendingStore::new);
+    }
+
+    /**
+     * Constructor. Starts the correlator and writer threads.
+     * @param correlatorCount number of id shards, each with its own thread and pending store
+     * @param writerCount number of threads calling the sink
+     * @param queueCapacity capacity of each correlator queue and of the write queue
+     * @param sink thread safe destination for completed entries
+     * @param storeFactory creates the pending store of each shard
+     */
+    public ParallelPipeline(int correlatorCount, int writerCount, int queueCapacity, LogEntrySink sink,
+                            Supplier<? extends PendingStore> storeFactory) {
+        this(correlatorCount, writerCount, queueCapacity, sink, storeFactory, 0);
+    }
+
+    /**
+     * Constructor. Starts the correlator and writer threads.
+     * @param correlatorCount number of id shards, each with its own thread and pending store
+     * @param writerCount number of threads calling the sink
+     * @param queueCapacity capacity of each correlator queue and of the write queue
+     * @param sink thread safe destination for completed entries
+     * @param storeFactory creates the pending store of each shard
+     * @param timeoutMs event time an entry may wait for its partner, 0 to wait forever
+     */
+    public ParallelPipeline(int correlatorCount, int writerCount, int queueCapacity, LogEntrySink sink,
+                            Supplier<? extends PendingStore> storeFactory, long timeoutMs) {
+        if (correlatorCount < 1 || writerCount < 1 || queueCapacity < 1) {
+            throw new IllegalArgumentException("correlators, writers and queue capacity must be positive");
+        }
+        this.sink = sink;
+        this.writeQueue = new ArrayBlockingQueue<>(queueCapacity);
+        for (int i = 0; i < correlatorCount; i++) {
+            BlockingQueue<LogEntry> queue = new ArrayBlockingQueue<>(queueCapacity);
+            PendingStore store = storeFactory.get();
+            EventCorrelator correlator = new EventCorrelator(store, timeoutMs);
+            correlatorQueues.add(queue);
+            stores.add(store);
+            correlators.add(correlator);
+            correlatorThreads.add(start("correlator-" + i, () -> correlate(queue, correlator)));
+        }
+        for (int i = 0; i < writerCount; i++) {
+            writerThreads.add(start("writer-" + i, this::write));
+        }
+    }
+
+    /**
+     * Counts the pairs and ignored records of every shard. Call before the first submit.
+     * @param metrics
+     */
+    public void setMetrics(IngestMetrics metrics) {
+        // Published to the correlator threads by the queue hand off of the first entry
+        for (EventCorrelator correlator : correlators)
+            correlator.setMetrics(metrics);
+    }
+
+    /**
+     * Shares the filter of completed ids between the shards. Call before the first submit.
+     * @param completedIds
+     */
+    public void setCompletedIds(CompletedIdFilter completedIds) {
+        for (EventCorrelator correlator : correlators)
+            correlator.setCompletedIds(completedIds);
+    }
+
+    /**
+     * @return entries queued in all stages, for monitoring
+     */
+    public int queueDepth() {
+        int depth = writeQueue.size();
+        for (BlockingQueue<LogEntry> queue : correlatorQueues)
+            depth += queue.size();
+        return depth;
+    }
+
+    /**
+     * Hands a parsed entry to the correlator owning its id. Blocks while that correlator's queue is full.
+     * @param entry
+     * @throws IOException if a downstream stage has failed or the caller is interrupted
+     */
+    public void submit(LogEntry entry) throws IOException {
+        put(correlatorQueues.get(shard(entry.getId())), entry);
+    }
+
+    /**
+     * Signals end of input, waits for all queued entries to be correlated and written, then moves the entries still
+     * waiting for a partner into pending so the caller sees the same store contents as after a single threaded run.
+     * @param pending
+     * @throws IOException if any stage failed
+     */
+    public void finish(Map<String, LogEntry> pending) throws IOException {
+        for (BlockingQueue<LogEntry> queue : correlatorQueues) {
+            put(queue, EOF);
+        }
+        join(correlatorThreads);
+        for (int i = 0; i < writerThreads.size(); i++) {
+            put(writeQueue, EOF);
+        }
+        join(writerThreads);
+        // Every thread has stopped, so the stores are closed here whether or not a stage failed
+        finished = true;
+        try {
+            checkFailure();
+            for (PendingStore store : stores)
+                pending.putAll(store);
+        } finally {
+            stores.forEach(PendingStore::close);
+        }
+    }
+
+    /**
+     * Stops any threads still running, e.g. when the parser stage failed before finish() was called.
+     */
+    @Override
+    public void close() {
+        if (!finished) {
+            correlatorThreads.forEach(Thread::interrupt);
+            writerThreads.forEach(Thread::interrupt);
+            try {
+                join(correlatorThreads);
+            } catch (IOException e) {
+                log.warn("Interrupted stopping pipeline", e);
+            }
+            stores.forEach(PendingStore::close);
+        }
+    }
+
+    private int shard(String id) {
+        return (id == null ? 0 : id.hashCode() & Integer.MAX_VALUE) % correlatorQueues.size();
+    }
+
+    private void correlate(BlockingQueue<LogEntry> queue, EventCorrelator correlator) {
+        try {
+            for (LogEntry entry = queue.take(); entry != EOF; entry = queue.take()) {
+                if (failure.get() != null)
+                    continue; // Keep draining so the parser is never left blocked
+                try {
+                    LogEntry completed = correlator.correlate(entry);
+                    if (completed != null)
+                        put(writeQueue, completed);
+                    for (LogEntry timedOut = correlator.pollTimedOut(); timedOut != null; timedOut = correlator.pollTimedOut())
+                        put(writeQueue, timedOut);
+                } catch (Exception e) {
+                    fail(e);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void write() {
+        try {
+            for (LogEntry entry = writeQueue.take(); entry != EOF; entry = writeQueue.take()) {
+                if (failure.get() != null)
+                    continue;
+                try {
+                    sink.write(entry);
+                } catch (Exception e) {
+                    fail(e);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void put(BlockingQueue<LogEntry> queue, LogEntry entry) throws IOException {
+        try {
+            while (!queue.offer(entry, OFFER_WAIT_MS, TimeUnit.MILLISECONDS)) {
+                if (entry != EOF)
+                    checkFailure();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while queueing " + entry.getId());
+        }
+        if (entry != EOF)
+            checkFailure();
+    }
+
+    private void fail(Throwable t) {
+        if (failure.compareAndSet(null, t))
+            log.error("Pipeline stage " + Thread.currentThread().getName() + " failed", t);
+    }
+
+    private void checkFailure() throws IOException {
+        Throwable t = failure.get();
+        if (t != null)
+            throw new IOException("Pipeline stage failed: " + t, t);
+    }
+
+    private static void join(List<Thread> threads) throws IOException {
+        try {
+            for (Thread t : threads)
+                t.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for pipeline to drain");
+        }
+    }
+
+    private static Thread start(String name, Runnable task) {
+        Thread t = new Thread(task, name);
+        t.setDaemon(true);
+        t.start();
+        return t;
+    }
+}
@@ -0,0 +1,277 @@
+package com.example.demo.pipeline;
+
+import com.example.demo.EventCorrelator;
+import com.example.demo.model.LogEntry;
+import com.example.demo.parse.LogEntryReader;
+import com.example.demo.sink.LogEntrySink;
+import com.example.demo.stats.IngestMetrics;
+import com.example.demo.store.CompletedIdFilter;
+import com.example.demo.store.MemoryPendingStore;
+import com.example.demo.store.PendingStore;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+/**
+ * Parses one file on several cores.
+ * The input is a sequence of concatenated top level objects, so it can be cut wherever one object ends and the next
+ * begins. The file is divided into byte ranges, each range is moved forward to the next such boundary and then memory
+ * mapped and parsed by its own Jackson parser, LogEntryReader and EventCorrelator. Pairs completed inside a range are
+ * written straight away. The entries each range leaves pending are then fed, in file order, through a final
+ * EventCorrelator, which pairs the events whose STARTED and FINISHED landed in different ranges.
+ * Boundaries are found by looking for a closing brace followed by an opening brace and a field name, so string values
+ * are assumed never to contain that sequence. A duplicate whose original is in an earlier range can be paired in
+ * place of the original, in which case the original is reported as pending.
+ */
+@Slf4j
+public class SplitFileScanner {
+
+    /** A single mapping is limited to 2GB */
+    private static final long MAX_CHUNK = Integer.MAX_VALUE;
+    private static final int SEARCH_BUFFER = 64 * 1024;
+
+    private final int threads;
+    private final JsonFactory jsonF;
+    private final Supplier<? extends PendingStore> storeFactory;
+    private final Supplier<LogEntryReader> readerFactory;
+    /** Counts pairs and ignored records of every range, and the bytes of each range scanned, if set */
+    @Setter
+    private IngestMetrics metrics;
+    /** Ids already written, shared by the correlators of every range and the merge, if set */
+    @Setter
+    private CompletedIdFilter completedIds;
+
+    /**
+     * Constructor using in memory pending stores
+     * @param threads number of ranges parsed concurrently, normally the core count
+     */
+    public SplitFileScanner(int threads) {
+        this(threads, MemoryPendingStore::new, LogEntryReader.factory(LogEntryReader.STREAMING));
+    }
+
+    /**
+     * @param threads number of ranges parsed concurrently, normally the core count
+     * @param storeFactory creates the pending store of each range
+     * @param readerFactory creates the record decoder of each range
+     */
+    public SplitFileScanner(int threads, Supplier<? extends PendingStore> storeFactory, Supplier<LogEntryReader> readerFactory) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive: " + threads);
+        }
+        this.threads = threads;
+        this.storeFactory = storeFactory;
+        this.readerFactory = readerFactory;
+        this.jsonF = new ObjectMapper().getFactory();
+    }
+
+    /**
+     * Scans the file, writing each completed entry to the sink. Entries that never found a partner are left in pending.
+     * @param file
+     * @param sink thread safe destination for completed entries
+     * @param pending receives the entries still waiting for their partner
+     * @throws IOException
+     */
+    public void scan(File file, LogEntrySink sink, PendingStore pending) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long[] splits = splitPoints(channel, threads);
+            if (log.isDebugEnabled())
+                log.debug("Scanning " + file + " in " + (splits.length - 1) + " ranges");
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                List<Future<PendingStore>> results = new ArrayList<>();
+                for (int i = 0; i < splits.length - 1; i++) {
+                    long start = splits[i];
+                    long end = splits[i + 1];
+                    boolean first = i == 0;
+                    results.add(executor.submit(() -> scanRange(channel, start, end, first, sink)));
+                }
+                // Reconcile the leftovers of each range in file order
+                EventCorrelator merge = new EventCorrelator(pending);
+                merge.setMetrics(metrics);
+                merge.setCompletedIds(completedIds);
+                for (Future<PendingStore> result : results) {
+                    try (PendingStore leftovers = get(result)) {
+                        for (LogEntry entry : leftovers.values()) {
+                            LogEntry completed = merge.correlate(entry);
+                            if (completed != null)
+                                write(sink, completed);
+                        }
+                    }
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Divides the file into at least the requested number of ranges, each starting on an object boundary.
+     * @param channel
+     * @param count
+     * @return offsets, starting with 0 and ending with the file size
+     * @throws IOException
+     */
+    static long[] splitPoints(FileChannel channel, int count) throws IOException {
+        long size = channel.size();
+        int ranges = (int) Math.max(count, (size + MAX_CHUNK - 1) / MAX_CHUNK);
+        long[] splits = new long[ranges + 1];
+        for (int i = 1; i < ranges; i++) {
+            long nominal = Math.max(splits[i - 1], size * i / ranges);
+            splits[i] = nextBoundary(channel, nominal, size);
+        }
+        splits[ranges] = size;
+        return splits;
+    }
+
+    /**
+     * @return offset of the first '{' at or after from that follows a '}', or size if there is none
+     */
+    private static long nextBoundary(FileChannel channel, long from, long size) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(SEARCH_BUFFER);
+        // 0 looking for '}', 1 seen '}', 2 seen '}' then '{'
+        int state = 0;
+        long candidate = -1;
+        long pos = from;
+        while (pos < size) {
+            buf.clear();
+            int read = channel.read(buf, pos);
+            if (read <= 0)
+                break;
+            for (int i = 0; i < read; i++) {
+                byte b = buf.get(i);
+                if (isWhitespace(b))
+                    continue;
+                if (state == 2 && b == '"')
+                    return candidate;
+                if (b == '}') {
+                    state = 1;
+                } else if (state == 1 && b == '{') {
+                    state = 2;
+                    candidate = pos + i;
+                } else {
+                    state = 0;
+                }
+            }
+            pos += read;
+        }
+        return size;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+    }
+
+    /**
+     * Parses and correlates one range.
+     * @return the entries the range leaves pending
+     */
+    private PendingStore scanRange(FileChannel channel, long start, long end, boolean first, LogEntrySink sink) throws Exception {
+        PendingStore store = storeFactory.get();
+        try {
+            EventCorrelator correlator = new EventCorrelator(store);
+            correlator.setMetrics(metrics);
+            correlator.setCompletedIds(completedIds);
+            scanRange(channel, start, end, first, sink, correlator);
+            if (metrics != null)
+                metrics.bytesRead(end - start);
+            return store;
+        } catch (Exception e) {
+            store.close();
+            throw e;
+        }
+    }
+
+    private void scanRange(FileChannel channel, long start, long end, boolean first, LogEntrySink sink,
+                           EventCorrelator correlator) throws Exception {
+        if (end <= start) {
+            if (first)
+                throw new IOException("Expected data to start with an Object");
+            return;
+        }
+        ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        try (JsonParser jp = jsonF.createParser(new ByteBufferInputStream(mapped))) {
+            JsonToken token = jp.nextToken();
+            if (token != JsonToken.START_OBJECT) {
+                throw new IOException("Expected data to start with an Object at offset " + start);
+            }
+            LogEntryReader reader = readerFactory.get();
+            while (token != null && token != JsonToken.END_OBJECT) {
+                LogEntry completed = correlator.correlate(reader.read(jp));
+                if (completed != null)
+                    sink.write(completed);
+                token = jp.nextToken();
+            }
+        }
+    }
+
+    private static void write(LogEntrySink sink, LogEntry entry) throws IOException {
+        try {
+            sink.write(entry);
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Failed to write " + entry.getId(), e);
+        }
+    }
+
+    private static <T> T get(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for range scan");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IOException("Range scan failed: " + e.getCause(), e.getCause());
+        }
+    }
+
+    /**
+     * Reads a mapped range without copying it to the heap first
+     */
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buf;
+
+        ByteBufferInputStream(ByteBuffer buf) {
+            this.buf = buf;
+        }
+
+        @Override
+        public int read() {
+            return buf.hasRemaining() ? buf.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!buf.hasRemaining())
+                return -1;
+            int n = Math.min(len, buf.remaining());
+            buf.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return buf.remaining();
+        }
+    }
+}
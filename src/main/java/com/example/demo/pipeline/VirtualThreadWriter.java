@@ -0,0 +1,158 @@
+package com.example.demo.pipeline;
+
+import com.example.demo.model.LogEntry;
+import com.example.demo.sink.LogEntrySink;
+import com.example.demo.stats.DurationStats;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Writes each entry on a task of its own, so a blocking save does not hold up the calling (parser) thread.
+ * On JDK 21 and later each task runs on a new virtual thread, from Executors.newVirtualThreadPerTaskExecutor looked up
+ * at runtime as the build targets Java 8. Earlier JDKs fall back to a cached pool of platform threads, which the
+ * semaphore keeps to the same size. Either way at most maxConcurrent writes are in flight, one per pooled connection,
+ * and write() blocks the caller once they are all taken, so tasks never pile up waiting for a connection.
+ * The time each write takes is recorded in micros for comparison with the single threaded path.
+ * The sink must be thread safe. The first failure is rethrown by the next write(), flush() or close().
+ */
+@Slf4j
+public class VirtualThreadWriter implements LogEntrySink, AutoCloseable {
+
+    /** One minute in micros, slower writes count as a minute in the latency percentiles */
+    private static final long LATENCY_HIGHEST_TRACKABLE = 60000000L;
+
+    private final LogEntrySink sink;
+    private final int maxConcurrent;
+    private final Semaphore permits;
+    private final ExecutorService executor;
+    @Getter
+    private final boolean virtual;
+    private final DurationStats latency = new DurationStats(LATENCY_HIGHEST_TRACKABLE, 2);
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    /**
+     * @param sink thread safe destination for the entries
+     * @param maxConcurrent writes allowed in flight, usually the connection pool size
+     */
+    public VirtualThreadWriter(LogEntrySink sink, int maxConcurrent) {
+        if (maxConcurrent < 1) {
+            throw new IllegalArgumentException("maxConcurrent must be positive: " + maxConcurrent);
+        }
+        this.sink = sink;
+        this.maxConcurrent = maxConcurrent;
+        this.permits = new Semaphore(maxConcurrent);
+        ExecutorService virtualExecutor = virtualThreadExecutor();
+        this.virtual = virtualExecutor != null;
+        this.executor = virtual ? virtualExecutor : Executors.newCachedThreadPool(platformThreads());
+        if (log.isDebugEnabled())
+            log.debug("Writing on " + (virtual ? "virtual" : "platform") + " threads, " + maxConcurrent + " at a time");
+    }
+
+    /**
+     * @return a virtual thread per task executor, or null before JDK 21
+     */
+    static ExecutorService virtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private static ThreadFactory platformThreads() {
+        AtomicInteger count = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, "vwriter-" + count.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    /**
+     * Starts a task writing the entry, first waiting for a write in flight to finish if maxConcurrent already are
+     * @param entry
+     * @throws IOException if an earlier write failed or the caller is interrupted
+     */
+    @Override
+    public void write(LogEntry entry) throws IOException {
+        checkFailure();
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting to write " + entry.getId());
+        }
+        try {
+            executor.execute(() -> {
+                long start = System.nanoTime();
+                try {
+                    sink.write(entry);
+                    latency.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start), false);
+                } catch (Exception e) {
+                    if (failure.compareAndSet(null, e))
+                        log.error("Write of " + entry.getId() + " failed", e);
+                } finally {
+                    permits.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Waits for every write in flight to finish
+     * @throws IOException if any write failed
+     */
+    public void flush() throws IOException {
+        try {
+            permits.acquire(maxConcurrent);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for writes");
+        }
+        permits.release(maxConcurrent);
+        checkFailure();
+    }
+
+    /**
+     * @return time taken by each successful write, in micros
+     */
+    public DurationStats.Summary latency() {
+        return latency.summary();
+    }
+
+    /**
+     * Waits for the writes in flight, then stops the executor
+     * @throws IOException if any write failed
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        Throwable t = failure.get();
+        if (t instanceof IOException)
+            throw (IOException) t;
+        if (t != null)
+            throw new IOException("Write failed", t);
+    }
+}
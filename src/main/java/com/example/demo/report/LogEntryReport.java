@@ -0,0 +1,81 @@
+package com.example.demo.report;
+
+import com.example.demo.model.LogEntry;
+import com.example.demo.repository.LogEntryFilter;
+import com.example.demo.repository.LogEntryRepoIF;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/**
+ * Writes LogEntry rows one per line while they are streamed from the DB, so a report of any size runs in constant
+ * memory: rows come from a cursor (LogEntryRepoIF.stream), each entity is detached once written so the persistence
+ * context stays empty, and output goes through a BufferedWriter instead of a print per row.
+ */
+public class LogEntryReport {
+
+    private static final int BUFFER = 64 * 1024;
+
+    private final LogEntryRepoIF repo;
+    private final PlatformTransactionManager transactionManager;
+    private final EntityManager entityManager;
+
+    /**
+     * @param repo
+     * @param transactionManager runs the query in a read only transaction, may be null if the caller has one
+     * @param entityManager the rows are detached from, may be null
+     */
+    public LogEntryReport(LogEntryRepoIF repo, PlatformTransactionManager transactionManager, EntityManager entityManager) {
+        this.repo = repo;
+        this.transactionManager = transactionManager;
+        this.entityManager = entityManager;
+    }
+
+    /**
+     * @param filter
+     * @param out flushed but not closed
+     * @return number of rows written
+     * @throws IOException
+     */
+    public long write(LogEntryFilter filter, Writer out) throws IOException {
+        if (transactionManager == null)
+            return stream(filter, out);
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+        transaction.setReadOnly(true);
+        try {
+            return transaction.execute(status -> {
+                try {
+                    return stream(filter, out);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private long stream(LogEntryFilter filter, Writer out) throws IOException {
+        BufferedWriter writer = new BufferedWriter(out, BUFFER);
+        long rows = 0;
+        try (Stream<LogEntry> stream = repo.stream(filter)) {
+            for (Iterator<LogEntry> i = stream.iterator(); i.hasNext(); ) {
+                LogEntry entry = i.next();
+                writer.write(entry.toString());
+                writer.newLine();
+                if (entityManager != null)
+                    entityManager.detach(entry);
+                rows++;
+            }
+        }
+        writer.flush();
+        return rows;
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.demo.repository;
+
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * Selects the LogEntry rows of a report. Unset fields do not filter.
+ * The conditions are part of the query, so the DB only returns matching rows.
+ */
+@Getter
+@Builder
+public class LogEntryFilter {
+
+    /** Every row */
+    public static final LogEntryFilter ALL = LogEntryFilter.builder().build();
+
+    /** Only rows with alert set */
+    private final boolean alertOnly;
+    private final String host;
+    private final String type;
+    /** Inclusive bounds of the duration */
+    private final Long minDuration;
+    private final Long maxDuration;
+    /** Bounds of the start time in epoch millis, from inclusive and to exclusive. Rows without a start time are left out when either is set */
+    private final Long from;
+    private final Long to;
+
+    /**
+     * Reads a filter from command line style arguments: --alerts, --host=, --type=, --minDuration=, --maxDuration=,
+     * --from=, --to= (epoch millis).
+     * Other arguments are ignored.
+     * @param args
+     * @return
+     */
+    public static LogEntryFilter parse(String... args) {
+        LogEntryFilterBuilder builder = builder();
+        for (String arg : args) {
+            if (arg.equals("--alerts"))
+                builder.alertOnly(true);
+            else if (arg.startsWith("--host="))
+                builder.host(value(arg));
+            else if (arg.startsWith("--type="))
+                builder.type(value(arg));
+            else if (arg.startsWith("--minDuration="))
+                builder.minDuration(Long.parseLong(value(arg)));
+            else if (arg.startsWith("--maxDuration="))
+                builder.maxDuration(Long.parseLong(value(arg)));
+            else if (arg.startsWith("--from="))
+                builder.from(Long.parseLong(value(arg)));
+            else if (arg.startsWith("--to="))
+                builder.to(Long.parseLong(value(arg)));
+        }
+        return builder.build();
+    }
+
+    private static String value(String arg) {
+        return arg.substring(arg.indexOf('=') + 1);
+    }
+}
@@ -1,7 +1,19 @@
 package com.example.demo.repository;
 
 import com.example.demo.model.LogEntry;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
 
-public interface LogEntryRepoIF  extends CrudRepository<LogEntry, String> {
+public interface LogEntryRepoIF  extends CrudRepository<LogEntry, String>, LogEntryStreaming {
+
+    /**
+     * Deletes the rows whose pair started before the cutoff, through the start_time index. Must be called in a transaction.
+     * @param cutoff epoch millis
+     * @return rows deleted
+     */
+    @Modifying
+    @Query("delete from LogEntry e where e.startTime < :cutoff")
+    int deleteStartedBefore(@Param("cutoff") long cutoff);
 }
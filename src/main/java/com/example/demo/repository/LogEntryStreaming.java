@@ -0,0 +1,23 @@
+package com.example.demo.repository;
+
+import com.example.demo.model.LogEntry;
+
+import java.util.stream.Stream;
+
+/**
+ * Filtered streaming of LogEntry rows, the part of LogEntryRepoIF implemented by LogEntryStreamingImpl
+ */
+public interface LogEntryStreaming {
+
+    /** Rows fetched from the DB per round trip while streaming */
+    int FETCH_SIZE = 1000;
+
+    /**
+     * Streams the rows matching the filter from a cursor, rather than loading them all as findAll does.
+     * Must be called in a transaction, and the stream closed afterwards. The entities are read only, and should be
+     * detached from the EntityManager once used so the persistence context does not grow with the table.
+     * @param filter
+     * @return
+     */
+    Stream<LogEntry> stream(LogEntryFilter filter);
+}
@@ -0,0 +1,66 @@
+package com.example.demo.repository;
+
+import com.example.demo.model.LogEntry;
+import org.hibernate.query.Query;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.TypedQuery;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
+import static org.hibernate.jpa.QueryHints.HINT_READONLY;
+
+/**
+ * Builds the query of a LogEntryFilter from the conditions that are set only, so each is a plain comparison the DB
+ * can serve from an index, e.g. a start time range from start_time. Picked up by Spring Data as the implementation of
+ * LogEntryStreaming; a repository made outside Spring, by JpaRepositoryFactory, is given one as a fragment.
+ */
+public class LogEntryStreamingImpl implements LogEntryStreaming {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    public LogEntryStreamingImpl() {
+    }
+
+    /**
+     * @param entityManager shared EntityManager the queries are created on
+     */
+    public LogEntryStreamingImpl(EntityManager entityManager) {
+        this.entityManager = entityManager;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Stream<LogEntry> stream(LogEntryFilter filter) {
+        StringBuilder jpql = new StringBuilder("select e from LogEntry e");
+        Map<String, Object> params = new LinkedHashMap<>();
+        if (filter.isAlertOnly())
+            where(jpql, "e.alert = true");
+        condition(jpql, params, "e.host =", "host", filter.getHost());
+        condition(jpql, params, "e.type =", "type", filter.getType());
+        condition(jpql, params, "e.duration >=", "minDuration", filter.getMinDuration());
+        condition(jpql, params, "e.duration <=", "maxDuration", filter.getMaxDuration());
+        condition(jpql, params, "e.startTime >=", "from", filter.getFrom());
+        condition(jpql, params, "e.startTime <", "to", filter.getTo());
+        TypedQuery<LogEntry> query = entityManager.createQuery(jpql.toString(), LogEntry.class);
+        params.forEach(query::setParameter);
+        query.setHint(HINT_FETCH_SIZE, FETCH_SIZE);
+        query.setHint(HINT_READONLY, true);
+        return query.unwrap(Query.class).stream();
+    }
+
+    private static void condition(StringBuilder jpql, Map<String, Object> params, String comparison, String name, Object value) {
+        if (value == null)
+            return;
+        where(jpql, comparison + " :" + name);
+        params.put(name, value);
+    }
+
+    private static void where(StringBuilder jpql, String condition) {
+        jpql.append(jpql.indexOf(" where ") < 0 ? " where " : " and ").append(condition);
+    }
+}
@@ -0,0 +1,50 @@
+package com.example.demo.sink;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+
+import javax.sql.DataSource;
+
+/**
+ * Creates the pooled DataSource shared by PlainJacksonJdbcProcessor and SpringBootProcessor.
+ * Connections are opened once and handed back to the pool on close(), rather than opening a physical connection per
+ * request as DriverManagerDataSource does. The pool keeps one idle connection and grows up to poolSize.
+ */
+public final class DataSources {
+
+    private static final int MIN_IDLE = 1;
+
+    private DataSources() {
+    }
+
+    /**
+     * @param url JDBC url
+     * @param user
+     * @param password
+     * @param poolSize maximum number of open connections
+     * @return a pool, which the caller closes
+     */
+    public static HikariDataSource pooled(String url, String user, String password, int poolSize) {
+        if (poolSize < 1) {
+            throw new IllegalArgumentException("poolSize must be positive: " + poolSize);
+        }
+        HikariConfig config = new HikariConfig();
+        config.setJdbcUrl(url);
+        config.setUsername(user);
+        config.setPassword(password);
+        config.setMaximumPoolSize(poolSize);
+        config.setMinimumIdle(Math.min(MIN_IDLE, poolSize));
+        config.setPoolName("logentry");
+        return new HikariDataSource(config);
+    }
+
+    /**
+     * Closes the DataSource if it is a pool
+     * @param dataSource may be null
+     */
+    public static void close(DataSource dataSource) {
+        if (dataSource instanceof HikariDataSource) {
+            ((HikariDataSource) dataSource).close();
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package com.example.demo.sink;
+
+import com.example.demo.model.LogEntry;
+import com.example.demo.stats.IngestMetrics;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Batching JDBC writer for completed LogEntries.
+ * Reuses a single PreparedStatement and groups rows with addBatch/executeBatch. The batch is executed and committed
+ * every batchSize rows, or by the first write once commitIntervalMs has elapsed since the last commit. The interval is
+ * only checked on write, so rows buffered before a quiet spell wait for the next write, flush() or close().
+ * Anything still buffered is flushed on close(). The connection itself is owned by the caller and is not closed here.
+ * Each batch's size and execute plus commit time are recorded in the IngestMetrics, if set.
+ * With LogEntryPartitions each row goes to the bucket table of its start time instead, through a statement prepared
+ * per bucket, the MAX_OPEN_BUCKETS used most recently kept open. Every statement with rows is executed before the one
+ * commit, so a batch spanning buckets still commits as one. A new bucket is created on first use, after committing
+ * what is batched as its DDL commits the transaction.
+ */
+@Slf4j
+public class JdbcBatchWriter implements AutoCloseable {
+
+    /** Bucket statements kept open, a run over older data rarely touches more than a few buckets at a time */
+    static final int MAX_OPEN_BUCKETS = 16;
+
+    private final Connection connection;
+    private final String sql;
+    /** The one statement when not partitioned */
+    private final PreparedStatement ps;
+    private final LogEntryPartitions partitions;
+    /** Statement of each bucket written recently, least recently used first */
+    private final LinkedHashMap<String, PreparedStatement> buckets = new LinkedHashMap<>(MAX_OPEN_BUCKETS, 0.75f, true);
+    /** Bucket statements with rows in the current batch, as a statement with an empty batch cannot be executed */
+    private final List<PreparedStatement> batched = new ArrayList<>();
+    private final int batchSize;
+    private final long commitIntervalMs;
+    private int pending;
+    private long lastCommit;
+    @Getter
+    private long written;
+    @Setter
+    private IngestMetrics metrics;
+
+    /**
+     * Constructor. Switches the connection to manual commit and prepares the insert statement once.
+     * @param connection
+     * @param sql insert statement taking (id, type, host, alert, duration, start_time, end_time)
+     * @param batchSize number of rows per executeBatch/commit
+     * @param commitIntervalMs time in millis after the last commit from which a write commits the batch
+     * @throws SQLException
+     */
+    public JdbcBatchWriter(Connection connection, String sql, int batchSize, long commitIntervalMs) throws SQLException {
+        this(connection, sql, null, batchSize, commitIntervalMs);
+    }
+
+    /**
+     * Constructor. Switches the connection to manual commit and, unless partitioned, prepares the insert statement once.
+     * @param connection
+     * @param sql insert statement on LOGENTRY taking (id, type, host, alert, duration, start_time, end_time)
+     * @param partitions routes rows to the bucket tables, already refreshed, or null to write LOGENTRY
+     * @param batchSize number of rows per executeBatch/commit
+     * @param commitIntervalMs time in millis after the last commit from which a write commits the batch
+     * @throws SQLException
+     */
+    public JdbcBatchWriter(Connection connection, String sql, LogEntryPartitions partitions, int batchSize,
+                           long commitIntervalMs) throws SQLException {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be positive: " + batchSize);
+        }
+        this.connection = connection;
+        this.sql = sql;
+        this.partitions = partitions;
+        this.batchSize = batchSize;
+        this.commitIntervalMs = commitIntervalMs;
+        connection.setAutoCommit(false);
+        this.ps = partitions == null ? connection.prepareStatement(sql) : null;
+        this.lastCommit = System.currentTimeMillis();
+    }
+
+    /**
+     * Adds the LogEntry to the current batch, flushing if the batch is full or the commit interval has elapsed.
+     * @param entry
+     * @throws SQLException
+     */
+    public synchronized void write(LogEntry entry) throws SQLException {
+        PreparedStatement ps = this.ps;
+        if (partitions != null) {
+            ps = bucket(partitions.tableFor(LogEntryPartitions.timeOf(entry)));
+            if (!batched.contains(ps))
+                batched.add(ps);
+        }
+        ps.setString(1, entry.getId());
+        ps.setString(2, entry.getType());
+        ps.setString(3, entry.getHost());
+        ps.setBoolean(4, entry.isAlert());
+        ps.setLong(5, entry.getDuration());
+        setTime(ps, 6, entry.getStartTime());
+        setTime(ps, 7, entry.getEndTime());
+        ps.addBatch();
+        pending++;
+        if (pending >= batchSize || System.currentTimeMillis() - lastCommit >= commitIntervalMs) {
+            flush();
+        }
+    }
+
+    /**
+     * Executes and commits any buffered rows. On failure the batch is discarded, the transaction rolled back and the
+     * exception rethrown.
+     * @throws SQLException
+     */
+    public synchronized void flush() throws SQLException {
+        if (pending > 0) {
+            long start = System.nanoTime();
+            try {
+                if (partitions == null) {
+                    ps.executeBatch();
+                } else {
+                    for (PreparedStatement bucket : batched)
+                        bucket.executeBatch();
+                }
+                connection.commit();
+            } catch (SQLException e) {
+                if (metrics != null)
+                    metrics.writeFailed();
+                // The rows go with the transaction, so they are neither counted nor executed again
+                pending = 0;
+                for (PreparedStatement statement : partitions == null ? Collections.singletonList(ps) : batched)
+                    statement.clearBatch();
+                batched.clear();
+                connection.rollback();
+                throw e;
+            }
+            if (metrics != null)
+                metrics.batchWritten(pending, System.nanoTime() - start);
+            written += pending;
+            if (log.isDebugEnabled()) {
+                log.debug("Committed batch of " + pending + " rows (" + written + " total)");
+            }
+            pending = 0;
+            batched.clear();
+        }
+        lastCommit = System.currentTimeMillis();
+    }
+
+    @Override
+    public synchronized void close() throws SQLException {
+        try {
+            flush();
+        } finally {
+            if (ps != null)
+                ps.close();
+            for (PreparedStatement bucket : buckets.values())
+                bucket.close();
+            buckets.clear();
+        }
+    }
+
+    /**
+     * @return the statement writing the bucket, creating the bucket if it is new
+     */
+    private PreparedStatement bucket(String table) throws SQLException {
+        PreparedStatement bucket = buckets.get(table);
+        if (bucket != null)
+            return bucket;
+        if (!partitions.exists(table)) {
+            flush();
+            partitions.ensure(connection, table);
+        }
+        if (buckets.size() >= MAX_OPEN_BUCKETS) {
+            flush();
+            Iterator<Map.Entry<String, PreparedStatement>> eldest = buckets.entrySet().iterator();
+            eldest.next().getValue().close();
+            eldest.remove();
+        }
+        bucket = connection.prepareStatement(LogEntrySchema.forTable(sql, table));
+        buckets.put(table, bucket);
+        return bucket;
+    }
+
+    private static void setTime(PreparedStatement ps, int index, Long time) throws SQLException {
+        if (time == null)
+            ps.setNull(index, Types.BIGINT);
+        else
+            ps.setLong(index, time);
+    }
+}
@@ -0,0 +1,249 @@
+package com.example.demo.sink;
+
+import com.example.demo.model.LogEntry;
+import com.example.demo.stats.IngestMetrics;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Spreads completed LogEntries over a fixed set of writer threads, so inserts run on several connections at once.
+ * Each writer thread takes its own connection from the DataSource and writes through its own JdbcBatchWriter, so the
+ * prepared statement is reused for the life of the thread. Entries are dealt round robin onto bounded per writer
+ * queues, so a slow DB pushes back on the caller. A writer idle for commitIntervalMs commits what it has buffered.
+ * flush() waits until every writer has committed what was queued before it; close() also stops the threads and hands
+ * the connections back.
+ */
+@Slf4j
+public class JdbcWriterPool implements LogEntrySink, AutoCloseable {
+
+    /** Markers passed through the queues */
+    private static final LogEntry FLUSH = LogEntry.builder().state(LogEntry.State.FINISHED).build();
+    private static final LogEntry EOF = LogEntry.builder().state(LogEntry.State.STARTED).build();
+    private static final long OFFER_WAIT_MS = 100;
+
+    private final DataSource dataSource;
+    private final String sql;
+    private final LogEntryPartitions partitions;
+    private final int batchSize;
+    private final long commitIntervalMs;
+    private final IngestMetrics metrics;
+    private final List<BlockingQueue<LogEntry>> queues = new ArrayList<>();
+    private final List<Thread> threads = new ArrayList<>();
+    private final AtomicInteger next = new AtomicInteger();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private volatile CountDownLatch flushed;
+    private boolean closed;
+
+    /**
+     * Constructor. Starts the writer threads, each of which opens its connection.
+     * @param dataSource should allow at least writers connections
+     * @param sql insert statement taking (id, type, host, alert, duration, start_time, end_time)
+     * @param writers number of writer threads
+     * @param queueCapacity capacity of each writer's queue
+     * @param batchSize rows per executeBatch/commit on each writer
+     * @param commitIntervalMs maximum time in millis a row stays buffered before it is committed
+     */
+    public JdbcWriterPool(DataSource dataSource, String sql, int writers, int queueCapacity, int batchSize,
+                          long commitIntervalMs) {
+        this(dataSource, sql, writers, queueCapacity, batchSize, commitIntervalMs, null);
+    }
+
+    /**
+     * Constructor. Starts the writer threads, each of which opens its connection.
+     * @param dataSource should allow at least writers connections
+     * @param sql insert statement taking (id, type, host, alert, duration, start_time, end_time)
+     * @param writers number of writer threads
+     * @param queueCapacity capacity of each writer's queue
+     * @param batchSize rows per executeBatch/commit on each writer
+     * @param commitIntervalMs maximum time in millis a row stays buffered before it is committed
+     * @param metrics records every writer's batches, may be null
+     */
+    public JdbcWriterPool(DataSource dataSource, String sql, int writers, int queueCapacity, int batchSize,
+                          long commitIntervalMs, IngestMetrics metrics) {
+        this(dataSource, sql, null, writers, queueCapacity, batchSize, commitIntervalMs, metrics);
+    }
+
+    /**
+     * Constructor. Starts the writer threads, each of which opens its connection.
+     * @param dataSource should allow at least writers connections
+     * @param sql insert statement on LOGENTRY taking (id, type, host, alert, duration, start_time, end_time)
+     * @param partitions routes rows to the bucket tables, shared by the writers, or null to write LOGENTRY
+     * @param writers number of writer threads
+     * @param queueCapacity capacity of each writer's queue
+     * @param batchSize rows per executeBatch/commit on each writer
+     * @param commitIntervalMs maximum time in millis a row stays buffered before it is committed
+     * @param metrics records every writer's batches, may be null
+     */
+    public JdbcWriterPool(DataSource dataSource, String sql, LogEntryPartitions partitions, int writers, int queueCapacity,
+                          int batchSize, long commitIntervalMs, IngestMetrics metrics) {
+        if (writers < 1 || queueCapacity < 1) {
+            throw new IllegalArgumentException("writers and queue capacity must be positive");
+        }
+        this.dataSource = dataSource;
+        this.sql = sql;
+        this.partitions = partitions;
+        this.batchSize = batchSize;
+        this.commitIntervalMs = commitIntervalMs;
+        this.metrics = metrics;
+        for (int i = 0; i < writers; i++) {
+            BlockingQueue<LogEntry> queue = new ArrayBlockingQueue<>(queueCapacity);
+            queues.add(queue);
+            Thread t = new Thread(() -> run(queue), "jdbc-writer-" + i);
+            t.setDaemon(true);
+            t.start();
+            threads.add(t);
+        }
+    }
+
+    /**
+     * Queues the entry on the next writer, blocking while its queue is full
+     * @param entry
+     * @throws SQLException if a writer has failed or the caller is interrupted
+     */
+    @Override
+    public void write(LogEntry entry) throws SQLException {
+        int writer = (next.getAndIncrement() & Integer.MAX_VALUE) % queues.size();
+        put(queues.get(writer), entry);
+    }
+
+    /**
+     * Waits until every writer has committed the entries queued before this call
+     * @throws SQLException if a writer has failed or the caller is interrupted
+     */
+    public synchronized void flush() throws SQLException {
+        if (closed)
+            return;
+        CountDownLatch latch = new CountDownLatch(queues.size());
+        flushed = latch;
+        for (BlockingQueue<LogEntry> queue : queues)
+            put(queue, FLUSH);
+        try {
+            while (!latch.await(OFFER_WAIT_MS, TimeUnit.MILLISECONDS))
+                checkFailure();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted waiting for writers to commit", e);
+        }
+        checkFailure();
+    }
+
+    /**
+     * @return entries queued for the writers, for monitoring
+     */
+    public int queueDepth() {
+        int depth = 0;
+        for (BlockingQueue<LogEntry> queue : queues)
+            depth += queue.size();
+        return depth;
+    }
+
+    /**
+     * @return rows committed so far over all writers
+     */
+    public long getWritten() {
+        return written.get();
+    }
+
+    /**
+     * Commits what is queued, stops the writers and returns their connections
+     * @throws SQLException if a writer failed
+     */
+    @Override
+    public synchronized void close() throws SQLException {
+        if (closed)
+            return;
+        closed = true;
+        for (BlockingQueue<LogEntry> queue : queues) {
+            try {
+                queue.put(EOF);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                threads.forEach(Thread::interrupt);
+                break;
+            }
+        }
+        try {
+            for (Thread t : threads)
+                t.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted waiting for writers to stop", e);
+        }
+        checkFailure();
+    }
+
+    private void run(BlockingQueue<LogEntry> queue) {
+        try (Connection connection = dataSource.getConnection();
+             JdbcBatchWriter writer = new JdbcBatchWriter(connection, sql, partitions, batchSize, commitIntervalMs)) {
+            writer.setMetrics(metrics);
+            long committed = 0;
+            while (true) {
+                LogEntry entry = queue.poll(commitIntervalMs, TimeUnit.MILLISECONDS);
+                if (entry == EOF)
+                    break;
+                if (failure.get() != null) {
+                    if (entry == FLUSH)
+                        flushed.countDown();
+                    continue; // Keep draining so the caller is never left blocked
+                }
+                try {
+                    if (entry == null || entry == FLUSH) {
+                        writer.flush();
+                    } else {
+                        writer.write(entry);
+                    }
+                    written.addAndGet(writer.getWritten() - committed);
+                    committed = writer.getWritten();
+                } catch (SQLException e) {
+                    fail(e);
+                } finally {
+                    if (entry == FLUSH)
+                        flushed.countDown();
+                }
+            }
+            if (failure.get() == null) {
+                writer.flush();
+                written.addAndGet(writer.getWritten() - committed);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            fail(e);
+        }
+    }
+
+    private void put(BlockingQueue<LogEntry> queue, LogEntry entry) throws SQLException {
+        try {
+            while (!queue.offer(entry, OFFER_WAIT_MS, TimeUnit.MILLISECONDS))
+                checkFailure();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while queueing " + entry.getId(), e);
+        }
+        checkFailure();
+    }
+
+    private void fail(Throwable t) {
+        if (failure.compareAndSet(null, t))
+            log.error("Writer " + Thread.currentThread().getName() + " failed", t);
+    }
+
+    private void checkFailure() throws SQLException {
+        Throwable t = failure.get();
+        if (t != null)
+            throw new SQLException("Writer failed: " + t, t);
+    }
+}
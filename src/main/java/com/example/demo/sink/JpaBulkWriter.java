@@ -0,0 +1,157 @@
+package com.example.demo.sink;
+
+import com.example.demo.model.LogEntry;
+import com.example.demo.repository.LogEntryRepoIF;
+import com.example.demo.stats.IngestMetrics;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Buffering JPA writer for completed LogEntries, the JPA counterpart of JdbcBatchWriter.
+ * Entries are collected into chunks of chunkSize and each chunk is saved with saveAll in a single transaction, so
+ * Hibernate can send the inserts as JDBC batches (hibernate.jdbc.batch_size). The persistence context is flushed and
+ * cleared after every chunk so it does not grow with the file. saveAll merges each entry, so an id saved before
+ * updates its row. An id written twice within a chunk is saved once, with the last entry written.
+ * With upsert set, the ids of each chunk already in the table are looked up with a single findAllById. The rest are
+ * marked LogEntry.knownNew and persisted without the SELECT a merge would issue, and the saved ones are merged onto
+ * the copies just loaded.
+ * Anything still buffered is saved on flush() or close(). A chunk that fails to save is discarded along with the
+ * persistence context, so the next write starts a fresh chunk instead of retrying it. Each chunk's size and save time are recorded in the
+ * IngestMetrics, if set.
+ */
+@Slf4j
+public class JpaBulkWriter implements AutoCloseable {
+
+    private final LogEntryRepoIF repo;
+    private final TransactionTemplate transaction;
+    private final EntityManager entityManager;
+    private final int chunkSize;
+    private final boolean upsert;
+    private final List<LogEntry> chunk;
+    @Getter
+    private long written;
+    @Setter
+    private IngestMetrics metrics;
+
+    /**
+     * @param repo
+     * @param transaction runs each chunk in its own transaction, or null to rely on the repository's transactions
+     * @param entityManager flushed and cleared after each chunk, may be null
+     * @param chunkSize number of entries per transaction
+     */
+    public JpaBulkWriter(LogEntryRepoIF repo, TransactionTemplate transaction, EntityManager entityManager, int chunkSize) {
+        this(repo, transaction, entityManager, chunkSize, false);
+    }
+
+    /**
+     * @param repo
+     * @param transaction runs each chunk in its own transaction, or null to rely on the repository's transactions
+     * @param entityManager flushed and cleared after each chunk, may be null
+     * @param chunkSize number of entries per transaction
+     * @param upsert look up the ids of each chunk once, so new entries are persisted without a SELECT each
+     */
+    public JpaBulkWriter(LogEntryRepoIF repo, TransactionTemplate transaction, EntityManager entityManager, int chunkSize,
+                         boolean upsert) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunkSize must be positive: " + chunkSize);
+        }
+        this.repo = repo;
+        this.transaction = transaction;
+        this.entityManager = entityManager;
+        this.chunkSize = chunkSize;
+        this.upsert = upsert;
+        this.chunk = new ArrayList<>(chunkSize);
+    }
+
+    /**
+     * Adds the entry to the current chunk, saving the chunk once it is full
+     * @param entry
+     */
+    public synchronized void write(LogEntry entry) {
+        chunk.add(entry);
+        if (chunk.size() >= chunkSize)
+            flush();
+    }
+
+    /**
+     * Saves and commits the buffered entries. On failure the transaction is rolled back, the entries dropped and the
+     * exception rethrown.
+     */
+    public synchronized void flush() {
+        if (chunk.isEmpty())
+            return;
+        long start = System.nanoTime();
+        try {
+            if (transaction == null) {
+                saveChunk();
+            } else {
+                transaction.execute(status -> {
+                    saveChunk();
+                    return null;
+                });
+            }
+        } catch (RuntimeException e) {
+            if (metrics != null)
+                metrics.writeFailed();
+            chunk.clear();
+            if (entityManager != null)
+                entityManager.clear();
+            throw e;
+        }
+        if (metrics != null)
+            metrics.batchWritten(chunk.size(), System.nanoTime() - start);
+        written += chunk.size();
+        if (log.isDebugEnabled()) {
+            log.debug("Saved chunk of " + chunk.size() + " entries (" + written + " total)");
+        }
+        chunk.clear();
+    }
+
+    private void saveChunk() {
+        Collection<LogEntry> entries = lastById();
+        if (upsert)
+            markExisting(entries);
+        repo.saveAll(entries);
+        if (entityManager != null) {
+            entityManager.flush();
+            entityManager.clear();
+        }
+    }
+
+    /**
+     * @return the chunk with only the last entry of each id, so an id is never persisted twice in one flush
+     */
+    private Collection<LogEntry> lastById() {
+        Map<String, LogEntry> byId = new LinkedHashMap<>(chunk.size() * 2);
+        for (LogEntry entry : chunk)
+            byId.put(entry.getId(), entry);
+        return byId.size() == chunk.size() ? chunk : byId.values();
+    }
+
+    private void markExisting(Collection<LogEntry> entries) {
+        List<String> ids = new ArrayList<>(entries.size());
+        for (LogEntry entry : entries)
+            ids.add(entry.getId());
+        Set<String> existing = new HashSet<>();
+        for (LogEntry saved : repo.findAllById(ids))
+            existing.add(saved.getId());
+        for (LogEntry entry : entries)
+            entry.setKnownNew(!existing.contains(entry.getId()));
+    }
+
+    @Override
+    public synchronized void close() {
+        flush();
+    }
+}
@@ -0,0 +1,280 @@
+package com.example.demo.sink;
+
+import com.example.demo.model.LogEntry;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+/**
+ * Splits the rows of the JDBC path into one table per day or hour of their start time (UTC), e.g. LOGENTRY_20170405
+ * or LOGENTRY_2017040507, each of the LOGENTRY layout with its own key and indexes. A bucket is created when the first
+ * row for it is written, see JdbcBatchWriter.
+ * VIEW is the UNION ALL of LOGENTRY and every bucket, rebuilt whenever a bucket is added or dropped, so the rows can
+ * still be read, or an id looked up, as one table. A time range query only reads the buckets the range overlaps,
+ * and retention drops whole buckets rather than deleting rows, so both cost in proportion to the buckets involved
+ * rather than to the table. Rows a key lookup must find in any bucket, such as an upsert of a row written on an
+ * earlier run, land in the same bucket as before as long as their start time has not changed.
+ * Buckets of either granularity are recognised, so data written before a change of db.partition stays readable.
+ * PlainJacksonJdbcProcessor buckets its rows when db.partition is day or hour, and with db.retention.ms above 0 calls
+ * dropBefore at the end of a run.
+ * Thread safe, the bucket list is guarded by this object.
+ */
+@Slf4j
+public class LogEntryPartitions {
+
+    public static final String VIEW = "LOGENTRY_ALL";
+    public static final String NONE = "none";
+    static final String PREFIX = LogEntrySchema.TABLE + "_";
+
+    /**
+     * Size of a bucket, named by the digits of its start
+     */
+    public enum Granularity {
+        DAY("yyyyMMdd", ChronoUnit.DAYS),
+        HOUR("yyyyMMddHH", ChronoUnit.HOURS);
+
+        private final DateTimeFormatter format;
+        private final int digits;
+        private final ChronoUnit unit;
+
+        Granularity(String pattern, ChronoUnit unit) {
+            this.format = DateTimeFormatter.ofPattern(pattern).withZone(ZoneOffset.UTC);
+            this.digits = pattern.length();
+            this.unit = unit;
+        }
+    }
+
+    @Getter
+    private final Granularity granularity;
+    /** Bucket tables by name, so in time order, with the start of each in epoch millis */
+    private final TreeMap<String, Long> buckets = new TreeMap<>();
+
+    public LogEntryPartitions(Granularity granularity) {
+        this.granularity = granularity;
+    }
+
+    /**
+     * @param name day or hour
+     * @return the partitions, null if name is none, null or empty
+     */
+    public static LogEntryPartitions of(String name) {
+        if (name == null || name.isEmpty() || NONE.equalsIgnoreCase(name))
+            return null;
+        try {
+            return new LogEntryPartitions(Granularity.valueOf(name.toUpperCase()));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown db.partition " + name);
+        }
+    }
+
+    /**
+     * @param entry
+     * @return the time the entry is bucketed by: its start time, or its end time if it never started
+     */
+    public static long timeOf(LogEntry entry) {
+        if (entry.getStartTime() != null)
+            return entry.getStartTime();
+        if (entry.getEndTime() != null)
+            return entry.getEndTime();
+        return entry.getTimestamp();
+    }
+
+    /**
+     * @param time epoch millis
+     * @return the bucket table holding rows starting at that time
+     */
+    public String tableFor(long time) {
+        return PREFIX + granularity.format.format(Instant.ofEpochMilli(time));
+    }
+
+    /**
+     * @param table
+     * @return true if the bucket is known to exist
+     */
+    public synchronized boolean exists(String table) {
+        return buckets.containsKey(table);
+    }
+
+    /**
+     * @return the bucket tables, oldest first
+     */
+    public synchronized List<String> tables() {
+        return new ArrayList<>(buckets.keySet());
+    }
+
+    /**
+     * Reads the buckets already in the DB and creates VIEW over them. Call once before the first write or query.
+     * @param connection
+     * @throws SQLException
+     */
+    public synchronized void refresh(Connection connection) throws SQLException {
+        buckets.clear();
+        String escape = connection.getMetaData().getSearchStringEscape();
+        try (ResultSet rs = connection.getMetaData().getTables(null, null, PREFIX.replace("_", escape + "_") + "%", new String[]{"TABLE"})) {
+            while (rs.next()) {
+                String table = rs.getString("TABLE_NAME");
+                Long start = start(table);
+                if (start != null)
+                    buckets.put(table, start);
+            }
+        }
+        createView(connection);
+    }
+
+    /**
+     * Creates the bucket table if it does not exist yet and adds it to VIEW. The DDL commits the connection's open
+     * transaction, so anything batched on it should be flushed first.
+     * @param connection
+     * @param table a name given by tableFor
+     * @return true if the bucket was created
+     * @throws SQLException
+     */
+    public synchronized boolean ensure(Connection connection, String table) throws SQLException {
+        if (buckets.containsKey(table))
+            return false;
+        Long start = start(table);
+        if (start == null) {
+            throw new IllegalArgumentException("Not a bucket table: " + table);
+        }
+        LogEntrySchema.ensure(connection, table);
+        buckets.put(table, start);
+        createView(connection);
+        log.info("Created bucket " + table);
+        return true;
+    }
+
+    /**
+     * Reads the rows whose pair started in [from, to), from the buckets overlapping the range and from LOGENTRY
+     * through its start_time index. Rows of entries that timed out without starting have no start time and are left out.
+     * @param connection
+     * @param from epoch millis, inclusive
+     * @param to epoch millis, exclusive
+     * @param consumer receives each row, with id, type, host, alert, duration, start and end time
+     * @return rows read
+     * @throws SQLException
+     */
+    public int query(Connection connection, long from, long to, Consumer<LogEntry> consumer) throws SQLException {
+        List<String> tables = new ArrayList<>();
+        tables.add(LogEntrySchema.TABLE);
+        synchronized (this) {
+            for (Map.Entry<String, Long> bucket : buckets.entrySet()) {
+                if (bucket.getValue() < to && end(bucket.getKey(), bucket.getValue()) > from)
+                    tables.add(bucket.getKey());
+            }
+        }
+        int rows = 0;
+        for (String table : tables) {
+            try (PreparedStatement ps = connection.prepareStatement("SELECT " + LogEntrySchema.COLUMNS + " FROM " + table
+                    + " WHERE start_time >= ? AND start_time < ?")) {
+                ps.setLong(1, from);
+                ps.setLong(2, to);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        LogEntry entry = LogEntry.builder()
+                                .id(rs.getString(1))
+                                .state(LogEntry.State.FINISHED)
+                                .type(rs.getString(2))
+                                .host(rs.getString(3))
+                                .alert(rs.getBoolean(4))
+                                .duration(rs.getLong(5))
+                                .startTime(rs.getLong(6))
+                                .endTime(rs.getObject(7) == null ? null : rs.getLong(7))
+                                .build();
+                        consumer.accept(entry);
+                        rows++;
+                    }
+                }
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Drops every bucket that ends at or before the cutoff, whole, and rebuilds VIEW over the rest
+     * @param connection
+     * @param cutoff epoch millis
+     * @return buckets dropped
+     * @throws SQLException
+     */
+    public synchronized int dropBefore(Connection connection, long cutoff) throws SQLException {
+        List<String> expired = new ArrayList<>();
+        for (Map.Entry<String, Long> bucket : buckets.entrySet()) {
+            if (end(bucket.getKey(), bucket.getValue()) <= cutoff)
+                expired.add(bucket.getKey());
+        }
+        if (expired.isEmpty())
+            return 0;
+        try (Statement s = connection.createStatement()) {
+            // The view depends on every bucket
+            s.execute("DROP VIEW IF EXISTS " + VIEW);
+            for (String table : expired) {
+                s.execute("DROP TABLE " + table);
+                buckets.remove(table);
+            }
+        }
+        createView(connection);
+        log.info("Dropped " + expired.size() + " buckets ending by " + Instant.ofEpochMilli(cutoff) + ": " + expired);
+        return expired.size();
+    }
+
+    private void createView(Connection connection) throws SQLException {
+        StringBuilder sql = new StringBuilder("CREATE VIEW ").append(VIEW).append(" AS SELECT ")
+                .append(LogEntrySchema.COLUMNS).append(" FROM ").append(LogEntrySchema.TABLE);
+        for (String table : buckets.keySet())
+            sql.append(" UNION ALL SELECT ").append(LogEntrySchema.COLUMNS).append(" FROM ").append(table);
+        try (Statement s = connection.createStatement()) {
+            s.execute("DROP VIEW IF EXISTS " + VIEW);
+            s.execute(sql.toString());
+        }
+        if (!connection.getAutoCommit())
+            connection.commit();
+    }
+
+    /**
+     * @return the granularity of the bucket the table name gives, null if it is not a bucket
+     */
+    private static Granularity granularityOf(String table) {
+        if (!table.startsWith(PREFIX))
+            return null;
+        String digits = table.substring(PREFIX.length());
+        if (!digits.chars().allMatch(Character::isDigit))
+            return null;
+        for (Granularity g : Granularity.values()) {
+            if (digits.length() == g.digits)
+                return g;
+        }
+        return null;
+    }
+
+    /**
+     * @return the start of the bucket the table name gives, null if it is not a bucket
+     */
+    private static Long start(String table) {
+        Granularity g = granularityOf(table);
+        if (g == null)
+            return null;
+        String digits = table.substring(PREFIX.length());
+        int hour = g == Granularity.HOUR ? Integer.parseInt(digits.substring(8)) : 0;
+        return LocalDateTime.of(Integer.parseInt(digits.substring(0, 4)), Integer.parseInt(digits.substring(4, 6)),
+                Integer.parseInt(digits.substring(6, 8)), hour, 0).toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+
+    private static long end(String table, long start) {
+        return start + granularityOf(table).unit.getDuration().toMillis();
+    }
+}
@@ -0,0 +1,221 @@
+package com.example.demo.sink;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.function.Predicate;
+
+/**
+ * The LOGENTRY table as written by the JDBC path, and the statements writing it.
+ * id is the primary key and alert, host and type are indexed, matching the JPA mapping of LogEntry.
+ * Rows are written with an upsert (MERGE on id) by default, so writing the same entry twice, e.g. when a file is
+ * processed again, a follow run resumes from its checkpoint or an id completes twice, updates the row instead of
+ * failing the batch on the key. A plain INSERT is kept for a table known to get each id once. Both take the same
+ * parameters, so either works with JdbcBatchWriter and stays batched.
+ * Rows carry the start and end time of their pair, start_time indexed, so LOGENTRY can be read by time range. Tables
+ * created before these columns existed get them added, left NULL on the old rows.
+ * The statements name LOGENTRY, forTable gives them for another table of the same layout, e.g. a time bucket of
+ * LogEntryPartitions.
+ * Once ensure() has brought the table up to date it stamps VERSION into LOGENTRY_SCHEMA, so ensureIfStale() can skip
+ * the metadata queries on every later start with a single SELECT.
+ */
+@Slf4j
+public final class LogEntrySchema {
+
+    public static final String INSERT = "insert";
+    public static final String UPSERT = "upsert";
+    /** Bump whenever ensure() changes what it creates */
+    public static final int VERSION = 3;
+
+    public static final String TABLE = "LOGENTRY";
+    public static final String CREATE_SQL = "CREATE TABLE IF NOT EXISTS LOGENTRY (id varchar(255) PRIMARY KEY, state varchar(255), type varchar(255), host varchar(255), alert boolean, duration BIGINT, start_time BIGINT, end_time BIGINT)";
+    public static final String INSERT_SQL = "Insert into LOGENTRY (id, type, host, alert, duration, start_time, end_time) values (?,?,?,?,?,?,?)";
+    public static final String UPSERT_SQL = "MERGE INTO LOGENTRY t USING (VALUES (CAST(? AS VARCHAR(255)), CAST(? AS VARCHAR(255)),"
+            + " CAST(? AS VARCHAR(255)), CAST(? AS BOOLEAN), CAST(? AS BIGINT), CAST(? AS BIGINT), CAST(? AS BIGINT)))"
+            + " AS v (id, type, host, alert, duration, start_time, end_time) ON t.id = v.id"
+            + " WHEN MATCHED THEN UPDATE SET t.type = v.type, t.host = v.host, t.alert = v.alert, t.duration = v.duration,"
+            + " t.start_time = v.start_time, t.end_time = v.end_time"
+            + " WHEN NOT MATCHED THEN INSERT (id, type, host, alert, duration, start_time, end_time)"
+            + " VALUES (v.id, v.type, v.host, v.alert, v.duration, v.start_time, v.end_time)";
+    public static final String EXISTS_SQL = "SELECT 1 FROM LOGENTRY WHERE id = ?";
+    /** Columns written, in the order of the write statements' parameters */
+    public static final String COLUMNS = "id, type, host, alert, duration, start_time, end_time";
+    public static final String DELETE_BEFORE_SQL = "DELETE FROM LOGENTRY WHERE start_time < ?";
+    /** Indexed columns, each index named LOGENTRY_&lt;column&gt; as in the JPA mapping */
+    static final String[] INDEXED = {"alert", "host", "type", "start_time"};
+    /** Columns added since the table was first released */
+    static final String[] ADDED = {"start_time", "end_time"};
+    static final String VERSION_TABLE = "LOGENTRY_SCHEMA";
+
+    private LogEntrySchema() {
+    }
+
+    /**
+     * Creates the table and its indexes if missing. A table created before it had a primary key gets one, unless it
+     * already holds duplicate ids, which is logged, and one created before the start and end time gets those columns.
+     * @param connection
+     * @throws SQLException
+     */
+    public static void ensure(Connection connection) throws SQLException {
+        boolean current = true;
+        try (Statement s = connection.createStatement()) {
+            s.execute(CREATE_SQL);
+            if (!hasPrimaryKey(connection)) {
+                try {
+                    s.execute("ALTER TABLE LOGENTRY ADD PRIMARY KEY (id)");
+                    log.info("Added primary key to LOGENTRY");
+                } catch (SQLException e) {
+                    log.warn("LOGENTRY has no primary key and one cannot be added, remove the duplicate ids first: " + e);
+                    current = false;
+                }
+            }
+            for (String column : ADDED) {
+                if (!hasColumn(connection, TABLE, column)) {
+                    s.execute("ALTER TABLE LOGENTRY ADD COLUMN " + column + " BIGINT");
+                    log.info("Added " + column + " to LOGENTRY");
+                }
+            }
+            createIndexes(s, TABLE);
+            if (current) {
+                s.execute("CREATE TABLE IF NOT EXISTS " + VERSION_TABLE + " (version INT)");
+                s.execute("DELETE FROM " + VERSION_TABLE);
+                s.execute("INSERT INTO " + VERSION_TABLE + " (version) VALUES (" + VERSION + ")");
+                if (!connection.getAutoCommit())
+                    connection.commit();
+            }
+        }
+    }
+
+    /**
+     * Creates a table of the LOGENTRY layout, with its key and indexes, if missing
+     * @param connection
+     * @param table
+     * @throws SQLException
+     */
+    public static void ensure(Connection connection, String table) throws SQLException {
+        try (Statement s = connection.createStatement()) {
+            s.execute(forTable(CREATE_SQL, table));
+            createIndexes(s, table);
+        }
+    }
+
+    /**
+     * @param sql one of the statements on LOGENTRY
+     * @param table
+     * @return the statement on the table instead
+     */
+    public static String forTable(String sql, String table) {
+        return sql.replace(" " + TABLE + " ", " " + table + " ");
+    }
+
+    /**
+     * Deletes the rows of LOGENTRY whose pair started before the cutoff, through the start_time index. Rows with no
+     * start time are kept.
+     * @param connection
+     * @param cutoff epoch millis
+     * @return rows deleted
+     * @throws SQLException
+     */
+    public static int deleteStartedBefore(Connection connection, long cutoff) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement(DELETE_BEFORE_SQL)) {
+            ps.setLong(1, cutoff);
+            int deleted = ps.executeUpdate();
+            if (!connection.getAutoCommit())
+                connection.commit();
+            return deleted;
+        }
+    }
+
+    /**
+     * Runs ensure() unless the database is stamped with the current VERSION
+     * @param connection
+     * @return true if the schema had to be checked
+     * @throws SQLException
+     */
+    public static boolean ensureIfStale(Connection connection) throws SQLException {
+        if (isCurrent(connection))
+            return false;
+        ensure(connection);
+        return true;
+    }
+
+    /**
+     * @param connection
+     * @return true if ensure() has already run against this database at the current VERSION
+     */
+    public static boolean isCurrent(Connection connection) {
+        try (Statement s = connection.createStatement();
+             ResultSet rs = s.executeQuery("SELECT MAX(version) FROM " + VERSION_TABLE)) {
+            return rs.next() && rs.getInt(1) == VERSION;
+        } catch (SQLException e) {
+            // No marker table yet
+            return false;
+        }
+    }
+
+    /**
+     * Check for CompletedIdFilter.setConfirm. Each call takes a connection of its own from the pool, so correlator
+     * threads can share it. Only committed rows are seen, so a row still in a writer's batch is reported missing.
+     * @param dataSource
+     * @return true if a row with the id has been written, or if that cannot be read, which is logged
+     */
+    public static Predicate<String> rowExists(DataSource dataSource) {
+        return rowExists(dataSource, TABLE);
+    }
+
+    /**
+     * As rowExists(DataSource), looking in another table or view, e.g. LogEntryPartitions.VIEW
+     * @param dataSource
+     * @param table
+     * @return
+     */
+    public static Predicate<String> rowExists(DataSource dataSource, String table) {
+        String sql = forTable(EXISTS_SQL, table);
+        return id -> {
+            try (Connection c = dataSource.getConnection();
+                 PreparedStatement ps = c.prepareStatement(sql)) {
+                ps.setString(1, id);
+                try (ResultSet rs = ps.executeQuery()) {
+                    return rs.next();
+                }
+            } catch (SQLException e) {
+                log.warn("Cannot look up ID: " + id + " in " + table + ", taking it as written: " + e);
+                return true;
+            }
+        };
+    }
+
+    /**
+     * @param mode insert or upsert, upsert if null or empty
+     * @return the statement writing a row in that mode
+     */
+    public static String writeSql(String mode) {
+        if (mode == null || mode.isEmpty() || UPSERT.equalsIgnoreCase(mode))
+            return UPSERT_SQL;
+        if (INSERT.equalsIgnoreCase(mode))
+            return INSERT_SQL;
+        throw new IllegalArgumentException("Unknown db.write.mode " + mode);
+    }
+
+    private static void createIndexes(Statement s, String table) throws SQLException {
+        for (String column : INDEXED)
+            s.execute("CREATE INDEX IF NOT EXISTS " + table + "_" + column.toUpperCase() + " ON " + table + " (" + column + ")");
+    }
+
+    private static boolean hasColumn(Connection connection, String table, String column) throws SQLException {
+        try (ResultSet columns = connection.getMetaData().getColumns(null, null, table, column.toUpperCase())) {
+            return columns.next();
+        }
+    }
+
+    private static boolean hasPrimaryKey(Connection connection) throws SQLException {
+        try (ResultSet keys = connection.getMetaData().getPrimaryKeys(null, null, "LOGENTRY")) {
+            return keys.next();
+        }
+    }
+}
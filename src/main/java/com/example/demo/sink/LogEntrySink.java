@@ -0,0 +1,12 @@
+package com.example.demo.sink;
+
+import com.example.demo.model.LogEntry;
+
+/**
+ * Destination for completed LogEntries, e.g. the JDBC save of PlainJacksonJdbcProcessor or the repo.save of JacksonJpaProcessor.
+ * Implementations handed to the ParallelPipeline are called from several writer threads and must be thread safe.
+ */
+@FunctionalInterface
+public interface LogEntrySink {
+    void write(LogEntry entry) throws Exception;
+}
@@ -0,0 +1,99 @@
+package com.example.demo.stats;
+
+import com.example.demo.model.LogEntry;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Live duration and alert stats of the completed entries, per type, per host and over everything.
+ * Entries are recorded as they are completed, from any number of threads: the per key DurationStats are found or
+ * created in a ConcurrentHashMap and updated without locks. Summaries can be taken at any time without touching the DB,
+ * and memory grows with the number of distinct types and hosts only, not with the number of entries.
+ * A null type or host is counted under NONE.
+ * Both processors record every completed entry into one unless stats.enabled is false, sized by
+ * stats.histogram.maxMs and stats.histogram.digits, log its summaries at the end of process() and return it from getStats().
+ */
+@Slf4j
+public class DurationAggregator {
+
+    public static final String NONE = "(none)";
+    /** One hour in millis, longer durations count as an hour in the percentiles */
+    public static final long DEFAULT_HIGHEST_TRACKABLE = 3600000L;
+    public static final int DEFAULT_DIGITS = 2;
+
+    private final long highestTrackable;
+    private final int digits;
+    private final DurationStats total;
+    private final ConcurrentMap<String, DurationStats> byType = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, DurationStats> byHost = new ConcurrentHashMap<>();
+
+    public DurationAggregator() {
+        this(DEFAULT_HIGHEST_TRACKABLE, DEFAULT_DIGITS);
+    }
+
+    /**
+     * @param highestTrackable largest duration the percentiles tell apart
+     * @param digits significant digits of the percentiles, see DurationHistogram
+     */
+    public DurationAggregator(long highestTrackable, int digits) {
+        this.highestTrackable = highestTrackable;
+        this.digits = digits;
+        this.total = new DurationStats(highestTrackable, digits);
+    }
+
+    /**
+     * Adds a completed entry to its type, its host and the total
+     * @param entry
+     */
+    public void record(LogEntry entry) {
+        long duration = entry.getDuration();
+        boolean alert = entry.isAlert();
+        total.record(duration, alert);
+        stats(byType, entry.getType()).record(duration, alert);
+        stats(byHost, entry.getHost()).record(duration, alert);
+    }
+
+    public DurationStats.Summary total() {
+        return total.summary();
+    }
+
+    /**
+     * @return summary per type, sorted by type
+     */
+    public Map<String, DurationStats.Summary> byType() {
+        return summaries(byType);
+    }
+
+    /**
+     * @return summary per host, sorted by host
+     */
+    public Map<String, DurationStats.Summary> byHost() {
+        return summaries(byHost);
+    }
+
+    /**
+     * Logs the total and the per type and per host summaries
+     */
+    public void report() {
+        log.info("All entries: " + total());
+        byType().forEach((type, summary) -> log.info("Type " + type + ": " + summary));
+        byHost().forEach((host, summary) -> log.info("Host " + host + ": " + summary));
+    }
+
+    private DurationStats stats(ConcurrentMap<String, DurationStats> map, String key) {
+        String k = key == null ? NONE : key;
+        DurationStats stats = map.get(k);
+        // get first, as computeIfAbsent locks the bin even when the key is present
+        return stats != null ? stats : map.computeIfAbsent(k, x -> new DurationStats(highestTrackable, digits));
+    }
+
+    private static Map<String, DurationStats.Summary> summaries(Map<String, DurationStats> map) {
+        Map<String, DurationStats.Summary> summaries = new TreeMap<>();
+        map.forEach((key, stats) -> summaries.put(key, stats.summary()));
+        return summaries;
+    }
+}
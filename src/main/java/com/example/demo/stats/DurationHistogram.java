@@ -0,0 +1,101 @@
+package com.example.demo.stats;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed size histogram of durations with the bucket layout of an HDR histogram: values are counted exactly up to
+ * 2 x 10^digits and above that in buckets no wider than 1 / 10^digits of their value, so any percentile is accurate
+ * to that many significant digits. Values above highestTrackable are counted as highestTrackable.
+ * Counts are held in an AtomicLongArray, so record() is lock free and may be called from any number of threads while
+ * percentiles are read. A percentile read during recording reflects some consistent prefix of the recorded values
+ * per bucket, which is all a live summary needs.
+ */
+public class DurationHistogram {
+
+    private final long highestTrackable;
+    private final int subBucketHalfCountMagnitude;
+    private final int subBucketHalfCount;
+    private final long subBucketMask;
+    private final AtomicLongArray counts;
+
+    /**
+     * @param highestTrackable largest value told apart from larger ones
+     * @param digits significant decimal digits kept, 0 to 5
+     */
+    public DurationHistogram(long highestTrackable, int digits) {
+        if (digits < 0 || digits > 5) {
+            throw new IllegalArgumentException("digits must be 0 to 5: " + digits);
+        }
+        if (highestTrackable < 2) {
+            throw new IllegalArgumentException("highestTrackable must be at least 2: " + highestTrackable);
+        }
+        long singleUnitResolution = 2 * (long) Math.pow(10, digits);
+        int subBucketCountMagnitude = 64 - Long.numberOfLeadingZeros(singleUnitResolution - 1);
+        this.subBucketHalfCountMagnitude = Math.max(subBucketCountMagnitude, 1) - 1;
+        int subBucketCount = 1 << (subBucketHalfCountMagnitude + 1);
+        this.subBucketHalfCount = subBucketCount / 2;
+        this.subBucketMask = subBucketCount - 1;
+        this.highestTrackable = highestTrackable;
+        int buckets = 1;
+        for (long smallestUntrackable = subBucketCount; smallestUntrackable <= highestTrackable; smallestUntrackable <<= 1) {
+            buckets++;
+            if (smallestUntrackable > Long.MAX_VALUE / 2)
+                break;
+        }
+        this.counts = new AtomicLongArray((buckets + 1) * subBucketHalfCount);
+    }
+
+    /**
+     * @param value a duration, negative values count as 0
+     */
+    public void record(long value) {
+        counts.incrementAndGet(index(Math.min(Math.max(value, 0), highestTrackable)));
+    }
+
+    /**
+     * @param percentile 0 to 100
+     * @return the highest value equivalent to the value at that percentile, 0 if nothing was recorded
+     */
+    public long percentile(double percentile) {
+        long[] snapshot = new long[counts.length()];
+        long total = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100.0) / 100.0 * total));
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank)
+                return Math.min(highestEquivalentValue(i), highestTrackable);
+        }
+        return highestTrackable;
+    }
+
+    /**
+     * @return number of counters, which is what the histogram costs in longs
+     */
+    public int size() {
+        return counts.length();
+    }
+
+    private int index(long value) {
+        int bucketIndex = 64 - Long.numberOfLeadingZeros(value | subBucketMask) - (subBucketHalfCountMagnitude + 1);
+        int subBucketIndex = (int) (value >>> bucketIndex);
+        return ((bucketIndex + 1) << subBucketHalfCountMagnitude) + (subBucketIndex - subBucketHalfCount);
+    }
+
+    private long highestEquivalentValue(int index) {
+        int bucketIndex = (index >> subBucketHalfCountMagnitude) - 1;
+        int subBucketIndex = (index & (subBucketHalfCount - 1)) + subBucketHalfCount;
+        if (bucketIndex < 0) {
+            subBucketIndex -= subBucketHalfCount;
+            bucketIndex = 0;
+        }
+        long lowest = (long) subBucketIndex << bucketIndex;
+        return lowest + (1L << bucketIndex) - 1;
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.demo.stats;
+
+import lombok.Getter;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Running duration stats of one type, host or the whole input. Every field is a LongAdder, LongAccumulator or the
+ * atomic counts of a DurationHistogram, so record() never blocks and summary() can be taken while threads record.
+ */
+public class DurationStats {
+
+    private final LongAdder count = new LongAdder();
+    private final LongAdder alerts = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator min = new LongAccumulator(Math::min, Long.MAX_VALUE);
+    private final LongAccumulator max = new LongAccumulator(Math::max, Long.MIN_VALUE);
+    private final DurationHistogram histogram;
+
+    public DurationStats(long highestTrackable, int digits) {
+        this.histogram = new DurationHistogram(highestTrackable, digits);
+    }
+
+    public void record(long duration, boolean alert) {
+        count.increment();
+        if (alert)
+            alerts.increment();
+        sum.add(duration);
+        min.accumulate(duration);
+        max.accumulate(duration);
+        histogram.record(duration);
+    }
+
+    /**
+     * @return the stats as they stand
+     */
+    public Summary summary() {
+        long n = count.sum();
+        if (n == 0)
+            return new Summary(0, 0, 0, 0, 0, 0, 0, 0, 0);
+        long high = max.get();
+        return new Summary(n, alerts.sum(), min.get(), high, (double) sum.sum() / n,
+                percentile(50, high), percentile(90, high), percentile(99, high), percentile(99.9, high));
+    }
+
+    /**
+     * The histogram gives the top of a bucket, which for the highest bucket may be above anything recorded
+     */
+    private long percentile(double percentile, long high) {
+        return Math.min(histogram.percentile(percentile), high);
+    }
+
+    /**
+     * Point in time copy of a DurationStats. Percentiles are accurate to the histogram's significant digits.
+     */
+    @Getter
+    public static class Summary {
+        private final long count;
+        private final long alerts;
+        private final long min;
+        private final long max;
+        private final double mean;
+        private final long p50;
+        private final long p90;
+        private final long p99;
+        private final long p999;
+
+        public Summary(long count, long alerts, long min, long max, double mean, long p50, long p90, long p99, long p999) {
+            this.count = count;
+            this.alerts = alerts;
+            this.min = min;
+            this.max = max;
+            this.mean = mean;
+            this.p50 = p50;
+            this.p90 = p90;
+            this.p99 = p99;
+            this.p999 = p999;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("count=%d alerts=%d min=%d max=%d mean=%.2f p50=%d p90=%d p99=%d p99.9=%d",
+                    count, alerts, min, max, mean, p50, p90, p99, p999);
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package com.example.demo.stats;
+
+import com.example.demo.model.LogEntry;
+import com.example.demo.parse.LogEntryReader;
+import com.fasterxml.jackson.core.JsonParser;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Counters of the ingestion hot path: records parsed, bytes read, pairs completed, duplicates and late partners
+ * ignored, timeouts, rows and batches written with the latency of each batch, plus gauges of the pending store and
+ * queue depths. The counters are LongAdders, striped per thread under contention, so the parser, correlator and
+ * writer threads update them for a few nanos each without sharing a cache line; they are only summed when read.
+ * Gauges are suppliers polled on read, set by whoever owns the store or queue.
+ * register() exposes the metrics as an MXBean, so jconsole or any JMX agent can watch a running processor.
+ * Both processors keep one, log it at the end of process() and register it unless metrics.jmx is false.
+ */
+@Slf4j
+public class IngestMetrics implements IngestMetricsMXBean {
+
+    public static final String DOMAIN = "com.example.demo";
+    /** A minute in micros, slower batches count as a minute in the percentiles */
+    private static final long LATENCY_HIGHEST_TRACKABLE = 60000000L;
+
+    private final long startNanos = System.nanoTime();
+    private final LongAdder records = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder pairs = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+    private final LongAdder latePartners = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder rows = new LongAdder();
+    private final LongAdder writeErrors = new LongAdder();
+    private final AtomicLong firstRecordUptime = new AtomicLong(-1);
+    private final DurationStats batchLatency = new DurationStats(LATENCY_HIGHEST_TRACKABLE, 2);
+    @Setter
+    private volatile LongSupplier pendingEntries = () -> 0;
+    @Setter
+    private volatile LongSupplier pendingBytes = () -> -1;
+    @Setter
+    private volatile LongSupplier queueDepth = () -> 0;
+    private ObjectName objectName;
+
+    public void recordParsed() {
+        records.increment();
+    }
+
+    public void bytesRead(long n) {
+        bytes.add(n);
+    }
+
+    public void pairCompleted() {
+        pairs.increment();
+    }
+
+    public void duplicateIgnored() {
+        duplicates.increment();
+    }
+
+    public void latePartnerIgnored() {
+        latePartners.increment();
+    }
+
+    public void timedOut() {
+        timeouts.increment();
+    }
+
+    /**
+     * @param count rows in the batch, 1 for a single save
+     * @param nanos time taken to write and commit it
+     */
+    public void batchWritten(int count, long nanos) {
+        rows.add(count);
+        batchLatency.record(TimeUnit.NANOSECONDS.toMicros(nanos), false);
+    }
+
+    public void writeFailed() {
+        writeErrors.increment();
+    }
+
+    /**
+     * @param factory
+     * @return factory of readers counting each record they read, and noting when the first one was read
+     */
+    public Supplier<LogEntryReader> counting(Supplier<LogEntryReader> factory) {
+        return () -> {
+            LogEntryReader reader = factory.get();
+            return new LogEntryReader() {
+                private boolean started;
+
+                @Override
+                public LogEntry read(JsonParser jp) throws IOException {
+                    LogEntry entry = reader.read(jp);
+                    records.increment();
+                    if (!started) {
+                        started = true;
+                        if (firstRecordUptime.get() < 0)
+                            firstRecordUptime.compareAndSet(-1, ManagementFactory.getRuntimeMXBean().getUptime());
+                    }
+                    return entry;
+                }
+            };
+        };
+    }
+
+    /**
+     * @param in
+     * @return the stream, counting the bytes read from it. Bytes of a compressed file are counted uncompressed.
+     */
+    public InputStream counting(InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0)
+                    bytes.increment();
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n = super.read(b, off, len);
+                if (n > 0)
+                    bytes.add(n);
+                return n;
+            }
+
+            @Override
+            public long skip(long n) throws IOException {
+                long skipped = super.skip(n);
+                bytes.add(skipped);
+                return skipped;
+            }
+        };
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server, replacing any registered under the same name
+     * @param name usually the processor class
+     */
+    public synchronized void register(String name) {
+        unregister();
+        try {
+            ObjectName on = new ObjectName(DOMAIN + ":type=IngestMetrics,name=" + ObjectName.quote(name));
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            try {
+                server.registerMBean(this, on);
+            } catch (InstanceAlreadyExistsException e) {
+                server.unregisterMBean(on);
+                server.registerMBean(this, on);
+            }
+            objectName = on;
+        } catch (JMException e) {
+            log.warn("Could not register metrics MBean " + name, e);
+        }
+    }
+
+    public synchronized void unregister() {
+        if (objectName == null)
+            return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            log.debug("Metrics MBean " + objectName + " already unregistered");
+        }
+        objectName = null;
+    }
+
+    public synchronized ObjectName getObjectName() {
+        return objectName;
+    }
+
+    @Override
+    public long getFirstRecordUptimeMillis() {
+        return firstRecordUptime.get();
+    }
+
+    @Override
+    public long getRecordsParsed() {
+        return records.sum();
+    }
+
+    @Override
+    public double getRecordsPerSecond() {
+        long nanos = System.nanoTime() - startNanos;
+        return nanos <= 0 ? 0 : records.sum() * 1e9 / nanos;
+    }
+
+    @Override
+    public long getBytesRead() {
+        return bytes.sum();
+    }
+
+    @Override
+    public long getPairsCompleted() {
+        return pairs.sum();
+    }
+
+    @Override
+    public long getDuplicatesIgnored() {
+        return duplicates.sum();
+    }
+
+    @Override
+    public long getLatePartnersIgnored() {
+        return latePartners.sum();
+    }
+
+    @Override
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    @Override
+    public long getPendingEntries() {
+        return gauge(pendingEntries);
+    }
+
+    @Override
+    public long getPendingBytes() {
+        return gauge(pendingBytes);
+    }
+
+    @Override
+    public long getQueueDepth() {
+        return gauge(queueDepth);
+    }
+
+    @Override
+    public long getRowsWritten() {
+        return rows.sum();
+    }
+
+    @Override
+    public long getBatchesWritten() {
+        return batchLatency.summary().getCount();
+    }
+
+    @Override
+    public long getWriteErrors() {
+        return writeErrors.sum();
+    }
+
+    @Override
+    public double getBatchLatencyMeanMicros() {
+        return batchLatency.summary().getMean();
+    }
+
+    @Override
+    public long getBatchLatencyP50Micros() {
+        return batchLatency.summary().getP50();
+    }
+
+    @Override
+    public long getBatchLatencyP99Micros() {
+        return batchLatency.summary().getP99();
+    }
+
+    @Override
+    public long getBatchLatencyMaxMicros() {
+        return batchLatency.summary().getMax();
+    }
+
+    /**
+     * Gauges read structures owned by other threads without locking, so a read racing an update gives -1
+     */
+    private static long gauge(LongSupplier supplier) {
+        try {
+            return supplier.getAsLong();
+        } catch (RuntimeException e) {
+            return -1;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "first record " + getFirstRecordUptimeMillis() + " ms after JVM start, records=" + getRecordsParsed() + " (" + Math.round(getRecordsPerSecond()) + "/s), bytes=" + getBytesRead()
+                + ", pairs=" + getPairsCompleted() + ", duplicates=" + getDuplicatesIgnored()
+                + ", late=" + getLatePartnersIgnored() + ", timeouts=" + getTimeouts()
+                + ", pending=" + getPendingEntries() + ", rows=" + getRowsWritten() + ", writeErrors=" + getWriteErrors()
+                + ", batch latency (micros) " + batchLatency.summary();
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.demo.stats;
+
+/**
+ * JMX view of IngestMetrics, registered under com.example.demo:type=IngestMetrics,name=<processor>.
+ * Counters are totals since the processor started, latencies are in micros.
+ */
+public interface IngestMetricsMXBean {
+
+    /** JVM uptime when the first record was parsed, the cold start cost of a run, -1 until then */
+    long getFirstRecordUptimeMillis();
+
+    long getRecordsParsed();
+
+    double getRecordsPerSecond();
+
+    long getBytesRead();
+
+    long getPairsCompleted();
+
+    long getDuplicatesIgnored();
+
+    long getLatePartnersIgnored();
+
+    long getTimeouts();
+
+    long getPendingEntries();
+
+    /** Estimated heap bytes of the pending store, -1 if the store does not track them */
+    long getPendingBytes();
+
+    long getQueueDepth();
+
+    long getRowsWritten();
+
+    long getBatchesWritten();
+
+    long getWriteErrors();
+
+    double getBatchLatencyMeanMicros();
+
+    long getBatchLatencyP50Micros();
+
+    long getBatchLatencyP99Micros();
+
+    long getBatchLatencyMaxMicros();
+}
@@ -0,0 +1,362 @@
+package com.example.demo.store;
+
+import com.example.demo.model.LogEntry;
+
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * PendingStore holding only what pairing needs, in primitive arrays.
+ * An open addressing (linear probing) int[] index points into dense parallel arrays of id location, timestamp and
+ * state. Id bytes are packed into one shared byte[] arena, and type and host are dictionary encoded to int codes
+ * as they repeat across many entries. A pending entry costs around 40 bytes including its id, against roughly 150 for
+ * a LogEntry, its id String and a HashMap node, and leaves no per entry objects for the GC to trace.
+ * get() builds a new LogEntry from the arrays, so callers must not expect to get back the instance they put.
+ */
+public class CompactPendingStore extends AbstractMap<String, LogEntry> implements PendingStore {
+
+    /** Index slot values, otherwise entry number + 1 */
+    private static final int EMPTY = 0;
+    private static final int DELETED = -1;
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final float LOAD_FACTOR = 0.75f;
+    /** Bytes held per entry in the dense arrays */
+    private static final int ENTRY_BYTES = 4 + 2 + 8 + 1 + 4 + 4;
+    private static final LogEntry.State[] STATES = LogEntry.State.values();
+
+    private int[] index = new int[INITIAL_CAPACITY];
+    private int indexUsed;
+
+    private int[] keyOffset = new int[INITIAL_CAPACITY];
+    private short[] keyLength = new short[INITIAL_CAPACITY];
+    private long[] timestamp = new long[INITIAL_CAPACITY];
+    private byte[] state = new byte[INITIAL_CAPACITY];
+    private int[] type = new int[INITIAL_CAPACITY];
+    private int[] host = new int[INITIAL_CAPACITY];
+    /** Entries below top have been used, freed ones are chained through keyOffset[] from freeHead */
+    private int top;
+    private int freeHead = -1;
+    private int size;
+
+    private byte[] arena = new byte[INITIAL_CAPACITY * 16];
+    private int arenaEnd;
+    private int arenaGarbage;
+
+    /** Dictionary for type and host, code 0 is null */
+    private final Map<String, Integer> codes = new HashMap<>();
+    private final List<String> dictionary = new ArrayList<>();
+
+    /** Reused buffer for the encoded id being looked up, and its hash */
+    private byte[] scratch = new byte[64];
+    private int scratchHash;
+
+    public CompactPendingStore() {
+        dictionary.add(null);
+    }
+
+    @Override
+    public LogEntry get(Object key) {
+        String id = (String) key;
+        int slot = find(encode(id));
+        return slot < 0 ? null : materialize(id, index[slot] - 1);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        String id = (String) key;
+        return find(encode(id)) >= 0;
+    }
+
+    @Override
+    public LogEntry put(String id, LogEntry entry) {
+        int length = encode(id);
+        int slot = find(length);
+        LogEntry previous = null;
+        int e;
+        if (slot >= 0) {
+            e = index[slot] - 1;
+            previous = materialize(id, e);
+        } else {
+            if (indexUsed + 1 > index.length * LOAD_FACTOR)
+                rehash();
+            e = allocateEntry();
+            keyOffset[e] = appendKey(length);
+            keyLength[e] = (short) length;
+            slot = insertSlot(scratchHash);
+            if (index[slot] == EMPTY)
+                indexUsed++;
+            index[slot] = e + 1;
+            size++;
+        }
+        timestamp[e] = entry.getTimestamp();
+        state[e] = (byte) entry.getState().ordinal();
+        type[e] = code(entry.getType());
+        host[e] = code(entry.getHost());
+        return previous;
+    }
+
+    @Override
+    public LogEntry remove(Object key) {
+        String id = (String) key;
+        int slot = find(encode(id));
+        if (slot < 0)
+            return null;
+        int e = index[slot] - 1;
+        LogEntry removed = materialize(id, e);
+        index[slot] = DELETED;
+        arenaGarbage += keyLength[e];
+        keyOffset[e] = free(freeHead);
+        freeHead = e;
+        size--;
+        return removed;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(index, EMPTY);
+        indexUsed = 0;
+        top = 0;
+        freeHead = -1;
+        size = 0;
+        arenaEnd = 0;
+        arenaGarbage = 0;
+    }
+
+    /**
+     * @return heap bytes held by the index, entry arrays, id arena and dictionary
+     */
+    @Override
+    public long footprintBytes() {
+        long bytes = 4L * index.length + (long) ENTRY_BYTES * keyOffset.length + arena.length + scratch.length;
+        for (String s : dictionary)
+            bytes += s == null ? 0 : 40 + 2L * s.length() + 32;
+        return bytes;
+    }
+
+    /**
+     * Entries in allocation order, each built on demand. Read only.
+     */
+    @Override
+    public Set<Entry<String, LogEntry>> entrySet() {
+        return new AbstractSet<Entry<String, LogEntry>>() {
+            @Override
+            public Iterator<Entry<String, LogEntry>> iterator() {
+                return new Iterator<Entry<String, LogEntry>>() {
+                    int e = advance(0);
+
+                    private int advance(int from) {
+                        while (from < top && keyOffset[from] < 0)
+                            from++;
+                        return from;
+                    }
+
+                    @Override
+                    public boolean hasNext() {
+                        return e < top;
+                    }
+
+                    @Override
+                    public Entry<String, LogEntry> next() {
+                        if (!hasNext())
+                            throw new NoSuchElementException();
+                        String id = new String(arena, keyOffset[e], keyLength[e], StandardCharsets.UTF_8);
+                        Entry<String, LogEntry> entry = new SimpleImmutableEntry<>(id, materialize(id, e));
+                        e = advance(e + 1);
+                        return entry;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    private LogEntry materialize(String id, int e) {
+        return LogEntry.builder()
+                .id(id)
+                .state(STATES[state[e]])
+                .timestamp(timestamp[e])
+                .type(dictionary.get(type[e]))
+                .host(dictionary.get(host[e]))
+                .build();
+    }
+
+    private int code(String value) {
+        if (value == null)
+            return 0;
+        Integer code = codes.get(value);
+        if (code == null) {
+            code = dictionary.size();
+            dictionary.add(value);
+            codes.put(value, code);
+        }
+        return code;
+    }
+
+    private static int spread(int h) {
+        return h ^ (h >>> 16);
+    }
+
+    /** Marks a removed entry, pointing at the next free one */
+    private static int free(int next) {
+        return -(next + 2);
+    }
+
+    private static int hash(byte[] bytes, int offset, int length) {
+        int h = 0;
+        for (int i = offset; i < offset + length; i++)
+            h = 31 * h + bytes[i];
+        return h;
+    }
+
+    /**
+     * @return index slot of the id held in scratch, or -1
+     */
+    private int find(int length) {
+        int mask = index.length - 1;
+        for (int slot = spread(scratchHash) & mask; ; slot = (slot + 1) & mask) {
+            int ref = index[slot];
+            if (ref == EMPTY)
+                return -1;
+            if (ref > 0) {
+                int e = ref - 1;
+                if (keyLength[e] == length && matches(keyOffset[e], length))
+                    return slot;
+            }
+        }
+    }
+
+    /**
+     * @return first empty or deleted slot for the hash
+     */
+    private int insertSlot(int h) {
+        int mask = index.length - 1;
+        int slot = spread(h) & mask;
+        while (index[slot] > 0)
+            slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    private boolean matches(int offset, int length) {
+        for (int i = 0; i < length; i++) {
+            if (arena[offset + i] != scratch[i])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Writes the UTF-8 bytes of id into scratch and their hash into scratchHash. ASCII ids, the normal case, are
+     * encoded without allocating.
+     * @return number of bytes
+     */
+    private int encode(String id) {
+        int length = id.length();
+        if (scratch.length < length * 3)
+            scratch = new byte[length * 3];
+        int h = 0;
+        for (int i = 0; i < length; i++) {
+            char c = id.charAt(i);
+            if (c >= 0x80) {
+                byte[] utf8 = id.getBytes(StandardCharsets.UTF_8);
+                System.arraycopy(utf8, 0, scratch, 0, utf8.length);
+                length = utf8.length;
+                h = hash(scratch, 0, length);
+                break;
+            }
+            scratch[i] = (byte) c;
+            h = 31 * h + c;
+        }
+        if (length > Short.MAX_VALUE)
+            throw new IllegalArgumentException("Id longer than " + Short.MAX_VALUE + " bytes");
+        scratchHash = h;
+        return length;
+    }
+
+    /**
+     * @return a free entry, reusing removed ones first and growing the arrays by half when full
+     */
+    private int allocateEntry() {
+        if (freeHead >= 0) {
+            int e = freeHead;
+            freeHead = -keyOffset[e] - 2;
+            return e;
+        }
+        if (top == keyOffset.length) {
+            int capacity = keyOffset.length + (keyOffset.length >> 1);
+            keyOffset = Arrays.copyOf(keyOffset, capacity);
+            keyLength = Arrays.copyOf(keyLength, capacity);
+            timestamp = Arrays.copyOf(timestamp, capacity);
+            state = Arrays.copyOf(state, capacity);
+            type = Arrays.copyOf(type, capacity);
+            host = Arrays.copyOf(host, capacity);
+        }
+        return top++;
+    }
+
+    /**
+     * Appends the id in scratch to the arena, first squeezing out removed ids if they take half of it
+     */
+    private int appendKey(int length) {
+        if (arenaEnd + length > arena.length) {
+            if (arenaGarbage > arenaEnd / 2) {
+                compactArena();
+            }
+            if (arenaEnd + length > arena.length)
+                arena = Arrays.copyOf(arena, Math.max(arena.length + (arena.length >> 1), arenaEnd + length));
+        }
+        System.arraycopy(scratch, 0, arena, arenaEnd, length);
+        int offset = arenaEnd;
+        arenaEnd += length;
+        return offset;
+    }
+
+    private void compactArena() {
+        byte[] compacted = new byte[arena.length];
+        int end = 0;
+        for (int e = 0; e < top; e++) {
+            if (keyOffset[e] < 0)
+                continue;
+            System.arraycopy(arena, keyOffset[e], compacted, end, keyLength[e]);
+            keyOffset[e] = end;
+            end += keyLength[e];
+        }
+        arena = compacted;
+        arenaEnd = end;
+        arenaGarbage = 0;
+    }
+
+    /**
+     * Rebuilds the index without deleted slots, doubling it if live entries would otherwise fill more than half
+     */
+    private void rehash() {
+        int capacity = index.length;
+        while (size + 1 > capacity * LOAD_FACTOR / 2)
+            capacity *= 2;
+        index = new int[capacity];
+        indexUsed = 0;
+        for (int e = 0; e < top; e++) {
+            if (keyOffset[e] < 0)
+                continue;
+            index[insertSlot(hash(arena, keyOffset[e], keyLength[e]))] = e + 1;
+            indexUsed++;
+        }
+    }
+}
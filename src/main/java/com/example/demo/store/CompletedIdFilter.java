@@ -0,0 +1,257 @@
+package com.example.demo.store;
+
+import lombok.Setter;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * Remembers the ids of entries already completed, in bounded memory, so an event arriving after its pair has been
+ * written can be recognised once the pair is gone from the pending store.
+ * It is a scalable Bloom filter: a chain of stages, each a Bloom filter sized for twice as many ids as the one before
+ * at half its false positive rate, so however many ids are added the chance of a false positive stays under fpp and
+ * an id added is always found. Once the next stage would take the chain over maxBytes the oldest stages are dropped and
+ * the stages stop growing, so from then on the filter forgets the ids completed longest ago, which are the least
+ * likely to see another event.
+ * A hit may be confirmed exactly with the check given to setConfirm, e.g. a lookup of the row in the DB, so a false
+ * positive costs a query rather than a lost record. Only hits are confirmed, the common case of a new id is answered
+ * from memory.
+ * Thread safe: bits are set and read without locking, so the correlators of a pipeline or scan can share one filter.
+ * The processors use one when dedup.completed is true, sized by dedup.completed.ids, dedup.completed.fpp and
+ * dedup.completed.maxBytes, and confirm hits against LOGENTRY or the repository unless dedup.completed.confirm is false.
+ */
+public class CompletedIdFilter {
+
+    /** Each stage holds GROWTH times the ids of the one before, at TIGHTENING times its false positive rate */
+    private static final int GROWTH = 2;
+    private static final double TIGHTENING = 0.5;
+    private static final double LN2_SQUARED = Math.log(2) * Math.log(2);
+
+    private final double fpp;
+    private final long maxBytes;
+    /** Oldest first, replaced whole when a stage is added */
+    private volatile Stage[] stages;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder falsePositives = new LongAdder();
+    private final AtomicLong dropped = new AtomicLong();
+    /** Exact check of an id the filter reports, true if it really was completed, if set */
+    @Setter
+    private volatile Predicate<String> confirm;
+
+    /**
+     * @param expectedIds ids the first stage is sized for
+     * @param fpp false positive rate over all stages, e.g. 0.000001
+     * @param maxBytes memory the bit arrays may take
+     */
+    public CompletedIdFilter(long expectedIds, double fpp, long maxBytes) {
+        if (expectedIds < 1 || maxBytes < 8) {
+            throw new IllegalArgumentException("expectedIds and maxBytes must be positive");
+        }
+        if (fpp <= 0 || fpp >= 1) {
+            throw new IllegalArgumentException("fpp must be between 0 and 1: " + fpp);
+        }
+        this.fpp = fpp;
+        this.maxBytes = maxBytes;
+        double p = fpp * (1 - TIGHTENING);
+        this.stages = new Stage[]{new Stage(Math.min(expectedIds, Stage.capacityFor(maxBytes, p)), p)};
+    }
+
+    /**
+     * Records the id as completed
+     * @param id
+     */
+    public void add(String id) {
+        long hash = hash(id);
+        if (contains(hash))
+            return;
+        Stage[] current = stages;
+        Stage last = current[current.length - 1];
+        last.add(hash);
+        if (last.count.incrementAndGet() == last.capacity)
+            grow(last);
+    }
+
+    /**
+     * @param id
+     * @return true if the id may have been added, never false for one that was unless its stage has been dropped
+     */
+    public boolean mightContain(String id) {
+        return contains(hash(id));
+    }
+
+    /**
+     * @param id
+     * @return true if the filter holds the id and the confirm check, if set, agrees
+     */
+    public boolean isCompleted(String id) {
+        if (!mightContain(id))
+            return false;
+        hits.increment();
+        Predicate<String> check = confirm;
+        if (check == null || check.test(id))
+            return true;
+        falsePositives.increment();
+        return false;
+    }
+
+    /**
+     * @return ids added to the stages still held, not counting those already reported present when added
+     */
+    public long count() {
+        long count = 0;
+        for (Stage stage : stages)
+            count += stage.count.get();
+        return count;
+    }
+
+    /**
+     * @return bytes taken by the bit arrays
+     */
+    public long sizeBytes() {
+        return bytes(stages);
+    }
+
+    /**
+     * @return ids forgotten when their stage was dropped to stay under maxBytes
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @return lookups the filter reported as completed
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return hits the confirm check rejected
+     */
+    public long getFalsePositives() {
+        return falsePositives.sum();
+    }
+
+    @Override
+    public String toString() {
+        Stage[] current = stages;
+        return count() + " ids in " + current.length + " stages, " + bytes(current) / 1024 + " KB (fpp " + fpp
+                + "), hits=" + getHits() + ", false positives=" + getFalsePositives() + ", dropped=" + getDropped();
+    }
+
+    private boolean contains(long hash) {
+        Stage[] current = stages;
+        // Newest first, recently completed ids are the likeliest to see a late event
+        for (int i = current.length - 1; i >= 0; i--) {
+            if (current[i].contains(hash))
+                return true;
+        }
+        return false;
+    }
+
+    private synchronized void grow(Stage full) {
+        Stage[] current = stages;
+        if (current[current.length - 1] != full)
+            return;
+        Stage next = new Stage(full.capacity * GROWTH, full.fpp * TIGHTENING);
+        if (bytes(current) + next.sizeBytes() > maxBytes)
+            // At the limit the chain rotates through stages the size of the last one
+            next = new Stage(full.capacity, full.fpp);
+        int keep = current.length;
+        long total = bytes(current) + next.sizeBytes();
+        while (keep > 0 && total > maxBytes) {
+            Stage oldest = current[current.length - keep];
+            total -= oldest.sizeBytes();
+            dropped.addAndGet(oldest.count.get());
+            keep--;
+        }
+        Stage[] grown = new Stage[keep + 1];
+        System.arraycopy(current, current.length - keep, grown, 0, keep);
+        grown[keep] = next;
+        stages = grown;
+    }
+
+    private static long bytes(Stage[] stages) {
+        long bytes = 0;
+        for (Stage stage : stages)
+            bytes += stage.sizeBytes();
+        return bytes;
+    }
+
+    /**
+     * 64 bit FNV-1a of the id's chars, finished with the MurmurHash3 mixer
+     */
+    static long hash(String id) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < id.length(); i++) {
+            h ^= id.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * One Bloom filter, with its k bit positions derived from two hashes (Kirsch and Mitzenmacher)
+     */
+    private static final class Stage {
+        private final long capacity;
+        private final double fpp;
+        private final int hashes;
+        private final long bits;
+        private final AtomicLongArray words;
+        private final AtomicLong count = new AtomicLong();
+
+        private Stage(long capacity, double fpp) {
+            this.capacity = Math.max(capacity, 1);
+            this.fpp = fpp;
+            this.hashes = Math.max(1, (int) Math.ceil(-Math.log(fpp) / Math.log(2)));
+            long words = (long) Math.ceil(-this.capacity * Math.log(fpp) / LN2_SQUARED / 64);
+            this.words = new AtomicLongArray((int) Math.min(Math.max(words, 1), Integer.MAX_VALUE - 8));
+            this.bits = this.words.length() * 64L;
+        }
+
+        /**
+         * @return ids a stage of at most maxBytes holds at the false positive rate
+         */
+        private static long capacityFor(long maxBytes, double fpp) {
+            return Math.max(1, (long) (maxBytes * 8 * LN2_SQUARED / -Math.log(fpp)));
+        }
+
+        private long sizeBytes() {
+            return bits / 8;
+        }
+
+        private void add(long hash) {
+            long h2 = mix(hash) | 1;
+            for (int i = 0; i < hashes; i++) {
+                long bit = Math.floorMod(hash + i * h2, bits);
+                int word = (int) (bit >>> 6);
+                long mask = 1L << bit;
+                long value = words.get(word);
+                while ((value & mask) == 0 && !words.compareAndSet(word, value, value | mask))
+                    value = words.get(word);
+            }
+        }
+
+        private boolean contains(long hash) {
+            long h2 = mix(hash) | 1;
+            for (int i = 0; i < hashes; i++) {
+                long bit = Math.floorMod(hash + i * h2, bits);
+                if ((words.get((int) (bit >>> 6)) & 1L << bit) == 0)
+                    return false;
+            }
+            return true;
+        }
+    }
+}
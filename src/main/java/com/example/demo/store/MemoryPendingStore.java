@@ -0,0 +1,11 @@
+package com.example.demo.store;
+
+import com.example.demo.model.LogEntry;
+
+import java.util.HashMap;
+
+/**
+ * Default store keeping every pending entry on the heap
+ */
+public class MemoryPendingStore extends HashMap<String, LogEntry> implements PendingStore {
+}
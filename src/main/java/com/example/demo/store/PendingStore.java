@@ -0,0 +1,25 @@
+package com.example.demo.store;
+
+import com.example.demo.model.LogEntry;
+
+import java.io.Closeable;
+import java.util.Map;
+
+/**
+ * Holds the LogEntries waiting for their partner, keyed by id.
+ * Implementations are plain Maps so the EventCorrelator and the processors' getStore() work unchanged whichever one
+ * is configured. Stores backed by local files release them on close(). Not thread safe, each correlator owns its store.
+ */
+public interface PendingStore extends Map<String, LogEntry>, Closeable {
+
+    @Override
+    default void close() {
+    }
+
+    /**
+     * @return estimated heap bytes held by the store, -1 if it does not keep track
+     */
+    default long footprintBytes() {
+        return -1;
+    }
+}
@@ -0,0 +1,43 @@
+package com.example.demo.store;
+
+import java.io.File;
+import java.util.function.Supplier;
+
+/**
+ * Creates the PendingStore selected by the store.* properties.
+ * <ul>
+ *     <li>memory - everything on the heap (default)</li>
+ *     <li>compact - everything on the heap in primitive arrays, see CompactPendingStore</li>
+ *     <li>spill - up to store.heap.maxBytes on the heap, older entries spilled to a file in store.spill.dir</li>
+ * </ul>
+ * The pipeline and split scanner create one store per thread, and the budget applies to each store.
+ */
+public final class PendingStores {
+
+    public static final String MEMORY = "memory";
+    public static final String COMPACT = "compact";
+    public static final String SPILL = "spill";
+
+    private PendingStores() {
+    }
+
+    /**
+     * @param type memory, compact or spill
+     * @param heapBudget approximate heap bytes a spill store keeps before writing to disk
+     * @param spillDir directory for spill files, java.io.tmpdir if empty
+     * @return supplier of new, empty stores
+     */
+    public static Supplier<PendingStore> factory(String type, long heapBudget, String spillDir) {
+        if (type == null || type.isEmpty() || MEMORY.equalsIgnoreCase(type)) {
+            return MemoryPendingStore::new;
+        }
+        if (COMPACT.equalsIgnoreCase(type)) {
+            return CompactPendingStore::new;
+        }
+        if (SPILL.equalsIgnoreCase(type)) {
+            File dir = spillDir == null || spillDir.isEmpty() ? null : new File(spillDir);
+            return () -> new SpillingPendingStore(heapBudget, dir);
+        }
+        throw new IllegalArgumentException("Unknown store.type " + type);
+    }
+}
@@ -0,0 +1,405 @@
+package com.example.demo.store;
+
+import com.example.demo.model.LogEntry;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * PendingStore with a heap budget.
+ * Entries are kept on the heap in arrival order until their estimated size passes the budget, after which the oldest
+ * are appended to a local spill file. Lookups that miss the heap follow a per bucket chain of file offsets, so the
+ * heap cost of a spilled entry is a share of a long[] bucket table rather than the entry itself. Removing a spilled
+ * entry flips a flag in its record, and the file is compacted once dead records outnumber live ones.
+ * Entries left in the store at the end of a run are the orphans, and can be listed through entrySet().
+ */
+@Slf4j
+public class SpillingPendingStore extends AbstractMap<String, LogEntry> implements PendingStore {
+
+    /** Record header: total length, live flag, offset+1 of the previous record in the same bucket */
+    private static final int HEADER = 4 + 1 + 8;
+    private static final int LIVE_FLAG = 4;
+    private static final int MIN_BUCKETS = 1024;
+    /** Rough heap cost of a LogEntry plus its LinkedHashMap node, excluding the Strings */
+    private static final int ENTRY_OVERHEAD = 120;
+
+    private final long heapBudget;
+    private final File dir;
+    private final LinkedHashMap<String, LogEntry> heap = new LinkedHashMap<>();
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(128);
+    private final DataOutputStream out = new DataOutputStream(buffer);
+    private long heapBytes;
+
+    private File file;
+    private FileChannel channel;
+    private long end;
+    private long[] heads = new long[MIN_BUCKETS];
+    private int diskLive;
+    private int diskDead;
+    /** Id of the last get() that found nothing, so the put() that follows can skip the file */
+    private String lastMiss;
+    private long foundOffset;
+    @Getter
+    private long spilled;
+
+    /**
+     * @param heapBudget approximate bytes of pending entries to keep on the heap
+     * @param dir directory for the spill file, or null for java.io.tmpdir. The file is only created once needed.
+     */
+    public SpillingPendingStore(long heapBudget, File dir) {
+        this.heapBudget = heapBudget;
+        this.dir = dir;
+    }
+
+    @Override
+    public LogEntry get(Object key) {
+        String id = (String) key;
+        LogEntry entry = heap.get(id);
+        if (entry == null && diskLive > 0)
+            entry = lookup(id);
+        if (entry == null)
+            lastMiss = id;
+        return entry;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public LogEntry put(String id, LogEntry entry) {
+        LogEntry previous = heap.put(id, entry);
+        if (previous != null) {
+            heapBytes -= estimate(previous);
+        } else if (diskLive > 0 && !id.equals(lastMiss)) {
+            previous = lookup(id);
+            if (previous != null)
+                kill(foundOffset);
+        }
+        lastMiss = null;
+        heapBytes += estimate(entry);
+        while (heapBytes > heapBudget && !heap.isEmpty())
+            spillEldest();
+        return previous;
+    }
+
+    @Override
+    public LogEntry remove(Object key) {
+        LogEntry removed = heap.remove(key);
+        if (removed != null) {
+            heapBytes -= estimate(removed);
+        } else if (diskLive > 0) {
+            removed = lookup((String) key);
+            if (removed != null)
+                kill(foundOffset);
+        }
+        return removed;
+    }
+
+    @Override
+    public int size() {
+        return heap.size() + diskLive;
+    }
+
+    /**
+     * @return number of pending entries currently in the spill file
+     */
+    public int spilledSize() {
+        return diskLive;
+    }
+
+    /**
+     * @return estimated heap bytes of the entries kept on the heap, the spilled ones not included
+     */
+    @Override
+    public long footprintBytes() {
+        return heapBytes;
+    }
+
+    @Override
+    public void clear() {
+        heap.clear();
+        heapBytes = 0;
+        lastMiss = null;
+        if (channel != null)
+            reset();
+    }
+
+    /**
+     * Heap entries first, oldest first, then spilled entries in file order. Read only.
+     */
+    @Override
+    public Set<Entry<String, LogEntry>> entrySet() {
+        return new AbstractSet<Entry<String, LogEntry>>() {
+            @Override
+            public Iterator<Entry<String, LogEntry>> iterator() {
+                Iterator<Entry<String, LogEntry>> heapIterator = heap.entrySet().iterator();
+                return new Iterator<Entry<String, LogEntry>>() {
+                    long pos = 0;
+                    Entry<String, LogEntry> next = advance();
+
+                    private Entry<String, LogEntry> advance() {
+                        if (heapIterator.hasNext()) {
+                            Entry<String, LogEntry> e = heapIterator.next();
+                            return new SimpleImmutableEntry<>(e.getKey(), e.getValue());
+                        }
+                        while (channel != null && pos < end) {
+                            ByteBuffer record = readRecord(pos);
+                            pos += record.getInt(0);
+                            if (record.get(LIVE_FLAG) != 0) {
+                                LogEntry entry = decode(record);
+                                return new SimpleImmutableEntry<>(entry.getId(), entry);
+                            }
+                        }
+                        return null;
+                    }
+
+                    @Override
+                    public boolean hasNext() {
+                        return next != null;
+                    }
+
+                    @Override
+                    public Entry<String, LogEntry> next() {
+                        if (next == null)
+                            throw new NoSuchElementException();
+                        Entry<String, LogEntry> e = next;
+                        next = advance();
+                        return e;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return SpillingPendingStore.this.size();
+            }
+        };
+    }
+
+    /**
+     * Releases and deletes the spill file
+     */
+    @Override
+    public void close() {
+        heap.clear();
+        heapBytes = 0;
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.warn("Failed to close spill file " + file, e);
+            }
+            if (!file.delete())
+                log.warn("Failed to delete spill file " + file);
+            channel = null;
+        }
+        diskLive = 0;
+        diskDead = 0;
+    }
+
+    private static long estimate(LogEntry e) {
+        return ENTRY_OVERHEAD + estimate(e.getId()) + estimate(e.getType()) + estimate(e.getHost());
+    }
+
+    private static long estimate(String s) {
+        return s == null ? 0 : 40 + 2L * s.length();
+    }
+
+    private int bucket(String id, int buckets) {
+        int h = id.hashCode();
+        return (h ^ (h >>> 16)) & (buckets - 1);
+    }
+
+    private void spillEldest() {
+        Iterator<Entry<String, LogEntry>> it = heap.entrySet().iterator();
+        Entry<String, LogEntry> eldest = it.next();
+        it.remove();
+        heapBytes -= estimate(eldest.getValue());
+        append(eldest.getValue());
+        if (diskLive + diskDead > heads.length * 2)
+            compact(heads.length * 2);
+    }
+
+    private void append(LogEntry entry) {
+        try {
+            if (channel == null) {
+                file = File.createTempFile("pending", ".spill", dir);
+                channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+                log.info("Pending store passed its heap budget of " + heapBudget + " bytes, spilling to " + file);
+            }
+            int b = bucket(entry.getId(), heads.length);
+            ByteBuffer record = encode(entry, heads[b]);
+            write(channel, record, end);
+            heads[b] = end + 1;
+            end += record.limit();
+            diskLive++;
+            spilled++;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to spill " + entry.getId(), e);
+        }
+    }
+
+    /**
+     * Follows the bucket chain for id, setting foundOffset if a live record is found
+     */
+    private LogEntry lookup(String id) {
+        long ref = heads[bucket(id, heads.length)];
+        while (ref != 0) {
+            long offset = ref - 1;
+            ByteBuffer record = readRecord(offset);
+            if (record.get(LIVE_FLAG) != 0) {
+                LogEntry entry = decode(record);
+                if (id.equals(entry.getId())) {
+                    foundOffset = offset;
+                    return entry;
+                }
+            }
+            ref = record.getLong(LIVE_FLAG + 1);
+        }
+        return null;
+    }
+
+    private void kill(long offset) {
+        try {
+            write(channel, ByteBuffer.wrap(new byte[]{0}), offset + LIVE_FLAG);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to update spill file " + file, e);
+        }
+        diskLive--;
+        diskDead++;
+        if (diskLive == 0)
+            reset();
+        else if (diskDead > diskLive && diskDead > MIN_BUCKETS)
+            compact(heads.length);
+    }
+
+    /**
+     * Empties the spill file without releasing it
+     */
+    private void reset() {
+        try {
+            channel.truncate(0);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to truncate spill file " + file, e);
+        }
+        end = 0;
+        heads = new long[MIN_BUCKETS];
+        diskLive = 0;
+        diskDead = 0;
+    }
+
+    /**
+     * Copies the live records to a new file with a fresh bucket table
+     */
+    private void compact(int buckets) {
+        try {
+            File newFile = File.createTempFile("pending", ".spill", dir);
+            FileChannel newChannel = FileChannel.open(newFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            long[] newHeads = new long[Math.max(MIN_BUCKETS, Integer.highestOneBit(Math.max(1, buckets)))];
+            long newEnd = 0;
+            for (long pos = 0; pos < end; ) {
+                ByteBuffer record = readRecord(pos);
+                pos += record.limit();
+                if (record.get(LIVE_FLAG) == 0)
+                    continue;
+                int b = bucket(decode(record).getId(), newHeads.length);
+                record.putLong(LIVE_FLAG + 1, newHeads[b]);
+                write(newChannel, record, newEnd);
+                newHeads[b] = newEnd + 1;
+                newEnd += record.limit();
+            }
+            channel.close();
+            if (!file.delete())
+                log.warn("Failed to delete spill file " + file);
+            if (log.isDebugEnabled())
+                log.debug("Compacted spill file to " + diskLive + " records in " + newFile);
+            file = newFile;
+            channel = newChannel;
+            heads = newHeads;
+            end = newEnd;
+            diskDead = 0;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to compact spill file " + file, e);
+        }
+    }
+
+    private ByteBuffer encode(LogEntry entry, long previous) throws IOException {
+        buffer.reset();
+        out.writeInt(0);
+        out.writeByte(1);
+        out.writeLong(previous);
+        out.writeUTF(entry.getId());
+        out.writeByte(entry.getState().ordinal());
+        out.writeLong(entry.getTimestamp());
+        writeNullable(entry.getType());
+        writeNullable(entry.getHost());
+        ByteBuffer record = ByteBuffer.wrap(buffer.toByteArray());
+        record.putInt(0, record.limit());
+        return record;
+    }
+
+    private void writeNullable(String s) throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null)
+            out.writeUTF(s);
+    }
+
+    private ByteBuffer readRecord(long offset) {
+        try {
+            ByteBuffer header = ByteBuffer.allocate(4);
+            read(header, offset);
+            ByteBuffer record = ByteBuffer.allocate(header.getInt(0));
+            read(record, offset);
+            return record;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read spill file " + file, e);
+        }
+    }
+
+    private LogEntry decode(ByteBuffer record) {
+        try {
+            DataInputStream in = new DataInputStream(
+                    new ByteArrayInputStream(record.array(), HEADER, record.limit() - HEADER));
+            return LogEntry.builder()
+                    .id(in.readUTF())
+                    .state(LogEntry.State.values()[in.readByte()])
+                    .timestamp(in.readLong())
+                    .type(in.readBoolean() ? in.readUTF() : null)
+                    .host(in.readBoolean() ? in.readUTF() : null)
+                    .build();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Corrupt record in spill file " + file, e);
+        }
+    }
+
+    private void read(ByteBuffer buf, long offset) throws IOException {
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, offset + buf.position()) < 0)
+                throw new IOException("Unexpected end of spill file " + file + " at " + offset);
+        }
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buf, long offset) throws IOException {
+        buf.rewind();
+        while (buf.hasRemaining())
+            channel.write(buf, offset + buf.position());
+    }
+}
@@ -0,0 +1,278 @@
+package com.example.demo.stream;
+
+import com.example.demo.EventCorrelator;
+import com.example.demo.model.LogEntry;
+import com.example.demo.parse.InputFiles;
+import com.example.demo.parse.InputFormat;
+import com.example.demo.parse.LogEntryReader;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Reactive Streams Publisher of completed LogEntries, with duration and alert set, read from a file or InputStream.
+ * Records are only parsed as far as the subscriber has requested, so a slow subscriber holds the reader back instead
+ * of entries piling up in memory. Parsing runs on whichever thread calls Subscription.request, or subscribe for the
+ * first request made from onSubscribe, and re-entrant requests from onNext are queued rather than recursing.
+ * Entries that never find their partner are left in the correlator's store when the publisher completes, unless the
+ * correlator has a timeout, in which case those left behind by the watermark are published as timeout records.
+ * A publisher reads its input once, so only one subscriber is accepted.
+ * The input may be JSON, Smile or CBOR, see InputFormat.
+ */
+@Slf4j
+public class LogEntryPublisher implements Publisher<LogEntry> {
+
+    private final InputSource source;
+    private final Supplier<LogEntryReader> readerFactory;
+    private final EventCorrelator correlator;
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+    /** Encoding of the input, detected from its first bytes if AUTO. Set before subscribing. */
+    @Setter
+    private InputFormat format = InputFormat.AUTO;
+
+    /**
+     * @param file plain or gzip compressed
+     * @param readerFactory creates the record decoder
+     * @param correlator pairs the entries, left holding the orphans once the publisher completes
+     */
+    public LogEntryPublisher(File file, Supplier<LogEntryReader> readerFactory, EventCorrelator correlator) {
+        this(file, 1, readerFactory, correlator);
+    }
+
+    /**
+     * @param file plain or gzip compressed, see InputFiles
+     * @param decompressThreads cores a block compressed file is inflated on
+     * @param readerFactory creates the record decoder
+     * @param correlator pairs the entries, left holding the orphans once the publisher completes
+     */
+    public LogEntryPublisher(File file, int decompressThreads, Supplier<LogEntryReader> readerFactory, EventCorrelator correlator) {
+        this(() -> InputFiles.open(file, decompressThreads), readerFactory, correlator);
+        this.format = InputFormat.forFile(file, InputFormat.AUTO);
+    }
+
+    /**
+     * @param in read to the end, and closed once the publisher has started reading and completes, fails or is cancelled
+     * @param readerFactory creates the record decoder
+     * @param correlator pairs the entries, left holding the orphans once the publisher completes
+     */
+    public LogEntryPublisher(InputStream in, Supplier<LogEntryReader> readerFactory, EventCorrelator correlator) {
+        this(() -> in, readerFactory, correlator);
+    }
+
+    /**
+     * @param source opened on the first request, and closed once the publisher completes, fails or is cancelled
+     * @param readerFactory creates the record decoder
+     * @param correlator pairs the entries, left holding the orphans once the publisher completes
+     */
+    public LogEntryPublisher(InputSource source, Supplier<LogEntryReader> readerFactory, EventCorrelator correlator) {
+        this.source = source;
+        this.readerFactory = readerFactory;
+        this.correlator = correlator;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super LogEntry> subscriber) {
+        if (subscriber == null)
+            throw new NullPointerException("subscriber");
+        if (!subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("LogEntryPublisher only supports one subscriber"));
+            return;
+        }
+        new CorrelatingSubscription(subscriber).start();
+    }
+
+    /**
+     * Opens the input when the publisher starts reading
+     */
+    @FunctionalInterface
+    public interface InputSource {
+        InputStream open() throws IOException;
+    }
+
+    private class CorrelatingSubscription implements Subscription {
+
+        private final Subscriber<? super LogEntry> subscriber;
+        private final AtomicLong requested = new AtomicLong();
+        /** Number of drain requests pending, only the thread taking it from 0 drains */
+        private final AtomicInteger wip = new AtomicInteger();
+        private volatile boolean cancelled;
+        private volatile Throwable badRequest;
+        private boolean done;
+        private JsonParser jp;
+        private LogEntryReader reader;
+        /** Next completed entry, read ahead so completion is signalled without waiting for more demand */
+        private LogEntry next;
+
+        CorrelatingSubscription(Subscriber<? super LogEntry> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        void start() {
+            // Hold off draining until onSubscribe has returned, so requests made inside it are simply counted
+            wip.incrementAndGet();
+            try {
+                subscriber.onSubscribe(this);
+            } catch (Throwable t) {
+                log.error("onSubscribe failed, cancelling", t);
+                cancelled = true;
+            }
+            drainLoop(1);
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                badRequest = new IllegalArgumentException("Requested " + n + ", must be positive");
+            } else {
+                long current;
+                do {
+                    current = requested.get();
+                    if (current == Long.MAX_VALUE)
+                        break;
+                } while (!requested.compareAndSet(current, addCap(current, n)));
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            drain();
+        }
+
+        private void drain() {
+            if (wip.getAndIncrement() == 0)
+                drainLoop(1);
+        }
+
+        private void drainLoop(int missed) {
+            do {
+                if (!done) {
+                    if (cancelled) {
+                        done = true;
+                        closeParser();
+                    } else if (badRequest != null) {
+                        fail(badRequest);
+                    } else {
+                        emit();
+                    }
+                }
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        /**
+         * Sends entries while there is demand, then completes if the input has run out
+         */
+        private void emit() {
+            try {
+                long r = requested.get();
+                if (r == 0)
+                    return;
+                long sent = 0;
+                while (sent != r && !cancelled) {
+                    if (next == null)
+                        next = readNext();
+                    if (next == null)
+                        break;
+                    LogEntry entry = next;
+                    next = null;
+                    try {
+                        subscriber.onNext(entry);
+                    } catch (RuntimeException e) {
+                        // A subscriber must not throw, treat it as having cancelled
+                        log.error("Subscriber failed on " + entry.getId() + ", cancelling", e);
+                        cancelled = true;
+                        done = true;
+                        closeParser();
+                        return;
+                    }
+                    sent++;
+                }
+                if (sent > 0 && r != Long.MAX_VALUE)
+                    requested.addAndGet(-sent);
+                if (cancelled)
+                    return;
+                if (next == null)
+                    next = readNext();
+                if (next == null) {
+                    done = true;
+                    closeParser();
+                    subscriber.onComplete();
+                }
+            } catch (IOException | RuntimeException e) {
+                fail(e);
+            }
+        }
+
+        /**
+         * Parses and correlates records until one completes a pair or times out
+         * @return the completed or timed out entry, or null at the end of the input
+         */
+        private LogEntry readNext() throws IOException {
+            if (jp == null)
+                open();
+            JsonToken token = jp.getCurrentToken();
+            while (token != null && token != JsonToken.END_OBJECT) {
+                LogEntry timedOut = correlator.pollTimedOut();
+                if (timedOut != null)
+                    return timedOut;
+                LogEntry completed = correlator.correlate(reader.read(jp));
+                token = jp.nextToken();
+                if (completed != null)
+                    return completed;
+            }
+            return correlator.pollTimedOut();
+        }
+
+        private void open() throws IOException {
+            jp = format.createParser(source.open());
+            reader = readerFactory.get();
+            if (jp.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Expected data to start with an Object");
+            }
+        }
+
+        private void fail(Throwable t) {
+            done = true;
+            closeParser();
+            subscriber.onError(t);
+        }
+
+        private void closeParser() {
+            if (jp == null)
+                return;
+            try {
+                jp.close();
+            } catch (IOException e) {
+                log.warn("Failed to close input", e);
+            }
+        }
+    }
+
+    private static long addCap(long a, long b) {
+        long sum = a + b;
+        return sum < 0 ? Long.MAX_VALUE : sum;
+    }
+}
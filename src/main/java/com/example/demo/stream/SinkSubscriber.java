@@ -0,0 +1,104 @@
+package com.example.demo.stream;
+
+import com.example.demo.model.LogEntry;
+import com.example.demo.sink.LogEntrySink;
+import lombok.Getter;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Subscriber handing each entry to a LogEntrySink, which is how the JDBC and JPA writers consume a LogEntryPublisher.
+ * Requests batch entries at a time, asking for the next batch once the current one has been written, so at most
+ * batch entries are in flight. A failing sink cancels the subscription and is rethrown by await().
+ */
+public class SinkSubscriber implements Subscriber<LogEntry> {
+
+    public static final int DEFAULT_BATCH = 256;
+
+    private final LogEntrySink sink;
+    private final int batch;
+    private final CountDownLatch done = new CountDownLatch(1);
+    private Subscription subscription;
+    private int received;
+    @Getter
+    private long written;
+    private volatile Throwable error;
+
+    public SinkSubscriber(LogEntrySink sink) {
+        this(sink, DEFAULT_BATCH);
+    }
+
+    /**
+     * @param sink destination for the entries
+     * @param batch number of entries requested at a time
+     */
+    public SinkSubscriber(LogEntrySink sink, int batch) {
+        if (batch < 1) {
+            throw new IllegalArgumentException("batch must be positive: " + batch);
+        }
+        this.sink = sink;
+        this.batch = batch;
+    }
+
+    @Override
+    public void onSubscribe(Subscription s) {
+        if (subscription != null) {
+            s.cancel();
+            return;
+        }
+        subscription = s;
+        s.request(batch);
+    }
+
+    @Override
+    public void onNext(LogEntry entry) {
+        if (error != null)
+            return;
+        try {
+            sink.write(entry);
+            written++;
+        } catch (Exception e) {
+            error = e;
+            subscription.cancel();
+            done.countDown();
+            return;
+        }
+        if (++received == batch) {
+            received = 0;
+            subscription.request(batch);
+        }
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        error = t;
+        done.countDown();
+    }
+
+    @Override
+    public void onComplete() {
+        done.countDown();
+    }
+
+    /**
+     * Waits for the publisher to complete
+     * @throws IOException if the publisher or the sink failed
+     */
+    public void await() throws IOException {
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for the publisher to complete");
+        }
+        Throwable t = error;
+        if (t instanceof IOException)
+            throw (IOException) t;
+        if (t != null)
+            throw new IOException("Streaming failed: " + t, t);
+    }
+}
@@ -0,0 +1,159 @@
+package com.example.demo;
+
+import com.example.demo.model.LogEntry;
+import com.example.demo.store.CompactPendingStore;
+import com.example.demo.store.CompletedIdFilter;
+import com.example.demo.store.MemoryPendingStore;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class EventCorrelatorTest {
+
+    private static LogEntry entry(String id, LogEntry.State state, long timestamp) {
+        return LogEntry.builder().id(id).state(state).type("APPLICATION_LOG").host("12345").timestamp(timestamp).build();
+    }
+
+    private static List<LogEntry> drain(EventCorrelator correlator) {
+        List<LogEntry> timedOut = new ArrayList<>();
+        for (LogEntry e = correlator.pollTimedOut(); e != null; e = correlator.pollTimedOut())
+            timedOut.add(e);
+        return timedOut;
+    }
+
+    @Test
+    public void testNoTimeoutWaitsForever() {
+        EventCorrelator correlator = new EventCorrelator();
+        assertNull(correlator.correlate(entry("a", LogEntry.State.STARTED, 0)));
+        assertNull(correlator.correlate(entry("b", LogEntry.State.STARTED, 1000000)));
+        assertNull(correlator.pollTimedOut());
+        assertEquals(2, correlator.getStore().size());
+        assertEquals(1000000, correlator.correlate(entry("a", LogEntry.State.FINISHED, 1000000)).getDuration());
+    }
+
+    @Test
+    public void testStartAndEndTimes() {
+        EventCorrelator correlator = new EventCorrelator(new MemoryPendingStore(), 100);
+        correlator.correlate(entry("a", LogEntry.State.STARTED, 1000));
+        LogEntry a = correlator.correlate(entry("a", LogEntry.State.FINISHED, 1007));
+        assertEquals(1000, (long) a.getStartTime());
+        assertEquals(1007, (long) a.getEndTime());
+        // Either order
+        correlator.correlate(entry("b", LogEntry.State.FINISHED, 1012));
+        LogEntry b = correlator.correlate(entry("b", LogEntry.State.STARTED, 1010));
+        assertEquals(1010, (long) b.getStartTime());
+        assertEquals(1012, (long) b.getEndTime());
+
+        // A timed out entry has only the time of the event seen
+        correlator.correlate(entry("c", LogEntry.State.FINISHED, 1020));
+        correlator.correlate(entry("d", LogEntry.State.STARTED, 1200));
+        LogEntry c = correlator.pollTimedOut();
+        assertEquals("c", c.getId());
+        assertNull(c.getStartTime());
+        assertEquals(1020, (long) c.getEndTime());
+    }
+
+    @Test
+    public void testTimeoutEvictsOldEntries() {
+        EventCorrelator correlator = new EventCorrelator(new MemoryPendingStore(), 100);
+        correlator.correlate(entry("a", LogEntry.State.STARTED, 1000));
+        correlator.correlate(entry("b", LogEntry.State.STARTED, 1050));
+        // Completed in time, leaves a stale deadline behind
+        assertEquals(20, correlator.correlate(entry("b", LogEntry.State.FINISHED, 1070)).getDuration());
+        correlator.correlate(entry("c", LogEntry.State.STARTED, 1090));
+        assertNull(correlator.pollTimedOut());
+
+        // Watermark 1150 leaves a more than 100 behind
+        correlator.correlate(entry("d", LogEntry.State.STARTED, 1150));
+        List<LogEntry> timedOut = drain(correlator);
+        assertEquals(1, timedOut.size());
+        assertEquals("a", timedOut.get(0).getId());
+        assertEquals(LogEntry.State.STARTED, timedOut.get(0).getState());
+        assertEquals(150, timedOut.get(0).getDuration());
+        assertTrue(timedOut.get(0).isAlert());
+        assertEquals(1, correlator.getTimeouts());
+        assertEquals(2, correlator.getStore().size());
+        assertFalse(correlator.getStore().containsKey("a"));
+
+        // Its partner arriving late is ignored rather than pending forever
+        assertNull(correlator.correlate(entry("a", LogEntry.State.FINISHED, 1160)));
+        assertFalse(correlator.getStore().containsKey("a"));
+    }
+
+    @Test
+    public void testStoreBoundedByWindow() {
+        EventCorrelator correlator = new EventCorrelator(new CompactPendingStore(), 50);
+        int timedOut = 0;
+        for (int i = 0; i < 10000; i++) {
+            // Every other id never finishes
+            correlator.correlate(entry("s" + i, LogEntry.State.STARTED, i * 10L));
+            if (i % 2 == 0)
+                assertNotNull(correlator.correlate(entry("s" + i, LogEntry.State.FINISHED, i * 10L + 5)));
+            timedOut += drain(correlator).size();
+            assertTrue(correlator.getStore().size() <= 4);
+        }
+        assertEquals(4997, timedOut);
+        assertEquals(99990, correlator.getWatermark());
+    }
+
+    @Test
+    public void testReportOrphans() {
+        EventCorrelator correlator = new EventCorrelator();
+        assertEquals(0, correlator.reportOrphans());
+        // More than the sample named in the log
+        for (int i = 0; i < EventCorrelator.ORPHAN_SAMPLE + 5; i++)
+            correlator.correlate(entry("o" + i, LogEntry.State.STARTED, i));
+        assertEquals(EventCorrelator.ORPHAN_SAMPLE + 5, correlator.reportOrphans());
+        assertEquals(EventCorrelator.ORPHAN_SAMPLE + 5, correlator.getStore().size());
+    }
+
+    @Test
+    public void testRestoredEntriesTimeOut() {
+        EventCorrelator correlator = new EventCorrelator(new MemoryPendingStore(), 100);
+        correlator.add(entry("a", LogEntry.State.STARTED, 1000));
+        correlator.correlate(entry("b", LogEntry.State.STARTED, 1200));
+        List<LogEntry> timedOut = drain(correlator);
+        assertEquals(1, timedOut.size());
+        assertEquals(200, timedOut.get(0).getDuration());
+    }
+
+    @Test
+    public void testCompletedIdIgnored() {
+        EventCorrelator correlator = new EventCorrelator();
+        CompletedIdFilter completed = new CompletedIdFilter(100, 0.0001, 1 << 20);
+        correlator.setCompletedIds(completed);
+        correlator.correlate(entry("a", LogEntry.State.STARTED, 1000));
+        assertNotNull(correlator.correlate(entry("a", LogEntry.State.FINISHED, 1010)));
+        // A third event for a completed id no longer starts a new pending entry
+        assertNull(correlator.correlate(entry("a", LogEntry.State.FINISHED, 1020)));
+        assertNull(correlator.correlate(entry("a", LogEntry.State.STARTED, 1030)));
+        assertEquals(0, correlator.getStore().size());
+
+        // Unless the confirm check finds no row, e.g. a false positive
+        completed.setConfirm(id -> false);
+        assertNull(correlator.correlate(entry("a", LogEntry.State.STARTED, 1040)));
+        assertEquals(1, correlator.getStore().size());
+        assertEquals(1, completed.getFalsePositives());
+    }
+
+    @Test
+    public void testTimedOutIdIgnored() {
+        EventCorrelator correlator = new EventCorrelator(new MemoryPendingStore(), 100);
+        correlator.setCompletedIds(new CompletedIdFilter(100, 0.0001, 1 << 20));
+        correlator.correlate(entry("a", LogEntry.State.STARTED, 1000));
+        correlator.correlate(entry("b", LogEntry.State.STARTED, 1200));
+        assertEquals(1, drain(correlator).size());
+        // Long after the late partner window, which ends at watermark 1300
+        correlator.correlate(entry("c", LogEntry.State.STARTED, 1400));
+        assertNull(correlator.correlate(entry("a", LogEntry.State.FINISHED, 1410)));
+        assertFalse(correlator.getStore().containsKey("a"));
+    }
+
+    @Test
+    public void testNegativeTimeout() {
+        assertThrows(IllegalArgumentException.class, () -> new EventCorrelator(new MemoryPendingStore(), -1));
+    }
+}
@@ -2,14 +2,30 @@ package com.example.demo;
 
 import com.example.demo.model.LogEntry;
 import com.example.demo.repository.LogEntryRepoIF;
+import com.example.demo.repository.LogEntryStreamingImpl;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.data.jpa.repository.support.JpaRepositoryFactory;
+import org.springframework.data.repository.core.support.RepositoryComposition.RepositoryFragments;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.orm.jpa.JpaTransactionManager;
+import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
+import org.springframework.orm.jpa.SharedEntityManagerCreator;
+import org.springframework.orm.jpa.vendor.HibernateJpaVendorAdapter;
+import org.springframework.transaction.interceptor.MatchAlwaysTransactionAttributeSource;
+import org.springframework.transaction.interceptor.TransactionInterceptor;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
 
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
 import java.io.File;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
 
 public class JacksonJpaProcessorTest{
     @Test
@@ -23,7 +39,141 @@ public class JacksonJpaProcessorTest{
         // Run process
         p.process();
 
+        // Merged, as the ids may be saved already
+        verify(mockRepo, times(3)).save(argThat(e -> e != null && !e.isNew()));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testProcessBulk() throws Exception {
+        JacksonJpaProcessor p = new JacksonJpaProcessor();
+        p.setFile(new File(this.getClass().getClassLoader().getResource("test.json" ).toURI()));
+        p.setBulkSize(2);
+        p.setWriteMode("insert");
+        LogEntryRepoIF mockRepo = mock(LogEntryRepoIF.class);
+
+        p.setRepo(mockRepo);
+
+        // Run process
+        p.process();
+
+        // A full chunk of 2, then the last entry when process() finishes
+        ArgumentCaptor<List<LogEntry>> chunks = ArgumentCaptor.forClass(List.class);
+        verify(mockRepo, times(2)).saveAll(chunks.capture());
+        verify(mockRepo, never()).save(any());
+        verify(mockRepo, never()).findAllById(any());
+        for (List<LogEntry> chunk : chunks.getAllValues())
+            for (LogEntry e : chunk)
+                assertFalse(e.isNew(), e.getId());
+        assertEquals(3, p.getBulkWriter().getWritten());
+        assertEquals(0, p.getStore().size());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testProcessBulkUpsert() throws Exception {
+        JacksonJpaProcessor p = new JacksonJpaProcessor();
+        p.setFile(new File(this.getClass().getClassLoader().getResource("test.json" ).toURI()));
+        p.setBulkSize(2);
+        p.setWriteMode("upsert");
+        LogEntryRepoIF mockRepo = mock(LogEntryRepoIF.class);
+        // scsmbstgra was saved by an earlier run
+        when(mockRepo.findAllById(any())).thenReturn(Collections.emptyList());
+        when(mockRepo.findAllById(argThat(ids -> ids != null && ids.iterator().next().equals("scsmbstgra"))))
+                .thenReturn(Collections.singletonList(LogEntry.builder().id("scsmbstgra").state(LogEntry.State.FINISHED).build()));
+
+        p.setRepo(mockRepo);
+
+        // Run process
+        p.process();
+
+        // One lookup per chunk, the saved entry is merged and the others persisted
+        ArgumentCaptor<List<LogEntry>> chunks = ArgumentCaptor.forClass(List.class);
+        verify(mockRepo, times(2)).findAllById(any());
+        verify(mockRepo, times(2)).saveAll(chunks.capture());
+        for (List<LogEntry> chunk : chunks.getAllValues())
+            for (LogEntry e : chunk)
+                assertEquals(e.getId().equals("scsmbstgra"), !e.isNew(), e.getId());
+        assertEquals(3, p.getBulkWriter().getWritten());
+    }
+
+    @Test
+    public void testProcessVirtualThreads() throws Exception {
+        JacksonJpaProcessor p = new JacksonJpaProcessor();
+        p.setFile(new File(this.getClass().getClassLoader().getResource("test.json" ).toURI()));
+        p.setVirtualThreads(true);
+        p.setPoolSize(2);
+        LogEntryRepoIF mockRepo = mock(LogEntryRepoIF.class);
+
+        p.setRepo(mockRepo);
+
+        // Run process
+        p.process();
+
+        // Every save has finished by the time process() returns
         verify(mockRepo, times(3)).save(isA(LogEntry.class));
+        assertEquals(3, p.getStats().total().getCount());
+        assertEquals(0, p.getStore().size());
+    }
+
+    @Test
+    public void testStats() throws Exception {
+        JacksonJpaProcessor p = new JacksonJpaProcessor();
+        p.setFile(new File(this.getClass().getClassLoader().getResource("test.json" ).toURI()));
+        p.setCorrelators(2);
+        p.setWriters(2);
+        p.setRepo(mock(LogEntryRepoIF.class));
+
+        // Run process
+        p.process();
+
+        // Recorded from both writer threads
+        assertEquals(3, p.getStats().total().getCount());
+        assertEquals(2, p.getStats().total().getAlerts());
+        assertEquals(5, p.getStats().byHost().get("12345").getMax());
+    }
+
+    @Test
+    public void testProcessPipeline() throws Exception {
+        JacksonJpaProcessor p = new JacksonJpaProcessor();
+        p.setFile(new File(this.getClass().getClassLoader().getResource("duplicate.json" ).toURI()));
+        p.setCorrelators(2);
+        p.setWriters(2);
+        LogEntryRepoIF mockRepo = mock(LogEntryRepoIF.class);
+
+        p.setRepo(mockRepo);
+
+        // Run process
+        p.process();
+
+        verify(mockRepo, times(1)).save(isA(LogEntry.class));
+        assertEquals(0, p.getStore().size());
+    }
+
+    @Test
+    public void testProcessSplit() throws Exception {
+        JacksonJpaProcessor p = new JacksonJpaProcessor();
+        p.setFile(new File(this.getClass().getClassLoader().getResource("test.json" ).toURI()));
+        p.setSplitThreads(3);
+        LogEntryRepoIF mockRepo = mock(LogEntryRepoIF.class);
+
+        p.setRepo(mockRepo);
+
+        // Run process
+        p.process();
+
+        verify(mockRepo, times(3)).save(isA(LogEntry.class));
+        assertEquals(0, p.getStore().size());
+    }
+
+    @Test
+    public void testInvalidSplit() throws Exception {
+        JacksonJpaProcessor p = new JacksonJpaProcessor();
+        p.setFile(new File(this.getClass().getClassLoader().getResource("invalid.json" ).toURI()));
+        p.setSplitThreads(2);
+        p.setRepo(mock(LogEntryRepoIF.class));
+
+        assertThrows(IOException.class, p::process);
     }
 
     @Test
@@ -90,4 +240,43 @@ public class JacksonJpaProcessorTest{
         assertTrue(!logEntryArg.getValue().isAlert());
 
     }
+
+    @Test
+    public void testReprocessUpdatesRows() throws Exception {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource("jdbc:hsqldb:mem:jpaReprocess", "sa", "");
+        dataSource.setDriverClassName("org.hsqldb.jdbc.JDBCDriver");
+        Properties properties = new Properties();
+        properties.setProperty("hibernate.hbm2ddl.auto", "create");
+        properties.setProperty("hibernate.dialect", "org.hibernate.dialect.HSQLDialect");
+        LocalContainerEntityManagerFactoryBean factory = new LocalContainerEntityManagerFactoryBean();
+        factory.setDataSource(dataSource);
+        factory.setPackagesToScan("com.example.demo.model");
+        factory.setJpaVendorAdapter(new HibernateJpaVendorAdapter());
+        factory.setJpaProperties(properties);
+        factory.afterPropertiesSet();
+        EntityManagerFactory emf = factory.getObject();
+        try {
+            EntityManager em = SharedEntityManagerCreator.createSharedEntityManager(emf);
+            JpaTransactionManager transactionManager = new JpaTransactionManager(emf);
+            // Each repository call in its own transaction, as in the Spring context
+            ProxyFactory proxy = new ProxyFactory(new JpaRepositoryFactory(em).getRepository(LogEntryRepoIF.class,
+                    RepositoryFragments.just(new LogEntryStreamingImpl(em))));
+            proxy.addAdvice(new TransactionInterceptor(transactionManager, new MatchAlwaysTransactionAttributeSource()));
+            LogEntryRepoIF repo = (LogEntryRepoIF) proxy.getProxy();
+            // The same file three times in the default insert mode, by single and bulk saves
+            for (int bulkSize : new int[]{0, 0, 2}) {
+                JacksonJpaProcessor p = new JacksonJpaProcessor();
+                p.setFile(new File(this.getClass().getClassLoader().getResource("test.json" ).toURI()));
+                p.setRepo(repo);
+                p.setTransactionManager(transactionManager);
+                p.setEntityManager(em);
+                p.setBulkSize(bulkSize);
+                p.process();
+                assertEquals(0, p.getMetrics().getWriteErrors());
+            }
+            assertEquals(3, repo.count());
+        } finally {
+            emf.close();
+        }
+    }
 }
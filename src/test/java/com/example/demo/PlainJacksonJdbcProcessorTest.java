@@ -1,13 +1,35 @@
 package com.example.demo;
 
+import com.example.demo.cluster.ShardCoordinator;
+import com.example.demo.columnar.ColumnarReader;
 import com.example.demo.model.LogEntry;
+import com.example.demo.parse.BlockGzipOutputStream;
+import com.example.demo.parse.InputFormat;
+import com.example.demo.sink.LogEntryPartitions;
+import com.example.demo.sink.LogEntrySchema;
+import com.example.demo.stats.IngestMetrics;
+import com.example.demo.store.SpillingPendingStore;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
 
+import javax.sql.DataSource;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
 import java.sql.Connection;
+import java.sql.DriverManager;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -18,14 +40,334 @@ public class PlainJacksonJdbcProcessorTest {
         PlainJacksonJdbcProcessor p = new PlainJacksonJdbcProcessor(new File(this.getClass().getClassLoader().getResource("test.json" ).toURI()));
         Connection mockConnection = mock(Connection.class);
         PreparedStatement mockPs = mock(PreparedStatement.class);
+        when(mockConnection.prepareStatement(PlainJacksonJdbcProcessor.UPSERT_SQL)).thenReturn(mockPs);
+
+        p.setConnection(mockConnection);
+
+        // Run process
+        p.process();
+
+        // One statement reused for the whole file, three rows batched and committed at the end
+        verify(mockConnection, times(1)).prepareStatement(PlainJacksonJdbcProcessor.UPSERT_SQL);
+        verify(mockPs, times(3)).addBatch();
+        verify(mockPs, times(1)).executeBatch();
+        verify(mockConnection, times(1)).commit();
+    }
+
+    @Test
+    public void testProcessInsert() throws Exception {
+        PlainJacksonJdbcProcessor p = new PlainJacksonJdbcProcessor(new File(this.getClass().getClassLoader().getResource("test.json" ).toURI()));
+        p.prop.setProperty("db.write.mode", "insert");
+        Connection mockConnection = mock(Connection.class);
+        PreparedStatement mockPs = mock(PreparedStatement.class);
         when(mockConnection.prepareStatement(PlainJacksonJdbcProcessor.SQL)).thenReturn(mockPs);
+        p.setConnection(mockConnection);
+
+        // Run process
+        p.process();
 
+        // Same batching, inserting instead of merging on id
+        verify(mockConnection, times(1)).prepareStatement(PlainJacksonJdbcProcessor.SQL);
+        verify(mockConnection, never()).prepareStatement(PlainJacksonJdbcProcessor.UPSERT_SQL);
+        verify(mockPs, times(3)).addBatch();
+        verify(mockPs, times(1)).executeBatch();
+    }
+
+    @Test
+    public void testProcessRepeatedIds() throws Exception {
+        File repeated = Files.createTempFile("repeated", ".json").toFile();
+        repeated.deleteOnExit();
+        Files.write(repeated.toPath(), ("{\"id\":\"a\", \"state\":\"STARTED\", \"timestamp\":1}\n"
+                + "{\"id\":\"a\", \"state\":\"FINISHED\", \"timestamp\":3}\n"
+                + "{\"id\":\"b\", \"state\":\"STARTED\", \"timestamp\":4}\n"
+                + "{\"id\":\"b\", \"state\":\"FINISHED\", \"timestamp\":5}\n"
+                + "{\"id\":\"a\", \"state\":\"STARTED\", \"timestamp\":6}\n"
+                + "{\"id\":\"a\", \"state\":\"FINISHED\", \"timestamp\":13}\n").getBytes());
+        // Only the DB differs from the shipped properties
+        Properties overrides = new Properties();
+        overrides.setProperty("spring.datasource.url", "jdbc:hsqldb:mem:repeatedIds");
+
+        // An id completing twice in one file, then the whole file again
+        for (int run = 0; run < 2; run++) {
+            PlainJacksonJdbcProcessor p = new PlainJacksonJdbcProcessor(repeated, overrides);
+            p.process();
+            assertEquals(3, p.getMetrics().getRowsWritten());
+            p.close();
+        }
+
+        // One row per id, the last pair of a winning
+        try (Connection c = DriverManager.getConnection("jdbc:hsqldb:mem:repeatedIds", "SA", "");
+             Statement s = c.createStatement();
+             ResultSet rs = s.executeQuery("SELECT id, duration FROM LOGENTRY ORDER BY id")) {
+            assertTrue(rs.next());
+            assertEquals("a", rs.getString(1));
+            assertEquals(7, rs.getLong(2));
+            assertTrue(rs.next());
+            assertEquals("b", rs.getString(1));
+            assertFalse(rs.next());
+        }
+    }
+
+    @Test
+    public void testProcessPartitioned() throws Exception {
+        PlainJacksonJdbcProcessor p = new PlainJacksonJdbcProcessor(new File(this.getClass().getClassLoader().getResource("test.json" ).toURI()));
+        p.prop.setProperty("db.partition", "day");
+        try (Connection c = DriverManager.getConnection("jdbc:hsqldb:mem:partitioned", "SA", "")) {
+            LogEntrySchema.ensure(c);
+            p.setConnection(c);
+
+            p.process();
+
+            // Rows go to the bucket of the day they started, with their start and end time
+            assertEquals(Collections.singletonList("LOGENTRY_20170405"), p.partitions().tables());
+            try (Statement s = c.createStatement();
+                 ResultSet rs = s.executeQuery("SELECT start_time, end_time, duration FROM " + LogEntryPartitions.VIEW + " WHERE id = 'scsmbstgrc'")) {
+                assertTrue(rs.next());
+                assertEquals(1491377495210L, rs.getLong(1));
+                assertEquals(1491377495218L, rs.getLong(2));
+                assertEquals(8, rs.getLong(3));
+                assertFalse(rs.next());
+            }
+
+            // Retention drops the whole bucket
+            p.prop.setProperty("db.retention.ms", String.valueOf(24 * 3600000L));
+            assertEquals(1, p.retain());
+            assertTrue(p.partitions().tables().isEmpty());
+        }
+    }
+
+    @Test
+    public void testProcessFiles() throws Exception {
+        // The same input twice: each pair completes in both, and nothing spans the two
+        File test = new File(this.getClass().getClassLoader().getResource("test.json" ).toURI());
+        File dir = Files.createTempDirectory("files").toFile();
+        File copy = new File(dir, "test-2.json");
+        Files.copy(test.toPath(), copy.toPath());
+        PlainJacksonJdbcProcessor p = new PlainJacksonJdbcProcessor(test);
+        p.setFiles(PlainJacksonJdbcProcessor.inputFiles(test.getPath(), dir.getPath()));
+        p.prop.setProperty("files.threads", "2");
+        // The copy repeats every id, which would otherwise be ignored as already written
+        p.prop.setProperty("dedup.completed", "false");
+        Connection mockConnection = mock(Connection.class);
+        PreparedStatement mockPs = mock(PreparedStatement.class);
+        when(mockConnection.prepareStatement(PlainJacksonJdbcProcessor.UPSERT_SQL)).thenReturn(mockPs);
         p.setConnection(mockConnection);
 
         // Run process
         p.process();
 
-        verify(mockConnection, times(3)).prepareStatement(PlainJacksonJdbcProcessor.SQL);
+        // Both files through one writer
+        verify(mockConnection, times(1)).prepareStatement(PlainJacksonJdbcProcessor.UPSERT_SQL);
+        verify(mockPs, times(6)).addBatch();
+        assertEquals(6, p.getStats().total().getCount());
+        assertEquals(0, p.getStore().size());
+        copy.delete();
+        dir.delete();
+    }
+
+    @Test
+    public void testProcessCompressed() throws Exception {
+        File test = new File(this.getClass().getClassLoader().getResource("test.json" ).toURI());
+        File gz = Files.createTempFile("test", ".json.gz").toFile();
+        try (OutputStream out = new BlockGzipOutputStream(new FileOutputStream(gz))) {
+            Files.copy(test.toPath(), out);
+        }
+        PlainJacksonJdbcProcessor p = new PlainJacksonJdbcProcessor(gz);
+        // Compressed files are not split but streamed
+        p.prop.setProperty("split.threads", "4");
+        p.prop.setProperty("input.decompress.threads", "2");
+        Connection mockConnection = mock(Connection.class);
+        PreparedStatement mockPs = mock(PreparedStatement.class);
+        when(mockConnection.prepareStatement(PlainJacksonJdbcProcessor.UPSERT_SQL)).thenReturn(mockPs);
+        p.setConnection(mockConnection);
+
+        // Run process
+        p.process();
+        gz.delete();
+
+        verify(mockPs, times(3)).addBatch();
+        assertEquals(0, p.getStore().size());
+    }
+
+    @Test
+    public void testProcessSmile() throws Exception {
+        File test = new File(this.getClass().getClassLoader().getResource("test.json" ).toURI());
+        File smile = Files.createTempFile("test", ".bin").toFile();
+        LogConverter.convert(test, smile, InputFormat.SMILE);
+        PlainJacksonJdbcProcessor p = new PlainJacksonJdbcProcessor(smile);
+        // Detected by its header, and streamed rather than split
+        p.prop.setProperty("split.threads", "4");
+        Connection mockConnection = mock(Connection.class);
+        PreparedStatement mockPs = mock(PreparedStatement.class);
+        when(mockConnection.prepareStatement(PlainJacksonJdbcProcessor.UPSERT_SQL)).thenReturn(mockPs);
+        p.setConnection(mockConnection);
+
+        // Run process
+        p.process();
+        smile.delete();
+
+        verify(mockPs, times(3)).addBatch();
+        assertEquals(0, p.getStore().size());
+    }
+
+    @Test
+    public void testProcessPipeline() throws Exception {
+        PlainJacksonJdbcProcessor p = new PlainJacksonJdbcProcessor(new File(this.getClass().getClassLoader().getResource("test.json" ).toURI()));
+        p.prop.setProperty("pipeline.correlators", "3");
+        p.prop.setProperty("pipeline.writers", "2");
+        Connection mockConnection = mock(Connection.class);
+        PreparedStatement mockPs = mock(PreparedStatement.class);
+        when(mockConnection.prepareStatement(PlainJacksonJdbcProcessor.UPSERT_SQL)).thenReturn(mockPs);
+        p.setConnection(mockConnection);
+
+        // Run process
+        p.process();
+
+        // Same result as the single threaded path
+        verify(mockConnection, times(1)).prepareStatement(PlainJacksonJdbcProcessor.UPSERT_SQL);
+        verify(mockPs, times(3)).addBatch();
+        assertEquals(0, p.getStore().size());
+    }
+
+    @Test
+    public void testProcessWriters() throws Exception {
+        PlainJacksonJdbcProcessor p = new PlainJacksonJdbcProcessor(new File(this.getClass().getClassLoader().getResource("test.json" ).toURI()));
+        p.prop.setProperty("jdbc.writers", "3");
+        DataSource mockDataSource = mock(DataSource.class);
+        Connection mockConnection = mock(Connection.class);
+        PreparedStatement mockPs = mock(PreparedStatement.class);
+        when(mockDataSource.getConnection()).thenReturn(mockConnection);
+        when(mockConnection.prepareStatement(PlainJacksonJdbcProcessor.UPSERT_SQL)).thenReturn(mockPs);
+        p.setDataSource(mockDataSource);
+
+        // Run process
+        p.process();
+
+        // One connection and statement per writer thread, every row committed by the end of process
+        verify(mockDataSource, times(3)).getConnection();
+        verify(mockConnection, times(3)).prepareStatement(PlainJacksonJdbcProcessor.UPSERT_SQL);
+        verify(mockPs, times(3)).addBatch();
+        assertEquals(3, p.writerPool.getWritten());
+        p.close();
+        verify(mockConnection, times(3)).close();
+    }
+
+    @Test
+    public void testProcessColumnar() throws Exception {
+        PlainJacksonJdbcProcessor p = new PlainJacksonJdbcProcessor(new File(this.getClass().getClassLoader().getResource("test.json" ).toURI()));
+        File out = Files.createTempFile("test", ".col").toFile();
+        p.prop.setProperty("sink.type", "columnar");
+        p.prop.setProperty("sink.columnar.file", out.getPath());
+        Connection mockConnection = mock(Connection.class);
+        p.setConnection(mockConnection);
+
+        // Run process
+        p.process();
+        p.close();
+
+        // Nothing goes to the DB
+        verify(mockConnection, never()).prepareStatement(anyString());
+        List<LogEntry> written = new ArrayList<>();
+        try (ColumnarReader reader = new ColumnarReader(out)) {
+            reader.forEach(written::add);
+        }
+        out.delete();
+        assertEquals(3, written.size());
+        assertEquals("scsmbstgra", written.get(0).getId());
+        assertEquals(5, written.get(0).getDuration());
+        assertTrue(written.get(0).isAlert());
+    }
+
+    @Test
+    public void testProcessSpawnedWorkers() throws Exception {
+        File dir = Files.createTempDirectory("cluster").toFile();
+        File input = new File(dir, "test.json");
+        Files.copy(new File(this.getClass().getClassLoader().getResource("test.json" ).toURI()).toPath(), input.toPath());
+        Files.write(input.toPath(), "{\"id\":\"orphan\", \"state\":\"STARTED\", \"timestamp\":1491377495220}\n".getBytes(),
+                StandardOpenOption.APPEND);
+        PlainJacksonJdbcProcessor p = new PlainJacksonJdbcProcessor(input);
+        p.prop.setProperty("cluster.spawn", "2");
+        p.prop.setProperty("cluster.worker.datasource.url", "jdbc:hsqldb:mem:shard{shard}");
+        p.prop.setProperty("sink.type", "columnar");
+        Connection mockConnection = mock(Connection.class);
+        p.setConnection(mockConnection);
+
+        // Run process, each worker JVM writes its shard's pairs to its own columnar file
+        p.process();
+        p.close();
+
+        verify(mockConnection, never()).prepareStatement(anyString());
+        Map<String, Long> written = new HashMap<>();
+        for (int shard = 0; shard < 2; shard++) {
+            File out = new File(input.getPath() + ".shard" + shard + ".col");
+            if (!out.exists())
+                continue;
+            int s = shard;
+            try (ColumnarReader reader = new ColumnarReader(out)) {
+                reader.forEach(e -> {
+                    assertEquals(s, ShardCoordinator.shard(e.getId(), 2));
+                    written.put(e.getId(), e.getDuration());
+                });
+            }
+        }
+        assertEquals(3, written.size());
+        assertEquals(5, (long) written.get("scsmbstgra"));
+        assertEquals(8, (long) written.get("scsmbstgrc"));
+        // The orphan comes back from its worker to be reported here
+        assertEquals(1, p.getStore().size());
+        assertEquals(LogEntry.State.STARTED, p.getStore().get("orphan").getState());
+        for (File f : dir.listFiles())
+            f.delete();
+        dir.delete();
+    }
+
+    @Test
+    public void testProcessSplit() throws Exception {
+        PlainJacksonJdbcProcessor p = new PlainJacksonJdbcProcessor(new File(this.getClass().getClassLoader().getResource("test.json" ).toURI()));
+        p.prop.setProperty("split.threads", "4");
+        Connection mockConnection = mock(Connection.class);
+        PreparedStatement mockPs = mock(PreparedStatement.class);
+        when(mockConnection.prepareStatement(PlainJacksonJdbcProcessor.UPSERT_SQL)).thenReturn(mockPs);
+        p.setConnection(mockConnection);
+
+        // Run process
+        p.process();
+
+        // Pairs straddling ranges are reconciled in the merge
+        verify(mockPs, times(3)).addBatch();
+        assertEquals(0, p.getStore().size());
+    }
+
+    @Test
+    public void testProcessSpill() throws Exception {
+        PlainJacksonJdbcProcessor p = new PlainJacksonJdbcProcessor(new File(this.getClass().getClassLoader().getResource("test.json" ).toURI()));
+        // Every pending entry goes to disk
+        p.correlator = new EventCorrelator(new SpillingPendingStore(1, null));
+        Connection mockConnection = mock(Connection.class);
+        PreparedStatement mockPs = mock(PreparedStatement.class);
+        when(mockConnection.prepareStatement(PlainJacksonJdbcProcessor.UPSERT_SQL)).thenReturn(mockPs);
+        p.setConnection(mockConnection);
+
+        // Run process
+        p.process();
+
+        verify(mockPs, times(3)).addBatch();
+        assertEquals(0, p.getStore().size());
+    }
+
+    @Test
+    public void testProcessDatabind() throws Exception {
+        PlainJacksonJdbcProcessor p = new PlainJacksonJdbcProcessor(new File(this.getClass().getClassLoader().getResource("duplicate.json" ).toURI()));
+        p.prop.setProperty("parser.mode", "databind");
+        Connection mockConnection = mock(Connection.class);
+        PreparedStatement mockPs = mock(PreparedStatement.class);
+        when(mockConnection.prepareStatement(PlainJacksonJdbcProcessor.UPSERT_SQL)).thenReturn(mockPs);
+        p.setConnection(mockConnection);
+
+        // Run process
+        p.process();
+
+        verify(mockPs, times(1)).addBatch();
     }
 
     @Test
@@ -33,13 +375,62 @@ public class PlainJacksonJdbcProcessorTest {
         PlainJacksonJdbcProcessor p = new PlainJacksonJdbcProcessor(new File(this.getClass().getClassLoader().getResource("duplicate.json" ).toURI()));
         Connection mockConnection = mock(Connection.class);
         PreparedStatement mockPs = mock(PreparedStatement.class);
-        when(mockConnection.prepareStatement(PlainJacksonJdbcProcessor.SQL)).thenReturn(mockPs);
+        when(mockConnection.prepareStatement(PlainJacksonJdbcProcessor.UPSERT_SQL)).thenReturn(mockPs);
         p.setConnection(mockConnection);
 
         // Run process
         p.process();
 
-        verify(mockConnection, times(1)).prepareStatement(PlainJacksonJdbcProcessor.SQL);
+        verify(mockConnection, times(1)).prepareStatement(PlainJacksonJdbcProcessor.UPSERT_SQL);
+        verify(mockPs, times(1)).addBatch();
+    }
+
+    @Test
+    public void testProcessDedupCompleted() throws Exception {
+        File late = Files.createTempFile("late", ".json").toFile();
+        late.deleteOnExit();
+        Files.write(late.toPath(), ("{\"id\":\"a\", \"state\":\"STARTED\", \"timestamp\":1}\n"
+                + "{\"id\":\"a\", \"state\":\"FINISHED\", \"timestamp\":3}\n"
+                + "{\"id\":\"a\", \"state\":\"FINISHED\", \"timestamp\":4}\n").getBytes());
+        Properties overrides = new Properties();
+        overrides.setProperty("spring.datasource.url", "jdbc:hsqldb:mem:dedupCompleted");
+        overrides.setProperty("dedup.completed", "true");
+        // Committed per row, so the confirming lookup sees it
+        overrides.setProperty("jdbc.batch.size", "1");
+        PlainJacksonJdbcProcessor p = new PlainJacksonJdbcProcessor(late, overrides);
+
+        p.process();
+
+        // The late event is confirmed against LOGENTRY and ignored rather than left pending
+        assertEquals(1, p.getMetrics().getRowsWritten());
+        assertEquals(1, p.getMetrics().getDuplicatesIgnored());
+        assertEquals(0, p.getStore().size());
+        assertEquals(1, p.completedIds().getHits());
+        assertEquals(0, p.completedIds().getFalsePositives());
+        p.close();
+    }
+
+    @Test
+    public void testProcessMetrics() throws Exception {
+        File duplicate = new File(this.getClass().getClassLoader().getResource("duplicate.json" ).toURI());
+        PlainJacksonJdbcProcessor p = new PlainJacksonJdbcProcessor(duplicate);
+        Connection mockConnection = mock(Connection.class);
+        PreparedStatement mockPs = mock(PreparedStatement.class);
+        when(mockConnection.prepareStatement(PlainJacksonJdbcProcessor.UPSERT_SQL)).thenReturn(mockPs);
+        p.setConnection(mockConnection);
+
+        // Run process
+        p.process();
+
+        IngestMetrics metrics = p.getMetrics();
+        assertEquals(3, metrics.getRecordsParsed());
+        assertEquals(duplicate.length(), metrics.getBytesRead());
+        assertEquals(1, metrics.getDuplicatesIgnored());
+        assertEquals(1, metrics.getPairsCompleted());
+        assertEquals(1, metrics.getRowsWritten());
+        assertEquals(1, metrics.getBatchesWritten());
+        assertEquals(0, metrics.getPendingEntries());
+        p.close();
     }
 
     @Test
@@ -58,7 +449,7 @@ public class PlainJacksonJdbcProcessorTest {
         PlainJacksonJdbcProcessor p = new PlainJacksonJdbcProcessor(null);
         Connection mockConnection = mock(Connection.class);
         PreparedStatement mockPs = mock(PreparedStatement.class);
-        when(mockConnection.prepareStatement(PlainJacksonJdbcProcessor.SQL)).thenReturn(mockPs);
+        when(mockConnection.prepareStatement(PlainJacksonJdbcProcessor.UPSERT_SQL)).thenReturn(mockPs);
         p.setConnection(mockConnection);
 
         ArgumentCaptor<LogEntry> logEntryArg = ArgumentCaptor.forClass(LogEntry.class);
@@ -86,8 +477,12 @@ public class PlainJacksonJdbcProcessorTest {
         //Verify store empty
         assertEquals(0, p.getStore().size());
 
-        //Verify executeUpdate called
-        verify(mockPs).executeUpdate();
+        //Verify row batched, and executed on close
+        verify(mockPs).addBatch();
+        verify(mockPs, never()).executeBatch();
+        p.close();
+        verify(mockPs).executeBatch();
+        verify(mockConnection).commit();
 
     }
 }
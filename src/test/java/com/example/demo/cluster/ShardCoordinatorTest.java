@@ -0,0 +1,199 @@
+package com.example.demo.cluster;
+
+import com.example.demo.EventCorrelator;
+import com.example.demo.model.LogEntry;
+import com.example.demo.store.MemoryPendingStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ShardCoordinatorTest {
+
+    private final List<ServerSocket> servers = new ArrayList<>();
+    private final List<Thread> workers = new ArrayList<>();
+
+    @AfterEach
+    public void stopWorkers() throws Exception {
+        for (ServerSocket server : servers)
+            server.close();
+        for (Thread worker : workers)
+            worker.join(10000);
+    }
+
+    /**
+     * Random events with out of order pairs, duplicates and orphans
+     */
+    private List<LogEntry> events(int ids, long seed) {
+        Random random = new Random(seed);
+        List<LogEntry> events = new ArrayList<>();
+        for (int i = 0; i < ids; i++) {
+            long start = random.nextInt(1000000);
+            String type = random.nextBoolean() ? "APP" : null;
+            events.add(LogEntry.builder().id("id" + i).state(LogEntry.State.STARTED).type(type).host("h" + i % 3).timestamp(start).build());
+            if (random.nextInt(10) > 0)
+                events.add(LogEntry.builder().id("id" + i).state(LogEntry.State.FINISHED).type(type).host("h" + i % 3).timestamp(start + random.nextInt(10)).build());
+            if (random.nextInt(10) == 0)
+                events.add(LogEntry.builder().id("id" + i).state(LogEntry.State.STARTED).timestamp(start + 1).build());
+        }
+        Collections.shuffle(events, random);
+        return events;
+    }
+
+    /**
+     * Starts a worker thread serving one connection on a free port
+     * @param sink receives the completed entries
+     * @param failAfter records after which the sink throws, or -1
+     */
+    private InetSocketAddress worker(Map<String, LogEntry> sink, int failAfter) throws IOException {
+        ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        servers.add(server);
+        ShardWorker worker = new ShardWorker(new EventCorrelator(new MemoryPendingStore()), e -> {
+            if (sink.size() == failAfter)
+                throw new IOException("Disk full");
+            assertNull(sink.put(e.getId(), e));
+        }, () -> { });
+        worker.setProgressIntervalMs(0);
+        Thread thread = new Thread(() -> {
+            try (Socket socket = server.accept()) {
+                worker.serve(socket);
+            } catch (IOException e) {
+                // Reported to the coordinator
+            }
+        });
+        thread.start();
+        workers.add(thread);
+        return new InetSocketAddress(server.getInetAddress(), server.getLocalPort());
+    }
+
+    @Test
+    public void testFramesRoundTrip() throws Exception {
+        List<LogEntry> entries = new ArrayList<>();
+        entries.add(LogEntry.builder().id("a").state(LogEntry.State.STARTED).type("APP").host("h1").timestamp(1491377495212L).build());
+        entries.add(LogEntry.builder().id("a").state(LogEntry.State.FINISHED).type("APP").host("h1").timestamp(1491377495217L).build());
+        entries.add(LogEntry.builder().id("bé").state(LogEntry.State.FINISHED).timestamp(1491377495100L).build());
+        entries.add(LogEntry.builder().id("c").state(LogEntry.State.STARTED).host("h2").timestamp(-5).build());
+        ShardReport report = new ShardReport();
+        report.setRecords(4);
+        report.setCompleted(1);
+        report.setTimeouts(300);
+        report.setOrphans(2);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        FrameWriter writer = new FrameWriter(bytes);
+        writer.hello(1, 3);
+        for (LogEntry entry : entries)
+            writer.entry(Frames.ENTRY, entry);
+        writer.progress(4, 1, 2);
+        writer.report(report);
+        writer.error("failed");
+        writer.end();
+        writer.flush();
+
+        FrameReader reader = new FrameReader(new ByteArrayInputStream(bytes.toByteArray()));
+        assertArrayEquals(new int[]{1, 3}, reader.hello());
+        for (LogEntry entry : entries) {
+            assertEquals(Frames.ENTRY, reader.next());
+            assertEquals(entry, reader.entry());
+        }
+        assertEquals(Frames.PROGRESS, reader.next());
+        assertArrayEquals(new long[]{4, 1, 2}, reader.progress());
+        assertEquals(Frames.REPORT, reader.next());
+        assertEquals(report, reader.report());
+        assertEquals(Frames.ERROR, reader.next());
+        assertEquals("failed", reader.error());
+        assertEquals(Frames.END, reader.next());
+        assertEquals(-1, reader.next());
+        // Repeated type and host values are sent once
+        assertTrue(bytes.size() < 80, "frames took " + bytes.size() + " bytes");
+    }
+
+    @Test
+    public void testRejectsOtherProtocol() {
+        FrameReader reader = new FrameReader(new ByteArrayInputStream("{\"id\":\"a\"}".getBytes()));
+        assertThrows(IOException.class, reader::hello);
+    }
+
+    @Test
+    public void testMatchesSingleWorker() throws Exception {
+        List<LogEntry> events = events(5000, 42);
+
+        EventCorrelator correlator = new EventCorrelator();
+        Map<String, Long> expected = new HashMap<>();
+        for (LogEntry e : events) {
+            LogEntry completed = correlator.correlate(LogEntry.builder().id(e.getId()).state(e.getState()).timestamp(e.getTimestamp()).build());
+            if (completed != null)
+                expected.put(completed.getId(), completed.getDuration());
+        }
+
+        List<Map<String, LogEntry>> sinks = new ArrayList<>();
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            sinks.add(new ConcurrentHashMap<>());
+            addresses.add(worker(sinks.get(i), -1));
+        }
+        MemoryPendingStore orphans = new MemoryPendingStore();
+        ShardReport report;
+        try (ShardCoordinator coordinator = new ShardCoordinator(addresses, orphans)) {
+            coordinator.setProgressIntervalMs(0);
+            for (LogEntry e : events)
+                coordinator.submit(e);
+            report = coordinator.finish();
+        }
+
+        Map<String, Long> actual = new HashMap<>();
+        for (int shard = 0; shard < sinks.size(); shard++) {
+            assertFalse(sinks.get(shard).isEmpty());
+            for (LogEntry e : sinks.get(shard).values()) {
+                // Each id is written by the worker owning it
+                assertEquals(shard, ShardCoordinator.shard(e.getId(), sinks.size()));
+                actual.put(e.getId(), e.getDuration());
+            }
+        }
+        assertEquals(expected, actual);
+        assertEquals(correlator.getStore().size(), orphans.size());
+        assertEquals(events.size(), report.getRecords());
+        assertEquals(expected.size(), report.getCompleted());
+        assertEquals(orphans.size(), report.getOrphans());
+        for (LogEntry orphan : orphans.values())
+            assertEquals(orphan.getState(), correlator.getStore().get(orphan.getId()).getState());
+    }
+
+    @Test
+    public void testWorkerFailure() throws Exception {
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        addresses.add(worker(new ConcurrentHashMap<>(), -1));
+        addresses.add(worker(new ConcurrentHashMap<>(), 10));
+        try (ShardCoordinator coordinator = new ShardCoordinator(addresses, new MemoryPendingStore())) {
+            IOException e = assertThrows(IOException.class, () -> {
+                for (LogEntry event : events(1000, 7))
+                    coordinator.submit(event);
+                coordinator.finish();
+            });
+            assertTrue(e.getMessage().contains("Disk full"), e.getMessage());
+        }
+    }
+
+    @Test
+    public void testUnreachableWorker() throws Exception {
+        ServerSocket closed = new ServerSocket(0);
+        closed.close();
+        assertThrows(IOException.class, () -> new ShardCoordinator(
+                Collections.singletonList(new InetSocketAddress("127.0.0.1", closed.getLocalPort())), new MemoryPendingStore()));
+    }
+}
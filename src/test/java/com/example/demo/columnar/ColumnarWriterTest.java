@@ -0,0 +1,132 @@
+package com.example.demo.columnar;
+
+import com.example.demo.model.LogEntry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ColumnarWriterTest {
+
+    private File file;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        file = Files.createTempFile("logentry", ".col").toFile();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        file.delete();
+    }
+
+    private static LogEntry entry(String id, String type, String host, long duration) {
+        LogEntry e = LogEntry.builder().id(id).state(LogEntry.State.FINISHED).type(type).host(host).build();
+        e.setDuration(duration);
+        return e;
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        List<LogEntry> expected = new ArrayList<>();
+        expected.add(entry("scsmbstgra", "APPLICATION_LOG", "12345", 5));
+        expected.add(entry("scsmbstgrb", null, null, 3));
+        expected.add(entry("scsmbstgrc", "APPLICATION_LOG", "12346", 8));
+        expected.add(entry("ünïcode", "SYSTEM_LOG", "12345", 0));
+        try (ColumnarWriter writer = new ColumnarWriter(file, 3)) {
+            for (LogEntry e : expected)
+                writer.write(e);
+            assertEquals(1, writer.getBlocks());
+        }
+
+        List<LogEntry> read = new ArrayList<>();
+        try (ColumnarReader reader = new ColumnarReader(file)) {
+            reader.forEach(read::add);
+        }
+        assertEquals(expected.size(), read.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getId(), read.get(i).getId());
+            assertEquals(expected.get(i).getType(), read.get(i).getType());
+            assertEquals(expected.get(i).getHost(), read.get(i).getHost());
+            assertEquals(expected.get(i).getDuration(), read.get(i).getDuration());
+            assertEquals(expected.get(i).isAlert(), read.get(i).isAlert());
+        }
+    }
+
+    @Test
+    public void testBlockStats() throws Exception {
+        try (ColumnarWriter writer = new ColumnarWriter(file, 100)) {
+            for (int i = 0; i < 250; i++)
+                writer.write(entry("id" + i, i < 100 ? "APPLICATION_LOG" : "SYSTEM_LOG", "host" + (i % 300), i));
+        }
+
+        List<long[]> stats = new ArrayList<>();
+        List<Integer> applicationLogRows = new ArrayList<>();
+        try (ColumnarReader reader = new ColumnarReader(file)) {
+            reader.forEachBlock(block -> {
+                stats.add(new long[]{block.getRows(), block.getMinDuration(), block.getMaxDuration(), block.getAlertCount()});
+                int code = block.typeCode("APPLICATION_LOG");
+                if (code < 0)
+                    return; // Skipped on the dictionary alone
+                int count = 0;
+                for (int row = 0; row < block.getRows(); row++)
+                    if (block.typeCodeAt(row) == code)
+                        count++;
+                applicationLogRows.add(count);
+            });
+        }
+        assertEquals(3, stats.size());
+        assertArrayEquals(new long[]{100, 0, 99, 95}, stats.get(0));
+        assertArrayEquals(new long[]{100, 100, 199, 100}, stats.get(1));
+        assertArrayEquals(new long[]{50, 200, 249, 50}, stats.get(2));
+        assertEquals(1, applicationLogRows.size());
+        assertEquals(100, applicationLogRows.get(0).intValue());
+    }
+
+    @Test
+    public void testWideDictionary() throws Exception {
+        // More hosts than fit a one byte code
+        try (ColumnarWriter writer = new ColumnarWriter(file, 1000)) {
+            for (int i = 0; i < 1000; i++)
+                writer.write(entry("id" + i, "APPLICATION_LOG", "host" + i, 1000 - i));
+        }
+        try (ColumnarReader reader = new ColumnarReader(file)) {
+            reader.forEachBlock(block -> {
+                assertEquals(1000, block.getHosts().size());
+                assertEquals("host999", block.hostAt(999));
+                assertEquals(1000, block.hostCode("host999"));
+                assertEquals(1, block.durations()[999]);
+                assertEquals("id500", block.ids()[500]);
+            });
+        }
+    }
+
+    @Test
+    public void testFlushWritesPartialBlock() throws Exception {
+        ColumnarWriter writer = new ColumnarWriter(file);
+        writer.write(entry("a", "APPLICATION_LOG", "12345", 2));
+        writer.flush();
+        List<LogEntry> read = new ArrayList<>();
+        try (ColumnarReader reader = new ColumnarReader(file)) {
+            reader.forEach(read::add);
+        }
+        assertEquals(1, read.size());
+        writer.write(entry("b", "APPLICATION_LOG", "12345", 2));
+        writer.close();
+        assertEquals(2, writer.getBlocks());
+        assertEquals(2, writer.getWritten());
+    }
+
+    @Test
+    public void testNotColumnar() throws Exception {
+        Files.write(file.toPath(), "{\"id\":\"a\"}".getBytes());
+        assertThrows(IOException.class, () -> new ColumnarReader(file));
+    }
+}
@@ -0,0 +1,182 @@
+package com.example.demo.follow;
+
+import com.example.demo.EventCorrelator;
+import com.example.demo.model.LogEntry;
+import com.example.demo.parse.LogEntryReader;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FileFollowerTest {
+
+    private File dir;
+    private File log;
+    private File checkpoint;
+    private List<LogEntry> written;
+    private int flushes;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("follow").toFile();
+        log = new File(dir, "app.log");
+        checkpoint = new File(dir, "app.log.checkpoint");
+        written = new CopyOnWriteArrayList<>();
+        flushes = 0;
+    }
+
+    @AfterEach
+    public void tearDown() {
+        for (File f : dir.listFiles())
+            f.delete();
+        dir.delete();
+    }
+
+    private FileFollower follower(EventCorrelator correlator) {
+        return new FileFollower(log, checkpoint, LogEntryReader.factory(LogEntryReader.STREAMING), correlator,
+                written::add, () -> flushes++);
+    }
+
+    private void append(File file, String s) throws IOException {
+        try (OutputStream out = new FileOutputStream(file, true)) {
+            out.write(s.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static String record(String id, String state, long timestamp) {
+        return "{\"id\":\"" + id + "\", \"state\":\"" + state + "\", \"timestamp\":" + timestamp + "}\n";
+    }
+
+    @Test
+    public void testPartialObjectsWaitForTheRest() throws Exception {
+        FileFollower follower = follower(new EventCorrelator());
+        assertFalse(follower.poll());
+
+        String started = record("a", "STARTED", 1);
+        String finished = record("a", "FINISHED", 6);
+        append(log, started + finished.substring(0, 10));
+        assertTrue(follower.poll());
+        assertTrue(written.isEmpty());
+        // Up to the end of the last complete object, the newline after it is left for the next poll
+        assertEquals(started.length() - 1, follower.getOffset());
+
+        append(log, finished.substring(10));
+        assertTrue(follower.poll());
+        assertEquals(1, written.size());
+        assertEquals(5, written.get(0).getDuration());
+        assertEquals(log.length() - 1, follower.getOffset());
+    }
+
+    @Test
+    public void testBracesInStrings() throws Exception {
+        FileFollower follower = follower(new EventCorrelator());
+        append(log, "{\"id\":\"a}{\\\"\", \"state\":\"STARTED\", \"timestamp\":1}"
+                + "{\"id\":\"a}{\\\"\", \"state\":\"FINISHED\", \"timestamp\":2}");
+        follower.poll();
+        assertEquals(1, written.size());
+        assertEquals("a}{\"", written.get(0).getId());
+    }
+
+    @Test
+    public void testStrayClosingBrace() throws Exception {
+        FileFollower follower = follower(new EventCorrelator());
+        append(log, "}\n" + record("a", "STARTED", 1) + "}}" + record("a", "FINISHED", 4));
+        follower.poll();
+        // The objects after the stray braces are still found
+        assertEquals(1, written.size());
+        assertEquals(3, written.get(0).getDuration());
+        assertEquals(log.length() - 1, follower.getOffset());
+    }
+
+    @Test
+    public void testResumeFromCheckpoint() throws Exception {
+        EventCorrelator correlator = new EventCorrelator();
+        FileFollower follower = follower(correlator);
+        append(log, record("a", "STARTED", 1) + record("b", "STARTED", 2) + record("a", "FINISHED", 3));
+        follower.poll();
+        follower.checkpoint();
+        assertEquals(1, flushes);
+        assertEquals(1, written.size());
+        long offset = follower.getOffset();
+
+        // Restart with a fresh store: b is restored, a is not read again
+        append(log, record("b", "FINISHED", 9));
+        written.clear();
+        EventCorrelator restarted = new EventCorrelator();
+        FileFollower resumed = follower(restarted);
+        resumed.resume();
+        assertEquals(1, restarted.getStore().size());
+        resumed.poll();
+        assertEquals(1, written.size());
+        assertEquals("b", written.get(0).getId());
+        assertEquals(7, written.get(0).getDuration());
+        assertEquals(offset + record("b", "FINISHED", 9).length(), resumed.getOffset());
+        assertEquals(0, restarted.getStore().size());
+    }
+
+    @Test
+    public void testRotation() throws Exception {
+        FileFollower follower = follower(new EventCorrelator());
+        append(log, record("a", "STARTED", 1));
+        follower.poll();
+
+        // Written to the old file after the last poll, then the file is moved away and a new one created
+        append(log, record("b", "STARTED", 2));
+        assertTrue(log.renameTo(new File(dir, "app.log.1")));
+        append(log, record("a", "FINISHED", 4) + record("b", "FINISHED", 5));
+
+        follower.poll(); // Rest of the old file
+        assertTrue(written.isEmpty());
+        follower.poll(); // Notices the rotation
+        follower.poll();
+        assertEquals(2, written.size());
+        assertEquals(log.length() - 1, follower.getOffset());
+    }
+
+    @Test
+    public void testTruncation() throws Exception {
+        FileFollower follower = follower(new EventCorrelator());
+        append(log, record("a", "STARTED", 1) + record("b", "STARTED", 2));
+        follower.poll();
+
+        Files.write(log.toPath(), new byte[0]);
+        append(log, record("a", "FINISHED", 4));
+        follower.poll();
+        follower.poll();
+        assertEquals(1, written.size());
+        assertEquals("a", written.get(0).getId());
+    }
+
+    @Test
+    public void testRunStops() throws Exception {
+        append(log, record("a", "STARTED", 1));
+        FileFollower follower = follower(new EventCorrelator());
+        Thread t = new Thread(() -> {
+            try {
+                follower.run(10, 60000);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        t.start();
+        append(log, record("a", "FINISHED", 2));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (written.isEmpty() && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertTrue(follower.stop(5000));
+        assertEquals(1, written.size());
+        // Final checkpoint on stop
+        assertEquals(log.length() - 1, Checkpoint.load(checkpoint).getOffset());
+        assertTrue(Checkpoint.load(checkpoint).getPending().isEmpty());
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.demo.parse;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class InputFilesTest {
+
+    private File file;
+    private byte[] data;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        file = Files.createTempFile("input", ".gz").toFile();
+        // About 20 blocks, part compressible text and part random bytes
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 20000; i++)
+            text.append("{\"id\":\"id").append(i).append("\", \"state\":\"STARTED\", \"timestamp\":").append(i).append("}\n");
+        byte[] random = new byte[300000];
+        new Random(1).nextBytes(random);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(text.toString().getBytes(StandardCharsets.UTF_8));
+        out.write(random);
+        data = out.toByteArray();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        file.delete();
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        try (InputStream closing = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[8192];
+            for (int n = closing.read(buf); n >= 0; n = closing.read(buf))
+                out.write(buf, 0, n);
+            return out.toByteArray();
+        }
+    }
+
+    private void writeBlockGzip() throws IOException {
+        try (OutputStream out = new BlockGzipOutputStream(new FileOutputStream(file))) {
+            out.write(data);
+        }
+    }
+
+    @Test
+    public void testBlockGzip() throws Exception {
+        writeBlockGzip();
+        assertTrue(InputFiles.isCompressed(file));
+        // Inflated in parallel, in sequence, and by any gzip reader
+        assertArrayEquals(data, readAll(InputFiles.open(file, 4)));
+        assertArrayEquals(data, readAll(InputFiles.open(file, 1)));
+        assertArrayEquals(data, readAll(new GZIPInputStream(new FileInputStream(file))));
+    }
+
+    @Test
+    public void testMultiMemberGzip() throws Exception {
+        try (OutputStream out = new FileOutputStream(file)) {
+            for (int off = 0; off < data.length; off += 100000) {
+                GZIPOutputStream member = new GZIPOutputStream(out);
+                member.write(data, off, Math.min(100000, data.length - off));
+                member.finish();
+            }
+        }
+        // No block sizes, so read in sequence whatever the thread count
+        assertArrayEquals(data, readAll(InputFiles.open(file, 4)));
+    }
+
+    @Test
+    public void testPlain() throws Exception {
+        Files.write(file.toPath(), data);
+        assertFalse(InputFiles.isCompressed(file));
+        assertArrayEquals(data, readAll(InputFiles.open(file, 4)));
+    }
+
+    @Test
+    public void testCorruptBlock() throws Exception {
+        writeBlockGzip();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(file.length() / 2);
+            int b = raf.read();
+            raf.seek(file.length() / 2);
+            raf.write(b ^ 0xff);
+        }
+        // The reader sees the decompressor's failure
+        assertThrows(IOException.class, () -> readAll(InputFiles.open(file, 4)));
+    }
+
+    @Test
+    public void testZstdRejected() throws Exception {
+        Files.write(file.toPath(), new byte[]{0x28, (byte) 0xb5, 0x2f, (byte) 0xfd, 0, 0, 0, 0});
+        IOException e = assertThrows(IOException.class, () -> InputFiles.open(file, 1));
+        assertTrue(e.getMessage().contains("zstd"));
+    }
+}
@@ -0,0 +1,92 @@
+package com.example.demo.parse;
+
+import com.example.demo.LogConverter;
+import com.example.demo.model.LogEntry;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class InputFormatTest {
+
+    private static final String JSON = "{\"id\":\"a\", \"state\":\"STARTED\", \"type\":\"APPLICATION_LOG\", \"host\":\"12345\", \"timestamp\":1}\n"
+            + "{\"id\":\"b\", \"state\":\"STARTED\", \"timestamp\":2}\n"
+            + "{\"id\":\"a\", \"state\":\"FINISHED\", \"type\":\"APPLICATION_LOG\", \"host\":\"12345\", \"timestamp\":5}\n";
+
+    private static byte[] encode(InputFormat format) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(3, LogConverter.convert(new ByteArrayInputStream(JSON.getBytes(StandardCharsets.UTF_8)),
+                InputFormat.JSON, out, format));
+        return out.toByteArray();
+    }
+
+    private static List<LogEntry> decode(InputStream in, InputFormat format, String mode) throws IOException {
+        List<LogEntry> entries = new ArrayList<>();
+        LogEntryReader reader = LogEntryReader.factory(mode).get();
+        try (JsonParser jp = format.createParser(in)) {
+            for (JsonToken token = jp.nextToken(); token != null; token = jp.nextToken())
+                entries.add(reader.read(jp));
+        }
+        return entries;
+    }
+
+    @Test
+    public void testDetect() throws IOException {
+        assertEquals(InputFormat.JSON, InputFormat.detect(JSON.getBytes(StandardCharsets.UTF_8), 3));
+        assertEquals(InputFormat.SMILE, InputFormat.detect(encode(InputFormat.SMILE), 3));
+        assertEquals(InputFormat.CBOR, InputFormat.detect(encode(InputFormat.CBOR), 3));
+        assertEquals(InputFormat.JSON, InputFormat.detect(new byte[0], 0));
+        assertEquals(InputFormat.SMILE, InputFormat.forFile(new File("logs.smile.gz"), InputFormat.AUTO));
+        assertEquals(InputFormat.AUTO, InputFormat.forFile(new File("logs.json"), InputFormat.AUTO));
+        assertEquals(InputFormat.JSON, InputFormat.forFile(new File("logs.cbor"), InputFormat.JSON));
+        assertThrows(IllegalArgumentException.class, () -> InputFormat.of("xml"));
+    }
+
+    @Test
+    public void testDecodeEveryFormat() throws IOException {
+        List<LogEntry> expected = decode(new ByteArrayInputStream(JSON.getBytes(StandardCharsets.UTF_8)), InputFormat.JSON,
+                LogEntryReader.STREAMING);
+        assertEquals(3, expected.size());
+        for (InputFormat format : new InputFormat[]{InputFormat.SMILE, InputFormat.CBOR}) {
+            byte[] data = encode(format);
+            assertTrue(data.length < JSON.length(), format + " " + data.length);
+            for (String mode : new String[]{LogEntryReader.STREAMING, LogEntryReader.DATABIND}) {
+                assertEquals(expected, decode(new ByteArrayInputStream(data), InputFormat.AUTO, mode), format + " " + mode);
+                assertEquals(expected, decode(new ByteArrayInputStream(data), format, mode), format + " " + mode);
+            }
+        }
+    }
+
+    @Test
+    public void testConvertFiles() throws IOException {
+        File json = Files.createTempFile("convert", ".json").toFile();
+        File cbor = Files.createTempFile("convert", ".cbor.gz").toFile();
+        File back = Files.createTempFile("convert", ".json").toFile();
+        try {
+            Files.write(json.toPath(), JSON.getBytes(StandardCharsets.UTF_8));
+            assertEquals(3, LogConverter.convert(json, cbor, InputFormat.CBOR));
+            assertTrue(InputFiles.isCompressed(cbor));
+            assertEquals(InputFormat.CBOR, InputFormat.resolve(cbor, InputFormat.AUTO));
+            assertEquals(3, LogConverter.convert(cbor, back, InputFormat.JSON));
+            assertEquals(InputFormat.JSON, InputFormat.resolve(back, InputFormat.AUTO));
+            try (InputStream a = Files.newInputStream(json.toPath()); InputStream b = Files.newInputStream(back.toPath())) {
+                assertEquals(decode(a, InputFormat.JSON, LogEntryReader.STREAMING), decode(b, InputFormat.JSON, LogEntryReader.STREAMING));
+            }
+        } finally {
+            json.delete();
+            cbor.delete();
+            back.delete();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.demo.parse;
+
+import com.example.demo.model.LogEntry;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LogEntryDecoderTest {
+
+    private List<LogEntry> readAll(JsonParser jp, LogEntryReader reader) throws IOException {
+        List<LogEntry> entries = new ArrayList<>();
+        for (JsonToken token = jp.nextToken(); token == JsonToken.START_OBJECT; token = jp.nextToken())
+            entries.add(reader.read(jp));
+        return entries;
+    }
+
+    private JsonParser parser(String resource) throws Exception {
+        File file = new File(this.getClass().getClassLoader().getResource(resource).toURI());
+        return new ObjectMapper().getFactory().createParser(file);
+    }
+
+    @Test
+    public void testMatchesDatabind() throws Exception {
+        for (String resource : new String[]{"test.json", "duplicate.json"}) {
+            List<LogEntry> expected = readAll(parser(resource), LogEntryReader.factory(LogEntryReader.DATABIND).get());
+            List<LogEntry> actual = readAll(parser(resource), new LogEntryDecoder());
+            assertEquals(expected, actual, resource);
+        }
+    }
+
+    @Test
+    public void testFields() throws Exception {
+        JsonParser jp = new ObjectMapper().getFactory().createParser(
+                "{\"id\":\"a\", \"state\":\"FINISHED\", \"extra\":{\"x\":[1,2]}, \"type\":\"APPLICATION_LOG\", \"host\":\"12345\", \"timestamp\":1491377495217}"
+                        + "{\"timestamp\":\"12\", \"id\":\"b\", \"state\":\"STARTED\", \"type\":\"APPLICATION_LOG\", \"host\":null}");
+        LogEntryDecoder decoder = new LogEntryDecoder();
+        List<LogEntry> entries = readAll(jp, decoder);
+
+        assertEquals(2, entries.size());
+        LogEntry a = entries.get(0);
+        assertEquals("a", a.getId());
+        assertEquals(LogEntry.State.FINISHED, a.getState());
+        assertEquals("12345", a.getHost());
+        assertEquals(1491377495217L, a.getTimestamp());
+        LogEntry b = entries.get(1);
+        assertEquals(LogEntry.State.STARTED, b.getState());
+        assertEquals(12, b.getTimestamp());
+        assertNull(b.getHost());
+        // Repeated values share one String
+        assertSame(a.getType(), b.getType());
+    }
+
+    @Test
+    public void testReusesHolder() throws Exception {
+        JsonParser jp = new ObjectMapper().getFactory().createParser(
+                "{\"id\":\"a\", \"state\":\"FINISHED\", \"timestamp\":5}");
+        jp.nextToken();
+        LogEntry holder = LogEntry.builder().id("old").state(LogEntry.State.STARTED).build();
+        holder.setDuration(10);
+
+        assertSame(holder, new LogEntryDecoder().read(jp, holder));
+        assertEquals("a", holder.getId());
+        assertEquals(LogEntry.State.FINISHED, holder.getState());
+        assertEquals(5, holder.getTimestamp());
+        assertEquals(0, holder.getDuration());
+        assertFalse(holder.isAlert());
+    }
+
+    @Test
+    public void testInvalidState() throws Exception {
+        JsonParser jp = new ObjectMapper().getFactory().createParser("{\"id\":\"a\", \"state\":\"PAUSED\"}");
+        jp.nextToken();
+        assertThrows(IOException.class, () -> new LogEntryDecoder().read(jp));
+
+        JsonParser missing = new ObjectMapper().getFactory().createParser("{\"id\":\"a\"}");
+        missing.nextToken();
+        assertThrows(IOException.class, () -> new LogEntryDecoder().read(missing));
+    }
+}
@@ -0,0 +1,60 @@
+package com.example.demo.parse;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RingBufferInputStreamTest {
+
+    @Test
+    public void testWrapsAround() throws Exception {
+        // Much more data than the ring holds, so the writer blocks and both ends wrap many times
+        byte[] data = new byte[100000];
+        for (int i = 0; i < data.length; i++)
+            data[i] = (byte) (i * 31);
+        RingBufferInputStream ring = new RingBufferInputStream(1000);
+        Thread producer = new Thread(() -> {
+            try {
+                for (int off = 0; off < data.length; off += 777)
+                    ring.write(data, off, Math.min(777, data.length - off));
+                ring.finish();
+            } catch (IOException e) {
+                ring.fail(e);
+            }
+        });
+        producer.start();
+        ByteArrayOutputStream read = new ByteArrayOutputStream();
+        assertEquals(data[0] & 0xff, ring.read());
+        read.write(data[0]);
+        byte[] buf = new byte[313];
+        for (int n = ring.read(buf, 0, buf.length); n >= 0; n = ring.read(buf, 0, buf.length))
+            read.write(buf, 0, n);
+        producer.join();
+        assertArrayEquals(data, read.toByteArray());
+        assertEquals(-1, ring.read());
+    }
+
+    @Test
+    public void testFailureAfterData() throws Exception {
+        RingBufferInputStream ring = new RingBufferInputStream(16);
+        ring.write(new byte[]{1, 2, 3}, 0, 3);
+        ring.fail(new IOException("broken"));
+        // What was written before the failure is still read
+        byte[] buf = new byte[8];
+        assertEquals(3, ring.read(buf, 0, buf.length));
+        IOException e = assertThrows(IOException.class, ring::read);
+        assertEquals("broken", e.getMessage());
+    }
+
+    @Test
+    public void testCloseStopsWriter() throws Exception {
+        RingBufferInputStream ring = new RingBufferInputStream(4);
+        ring.write(new byte[4], 0, 4);
+        ring.close();
+        // A full ring would block, closing fails the write instead
+        assertThrows(IOException.class, () -> ring.write(new byte[1], 0, 1));
+    }
+}
@@ -0,0 +1,138 @@
+package com.example.demo.pipeline;
+
+import com.example.demo.EventCorrelator;
+import com.example.demo.model.LogEntry;
+import com.example.demo.store.MemoryPendingStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MultiFileScannerTest {
+
+    private File dir;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("multi").toFile();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null)
+            for (File f : files)
+                f.delete();
+        dir.delete();
+    }
+
+    private File write(String name, List<LogEntry> events) throws IOException {
+        File file = new File(dir, name);
+        try (Writer w = new FileWriter(file)) {
+            for (LogEntry e : events)
+                w.write("{\"id\":\"" + e.getId() + "\", \"state\":\"" + e.getState() + "\", \"host\":\"h\", \"timestamp\":" + e.getTimestamp() + "}\n");
+        }
+        return file;
+    }
+
+    @Test
+    public void testExpand() throws Exception {
+        File a = write("app-1.json", new ArrayList<>());
+        File b = write("app-2.json", new ArrayList<>());
+        write("other.log", new ArrayList<>());
+        write(".hidden", new ArrayList<>());
+
+        assertEquals(3, MultiFileScanner.expand(dir.getPath()).size());
+        assertEquals(Arrays.asList(a, b), MultiFileScanner.expand(dir.getPath() + "/app-*.json"));
+        assertEquals(Arrays.asList(b), MultiFileScanner.expand(dir.getPath() + "/app-[2-9].json"));
+        assertEquals(Arrays.asList(a), MultiFileScanner.expand(a.getPath()));
+        assertTrue(MultiFileScanner.expand(dir.getPath() + "/missing.json").isEmpty());
+        assertTrue(MultiFileScanner.expand(dir.getPath() + "/missing/*.json").isEmpty());
+    }
+
+    @Test
+    public void testPairsAcrossFiles() throws Exception {
+        // A rotated log: the stream is cut into files of different sizes, so many pairs span two files
+        Random random = new Random(7);
+        List<LogEntry> events = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            long start = i * 10L;
+            events.add(LogEntry.builder().id("id" + i).state(LogEntry.State.STARTED).timestamp(start).build());
+            if (random.nextInt(20) > 0)
+                events.add(LogEntry.builder().id("id" + i).state(LogEntry.State.FINISHED).timestamp(start + random.nextInt(10)).build());
+        }
+        events.sort((x, y) -> Long.compare(x.getTimestamp(), y.getTimestamp()));
+        EventCorrelator correlator = new EventCorrelator();
+        Map<String, Long> expected = new HashMap<>();
+        for (LogEntry e : events) {
+            LogEntry copy = LogEntry.builder().id(e.getId()).state(e.getState()).timestamp(e.getTimestamp()).build();
+            LogEntry completed = correlator.correlate(copy);
+            if (completed != null)
+                expected.put(completed.getId(), completed.getDuration());
+        }
+        List<File> files = new ArrayList<>();
+        int from = 0;
+        for (int i = 0; from < events.size(); i++) {
+            int to = Math.min(events.size(), from + 1000 + random.nextInt(8000));
+            files.add(write("app-" + i + ".json", events.subList(from, to)));
+            from = to;
+        }
+
+        Map<String, Long> actual = new ConcurrentHashMap<>();
+        MemoryPendingStore pending = new MemoryPendingStore();
+        new MultiFileScanner(3).scan(files, e -> assertNull(actual.put(e.getId(), e.getDuration())), pending);
+
+        assertEquals(expected, actual);
+        assertEquals(correlator.getStore().keySet(), pending.keySet());
+    }
+
+    @Test
+    public void testTimeoutWithinEachFile() throws Exception {
+        File first = write("app-1.json", Arrays.asList(
+                LogEntry.builder().id("a").state(LogEntry.State.STARTED).timestamp(0).build(),
+                LogEntry.builder().id("b").state(LogEntry.State.STARTED).timestamp(10).build(),
+                LogEntry.builder().id("b").state(LogEntry.State.FINISHED).timestamp(20).build(),
+                LogEntry.builder().id("c").state(LogEntry.State.STARTED).timestamp(1000).build()));
+        // Its own watermark, so the later times of the first file do not time d out
+        File second = write("app-2.json", Arrays.asList(
+                LogEntry.builder().id("d").state(LogEntry.State.STARTED).timestamp(5).build(),
+                LogEntry.builder().id("d").state(LogEntry.State.FINISHED).timestamp(7).build()));
+
+        Map<String, LogEntry> written = new ConcurrentHashMap<>();
+        MemoryPendingStore pending = new MemoryPendingStore();
+        MultiFileScanner scanner = new MultiFileScanner(2);
+        scanner.setTimeoutMs(100);
+        scanner.scan(Arrays.asList(first, second), e -> assertNull(written.put(e.getId(), e)), pending);
+
+        assertEquals(3, written.size());
+        assertTrue(written.get("a").isAlert());
+        assertEquals(1000, written.get("a").getDuration());
+        assertEquals(10, written.get("b").getDuration());
+        assertEquals(2, written.get("d").getDuration());
+        // Still within the timeout when its file ended
+        assertEquals(Collections.singleton("c"), pending.keySet());
+    }
+
+    @Test
+    public void testInvalidFile() throws Exception {
+        File good = write("good.json", new ArrayList<>());
+        File bad = new File(dir, "bad.json");
+        Files.write(bad.toPath(), "[1,2]".getBytes());
+        assertThrows(IOException.class, () -> new MultiFileScanner(2).scan(Arrays.asList(good, bad), e -> { }, new MemoryPendingStore()));
+    }
+}
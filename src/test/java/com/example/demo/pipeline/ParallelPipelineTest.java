@@ -0,0 +1,102 @@
+package com.example.demo.pipeline;
+
+import com.example.demo.EventCorrelator;
+import com.example.demo.model.LogEntry;
+import com.example.demo.store.MemoryPendingStore;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ParallelPipelineTest {
+
+    /**
+     * Random events with out of order pairs, duplicates and orphans
+     */
+    private List<LogEntry> events(int ids, long seed) {
+        Random random = new Random(seed);
+        List<LogEntry> events = new ArrayList<>();
+        for (int i = 0; i < ids; i++) {
+            long start = random.nextInt(1000000);
+            events.add(LogEntry.builder().id("id" + i).state(LogEntry.State.STARTED).timestamp(start).build());
+            if (random.nextInt(10) > 0)
+                events.add(LogEntry.builder().id("id" + i).state(LogEntry.State.FINISHED).timestamp(start + random.nextInt(10)).build());
+            if (random.nextInt(10) == 0)
+                events.add(LogEntry.builder().id("id" + i).state(LogEntry.State.STARTED).timestamp(start + 1).build());
+        }
+        Collections.shuffle(events, random);
+        return events;
+    }
+
+    private LogEntry copy(LogEntry e) {
+        return LogEntry.builder().id(e.getId()).state(e.getState()).timestamp(e.getTimestamp()).build();
+    }
+
+    @Test
+    public void testMatchesSingleThreaded() throws Exception {
+        List<LogEntry> events = events(5000, 42);
+
+        EventCorrelator correlator = new EventCorrelator();
+        Map<String, Long> expected = new HashMap<>();
+        for (LogEntry e : events) {
+            LogEntry completed = correlator.correlate(copy(e));
+            if (completed != null)
+                expected.put(completed.getId(), completed.getDuration());
+        }
+
+        Map<String, Long> actual = new ConcurrentHashMap<>();
+        Map<String, LogEntry> pending = new HashMap<>();
+        try (ParallelPipeline pipeline = new ParallelPipeline(4, 3, 16,
+                e -> assertNull(actual.put(e.getId(), e.getDuration())))) {
+            for (LogEntry e : events)
+                pipeline.submit(copy(e));
+            pipeline.finish(pending);
+        }
+
+        assertEquals(expected, actual);
+        assertEquals(correlator.getStore().keySet(), pending.keySet());
+    }
+
+    @Test
+    public void testWriterFailurePropagates() throws Exception {
+        try (ParallelPipeline pipeline = new ParallelPipeline(2, 1, 1, e -> {
+            throw new IllegalStateException("db down");
+        })) {
+            assertThrows(IOException.class, () -> {
+                for (LogEntry e : events(1000, 7))
+                    pipeline.submit(copy(e));
+                pipeline.finish(new HashMap<>());
+            });
+        }
+    }
+
+    @Test
+    public void testStoresClosedOnFailure() throws Exception {
+        AtomicInteger closed = new AtomicInteger();
+        try (ParallelPipeline pipeline = new ParallelPipeline(2, 1, 16, e -> {
+            throw new IllegalStateException("db down");
+        }, () -> new MemoryPendingStore() {
+            @Override
+            public void close() {
+                closed.incrementAndGet();
+            }
+        })) {
+            assertThrows(IOException.class, () -> {
+                pipeline.submit(LogEntry.builder().id("a").state(LogEntry.State.STARTED).timestamp(1).build());
+                pipeline.submit(LogEntry.builder().id("a").state(LogEntry.State.FINISHED).timestamp(3).build());
+                pipeline.finish(new HashMap<>());
+            });
+        }
+        // Each shard's store closed once, by finish() or close()
+        assertEquals(2, closed.get());
+    }
+}
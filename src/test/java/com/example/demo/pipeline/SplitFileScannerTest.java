@@ -0,0 +1,75 @@
+package com.example.demo.pipeline;
+
+import com.example.demo.EventCorrelator;
+import com.example.demo.model.LogEntry;
+import com.example.demo.store.MemoryPendingStore;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SplitFileScannerTest {
+
+    @Test
+    public void testSplitPointsOnObjectBoundaries() throws Exception {
+        File file = new File(this.getClass().getClassLoader().getResource("test.json").toURI());
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long[] splits = SplitFileScanner.splitPoints(channel, 4);
+            assertEquals(5, splits.length);
+            assertEquals(0, splits[0]);
+            assertEquals(bytes.length, splits[4]);
+            for (int i = 1; i < 4; i++) {
+                assertTrue(splits[i] >= splits[i - 1]);
+                assertTrue(splits[i] == bytes.length || bytes[(int) splits[i]] == '{');
+            }
+        }
+    }
+
+    @Test
+    public void testMatchesSingleThreaded() throws Exception {
+        // Out of order pairs and orphans, every event on its own object
+        Random random = new Random(11);
+        List<LogEntry> events = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            long start = random.nextInt(1000000);
+            events.add(LogEntry.builder().id("id" + i).state(LogEntry.State.STARTED).timestamp(start).build());
+            if (random.nextInt(20) > 0)
+                events.add(LogEntry.builder().id("id" + i).state(LogEntry.State.FINISHED).timestamp(start + random.nextInt(10)).build());
+        }
+        Collections.shuffle(events, random);
+
+        File file = File.createTempFile("split", ".json");
+        file.deleteOnExit();
+        EventCorrelator correlator = new EventCorrelator();
+        Map<String, Long> expected = new HashMap<>();
+        try (Writer w = new FileWriter(file)) {
+            for (LogEntry e : events) {
+                w.write("{\"id\":\"" + e.getId() + "\", \"state\":\"" + e.getState() + "\",\n  \"host\":\"h\", \"timestamp\":" + e.getTimestamp() + "}\n");
+                LogEntry completed = correlator.correlate(e);
+                if (completed != null)
+                    expected.put(completed.getId(), completed.getDuration());
+            }
+        }
+
+        Map<String, Long> actual = new ConcurrentHashMap<>();
+        MemoryPendingStore pending = new MemoryPendingStore();
+        new SplitFileScanner(4).scan(file, e -> assertNull(actual.put(e.getId(), e.getDuration())), pending);
+
+        assertEquals(expected, actual);
+        assertEquals(correlator.getStore().keySet(), pending.keySet());
+    }
+}
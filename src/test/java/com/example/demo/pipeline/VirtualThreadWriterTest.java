@@ -0,0 +1,59 @@
+package com.example.demo.pipeline;
+
+import com.example.demo.model.LogEntry;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class VirtualThreadWriterTest {
+
+    private static LogEntry entry(int i) {
+        return LogEntry.builder().id("id" + i).state(LogEntry.State.FINISHED).build();
+    }
+
+    @Test
+    public void testBoundedConcurrency() throws Exception {
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        Set<String> written = ConcurrentHashMap.newKeySet();
+        try (VirtualThreadWriter writer = new VirtualThreadWriter(entry -> {
+            int n = inFlight.incrementAndGet();
+            maxInFlight.accumulateAndGet(n, Math::max);
+            // A blocking DB write
+            Thread.sleep(2);
+            written.add(entry.getId());
+            inFlight.decrementAndGet();
+        }, 4)) {
+            for (int i = 0; i < 200; i++)
+                writer.write(entry(i));
+            writer.flush();
+            // Everything written once flush returns
+            assertEquals(200, written.size());
+            assertEquals(0, inFlight.get());
+            assertTrue(maxInFlight.get() <= 4);
+            assertEquals(200, writer.latency().getCount());
+            assertTrue(writer.latency().getMin() >= 1000);
+            // Only true on JDK 21 and later
+            assertEquals(VirtualThreadWriter.virtualThreadExecutor() != null, writer.isVirtual());
+        }
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+        VirtualThreadWriter writer = new VirtualThreadWriter(entry -> {
+            // The last entry, so no write in the loop can see the failure first
+            if (entry.getId().equals("id4"))
+                throw new IllegalStateException("db down");
+        }, 2);
+        for (int i = 0; i < 5; i++)
+            writer.write(entry(i));
+        IOException e = assertThrows(IOException.class, writer::close);
+        assertTrue(e.getCause() instanceof IllegalStateException);
+        assertThrows(IOException.class, () -> writer.write(entry(6)));
+    }
+}
@@ -0,0 +1,110 @@
+package com.example.demo.report;
+
+import com.example.demo.model.LogEntry;
+import com.example.demo.repository.LogEntryFilter;
+import com.example.demo.repository.LogEntryRepoIF;
+import com.example.demo.repository.LogEntryStreamingImpl;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.jpa.repository.support.JpaRepositoryFactory;
+import org.springframework.data.repository.core.support.RepositoryComposition.RepositoryFragments;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.orm.jpa.JpaTransactionManager;
+import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
+import org.springframework.orm.jpa.SharedEntityManagerCreator;
+import org.springframework.orm.jpa.vendor.HibernateJpaVendorAdapter;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs the report queries against an in memory HSQLDB
+ */
+public class LogEntryReportTest {
+
+    private static EntityManagerFactory emf;
+    private static EntityManager em;
+    private static PlatformTransactionManager transactionManager;
+    private static LogEntryRepoIF repo;
+
+    @BeforeAll
+    public static void setUp() {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource("jdbc:hsqldb:mem:report", "sa", "");
+        dataSource.setDriverClassName("org.hsqldb.jdbc.JDBCDriver");
+        Properties properties = new Properties();
+        properties.setProperty("hibernate.hbm2ddl.auto", "create");
+        properties.setProperty("hibernate.dialect", "org.hibernate.dialect.HSQLDialect");
+        LocalContainerEntityManagerFactoryBean factory = new LocalContainerEntityManagerFactoryBean();
+        factory.setDataSource(dataSource);
+        factory.setPackagesToScan("com.example.demo.model");
+        factory.setJpaVendorAdapter(new HibernateJpaVendorAdapter());
+        factory.setJpaProperties(properties);
+        factory.afterPropertiesSet();
+        emf = factory.getObject();
+        em = SharedEntityManagerCreator.createSharedEntityManager(emf);
+        transactionManager = new JpaTransactionManager(emf);
+        repo = new JpaRepositoryFactory(em).getRepository(LogEntryRepoIF.class,
+                RepositoryFragments.just(new LogEntryStreamingImpl(em)));
+        new TransactionTemplate(transactionManager).execute(status -> repo.saveAll(Arrays.asList(
+                entry("a", "APPLICATION_LOG", "12345", 5),
+                entry("b", null, null, 3),
+                entry("c", "APPLICATION_LOG", "12346", 8),
+                entry("d", "SYSTEM_LOG", "12345", 1))));
+    }
+
+    @AfterAll
+    public static void tearDown() {
+        emf.close();
+    }
+
+    private static LogEntry entry(String id, String type, String host, long duration) {
+        LogEntry e = LogEntry.builder().id(id).state(LogEntry.State.FINISHED).type(type).host(host).build();
+        e.setDuration(duration);
+        e.setStartTime(duration * 1000);
+        return e;
+    }
+
+    private String report(LogEntryFilter filter) throws Exception {
+        StringWriter out = new StringWriter();
+        long rows = new LogEntryReport(repo, transactionManager, em).write(filter, out);
+        assertEquals(rows, out.toString().isEmpty() ? 0 : out.toString().split("\n").length);
+        return out.toString();
+    }
+
+    @Test
+    public void testAll() throws Exception {
+        String out = report(LogEntryFilter.ALL);
+        assertEquals(4, out.split("\n").length);
+        assertTrue(out.contains("id=b"));
+    }
+
+    @Test
+    public void testFilters() throws Exception {
+        String alerts = report(LogEntryFilter.builder().alertOnly(true).build());
+        assertEquals(2, alerts.split("\n").length);
+        assertFalse(alerts.contains("id=b"));
+
+        String host = report(LogEntryFilter.parse("--host=12345", "--type=APPLICATION_LOG"));
+        assertEquals(1, host.split("\n").length);
+        assertTrue(host.contains("id=a"));
+
+        String range = report(LogEntryFilter.parse("--minDuration=3", "--maxDuration=5"));
+        assertEquals(2, range.split("\n").length);
+        assertTrue(range.contains("id=a") && range.contains("id=b"));
+
+        assertEquals("", report(LogEntryFilter.parse("--alerts", "--type=SYSTEM_LOG")));
+
+        String started = report(LogEntryFilter.parse("--from=3000", "--to=8000"));
+        assertEquals(2, started.split("\n").length);
+        assertTrue(started.contains("id=a") && started.contains("id=b"));
+        assertEquals(3, report(LogEntryFilter.builder().from(3000L).build()).split("\n").length);
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.demo.sink;
+
+import com.example.demo.model.LogEntry;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class JdbcBatchWriterTest {
+
+    private static final String SQL = "Insert into LOGENTRY (id, type, host, alert, duration) values (?,?,?,?,?)";
+
+    private LogEntry entry(String id) {
+        LogEntry e = LogEntry.builder().id(id).state(LogEntry.State.FINISHED).build();
+        e.setDuration(2);
+        return e;
+    }
+
+    @Test
+    public void testCommitsEveryBatchSize() throws Exception {
+        Connection mockConnection = mock(Connection.class);
+        PreparedStatement mockPs = mock(PreparedStatement.class);
+        when(mockConnection.prepareStatement(SQL)).thenReturn(mockPs);
+
+        JdbcBatchWriter writer = new JdbcBatchWriter(mockConnection, SQL, 2, Long.MAX_VALUE);
+        verify(mockConnection).setAutoCommit(false);
+
+        writer.write(entry("id1"));
+        verify(mockPs, never()).executeBatch();
+        writer.write(entry("id2"));
+        verify(mockPs, times(1)).executeBatch();
+        writer.write(entry("id3"));
+
+        // Remaining row flushed on close, statement reused throughout
+        writer.close();
+        verify(mockPs, times(2)).executeBatch();
+        verify(mockConnection, times(2)).commit();
+        verify(mockConnection, times(1)).prepareStatement(SQL);
+        verify(mockPs).close();
+        assertEquals(3, writer.getWritten());
+    }
+
+    @Test
+    public void testCommitsOnInterval() throws Exception {
+        Connection mockConnection = mock(Connection.class);
+        PreparedStatement mockPs = mock(PreparedStatement.class);
+        when(mockConnection.prepareStatement(SQL)).thenReturn(mockPs);
+
+        // Interval of 0 means every write is committed straight away
+        JdbcBatchWriter writer = new JdbcBatchWriter(mockConnection, SQL, 1000, 0);
+        writer.write(entry("id1"));
+        writer.write(entry("id2"));
+
+        verify(mockPs, times(2)).executeBatch();
+        verify(mockConnection, times(2)).commit();
+    }
+
+    @Test
+    public void testRollbackOnFailure() throws Exception {
+        Connection mockConnection = mock(Connection.class);
+        PreparedStatement mockPs = mock(PreparedStatement.class);
+        when(mockConnection.prepareStatement(SQL)).thenReturn(mockPs);
+        when(mockPs.executeBatch()).thenThrow(new SQLException("boom")).thenReturn(new int[]{1});
+
+        JdbcBatchWriter writer = new JdbcBatchWriter(mockConnection, SQL, 1, Long.MAX_VALUE);
+
+        assertThrows(SQLException.class, () -> writer.write(entry("id1")));
+        verify(mockConnection).rollback();
+        verify(mockPs).clearBatch();
+        verify(mockConnection, never()).commit();
+
+        // The failed row is not counted with the next batch
+        writer.write(entry("id2"));
+        verify(mockConnection).commit();
+        assertEquals(1, writer.getWritten());
+    }
+}
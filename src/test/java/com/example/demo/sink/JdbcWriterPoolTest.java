@@ -0,0 +1,80 @@
+package com.example.demo.sink;
+
+import com.example.demo.model.LogEntry;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class JdbcWriterPoolTest {
+
+    private static final String SQL = "Insert into LOGENTRY (id, type, host, alert, duration) values (?,?,?,?,?)";
+
+    private LogEntry entry(String id) {
+        LogEntry e = LogEntry.builder().id(id).state(LogEntry.State.FINISHED).build();
+        e.setDuration(2);
+        return e;
+    }
+
+    @Test
+    public void testSpreadsOverWriters() throws Exception {
+        DataSource mockDataSource = mock(DataSource.class);
+        Connection first = mock(Connection.class);
+        Connection second = mock(Connection.class);
+        PreparedStatement firstPs = mock(PreparedStatement.class);
+        PreparedStatement secondPs = mock(PreparedStatement.class);
+        when(mockDataSource.getConnection()).thenReturn(first, second);
+        when(first.prepareStatement(SQL)).thenReturn(firstPs);
+        when(second.prepareStatement(SQL)).thenReturn(secondPs);
+
+        JdbcWriterPool pool = new JdbcWriterPool(mockDataSource, SQL, 2, 10, 1000, Long.MAX_VALUE);
+        for (int i = 0; i < 4; i++)
+            pool.write(entry("id" + i));
+        pool.flush();
+
+        // Two rows per connection, each on its own statement, committed by the flush
+        verify(firstPs, times(2)).addBatch();
+        verify(secondPs, times(2)).addBatch();
+        verify(first).commit();
+        verify(second).commit();
+        assertEquals(4, pool.getWritten());
+
+        // Connections are handed back on close
+        pool.close();
+        verify(first).close();
+        verify(second).close();
+        verify(first, times(1)).prepareStatement(SQL);
+    }
+
+    @Test
+    public void testWriterFailure() throws Exception {
+        DataSource mockDataSource = mock(DataSource.class);
+        Connection mockConnection = mock(Connection.class);
+        PreparedStatement mockPs = mock(PreparedStatement.class);
+        when(mockDataSource.getConnection()).thenReturn(mockConnection);
+        when(mockConnection.prepareStatement(SQL)).thenReturn(mockPs);
+        when(mockPs.executeBatch()).thenThrow(new SQLException("boom"));
+
+        JdbcWriterPool pool = new JdbcWriterPool(mockDataSource, SQL, 1, 10, 1, Long.MAX_VALUE);
+        pool.write(entry("id1"));
+        SQLException e = assertThrows(SQLException.class, pool::flush);
+        assertEquals("boom", e.getCause().getMessage());
+        assertThrows(SQLException.class, () -> pool.write(entry("id2")));
+        assertThrows(SQLException.class, pool::close);
+        verify(mockConnection).close();
+    }
+
+    @Test
+    public void testNoConnection() throws Exception {
+        DataSource mockDataSource = mock(DataSource.class);
+        when(mockDataSource.getConnection()).thenThrow(new SQLException("pool exhausted"));
+
+        JdbcWriterPool pool = new JdbcWriterPool(mockDataSource, SQL, 2, 10, 1000, Long.MAX_VALUE);
+        assertThrows(SQLException.class, pool::flush);
+    }
+}
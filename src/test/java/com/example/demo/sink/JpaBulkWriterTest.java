@@ -0,0 +1,80 @@
+package com.example.demo.sink;
+
+import com.example.demo.model.LogEntry;
+import com.example.demo.repository.LogEntryRepoIF;
+import org.junit.jupiter.api.Test;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class JpaBulkWriterTest {
+
+    private LogEntry entry(String id, long duration) {
+        LogEntry e = LogEntry.builder().id(id).state(LogEntry.State.FINISHED).build();
+        e.setDuration(duration);
+        return e;
+    }
+
+    /**
+     * Copies each chunk as it is saved, as the writer reuses its list
+     */
+    @SuppressWarnings("unchecked")
+    private static List<List<LogEntry>> recordChunks(LogEntryRepoIF repo, RuntimeException first) {
+        List<List<LogEntry>> chunks = new ArrayList<>();
+        when(repo.saveAll(any())).thenAnswer(invocation -> {
+            List<LogEntry> entries = new ArrayList<>();
+            ((Iterable<LogEntry>) invocation.getArgument(0)).forEach(entries::add);
+            chunks.add(entries);
+            if (first != null && chunks.size() == 1)
+                throw first;
+            return entries;
+        });
+        return chunks;
+    }
+
+    @Test
+    public void testRepeatedIdSavedOnce() {
+        LogEntryRepoIF mockRepo = mock(LogEntryRepoIF.class);
+        when(mockRepo.findAllById(any())).thenReturn(Collections.emptyList());
+        List<List<LogEntry>> chunks = recordChunks(mockRepo, null);
+        JpaBulkWriter writer = new JpaBulkWriter(mockRepo, null, null, 3, true);
+
+        writer.write(entry("a", 1));
+        writer.write(entry("b", 2));
+        writer.write(entry("a", 3));
+
+        // The last entry of a wins, persisted once
+        assertEquals(1, chunks.size());
+        List<LogEntry> entries = chunks.get(0);
+        assertEquals(2, entries.size());
+        assertEquals("a", entries.get(0).getId());
+        assertEquals(3, entries.get(0).getDuration());
+        assertTrue(entries.get(0).isNew());
+        assertEquals(3, writer.getWritten());
+    }
+
+    @Test
+    public void testFailedChunkDiscarded() {
+        LogEntryRepoIF mockRepo = mock(LogEntryRepoIF.class);
+        EntityManager mockEm = mock(EntityManager.class);
+        List<List<LogEntry>> chunks = recordChunks(mockRepo, new PersistenceException("boom"));
+        JpaBulkWriter writer = new JpaBulkWriter(mockRepo, null, mockEm, 1);
+
+        assertThrows(PersistenceException.class, () -> writer.write(entry("a", 1)));
+        verify(mockEm).clear();
+
+        // The next write saves only its own entry, and close() has nothing left to retry
+        writer.write(entry("b", 2));
+        writer.close();
+        assertEquals(2, chunks.size());
+        assertEquals(1, chunks.get(1).size());
+        assertEquals("b", chunks.get(1).get(0).getId());
+        assertEquals(1, writer.getWritten());
+    }
+}
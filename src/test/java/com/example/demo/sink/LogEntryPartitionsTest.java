@@ -0,0 +1,138 @@
+package com.example.demo.sink;
+
+import com.example.demo.model.LogEntry;
+import org.hsqldb.jdbc.JDBCDataSource;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Writes bucketed rows to an in memory HSQLDB
+ */
+public class LogEntryPartitionsTest {
+
+    /** 2017-04-05T07:31:35.212Z */
+    private static final long T = 1491377495212L;
+    private static final long HOUR = 3600000L;
+    private static final long DAY = 24 * HOUR;
+
+    private static LogEntry entry(String id, Long start, Long end) {
+        LogEntry e = LogEntry.builder().id(id).state(LogEntry.State.FINISHED).type("APPLICATION_LOG").host("12345").build();
+        e.setStartTime(start);
+        e.setEndTime(end);
+        e.setDuration(start == null || end == null ? 0 : end - start);
+        return e;
+    }
+
+    private static void write(Connection c, LogEntryPartitions partitions, String sql, LogEntry... entries) throws SQLException {
+        try (JdbcBatchWriter writer = new JdbcBatchWriter(c, sql, partitions, 2, 60000)) {
+            for (LogEntry e : entries)
+                writer.write(e);
+        }
+    }
+
+    private static int count(Connection c, String table) throws SQLException {
+        try (Statement s = c.createStatement(); ResultSet rs = s.executeQuery("SELECT COUNT(*) FROM " + table)) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+    private static List<String> query(Connection c, LogEntryPartitions partitions, long from, long to) throws SQLException {
+        List<String> ids = new ArrayList<>();
+        assertEquals(partitions.query(c, from, to, e -> ids.add(e.getId())), ids.size());
+        ids.sort(null);
+        return ids;
+    }
+
+    @Test
+    public void testOf() {
+        assertNull(LogEntryPartitions.of(null));
+        assertNull(LogEntryPartitions.of(""));
+        assertNull(LogEntryPartitions.of("none"));
+        assertEquals(LogEntryPartitions.Granularity.HOUR, LogEntryPartitions.of("Hour").getGranularity());
+        assertThrows(IllegalArgumentException.class, () -> LogEntryPartitions.of("week"));
+    }
+
+    @Test
+    public void testTableFor() {
+        assertEquals("LOGENTRY_20170405", LogEntryPartitions.of("day").tableFor(T));
+        assertEquals("LOGENTRY_2017040507", LogEntryPartitions.of("hour").tableFor(T));
+        // Never started, bucketed by its end
+        assertEquals(T, LogEntryPartitions.timeOf(entry("a", null, T)));
+    }
+
+    @Test
+    public void testWriteQueryAndDrop() throws Exception {
+        try (Connection c = DriverManager.getConnection("jdbc:hsqldb:mem:partitionsDay", "SA", "")) {
+            LogEntrySchema.ensure(c);
+            LogEntryPartitions partitions = LogEntryPartitions.of("day");
+            partitions.refresh(c);
+            write(c, partitions, LogEntrySchema.UPSERT_SQL,
+                    entry("a", T, T + 5), entry("b", T + HOUR, T + HOUR + 2),
+                    entry("c", T + DAY, T + DAY + 1), entry("d", null, T + 2 * DAY));
+            assertEquals(Arrays.asList("LOGENTRY_20170405", "LOGENTRY_20170406", "LOGENTRY_20170407"), partitions.tables());
+            assertEquals(2, count(c, "LOGENTRY_20170405"));
+            assertEquals(0, count(c, LogEntrySchema.TABLE));
+            assertEquals(4, count(c, LogEntryPartitions.VIEW));
+
+            // Reprocessing merges into the same bucket
+            write(c, partitions, LogEntrySchema.UPSERT_SQL, entry("a", T, T + 9));
+            assertEquals(4, count(c, LogEntryPartitions.VIEW));
+            JDBCDataSource dataSource = new JDBCDataSource();
+            dataSource.setUrl("jdbc:hsqldb:mem:partitionsDay");
+            dataSource.setUser("SA");
+            assertTrue(LogEntrySchema.rowExists(dataSource, LogEntryPartitions.VIEW).test("c"));
+            assertFalse(LogEntrySchema.rowExists(dataSource, LogEntryPartitions.VIEW).test("x"));
+
+            assertEquals(Arrays.asList("a", "b"), query(c, partitions, T, T + DAY));
+            assertEquals(Arrays.asList("b", "c"), query(c, partitions, T + 1, T + DAY + 1));
+            // Rows of LOGENTRY, e.g. from the JPA processor, are read too
+            try (Statement s = c.createStatement()) {
+                s.execute("INSERT INTO LOGENTRY (id, duration, start_time) VALUES ('e', 0, " + (T + 10) + ")");
+            }
+            assertEquals(Arrays.asList("a", "e"), query(c, partitions, T, T + HOUR));
+
+            // Buckets ending by the cutoff are dropped whole
+            assertEquals(1, partitions.dropBefore(c, T + DAY));
+            assertEquals(Arrays.asList("LOGENTRY_20170406", "LOGENTRY_20170407"), partitions.tables());
+            assertEquals(3, count(c, LogEntryPartitions.VIEW));
+            assertEquals(0, partitions.dropBefore(c, T + DAY));
+
+            // Another run finds the buckets in the DB
+            LogEntryPartitions reopened = LogEntryPartitions.of("hour");
+            reopened.refresh(c);
+            assertEquals(partitions.tables(), reopened.tables());
+            assertEquals(Collections.singletonList("c"), query(c, reopened, T + DAY, T + 2 * DAY));
+        }
+    }
+
+    @Test
+    public void testHourBuckets() throws Exception {
+        try (Connection c = DriverManager.getConnection("jdbc:hsqldb:mem:partitionsHour", "SA", "")) {
+            LogEntrySchema.ensure(c);
+            LogEntryPartitions partitions = LogEntryPartitions.of("hour");
+            partitions.refresh(c);
+            List<LogEntry> entries = new ArrayList<>();
+            for (int i = 0; i < 40; i++)
+                entries.add(entry("id" + i, T + i * HOUR, T + i * HOUR + 1));
+            // More buckets than statements kept open
+            write(c, partitions, LogEntrySchema.INSERT_SQL, entries.toArray(new LogEntry[0]));
+            assertEquals(40, partitions.tables().size());
+            assertEquals(40, count(c, LogEntryPartitions.VIEW));
+            assertEquals(3, query(c, partitions, T + 10 * HOUR, T + 13 * HOUR).size());
+            assertEquals(10, partitions.dropBefore(c, T - T % HOUR + 10 * HOUR));
+            assertEquals(30, count(c, LogEntryPartitions.VIEW));
+        }
+    }
+}
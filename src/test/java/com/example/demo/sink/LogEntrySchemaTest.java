@@ -0,0 +1,128 @@
+package com.example.demo.sink;
+
+import com.example.demo.model.LogEntry;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LogEntrySchemaTest {
+
+    private static LogEntry entry(String id, long duration) {
+        LogEntry e = LogEntry.builder().id(id).state(LogEntry.State.FINISHED).type("APPLICATION_LOG").host("12345").build();
+        e.setDuration(duration);
+        return e;
+    }
+
+    private static int write(Connection c, String sql, LogEntry... entries) throws SQLException {
+        try (JdbcBatchWriter writer = new JdbcBatchWriter(c, sql, 2, 0)) {
+            for (LogEntry e : entries)
+                writer.write(e);
+        }
+        return count(c, "SELECT COUNT(*) FROM LOGENTRY");
+    }
+
+    private static int count(Connection c, String sql) throws SQLException {
+        try (Statement s = c.createStatement(); ResultSet rs = s.executeQuery(sql)) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+    @Test
+    public void testEnsureCreatesKeyAndIndexes() throws Exception {
+        try (Connection c = DriverManager.getConnection("jdbc:hsqldb:mem:schemaCreate", "SA", "")) {
+            LogEntrySchema.ensure(c);
+            // Idempotent
+            LogEntrySchema.ensure(c);
+            try (ResultSet keys = c.getMetaData().getPrimaryKeys(null, null, "LOGENTRY")) {
+                assertTrue(keys.next());
+                assertEquals("ID", keys.getString("COLUMN_NAME"));
+            }
+            Set<String> indexes = new HashSet<>();
+            try (ResultSet rs = c.getMetaData().getIndexInfo(null, null, "LOGENTRY", false, false)) {
+                while (rs.next())
+                    indexes.add(rs.getString("INDEX_NAME"));
+            }
+            assertTrue(indexes.contains("LOGENTRY_ALERT"));
+            assertTrue(indexes.contains("LOGENTRY_HOST"));
+            assertTrue(indexes.contains("LOGENTRY_TYPE"));
+        }
+    }
+
+    @Test
+    public void testEnsureAddsKeyToOldTable() throws Exception {
+        try (Connection c = DriverManager.getConnection("jdbc:hsqldb:mem:schemaOld", "SA", "");
+             Statement s = c.createStatement()) {
+            s.execute("CREATE TABLE LOGENTRY (id varchar(255), state varchar(255), type varchar(255), host varchar(255), alert boolean, duration BIGINT)");
+            LogEntrySchema.ensure(c);
+            try (ResultSet keys = c.getMetaData().getPrimaryKeys(null, null, "LOGENTRY")) {
+                assertTrue(keys.next());
+            }
+        }
+    }
+
+    @Test
+    public void testEnsureAddsTimesToOldTable() throws Exception {
+        try (Connection c = DriverManager.getConnection("jdbc:hsqldb:mem:schemaTimes", "SA", "");
+             Statement s = c.createStatement()) {
+            s.execute("CREATE TABLE LOGENTRY (id varchar(255) PRIMARY KEY, state varchar(255), type varchar(255), host varchar(255), alert boolean, duration BIGINT)");
+            s.execute("INSERT INTO LOGENTRY (id, duration) VALUES ('old', 5)");
+            LogEntrySchema.ensure(c);
+            LogEntry e = entry("new", 2);
+            e.setStartTime(1000L);
+            e.setEndTime(1002L);
+            assertEquals(2, write(c, LogEntrySchema.INSERT_SQL, e));
+            assertEquals(1002, count(c, "SELECT end_time FROM LOGENTRY WHERE id = 'new'"));
+            assertEquals(1, count(c, "SELECT COUNT(*) FROM LOGENTRY WHERE start_time IS NULL"));
+
+            assertEquals(1, LogEntrySchema.deleteStartedBefore(c, 1001));
+            assertEquals(1, count(c, "SELECT COUNT(*) FROM LOGENTRY"));
+        }
+    }
+
+    @Test
+    public void testVersionMarker() throws Exception {
+        try (Connection c = DriverManager.getConnection("jdbc:hsqldb:mem:schemaVersion", "SA", "");
+             Statement s = c.createStatement()) {
+            assertFalse(LogEntrySchema.isCurrent(c));
+            assertTrue(LogEntrySchema.ensureIfStale(c));
+            assertTrue(LogEntrySchema.isCurrent(c));
+            // Stamped, so the next start skips the checks
+            assertFalse(LogEntrySchema.ensureIfStale(c));
+            // An older stamp is checked again
+            s.execute("UPDATE " + LogEntrySchema.VERSION_TABLE + " SET version = " + (LogEntrySchema.VERSION - 1));
+            assertTrue(LogEntrySchema.ensureIfStale(c));
+            assertTrue(LogEntrySchema.isCurrent(c));
+        }
+    }
+
+    @Test
+    public void testUpsertIsIdempotent() throws Exception {
+        try (Connection c = DriverManager.getConnection("jdbc:hsqldb:mem:schemaUpsert", "SA", "")) {
+            LogEntrySchema.ensure(c);
+            assertEquals(3, write(c, LogEntrySchema.UPSERT_SQL, entry("a", 1), entry("b", 2), entry("c", 3)));
+            // Reprocessing updates the rows in place
+            assertEquals(3, write(c, LogEntrySchema.UPSERT_SQL, entry("a", 1), entry("b", 2), entry("c", 7)));
+            assertEquals(1, count(c, "SELECT COUNT(*) FROM LOGENTRY WHERE alert"));
+            assertEquals(7, count(c, "SELECT duration FROM LOGENTRY WHERE id = 'c'"));
+            // A plain insert of the same ids is rejected by the key
+            assertThrows(SQLException.class, () -> write(c, LogEntrySchema.INSERT_SQL, entry("a", 1)));
+        }
+    }
+
+    @Test
+    public void testWriteSql() {
+        assertEquals(LogEntrySchema.UPSERT_SQL, LogEntrySchema.writeSql(null));
+        assertEquals(LogEntrySchema.INSERT_SQL, LogEntrySchema.writeSql("insert"));
+        assertEquals(LogEntrySchema.UPSERT_SQL, LogEntrySchema.writeSql("UPSERT"));
+        assertThrows(IllegalArgumentException.class, () -> LogEntrySchema.writeSql("replace"));
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.demo.stats;
+
+import com.example.demo.model.LogEntry;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DurationAggregatorTest {
+
+    private static LogEntry entry(String type, String host, long duration) {
+        LogEntry e = LogEntry.builder().id("id").state(LogEntry.State.FINISHED).type(type).host(host).build();
+        e.setDuration(duration);
+        return e;
+    }
+
+    @Test
+    public void testHistogramExactBelowResolution() {
+        DurationHistogram histogram = new DurationHistogram(3600000, 2);
+        for (int i = 1; i <= 100; i++)
+            histogram.record(i);
+        assertEquals(50, histogram.percentile(50));
+        assertEquals(90, histogram.percentile(90));
+        assertEquals(100, histogram.percentile(100));
+        assertEquals(1, histogram.percentile(0));
+    }
+
+    @Test
+    public void testHistogramPrecision() {
+        DurationHistogram histogram = new DurationHistogram(3600000, 2);
+        for (long v = 1; v <= 1000000; v += 7)
+            histogram.record(v);
+        // Within 1% of the exact value
+        assertEquals(500000, histogram.percentile(50), 5000);
+        assertEquals(990000, histogram.percentile(99), 9900);
+        // Clamped at the highest trackable value
+        histogram.record(Long.MAX_VALUE);
+        assertTrue(histogram.percentile(100) <= 3600000);
+        assertTrue(histogram.size() < 4096);
+    }
+
+    @Test
+    public void testPerTypeAndHost() {
+        DurationAggregator aggregator = new DurationAggregator();
+        aggregator.record(entry("APPLICATION_LOG", "12345", 5));
+        aggregator.record(entry("APPLICATION_LOG", "12346", 3));
+        aggregator.record(entry(null, "12345", 2));
+
+        DurationStats.Summary total = aggregator.total();
+        assertEquals(3, total.getCount());
+        assertEquals(1, total.getAlerts());
+        assertEquals(2, total.getMin());
+        assertEquals(5, total.getMax());
+        assertEquals(10.0 / 3, total.getMean(), 1e-9);
+
+        Map<String, DurationStats.Summary> byType = aggregator.byType();
+        assertEquals(2, byType.size());
+        assertEquals(2, byType.get("APPLICATION_LOG").getCount());
+        assertEquals(1, byType.get("APPLICATION_LOG").getAlerts());
+        assertEquals(1, byType.get(DurationAggregator.NONE).getCount());
+
+        Map<String, DurationStats.Summary> byHost = aggregator.byHost();
+        assertEquals(2, byHost.get("12345").getCount());
+        assertEquals(5, byHost.get("12345").getMax());
+        assertEquals(3, byHost.get("12346").getP50());
+    }
+
+    @Test
+    public void testEmpty() {
+        DurationAggregator aggregator = new DurationAggregator();
+        assertEquals(0, aggregator.total().getCount());
+        assertEquals(0, aggregator.total().getP99());
+        assertTrue(aggregator.byType().isEmpty());
+    }
+
+    @Test
+    public void testConcurrentRecord() throws Exception {
+        DurationAggregator aggregator = new DurationAggregator();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            String host = "host" + t;
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 10000; i++)
+                    aggregator.record(entry("type" + (i % 3), host, i % 10));
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        // Summaries can be taken while recording
+        aggregator.byType();
+        for (Thread thread : threads)
+            thread.join();
+
+        assertEquals(40000, aggregator.total().getCount());
+        // Durations 5 to 9 are alerts
+        assertEquals(20000, aggregator.total().getAlerts());
+        assertEquals(4, aggregator.byHost().size());
+        assertEquals(10000, aggregator.byHost().get("host2").getCount());
+        long perType = 0;
+        for (DurationStats.Summary s : aggregator.byType().values())
+            perType += s.getCount();
+        assertEquals(40000, perType);
+        assertEquals(9, aggregator.total().getP99());
+    }
+}
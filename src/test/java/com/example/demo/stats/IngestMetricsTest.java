@@ -0,0 +1,66 @@
+package com.example.demo.stats;
+
+import com.example.demo.model.LogEntry;
+import com.example.demo.parse.LogEntryReader;
+import org.junit.jupiter.api.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IngestMetricsTest {
+
+    @Test
+    public void testCounting() throws Exception {
+        IngestMetrics metrics = new IngestMetrics();
+        LogEntryReader reader = metrics.counting(() -> jp -> LogEntry.builder().id("id").state(LogEntry.State.STARTED).build()).get();
+        reader.read(null);
+        reader.read(null);
+        try (InputStream in = metrics.counting(new ByteArrayInputStream(new byte[100]))) {
+            in.read();
+            in.read(new byte[64]);
+            in.skip(10);
+            in.read(new byte[64]);
+        }
+        metrics.batchWritten(10, TimeUnit.MILLISECONDS.toNanos(5));
+        metrics.batchWritten(1, TimeUnit.MILLISECONDS.toNanos(1));
+
+        assertEquals(2, metrics.getRecordsParsed());
+        assertEquals(100, metrics.getBytesRead());
+        assertEquals(11, metrics.getRowsWritten());
+        assertEquals(2, metrics.getBatchesWritten());
+        assertEquals(5000, metrics.getBatchLatencyMaxMicros(), 50);
+        // Gauges failing on a racy read report -1 instead of throwing
+        metrics.setQueueDepth(() -> {
+            throw new IllegalStateException();
+        });
+        assertEquals(-1, metrics.getQueueDepth());
+    }
+
+    @Test
+    public void testRegister() throws Exception {
+        IngestMetrics metrics = new IngestMetrics();
+        metrics.setPendingEntries(() -> 7);
+        metrics.register("IngestMetricsTest");
+        ObjectName name = metrics.getObjectName();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            metrics.pairCompleted();
+            assertEquals(1L, server.getAttribute(name, "PairsCompleted"));
+            assertEquals(7L, server.getAttribute(name, "PendingEntries"));
+            // A second registration under the name replaces the first
+            IngestMetrics replacement = new IngestMetrics();
+            replacement.register("IngestMetricsTest");
+            assertEquals(0L, server.getAttribute(name, "PairsCompleted"));
+            replacement.unregister();
+        } finally {
+            metrics.unregister();
+        }
+        assertFalse(server.isRegistered(name));
+    }
+}
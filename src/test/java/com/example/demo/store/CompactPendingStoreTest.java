@@ -0,0 +1,75 @@
+package com.example.demo.store;
+
+import com.example.demo.model.LogEntry;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CompactPendingStoreTest {
+
+    private LogEntry entry(String id, long timestamp) {
+        return LogEntry.builder().id(id).state(timestamp % 3 == 0 ? LogEntry.State.FINISHED : LogEntry.State.STARTED)
+                .timestamp(timestamp).type(timestamp % 2 == 0 ? "APPLICATION_LOG" : null).host("host" + timestamp % 5).build();
+    }
+
+    @Test
+    public void testRoundTrip() {
+        CompactPendingStore store = new CompactPendingStore();
+        store.put("scsmbstgra", LogEntry.builder().id("scsmbstgra").state(LogEntry.State.FINISHED)
+                .type("APPLICATION_LOG").host("12345").timestamp(1491377495217L).build());
+        store.put("idé", entry("idé", 4));
+
+        LogEntry found = store.get("scsmbstgra");
+        assertEquals("scsmbstgra", found.getId());
+        assertEquals(LogEntry.State.FINISHED, found.getState());
+        assertEquals("APPLICATION_LOG", found.getType());
+        assertEquals("12345", found.getHost());
+        assertEquals(1491377495217L, found.getTimestamp());
+        assertEquals(4, store.get("idé").getTimestamp());
+        assertEquals(2, store.size());
+        assertTrue(store.keySet().contains("idé"));
+
+        assertNotNull(store.remove("scsmbstgra"));
+        assertNull(store.get("scsmbstgra"));
+        assertEquals(1, store.size());
+    }
+
+    @Test
+    public void testBehavesLikeHashMap() {
+        Random random = new Random(5);
+        Map<String, LogEntry> expected = new HashMap<>();
+        CompactPendingStore store = new CompactPendingStore();
+        for (int i = 0; i < 200000; i++) {
+            String id = "id" + random.nextInt(20000);
+            switch (random.nextInt(3)) {
+                case 0:
+                    store.put(id, entry(id, i));
+                    expected.put(id, entry(id, i));
+                    break;
+                case 1:
+                    assertEquals(expected.remove(id) == null, store.remove(id) == null);
+                    break;
+                default:
+                    LogEntry found = store.get(id);
+                    LogEntry expectedFound = expected.get(id);
+                    assertEquals(expectedFound, found);
+            }
+            assertEquals(expected.size(), store.size());
+        }
+        assertEquals(expected, new HashMap<>(store));
+    }
+
+    @Test
+    public void testFootprint() {
+        CompactPendingStore store = new CompactPendingStore();
+        int n = 100000;
+        for (int i = 0; i < n; i++)
+            store.put("scsmbst" + i, entry("scsmbst" + i, i));
+        // A LogEntry, its id String and a HashMap node take 150+ bytes
+        assertTrue(store.footprintBytes() / n < 72, "bytes per entry " + store.footprintBytes() / n);
+    }
+}
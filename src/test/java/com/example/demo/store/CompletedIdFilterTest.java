@@ -0,0 +1,99 @@
+package com.example.demo.store;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CompletedIdFilterTest {
+
+    @Test
+    public void testNoFalseNegativesAcrossStages() {
+        CompletedIdFilter filter = new CompletedIdFilter(1000, 0.001, 1 << 20);
+        for (int i = 0; i < 20000; i++)
+            filter.add("id" + i);
+        for (int i = 0; i < 20000; i++)
+            assertTrue(filter.mightContain("id" + i));
+        // Ids taken for ones already added are not added again
+        assertTrue(filter.count() > 19900 && filter.count() <= 20000);
+        assertEquals(0, filter.getDropped());
+        assertTrue(filter.toString().contains("5 stages"), filter.toString());
+    }
+
+    @Test
+    public void testFalsePositiveRate() {
+        CompletedIdFilter filter = new CompletedIdFilter(10000, 0.01, 1 << 20);
+        for (int i = 0; i < 50000; i++)
+            filter.add("done-" + i);
+        int positives = 0;
+        for (int i = 0; i < 100000; i++) {
+            if (filter.mightContain("new-" + i))
+                positives++;
+        }
+        assertTrue(positives < 1000, positives + " false positives");
+    }
+
+    @Test
+    public void testRotatesWithinMaxBytes() {
+        long maxBytes = 64 * 1024;
+        CompletedIdFilter filter = new CompletedIdFilter(1000, 0.001, maxBytes);
+        for (int i = 0; i < 200000; i++) {
+            filter.add("id" + i);
+            assertTrue(filter.sizeBytes() <= maxBytes);
+        }
+        assertTrue(filter.getDropped() > 0);
+        assertTrue(filter.count() + filter.getDropped() <= 200000);
+        // The latest ids are still held
+        for (int i = 199000; i < 200000; i++)
+            assertTrue(filter.mightContain("id" + i));
+    }
+
+    @Test
+    public void testConfirm() {
+        CompletedIdFilter filter = new CompletedIdFilter(100, 0.001, 1 << 20);
+        filter.add("a");
+        filter.add("b");
+        filter.setConfirm("a"::equals);
+        assertTrue(filter.isCompleted("a"));
+        assertFalse(filter.isCompleted("b"));
+        assertFalse(filter.isCompleted("c"));
+        assertEquals(2, filter.getHits());
+        assertEquals(1, filter.getFalsePositives());
+    }
+
+    @Test
+    public void testConcurrentAdds() throws Exception {
+        CompletedIdFilter filter = new CompletedIdFilter(1000, 0.001, 1 << 22);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> adds = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                int thread = t;
+                adds.add(executor.submit(() -> {
+                    for (int i = 0; i < 25000; i++)
+                        filter.add(thread + "-" + i);
+                }));
+            }
+            for (Future<?> add : adds)
+                add.get();
+        } finally {
+            executor.shutdown();
+        }
+        for (int t = 0; t < 4; t++) {
+            for (int i = 0; i < 25000; i++)
+                assertTrue(filter.mightContain(t + "-" + i));
+        }
+    }
+
+    @Test
+    public void testInvalidArguments() {
+        assertThrows(IllegalArgumentException.class, () -> new CompletedIdFilter(0, 0.01, 1024));
+        assertThrows(IllegalArgumentException.class, () -> new CompletedIdFilter(100, 1, 1024));
+        assertThrows(IllegalArgumentException.class, () -> new CompletedIdFilter(100, 0.01, 0));
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.demo.store;
+
+import com.example.demo.model.LogEntry;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SpillingPendingStoreTest {
+
+    private LogEntry entry(String id, long timestamp) {
+        return LogEntry.builder().id(id).state(LogEntry.State.STARTED).timestamp(timestamp)
+                .type(timestamp % 2 == 0 ? "APPLICATION_LOG" : null).host("12345").build();
+    }
+
+    @Test
+    public void testSpillsPastBudgetAndFindsSpilledEntries() throws Exception {
+        File dir = Files.createTempDirectory("spill").toFile();
+        // Budget of roughly two entries
+        SpillingPendingStore store = new SpillingPendingStore(500, dir);
+        for (int i = 0; i < 100; i++)
+            store.put("id" + i, entry("id" + i, i));
+
+        assertEquals(100, store.size());
+        assertTrue(store.spilledSize() > 90);
+        assertEquals(1, dir.listFiles().length);
+
+        // Oldest entries went to disk and come back intact
+        LogEntry first = store.get("id0");
+        assertEquals("id0", first.getId());
+        assertEquals(LogEntry.State.STARTED, first.getState());
+        assertEquals(0, first.getTimestamp());
+        assertEquals("APPLICATION_LOG", first.getType());
+        assertEquals("12345", first.getHost());
+        assertNull(store.get("missing"));
+
+        assertEquals("id0", store.remove("id0").getId());
+        assertNull(store.get("id0"));
+        assertEquals(99, store.size());
+
+        // Orphans are listed from heap and disk
+        assertEquals(99, store.values().size());
+
+        store.close();
+        assertEquals(0, dir.listFiles().length);
+    }
+
+    @Test
+    public void testBehavesLikeHashMap() {
+        Random random = new Random(3);
+        Map<String, LogEntry> expected = new HashMap<>();
+        try (SpillingPendingStore store = new SpillingPendingStore(2000, null)) {
+            for (int i = 0; i < 50000; i++) {
+                String id = "id" + random.nextInt(3000);
+                switch (random.nextInt(3)) {
+                    case 0:
+                        LogEntry e = entry(id, i);
+                        LogEntry previous = store.put(id, e);
+                        LogEntry expectedPrevious = expected.put(id, e);
+                        assertEquals(expectedPrevious == null ? null : expectedPrevious.getTimestamp(),
+                                previous == null ? null : previous.getTimestamp());
+                        break;
+                    case 1:
+                        LogEntry removed = store.remove(id);
+                        LogEntry expectedRemoved = expected.remove(id);
+                        assertEquals(expectedRemoved == null, removed == null);
+                        break;
+                    default:
+                        LogEntry found = store.get(id);
+                        LogEntry expectedFound = expected.get(id);
+                        assertEquals(expectedFound == null ? null : expectedFound.getTimestamp(),
+                                found == null ? null : found.getTimestamp());
+                }
+                assertEquals(expected.size(), store.size());
+            }
+            assertEquals(expected.keySet(), store.keySet());
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.example.demo.stream;
+
+import com.example.demo.EventCorrelator;
+import com.example.demo.model.LogEntry;
+import com.example.demo.parse.LogEntryReader;
+import com.example.demo.store.MemoryPendingStore;
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LogEntryPublisherTest {
+
+    /**
+     * Records what it receives and only requests when told to
+     */
+    private static class RecordingSubscriber implements Subscriber<LogEntry> {
+        Subscription subscription;
+        final List<LogEntry> received = new ArrayList<>();
+        Throwable error;
+        boolean completed;
+
+        @Override
+        public void onSubscribe(Subscription s) {
+            subscription = s;
+        }
+
+        @Override
+        public void onNext(LogEntry entry) {
+            received.add(entry);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            error = t;
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+        }
+    }
+
+    private File file(String name) throws Exception {
+        return new File(this.getClass().getClassLoader().getResource(name).toURI());
+    }
+
+    private LogEntryPublisher publisher(String name, EventCorrelator correlator) throws Exception {
+        return new LogEntryPublisher(file(name), LogEntryReader.factory(LogEntryReader.STREAMING), correlator);
+    }
+
+    @Test
+    public void testEmitsOnDemand() throws Exception {
+        EventCorrelator correlator = new EventCorrelator();
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher("test.json", correlator).subscribe(subscriber);
+        // Nothing is read before the first request
+        assertTrue(subscriber.received.isEmpty());
+        assertEquals(0, correlator.getStore().size());
+
+        subscriber.subscription.request(1);
+        assertEquals(1, subscriber.received.size());
+        assertEquals("scsmbstgra", subscriber.received.get(0).getId());
+        assertEquals(5, subscriber.received.get(0).getDuration());
+        assertTrue(subscriber.received.get(0).isAlert());
+        assertFalse(subscriber.completed);
+
+        subscriber.subscription.request(2);
+        assertEquals(3, subscriber.received.size());
+        // The input is known to be exhausted once the last pair has been read ahead
+        assertTrue(subscriber.completed);
+        assertNull(subscriber.error);
+        assertEquals(0, correlator.getStore().size());
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher("test.json", new EventCorrelator()).subscribe(subscriber);
+        subscriber.subscription.request(1);
+        subscriber.subscription.cancel();
+        subscriber.subscription.request(5);
+        assertEquals(1, subscriber.received.size());
+        assertFalse(subscriber.completed);
+        assertNull(subscriber.error);
+    }
+
+    @Test
+    public void testInvalidInput() throws Exception {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher("invalid.json", new EventCorrelator()).subscribe(subscriber);
+        subscriber.subscription.request(1);
+        assertTrue(subscriber.error instanceof IOException);
+        assertTrue(subscriber.received.isEmpty());
+    }
+
+    @Test
+    public void testInvalidRequest() throws Exception {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher("test.json", new EventCorrelator()).subscribe(subscriber);
+        subscriber.subscription.request(0);
+        assertTrue(subscriber.error instanceof IllegalArgumentException);
+    }
+
+    @Test
+    public void testSingleSubscriber() throws Exception {
+        LogEntryPublisher publisher = publisher("test.json", new EventCorrelator());
+        RecordingSubscriber first = new RecordingSubscriber();
+        RecordingSubscriber second = new RecordingSubscriber();
+        publisher.subscribe(first);
+        publisher.subscribe(second);
+        assertNull(first.error);
+        assertTrue(second.error instanceof IllegalStateException);
+    }
+
+    @Test
+    public void testSinkSubscriber() throws Exception {
+        EventCorrelator correlator = new EventCorrelator();
+        List<LogEntry> written = new ArrayList<>();
+        // Batch of one, so every entry is requested from within onNext
+        SinkSubscriber subscriber = new SinkSubscriber(written::add, 1);
+        publisher("duplicate.json", correlator).subscribe(subscriber);
+        subscriber.await();
+        assertEquals(1, written.size());
+        assertEquals(1, subscriber.getWritten());
+        assertEquals(0, correlator.getStore().size());
+    }
+
+    @Test
+    public void testSinkFailure() {
+        String json = "{\"id\":\"a\",\"state\":\"STARTED\",\"timestamp\":1}{\"id\":\"a\",\"state\":\"FINISHED\",\"timestamp\":2}"
+                + "{\"id\":\"b\",\"state\":\"STARTED\",\"timestamp\":1}{\"id\":\"b\",\"state\":\"FINISHED\",\"timestamp\":2}";
+        EventCorrelator correlator = new EventCorrelator();
+        SinkSubscriber subscriber = new SinkSubscriber(entry -> {
+            throw new IllegalStateException("db down");
+        });
+        new LogEntryPublisher(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)),
+                LogEntryReader.factory(LogEntryReader.STREAMING), correlator).subscribe(subscriber);
+        IOException e = assertThrows(IOException.class, subscriber::await);
+        assertTrue(e.getCause() instanceof IllegalStateException);
+        // Cancelled after the first failure, so b was never read
+        assertFalse(correlator.getStore().containsKey("b"));
+    }
+
+    @Test
+    public void testPublishesTimeouts() throws Exception {
+        String json = "{\"id\":\"a\",\"state\":\"STARTED\",\"timestamp\":1}{\"id\":\"b\",\"state\":\"STARTED\",\"timestamp\":5}"
+                + "{\"id\":\"b\",\"state\":\"FINISHED\",\"timestamp\":8}{\"id\":\"c\",\"state\":\"STARTED\",\"timestamp\":500}";
+        EventCorrelator correlator = new EventCorrelator(new MemoryPendingStore(), 100);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        new LogEntryPublisher(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)),
+                LogEntryReader.factory(LogEntryReader.STREAMING), correlator).subscribe(subscriber);
+        subscriber.subscription.request(Long.MAX_VALUE);
+
+        // b completes, then c moves the watermark past a, which is published as a timeout
+        assertTrue(subscriber.completed);
+        assertEquals(2, subscriber.received.size());
+        assertEquals("b", subscriber.received.get(0).getId());
+        assertEquals("a", subscriber.received.get(1).getId());
+        assertTrue(subscriber.received.get(1).isAlert());
+        assertEquals(499, subscriber.received.get(1).getDuration());
+        assertEquals(1, correlator.getStore().size());
+    }
+}